@@ -28,6 +28,9 @@ import com.google.gson.JsonParser;
 import com.google.wave.api.JsonRpcConstant.ParamsProperty;
 import com.google.wave.api.JsonRpcConstant.RequestProperty;
 
+import java.io.IOException;
+import java.io.PushbackReader;
+import java.io.Reader;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -156,6 +159,22 @@ public class RobotSerializer {
     return getGson(protocolVersion).toJson(object, type);
   }
 
+  /**
+   * Serializes the given object as JSON directly into the given output,
+   * without first building the whole JSON string in memory.
+   *
+   * @param <T> the generic type of the given object.
+   * @param object the object to serialize.
+   * @param type the specific genericized type of {@code object}.
+   * @param protocolVersion the version of the serializer to use.
+   * @param output the output to write the JSON representation of
+   *     {@code object} to.
+   */
+  public <T> void serialize(T object, Type type, ProtocolVersion protocolVersion,
+      Appendable output) {
+    getGson(protocolVersion).toJson(object, type, output);
+  }
+
   /**
    * Parses the given JSON string into a {@link JsonElement}.
    *
@@ -182,9 +201,6 @@ public class RobotSerializer {
       return Collections.emptyList();
     }
 
-    // Parse incoming operations.
-    JsonArray requestsAsJsonArray = null;
-
     JsonElement json = null;
     try {
       json = jsonParser.parse(jsonString);
@@ -192,7 +208,50 @@ public class RobotSerializer {
       throw new InvalidRequestException("Couldn't deserialize incoming operations: " +
           jsonString, null, e);
     }
+    return deserializeOperations(json);
+  }
+
+  /**
+   * Deserializes operations straight from a character stream, so that the
+   * request body never has to be held in memory as a single string. This
+   * method supports only the new JSON-RPC style operations.
+   *
+   * @param jsonReader the reader to consume the operations JSON from, it is
+   *     read until the end of the stream.
+   * @return a list of {@link OperationRequest},that represents the operations.
+   * @throws InvalidRequestException if there is a problem reading or
+   *     deserializing the operations.
+   */
+  public List<OperationRequest> deserializeOperations(Reader jsonReader)
+      throws InvalidRequestException {
+    PushbackReader reader = new PushbackReader(jsonReader);
+    JsonElement json = null;
+    try {
+      if (isEmptyOrWhitespace(reader)) {
+        return Collections.emptyList();
+      }
+      json = jsonParser.parse(reader);
+    } catch (IOException e) {
+      throw new InvalidRequestException("Couldn't read incoming operations", null, e);
+    } catch (JsonParseException e) {
+      throw new InvalidRequestException("Couldn't deserialize incoming operations", null, e);
+    }
+    return deserializeOperations(json);
+  }
 
+  /**
+   * Converts the parsed operations JSON into a list of
+   * {@link OperationRequest}.
+   *
+   * @param json the parsed operations, either a single operation or an array
+   *     of operations.
+   * @return a list of {@link OperationRequest},that represents the operations.
+   * @throws InvalidRequestException if one of the operations is invalid.
+   */
+  private List<OperationRequest> deserializeOperations(JsonElement json)
+      throws InvalidRequestException {
+    // Parse incoming operations.
+    JsonArray requestsAsJsonArray = null;
     if (json.isJsonArray()) {
       requestsAsJsonArray = json.getAsJsonArray();
     } else {
@@ -327,6 +386,27 @@ public class RobotSerializer {
     }
   }
 
+  /**
+   * Skips leading whitespace in the given reader and checks whether anything
+   * is left to read. The first non-whitespace character, if any, is pushed
+   * back so the reader can be parsed as usual.
+   *
+   * @param reader the reader to check.
+   * @return {@code true} if the reader holds nothing but whitespace.
+   * @throws IOException if the reader fails.
+   */
+  private static boolean isEmptyOrWhitespace(PushbackReader reader) throws IOException {
+    int c;
+    do {
+      c = reader.read();
+    } while (c != -1 && Character.isWhitespace(c));
+    if (c == -1) {
+      return true;
+    }
+    reader.unread(c);
+    return false;
+  }
+
   /**
    * Checks whether the given operation method is of a robot notify operation.
    *
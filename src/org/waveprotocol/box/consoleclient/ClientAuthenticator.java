@@ -65,25 +65,8 @@ public class ClientAuthenticator {
    * @throws IOException An error occurred contacting the server.
    */
   public HttpCookie authenticate(String address, char[] password) throws IOException {
-    HttpURLConnection connection = (HttpURLConnection) endpoint.openConnection();
+    HttpURLConnection connection = post(endpoint, address, password);
     try {
-      connection.setRequestMethod("POST");
-      connection.setDoOutput(true);
-      connection.setAllowUserInteraction(false);
-      connection.setInstanceFollowRedirects(false);
-
-      PercentEscaper escaper = new PercentEscaper(PercentEscaper.SAFECHARS_URLENCODER, true);
-      String data = "address=" + escaper.escape(address) + "&" + "password="
-          + escaper.escape(new String(password));
-
-      OutputStream out = connection.getOutputStream();
-      Writer writer = new OutputStreamWriter(out, "UTF-8");
-      try {
-        writer.write(data);
-      } finally {
-        writer.close();
-      }
-
       String cookieHeader = connection.getHeaderField("Set-Cookie");
       List<HttpCookie> cookies;
       if (cookieHeader != null) {
@@ -98,4 +81,57 @@ public class ClientAuthenticator {
       connection.disconnect();
     }
   }
+
+  /**
+   * Register a new user with a password.
+   *
+   * @param registrationEndpoint The server registration endpoint, eg "http://localhost:9898" +
+   *        "/auth/register"
+   * @param address The user's address. Should be fully qualified (user@example.com)
+   * @param password The user's password.
+   * @return true if the user was registered, false if the server refused, for example because the
+   *         user already exists.
+   * @throws IOException An error occurred contacting the server.
+   */
+  public static boolean register(String registrationEndpoint, String address, char[] password)
+      throws IOException {
+    HttpURLConnection connection = post(new URL(registrationEndpoint), address, password);
+    try {
+      return connection.getResponseCode() == HttpURLConnection.HTTP_OK;
+    } finally {
+      connection.disconnect();
+    }
+  }
+
+  /**
+   * Posts an address and a password to an endpoint.
+   *
+   * @return the connection, which the caller must disconnect.
+   */
+  private static HttpURLConnection post(URL url, String address, char[] password)
+      throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+    connection.setRequestMethod("POST");
+    connection.setDoOutput(true);
+    connection.setAllowUserInteraction(false);
+    connection.setInstanceFollowRedirects(false);
+
+    PercentEscaper escaper = new PercentEscaper(PercentEscaper.SAFECHARS_URLENCODER, true);
+    String data = "address=" + escaper.escape(address) + "&" + "password="
+        + escaper.escape(new String(password));
+
+    try {
+      OutputStream out = connection.getOutputStream();
+      Writer writer = new OutputStreamWriter(out, "UTF-8");
+      try {
+        writer.write(data);
+      } finally {
+        writer.close();
+      }
+    } catch (IOException e) {
+      connection.disconnect();
+      throw e;
+    }
+    return connection;
+  }
 }
@@ -24,6 +24,7 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
 import com.google.protobuf.RpcCallback;
 import com.google.protobuf.RpcController;
@@ -89,11 +90,15 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.Queue;
 import java.util.Set;
-import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Handler;
 import java.util.logging.SimpleFormatter;
 import java.util.logging.StreamHandler;
@@ -137,6 +142,22 @@ public class ClientBackend {
     ProtocolWaveClientRpc.Interface createServerInterface(ClientRpcChannel channel);
   }
 
+  /**
+   * Factory for RPC objects talking to a server through a web socket.
+   */
+  public static class WebSocketRpcObjectFactory implements RpcObjectFactory {
+    @Override
+    public ClientRpcChannel createClientChannel(InetSocketAddress serverAddress)
+        throws IOException {
+      return new WebSocketClientRpcChannel(serverAddress);
+    }
+
+    @Override
+    public ProtocolWaveClientRpc.Interface createServerInterface(ClientRpcChannel channel) {
+      return ProtocolWaveClientRpc.newStub(channel);
+    }
+  }
+
   /**
    * The default ClientBackend factory.
    */
@@ -227,6 +248,12 @@ public class ClientBackend {
 
   private static final Log LOG = Log.get(ClientBackend.class);
 
+  /**
+   * Maximum number of events delivered by one task on the event executor, so
+   * that a busy backend does not starve the others sharing the executor.
+   */
+  private static final int MAX_EVENTS_PER_DELIVERY = 100;
+
   private static final ByteArrayOutputStream logOutput = new ByteArrayOutputStream();
   static {
     LOG.getLogger().addHandler(new StreamHandler(logOutput, new SimpleFormatter()));
@@ -241,13 +268,14 @@ public class ClientBackend {
   private final ParticipantId userId;
 
   /** Waves this backend is aware of. */
-  private final Map<WaveId, ClientWaveView> waves = Maps.newHashMap();
+  private final Map<WaveId, ClientWaveView> waves = Maps.newConcurrentMap();
 
   /** RPC controllers for the open wave connections. */
-  private final Map<WaveId, RpcController> waveControllers = Maps.newHashMap();
+  private final Map<WaveId, RpcController> waveControllers = Maps.newConcurrentMap();
 
   /** Listeners waiting on wave updates. */
-  private final Set<WaveletOperationListener> waveletOperationListeners = Sets.newHashSet();
+  private final Set<WaveletOperationListener> waveletOperationListeners =
+      new CopyOnWriteArraySet<WaveletOperationListener>();
 
   /** Id generator used for this (server, user) pair. */
   private final IdGenerator idGenerator;
@@ -264,9 +292,51 @@ public class ClientBackend {
   /** The user's authentication token. Null until authentication is complete. */
   private HttpCookie authenticationToken;
 
-  /** Producer/consumer event queue. */
-  private final BlockingQueue<WaveletEventData> eventQueue =
-      new LinkedBlockingQueue<WaveletEventData>();
+  /** Events waiting to be delivered to the listeners. */
+  private final Queue<WaveletEventData> eventQueue = new ConcurrentLinkedQueue<WaveletEventData>();
+
+  /** Executor the events are delivered on, possibly shared with other backends. */
+  private final Executor eventExecutor;
+
+  /** Whether a task delivering the queued events is scheduled or running. */
+  private final AtomicBoolean deliveryScheduled = new AtomicBoolean();
+
+  /** Guards {@link #pendingEvents}. */
+  private final Object pendingEventsLock = new Object();
+
+  /** Number of events queued or being delivered. */
+  private int pendingEvents = 0;
+
+  /** Delivers the queued events, in order, to the listeners. */
+  private final Runnable deliveryTask = new Runnable() {
+    @Override
+    public void run() {
+      try {
+        for (int i = 0; i < MAX_EVENTS_PER_DELIVERY; i++) {
+          WaveletEventData nextEvent = eventQueue.poll();
+          if (nextEvent == null) {
+            break;
+          }
+          try {
+            deliverEvent(nextEvent);
+          } finally {
+            eventDelivered();
+          }
+        }
+      } finally {
+        deliveryScheduled.set(false);
+        if (!eventQueue.isEmpty()) {
+          scheduleDelivery();
+        }
+      }
+    }
+  };
+
+  /**
+   * Whether to open the index wave and every wave it lists. Otherwise, waves are
+   * only opened through {@link #openWave(WaveId)}.
+   */
+  private final boolean openIndex;
 
   /** For creating hashes when the client creates a wavelet. */
   private final HashedVersionFactory hashedVersionFactory;
@@ -284,18 +354,8 @@ public class ClientBackend {
    * @throws IOException if we can't connect to the server.
    */
   public ClientBackend(final String userAtDomain, String server) throws IOException {
-    this(userAtDomain, server,
-        new RpcObjectFactory() {
-          @Override
-          public ClientRpcChannel createClientChannel(InetSocketAddress serverAddress) throws IOException {
-            return new WebSocketClientRpcChannel(serverAddress);
-          }
-
-          @Override
-          public ProtocolWaveClientRpc.Interface createServerInterface(ClientRpcChannel channel) {
-            return ProtocolWaveClientRpc.newStub(channel);
-          }
-        }, new HashedVersionZeroFactoryImpl(URI_CODEC),
+    this(userAtDomain, server, new WebSocketRpcObjectFactory(),
+        new HashedVersionZeroFactoryImpl(URI_CODEC),
         new ClientAuthenticator("http://" + server + SessionManager.SIGN_IN_URL));
   }
 
@@ -313,6 +373,32 @@ public class ClientBackend {
       RpcObjectFactory rpcObjectFactory, HashedVersionFactory hashedVersionFactory,
       ClientAuthenticator authenticator)
       throws IOException {
+    this(userAtDomain, server, rpcObjectFactory, hashedVersionFactory, authenticator,
+        Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+            .setNameFormat("ClientBackend-" + userAtDomain + "-%d")
+            .setDaemon(true)
+            .build()),
+        true);
+  }
+
+  /**
+   * Create new client backend tied permanently to a given server and user,
+   * delivering its events on the given executor. Many backends can share an
+   * executor: the events of each backend are still delivered one at a time, in
+   * order.
+   *
+   * @param userAtDomain the user and their domain (for example, foo@bar.org).
+   * @param server to connect to (for example, acmewave.com:9898).
+   * @param rpcObjectFactory to use for creating RPC objects.
+   * @param eventExecutor the executor to deliver the events to the listeners on.
+   * @param openIndex whether to open the index wave and every wave it lists, or
+   *        only the waves opened with {@link #openWave(WaveId)}.
+   * @throws IOException if we can't connect to the server.
+   */
+  public ClientBackend(final String userAtDomain, String server,
+      RpcObjectFactory rpcObjectFactory, HashedVersionFactory hashedVersionFactory,
+      ClientAuthenticator authenticator, Executor eventExecutor, boolean openIndex)
+      throws IOException {
     Preconditions.checkNotNull(server, "Server not specified");
 
     this.userId = ParticipantId.ofUnsafe(userAtDomain);
@@ -328,32 +414,8 @@ public class ClientBackend {
     this.hashedVersionFactory = hashedVersionFactory;
     this.contextFactory = new BasicWaveletOperationContextFactory(this.userId);
     this.authenticator = authenticator;
-
-    // Start pushing events to listeners in a separate thread.
-    new Thread() {
-      @Override
-      public void run() {
-        for (;;) {
-          try {
-            WaveletEventData nextEvent = eventQueue.take();
-            if (nextEvent.isDeltaSequenceEnd()) {
-              for (WaveletOperationListener listener : waveletOperationListeners) {
-                listener.onDeltaSequenceEnd(nextEvent.getWaveletData());
-              }
-            } else if (nextEvent.isCommitNotice()) {
-              for (WaveletOperationListener listener : waveletOperationListeners) {
-                listener.onCommitNotice(nextEvent.getWaveletData(), nextEvent.getHashedVersion());
-              }
-            } else {
-              notifyWaveletOperationListeners(nextEvent.getAuthor(), nextEvent.getWaveletData(),
-                  nextEvent.getWaveletOperation());
-            }
-          } catch (InterruptedException e) {
-            // TODO: stop?
-          }
-        }
-      }
-    }.start();
+    this.eventExecutor = eventExecutor;
+    this.openIndex = openIndex;
 
     // Connect to the specfied server address.
     this.rpcChannel = rpcObjectFactory.createClientChannel(NetUtils.parseHttpAddress(server));
@@ -402,8 +464,10 @@ public class ClientBackend {
 
     LOG.info("Authenticated.");
 
-    // Opening the index wave will kickstart the process of receiving waves.
-    openWave(INDEX_WAVE_ID, "");
+    if (openIndex) {
+      // Opening the index wave will kickstart the process of receiving waves.
+      openWave(INDEX_WAVE_ID, "");
+    }
 
     return true;
   }
@@ -418,6 +482,14 @@ public class ClientBackend {
     return logOutput.toString();
   }
 
+  /**
+   * @return the user's authentication cookie, or null if the user is not
+   *         authenticated.
+   */
+  public HttpCookie getAuthenticationToken() {
+    return authenticationToken;
+  }
+
   /**
    * Clear the log.
    */
@@ -440,6 +512,30 @@ public class ClientBackend {
     waveControllers.clear();
   }
 
+  /**
+   * Open the conversation of a wave, unless it is already open. This method will return
+   * immediately and updates will be delivered internally from the RPC interface, and externally to
+   * {@link WaveletOperationListener}s.
+   *
+   * @param waveId of wave to open
+   * @return true if the wave was opened, false if it was already open
+   */
+  public synchronized boolean openWave(WaveId waveId) {
+    if (waveControllers.containsKey(waveId)) {
+      return false;
+    }
+    openWave(waveId, ClientUtils.getConversationRootId(waveId).getId());
+    return true;
+  }
+
+  /**
+   * @param waveId of the wave
+   * @return true if updates to the wave are being received
+   */
+  public boolean isWaveOpen(WaveId waveId) {
+    return waveControllers.containsKey(waveId);
+  }
+
   /**
    * Open a wave.  This method will return immediately and updates will be delivered internally
    * from the RPC interface, and externally to {@link WaveletOperationListener}s.
@@ -448,7 +544,7 @@ public class ClientBackend {
    * @param waveletIdPrefix filter such that the server will send wavelet updates for ids that
    * match any of this prefix
    */
-  private void openWave(WaveId waveId, String waveletIdPrefix) {
+  private synchronized void openWave(final WaveId waveId, String waveletIdPrefix) {
     if (waveControllers.containsKey(waveId)) {
       throw new IllegalArgumentException(waveId + " is already open");
     } else {
@@ -475,6 +571,9 @@ public class ClientBackend {
           @Override public void run(ProtocolWaveletUpdate update) {
             if (update == null) {
               LOG.warning("RPC failed: " + rpcController.errorText());
+            } else if (waveControllers.get(waveId) != rpcController) {
+              // The backend was shut down, updates still in flight are stale.
+              LOG.fine("Ignoring update to closed wave " + waveId);
             } else {
               receiveWaveletUpdate(update);
             }
@@ -503,7 +602,7 @@ public class ClientBackend {
    * @param callback callback invoked when the server rpc is complete
    * @return the {@link ClientWaveView} created
    */
-  private ClientWaveView createConversationWave(WaveId newWaveId,
+  public ClientWaveView createConversationWave(WaveId newWaveId,
       SuccessFailCallback<ProtocolSubmitResponse, String> callback) {
     ClientWaveView waveView = createWave(newWaveId);
     WaveletId waveletId = getIdGenerator().newConversationRootWaveletId();
@@ -685,8 +784,50 @@ public class ClientBackend {
     events.add(new WaveletEventData(wavelet));
 
     // Push all events to the eventQueue.
-    for (WaveletEventData waveletEventData : events) {
-      eventQueue.offer(waveletEventData);
+    synchronized (pendingEventsLock) {
+      pendingEvents += events.size();
+    }
+    eventQueue.addAll(events);
+    scheduleDelivery();
+  }
+
+  /**
+   * Schedules the delivery of the queued events, unless it is already scheduled.
+   */
+  private void scheduleDelivery() {
+    if (deliveryScheduled.compareAndSet(false, true)) {
+      eventExecutor.execute(deliveryTask);
+    }
+  }
+
+  /**
+   * Notifies the listeners of an event.
+   */
+  private void deliverEvent(WaveletEventData event) {
+    if (event.isDeltaSequenceEnd()) {
+      for (WaveletOperationListener listener : waveletOperationListeners) {
+        listener.onDeltaSequenceEnd(event.getWaveletData());
+      }
+    } else if (event.isCommitNotice()) {
+      for (WaveletOperationListener listener : waveletOperationListeners) {
+        listener.onCommitNotice(event.getWaveletData(), event.getHashedVersion());
+      }
+    } else {
+      notifyWaveletOperationListeners(event.getAuthor(), event.getWaveletData(),
+          event.getWaveletOperation());
+    }
+  }
+
+  /**
+   * Records that an event has been delivered, waking up the threads waiting for
+   * all events to be delivered.
+   */
+  private void eventDelivered() {
+    synchronized (pendingEventsLock) {
+      pendingEvents--;
+      if (pendingEvents == 0) {
+        pendingEventsLock.notifyAll();
+      }
     }
   }
 
@@ -853,10 +994,7 @@ public class ClientBackend {
     List<IndexEntry> indexEntries = IndexWave.getIndexEntries(indexWave.getWavelets());
 
     for (IndexEntry indexEntry : indexEntries) {
-      if (!waveControllers.containsKey(indexEntry.getWaveId())) {
-        WaveId waveId = indexEntry.getWaveId();
-        openWave(waveId, ClientUtils.getConversationRootId(waveId).getId());
-      }
+      openWave(indexEntry.getWaveId());
     }
   }
 
@@ -947,12 +1085,19 @@ public class ClientBackend {
   }
 
   /**
-   * Waits until all accumulated events have been processed in the events thread.
+   * Waits until all accumulated events have been delivered to the listeners.
    */
   @VisibleForTesting
   public void waitForAccumulatedEventsToProcess() {
-    while (!eventQueue.isEmpty()) {
-      Thread.yield();
+    synchronized (pendingEventsLock) {
+      while (pendingEvents > 0) {
+        try {
+          pendingEventsLock.wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
     }
   }
 
@@ -0,0 +1,256 @@
+/**
+ * Copyright 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.waveprotocol.box.consoleclient.load;
+
+import com.google.common.base.Preconditions;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of latencies in the style of HdrHistogram: values are counted in
+ * buckets that grow exponentially, each split into linear sub-buckets, so that
+ * every recorded value is kept with a bounded relative error (under 1%) in a
+ * fixed amount of memory, whatever the range of the values.
+ *
+ * Values are recorded in microseconds. Recording is thread-safe and lock-free,
+ * so that one histogram can be shared by many simulated users.
+ */
+public final class LatencyHistogram {
+
+  /** Number of bits of precision kept for each value. */
+  private static final int SUB_BUCKET_BITS = 7;
+
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  private static final int SUB_BUCKET_HALF_COUNT = SUB_BUCKET_COUNT / 2;
+
+  /** Enough buckets for any non-negative long. */
+  private static final int BUCKET_COUNT =
+      SUB_BUCKET_COUNT + (63 - SUB_BUCKET_BITS + 1) * SUB_BUCKET_HALF_COUNT;
+
+  /** The percentiles reported by {@link #report}. */
+  private static final double[] REPORTED_PERCENTILES = {50, 90, 99, 99.9};
+
+  private final String name;
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+  private final AtomicLong totalCount = new AtomicLong();
+  private final AtomicLong totalMicros = new AtomicLong();
+  private final AtomicLong maxMicros = new AtomicLong();
+
+  /**
+   * @param name the name of the measured latency, used in the reports.
+   */
+  public LatencyHistogram(String name) {
+    this.name = name;
+  }
+
+  /**
+   * @return the name of the measured latency.
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Records a latency.
+   *
+   * @param nanos the latency, in nanoseconds. Negative latencies are recorded
+   *        as zero.
+   */
+  public void recordNanos(long nanos) {
+    record(Math.max(0, nanos) / 1000);
+  }
+
+  /**
+   * Records a latency.
+   *
+   * @param micros the latency, in microseconds.
+   */
+  public void record(long micros) {
+    Preconditions.checkArgument(micros >= 0, "Negative latency: %s", micros);
+    counts.incrementAndGet(bucketIndex(micros));
+    totalCount.incrementAndGet();
+    totalMicros.addAndGet(micros);
+    long max = maxMicros.get();
+    while (micros > max && !maxMicros.compareAndSet(max, micros)) {
+      max = maxMicros.get();
+    }
+  }
+
+  /**
+   * @return the number of recorded latencies.
+   */
+  public long getCount() {
+    return totalCount.get();
+  }
+
+  /**
+   * @return the largest recorded latency in microseconds, or 0 if none.
+   */
+  public long getMax() {
+    return maxMicros.get();
+  }
+
+  /**
+   * @return the mean of the recorded latencies in microseconds, or 0 if none.
+   */
+  public double getMean() {
+    long count = totalCount.get();
+    return count == 0 ? 0 : (double) totalMicros.get() / count;
+  }
+
+  /**
+   * Returns the latency under which the given percentage of the recorded
+   * latencies fall, as the highest value equivalent to it at the precision of
+   * the histogram.
+   *
+   * @param percentile between 0 and 100.
+   * @return the latency in microseconds, or 0 if nothing was recorded.
+   */
+  public long getValueAtPercentile(double percentile) {
+    Preconditions.checkArgument(percentile >= 0 && percentile <= 100,
+        "Percentile out of range: %s", percentile);
+    long count = totalCount.get();
+    if (count == 0) {
+      return 0;
+    }
+    long target = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+    long seen = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      seen += counts.get(i);
+      if (seen >= target) {
+        return Math.min(highestEquivalentValue(i), maxMicros.get());
+      }
+    }
+    return maxMicros.get();
+  }
+
+  /**
+   * Prints a one line summary of the histogram, in milliseconds.
+   */
+  public void report(PrintStream out) {
+    StringBuilder line = new StringBuilder();
+    line.append(String.format("%-24s count=%-8d mean=%.2fms", name, getCount(), getMean() / 1000));
+    for (double percentile : REPORTED_PERCENTILES) {
+      line.append(String.format(" p%s=%.2fms", formatPercentile(percentile),
+          getValueAtPercentile(percentile) / 1000.0));
+    }
+    line.append(String.format(" max=%.2fms", getMax() / 1000.0));
+    out.println(line);
+  }
+
+  /**
+   * Prints the percentile distribution of the histogram in milliseconds, in the
+   * format of HdrHistogram so that it can be plotted with the same tools.
+   *
+   * @param ticksPerHalfDistance number of reported percentiles between 0 and
+   *        50%, between 50% and 75%, and so on.
+   */
+  public void outputPercentileDistribution(PrintStream out, int ticksPerHalfDistance) {
+    out.println(String.format("%12s %14s %10s %14s", "Value", "Percentile", "TotalCount",
+        "1/(1-Percentile)"));
+    out.println();
+    long count = totalCount.get();
+    if (count == 0) {
+      return;
+    }
+    double percentileTicks = 0;
+    double halfDistance = 50;
+    double tick = halfDistance / ticksPerHalfDistance;
+    double lastPercentile = -1;
+    while (true) {
+      long value = getValueAtPercentile(percentileTicks);
+      double percentile = percentileOfValue(value);
+      if (percentile != lastPercentile) {
+        printDistributionLine(out, value, percentile);
+        lastPercentile = percentile;
+      }
+      if (percentile >= 100) {
+        break;
+      }
+      percentileTicks += tick;
+      if (percentileTicks >= 100 - halfDistance) {
+        halfDistance /= 2;
+        tick = halfDistance / ticksPerHalfDistance;
+      }
+      if (percentileTicks >= 100 || halfDistance < 1e-9) {
+        percentileTicks = 100;
+      }
+    }
+    out.println(String.format("#[Mean    = %12.3f, Max = %12.3f]", getMean() / 1000,
+        getMax() / 1000.0));
+    out.println(String.format("#[Total count    = %12d]", count));
+  }
+
+  private void printDistributionLine(PrintStream out, long value, double percentile) {
+    long countAtValue = Math.round(percentile / 100 * totalCount.get());
+    if (percentile < 100) {
+      out.println(String.format("%12.3f %2.12f %10d %14.2f", value / 1000.0, percentile / 100,
+          countAtValue, 1 / (1 - percentile / 100)));
+    } else {
+      out.println(String.format("%12.3f %2.12f %10d", value / 1000.0, percentile / 100,
+          countAtValue));
+    }
+  }
+
+  /**
+   * @return the percentage of the recorded latencies that are at most the
+   *         given value.
+   */
+  private double percentileOfValue(long micros) {
+    long seen = 0;
+    long count = totalCount.get();
+    int last = bucketIndex(micros);
+    for (int i = 0; i <= last; i++) {
+      seen += counts.get(i);
+    }
+    return Math.min(100, 100.0 * seen / count);
+  }
+
+  /**
+   * Returns the index of the bucket counting the given value. Values below
+   * {@link #SUB_BUCKET_COUNT} have a bucket of their own; above, each power of
+   * two is split into {@link #SUB_BUCKET_HALF_COUNT} buckets.
+   */
+  static int bucketIndex(long value) {
+    if (value < SUB_BUCKET_COUNT) {
+      return (int) value;
+    }
+    int shift = (63 - Long.numberOfLeadingZeros(value)) - (SUB_BUCKET_BITS - 1);
+    int subBucket = (int) (value >>> shift);
+    return shift * SUB_BUCKET_HALF_COUNT + subBucket;
+  }
+
+  /**
+   * Returns the highest value counted by the given bucket.
+   */
+  static long highestEquivalentValue(int index) {
+    if (index < SUB_BUCKET_COUNT) {
+      return index;
+    }
+    int shift = index / SUB_BUCKET_HALF_COUNT - 1;
+    long subBucket = index % SUB_BUCKET_HALF_COUNT + SUB_BUCKET_HALF_COUNT;
+    return ((subBucket + 1) << shift) - 1;
+  }
+
+  private static String formatPercentile(double percentile) {
+    return percentile == Math.rint(percentile)
+        ? Long.toString((long) percentile) : Double.toString(percentile);
+  }
+}
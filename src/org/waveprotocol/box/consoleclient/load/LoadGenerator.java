@@ -0,0 +1,279 @@
+/**
+ * Copyright 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.waveprotocol.box.consoleclient.load;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.waveprotocol.box.consoleclient.ClientAuthenticator;
+import org.waveprotocol.box.consoleclient.ClientBackend;
+import org.waveprotocol.box.server.authentication.SessionManager;
+import org.waveprotocol.wave.model.id.IdURIEncoderDecoder;
+import org.waveprotocol.wave.model.version.HashedVersionFactory;
+import org.waveprotocol.wave.model.version.HashedVersionZeroFactoryImpl;
+import org.waveprotocol.wave.model.wave.ParticipantId;
+import org.waveprotocol.wave.util.escapers.jvm.JavaUrlCodec;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A headless load generator, which simulates many users of a wave server in
+ * one JVM. Each user has its own {@link ClientBackend} connected to the server,
+ * and acts according to a {@link LoadScript}: creating and opening waves,
+ * typing bursts, adding participants and searching.
+ *
+ * The events of all the backends and the actions of all the users run on one
+ * shared executor. Like the web client, the users find their waves by searching
+ * rather than through the index wave, and the backends only open the waves that
+ * their users open, so that thousands of users fit in a JVM.
+ *
+ * The generator reports the submit-to-ack latency, the update fan-out delay,
+ * the open latency and the search latency as percentiles of
+ * {@link LatencyHistogram}s. Usage:
+ *
+ * <pre>
+ * java -cp waveinabox-client-console.jar \
+ *     org.waveprotocol.box.consoleclient.load.LoadGenerator \
+ *     localhost:9898 example.com --users=1000 --duration=300 --register
+ * </pre>
+ */
+public final class LoadGenerator {
+
+  private static final String USAGE =
+      "usage: LoadGenerator <server host:port> <wave domain> [options]\n"
+      + "  --users=N          number of simulated users (default 100)\n"
+      + "  --duration=S       seconds to run for once all users are started (default 60)\n"
+      + "  --ramp=S           seconds over which the users are started (default 10)\n"
+      + "  --threads=N        threads of the shared event loop (default 2 per processor)\n"
+      + "  --io-threads=N     threads for blocking requests such as searches (default 16)\n"
+      + "  --script=SCRIPT    behaviour of the users (default " + LoadScript.DEFAULT_SCRIPT + ")\n"
+      + "  --prefix=NAME      prefix of the user names (default loaduser)\n"
+      + "  --password=PASS    password of the users (default empty)\n"
+      + "  --register         register the users before connecting\n"
+      + "  --report=S         seconds between interim reports (default 10)\n"
+      + "  --distributions    print the full percentile distributions at the end\n"
+      + "  --seed=N           seed of the randomness of the users\n";
+
+  private final String server;
+  private final String domain;
+  private final int userCount;
+  private final long durationSeconds;
+  private final long rampSeconds;
+  private final int threads;
+  private final int ioThreads;
+  private final LoadScript script;
+  private final String userPrefix;
+  private final char[] password;
+  private final boolean register;
+  private final long reportSeconds;
+  private final boolean distributions;
+  private final long seed;
+
+  private final LoadMetrics metrics = new LoadMetrics();
+
+  private LoadGenerator(String server, String domain, Map<String, String> flags) {
+    this.server = server;
+    this.domain = domain;
+    this.userCount = intFlag(flags, "users", 100);
+    this.durationSeconds = intFlag(flags, "duration", 60);
+    this.rampSeconds = intFlag(flags, "ramp", 10);
+    this.threads = intFlag(flags, "threads", 2 * Runtime.getRuntime().availableProcessors());
+    this.ioThreads = intFlag(flags, "io-threads", 16);
+    this.script = LoadScript.parse(
+        flags.containsKey("script") ? flags.remove("script") : LoadScript.DEFAULT_SCRIPT);
+    this.userPrefix = flags.containsKey("prefix") ? flags.remove("prefix") : "loaduser";
+    this.password = (flags.containsKey("password") ? flags.remove("password") : "").toCharArray();
+    this.register = flags.remove("register") != null;
+    this.reportSeconds = intFlag(flags, "report", 10);
+    this.distributions = flags.remove("distributions") != null;
+    this.seed = flags.containsKey("seed")
+        ? Long.parseLong(flags.remove("seed")) : System.nanoTime();
+    if (!flags.isEmpty()) {
+      throw new IllegalArgumentException("Unknown options: " + flags.keySet());
+    }
+    if (userCount < 1 || threads < 1 || ioThreads < 1 || reportSeconds < 1) {
+      throw new IllegalArgumentException("Counts must be positive");
+    }
+  }
+
+  private static int intFlag(Map<String, String> flags, String name, int defaultValue) {
+    String value = flags.remove(name);
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      int result = Integer.parseInt(value);
+      if (result >= 0) {
+        return result;
+      }
+    } catch (NumberFormatException e) {
+      // Fall through.
+    }
+    throw new IllegalArgumentException("Invalid value for --" + name + ": " + value);
+  }
+
+  /**
+   * Connects the users, runs them for the configured duration and reports the
+   * measurements.
+   */
+  private void run(PrintStream out) throws InterruptedException {
+    ScheduledExecutorService eventLoop = new ScheduledThreadPoolExecutor(threads,
+        new ThreadFactoryBuilder().setNameFormat("LoadGenerator-%d").setDaemon(true).build());
+    ExecutorService io = Executors.newFixedThreadPool(ioThreads,
+        new ThreadFactoryBuilder().setNameFormat("LoadGenerator-io-%d").setDaemon(true).build());
+
+    List<ParticipantId> population = Lists.newArrayListWithCapacity(userCount);
+    for (int i = 0; i < userCount; i++) {
+      population.add(ParticipantId.ofUnsafe(userPrefix + i + "@" + domain));
+    }
+    population = ImmutableList.copyOf(population);
+
+    out.println("Connecting " + userCount + " users to " + server + " with script " + script);
+    List<ClientBackend> backends = connect(population, eventLoop, io, out);
+    if (backends.isEmpty()) {
+      out.println("No user could connect.");
+      return;
+    }
+
+    Random seeds = new Random(seed);
+    long epochNanos = System.nanoTime();
+    String searchUrl = "http://" + server + "/search/";
+    List<SimulatedUser> users = Lists.newArrayListWithCapacity(backends.size());
+    for (ClientBackend backend : backends) {
+      SimulatedUser user = new SimulatedUser(backend, script, metrics, eventLoop, io, population,
+          searchUrl, epochNanos, new Random(seeds.nextLong()));
+      users.add(user);
+      user.start((long) (seeds.nextDouble() * TimeUnit.SECONDS.toMillis(rampSeconds)));
+    }
+
+    long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(rampSeconds + durationSeconds);
+    long remaining;
+    while ((remaining = end - System.nanoTime()) > 0) {
+      TimeUnit.NANOSECONDS.sleep(Math.min(remaining, TimeUnit.SECONDS.toNanos(reportSeconds)));
+      out.println();
+      out.println(String.format("--- %ds elapsed",
+          TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - epochNanos)));
+      metrics.report(out, false);
+    }
+
+    for (SimulatedUser user : users) {
+      user.stop();
+    }
+    for (ClientBackend backend : backends) {
+      backend.shutdown();
+    }
+    eventLoop.shutdownNow();
+    io.shutdownNow();
+
+    out.println();
+    out.println("=== " + users.size() + " users, " + script);
+    metrics.report(out, distributions);
+  }
+
+  /**
+   * Registers and authenticates the users in parallel.
+   *
+   * @return the backends of the users which could connect.
+   */
+  private List<ClientBackend> connect(List<ParticipantId> population,
+      final ScheduledExecutorService eventLoop, ExecutorService io, PrintStream out)
+      throws InterruptedException {
+    final HashedVersionFactory hashedVersionFactory =
+        new HashedVersionZeroFactoryImpl(new IdURIEncoderDecoder(new JavaUrlCodec()));
+    final ClientBackend.RpcObjectFactory rpcObjectFactory =
+        new ClientBackend.WebSocketRpcObjectFactory();
+    Map<ParticipantId, Future<ClientBackend>> futures = Maps.newLinkedHashMap();
+    for (final ParticipantId user : population) {
+      futures.put(user, io.submit(new Callable<ClientBackend>() {
+        @Override
+        public ClientBackend call() throws IOException {
+          if (register) {
+            ClientAuthenticator.register(
+                "http://" + server + "/auth/register", user.getAddress(), password);
+          }
+          ClientBackend backend = new ClientBackend(user.getAddress(), server, rpcObjectFactory,
+              hashedVersionFactory,
+              new ClientAuthenticator("http://" + server + SessionManager.SIGN_IN_URL),
+              eventLoop, false);
+          if (!backend.authenticate(password)) {
+            backend.shutdown();
+            throw new IOException("authentication failed");
+          }
+          return backend;
+        }
+      }));
+    }
+
+    List<ClientBackend> backends = Lists.newArrayListWithCapacity(population.size());
+    for (Map.Entry<ParticipantId, Future<ClientBackend>> entry : futures.entrySet()) {
+      try {
+        backends.add(entry.getValue().get());
+      } catch (ExecutionException e) {
+        out.println("Failed to connect " + entry.getKey() + ": " + e.getCause().getMessage());
+      }
+    }
+    return backends;
+  }
+
+  public static void main(String[] args) throws InterruptedException {
+    List<String> positional = Lists.newArrayList();
+    Map<String, String> flags = Maps.newHashMap();
+    for (String arg : args) {
+      if (arg.startsWith("--")) {
+        int equals = arg.indexOf('=');
+        if (equals < 0) {
+          flags.put(arg.substring(2), "");
+        } else {
+          flags.put(arg.substring(2, equals), arg.substring(equals + 1));
+        }
+      } else {
+        positional.add(arg);
+      }
+    }
+
+    LoadGenerator generator;
+    try {
+      if (positional.size() != 2 || flags.containsKey("help")) {
+        throw new IllegalArgumentException("Expected a server and a domain");
+      }
+      generator = new LoadGenerator(positional.get(0), positional.get(1), flags);
+    } catch (IllegalArgumentException e) {
+      System.err.println("Error: " + e.getMessage());
+      System.err.print(USAGE);
+      System.exit(1);
+      return;
+    }
+    generator.run(System.out);
+    // The web socket threads of the backends are not daemons.
+    System.exit(0);
+  }
+}
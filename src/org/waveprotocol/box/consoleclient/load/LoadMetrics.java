@@ -0,0 +1,96 @@
+/**
+ * Copyright 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.waveprotocol.box.consoleclient.load;
+
+import org.waveprotocol.box.consoleclient.load.LoadScript.Action;
+
+import java.io.PrintStream;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The latencies and counters measured by a {@link LoadGenerator}, shared by
+ * all its simulated users.
+ */
+final class LoadMetrics {
+
+  /** Time from submitting a delta to receiving the server's response. */
+  final LatencyHistogram submitToAck = new LatencyHistogram("submit-to-ack");
+
+  /**
+   * Time from submitting a delta to another participant receiving it, once for
+   * each participant which has the wave open.
+   */
+  final LatencyHistogram fanOut = new LatencyHistogram("update fan-out");
+
+  /** Time from opening a wave to receiving its conversation. */
+  final LatencyHistogram open = new LatencyHistogram("open-to-snapshot");
+
+  /** Time from sending a search request to receiving its results. */
+  final LatencyHistogram search = new LatencyHistogram("search");
+
+  final AtomicLong submitFailures = new AtomicLong();
+  final AtomicLong searchFailures = new AtomicLong();
+
+  private final Map<Action, AtomicLong> performed = new EnumMap<Action, AtomicLong>(Action.class);
+  private final Map<Action, AtomicLong> skipped = new EnumMap<Action, AtomicLong>(Action.class);
+
+  LoadMetrics() {
+    for (Action action : Action.values()) {
+      performed.put(action, new AtomicLong());
+      skipped.put(action, new AtomicLong());
+    }
+  }
+
+  /** Counts an action performed by a user. */
+  void performed(Action action) {
+    performed.get(action).incrementAndGet();
+  }
+
+  /** Counts an action that a user had nothing to perform on, such as no wave to type into. */
+  void skipped(Action action) {
+    skipped.get(action).incrementAndGet();
+  }
+
+  /**
+   * Prints the counters and the summary of each histogram.
+   *
+   * @param distributions whether to also print the full percentile
+   *        distribution of each histogram.
+   */
+  void report(PrintStream out, boolean distributions) {
+    for (Action action : Action.values()) {
+      out.println(String.format("%-24s performed=%-8d skipped=%d", action.getKey(),
+          performed.get(action).get(), skipped.get(action).get()));
+    }
+    out.println(String.format("%-24s submits=%-8d searches=%d", "failures",
+        submitFailures.get(), searchFailures.get()));
+    LatencyHistogram[] histograms = {submitToAck, fanOut, open, search};
+    for (LatencyHistogram histogram : histograms) {
+      histogram.report(out);
+    }
+    if (distributions) {
+      for (LatencyHistogram histogram : histograms) {
+        out.println();
+        out.println("# " + histogram.getName() + " (ms)");
+        histogram.outputPercentileDistribution(out, 5);
+      }
+    }
+  }
+}
@@ -0,0 +1,234 @@
+/**
+ * Copyright 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.waveprotocol.box.consoleclient.load;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * The behaviour of the simulated users of a {@link LoadGenerator}: how often
+ * they perform each {@link Action}, how long they think between actions, and
+ * how they type.
+ *
+ * Scripts are written as comma separated {@code key=value} pairs. The weight of
+ * each action is given by its name, for example
+ * {@code open=1,type=10,add=1,search=2,think=2000,burst=8,keystroke=150}
+ * makes typing bursts ten times as frequent as opens, with two seconds of
+ * thinking between actions and bursts of eight keystrokes typed every 150ms.
+ */
+public final class LoadScript {
+
+  /** The actions of a simulated user. */
+  public enum Action {
+    /** Creates a new wave. */
+    CREATE("create"),
+    /** Opens a wave found by a search. */
+    OPEN("open"),
+    /** Types a burst of keystrokes into a wave. */
+    TYPE("type"),
+    /** Adds another simulated user to a wave. */
+    ADD_PARTICIPANT("add"),
+    /** Searches for waves, as the web client lists the inbox. */
+    SEARCH("search");
+
+    private final String key;
+
+    private Action(String key) {
+      this.key = key;
+    }
+
+    /**
+     * @return the name of the action in scripts.
+     */
+    public String getKey() {
+      return key;
+    }
+  }
+
+  /** The script used when none is given. */
+  public static final String DEFAULT_SCRIPT =
+      "create=1,open=2,type=10,add=2,search=2,think=2000,burst=8,keystroke=150,query=in:inbox";
+
+  private final Map<Action, Integer> weights;
+  private final int totalWeight;
+  private final long thinkTimeMs;
+  private final int burstLength;
+  private final long keystrokeIntervalMs;
+  private final String searchQuery;
+
+  private LoadScript(Map<Action, Integer> weights, long thinkTimeMs, int burstLength,
+      long keystrokeIntervalMs, String searchQuery) {
+    int total = 0;
+    for (int weight : weights.values()) {
+      total += weight;
+    }
+    Preconditions.checkArgument(total > 0, "The script has no actions");
+    Preconditions.checkArgument(thinkTimeMs >= 0, "Negative think time");
+    Preconditions.checkArgument(burstLength > 0, "Bursts must have keystrokes");
+    Preconditions.checkArgument(keystrokeIntervalMs >= 0, "Negative keystroke interval");
+    this.weights = Collections.unmodifiableMap(weights);
+    this.totalWeight = total;
+    this.thinkTimeMs = thinkTimeMs;
+    this.burstLength = burstLength;
+    this.keystrokeIntervalMs = keystrokeIntervalMs;
+    this.searchQuery = searchQuery;
+  }
+
+  /**
+   * Parses a script.
+   *
+   * @param script the script, as comma separated {@code key=value} pairs.
+   *        Settings that are not given keep their value in
+   *        {@link #DEFAULT_SCRIPT}, except for the action weights which are
+   *        zero if no action is given.
+   * @throws IllegalArgumentException if the script is invalid.
+   */
+  public static LoadScript parse(String script) {
+    Map<String, String> settings = parseSettings(DEFAULT_SCRIPT);
+    Map<String, String> given = parseSettings(script);
+    boolean hasActions = false;
+    for (Action action : Action.values()) {
+      hasActions |= given.containsKey(action.getKey());
+    }
+    if (hasActions) {
+      for (Action action : Action.values()) {
+        settings.remove(action.getKey());
+      }
+    }
+    settings.putAll(given);
+
+    Map<Action, Integer> weights = new EnumMap<Action, Integer>(Action.class);
+    for (Action action : Action.values()) {
+      String weight = settings.remove(action.getKey());
+      if (weight != null) {
+        weights.put(action, parseNonNegativeInt(action.getKey(), weight));
+      }
+    }
+    long thinkTimeMs = parseNonNegativeInt("think", settings.remove("think"));
+    int burstLength = parseNonNegativeInt("burst", settings.remove("burst"));
+    long keystrokeIntervalMs = parseNonNegativeInt("keystroke", settings.remove("keystroke"));
+    String searchQuery = settings.remove("query");
+    if (!settings.isEmpty()) {
+      throw new IllegalArgumentException("Unknown script settings: " + settings.keySet());
+    }
+    return new LoadScript(weights, thinkTimeMs, burstLength, keystrokeIntervalMs, searchQuery);
+  }
+
+  private static Map<String, String> parseSettings(String script) {
+    Map<String, String> settings = Maps.newLinkedHashMap();
+    for (String setting : script.split(",")) {
+      setting = setting.trim();
+      if (setting.isEmpty()) {
+        continue;
+      }
+      int equals = setting.indexOf('=');
+      if (equals <= 0) {
+        throw new IllegalArgumentException("Expected key=value in the script: " + setting);
+      }
+      settings.put(setting.substring(0, equals).trim(), setting.substring(equals + 1).trim());
+    }
+    return settings;
+  }
+
+  private static int parseNonNegativeInt(String key, String value) {
+    try {
+      int result = Integer.parseInt(value);
+      if (result >= 0) {
+        return result;
+      }
+    } catch (NumberFormatException e) {
+      // Fall through.
+    }
+    throw new IllegalArgumentException("Invalid value for " + key + ": " + value);
+  }
+
+  /**
+   * Picks the next action at random, according to the weights of the actions.
+   */
+  public Action nextAction(Random random) {
+    int pick = random.nextInt(totalWeight);
+    for (Map.Entry<Action, Integer> entry : weights.entrySet()) {
+      pick -= entry.getValue();
+      if (pick < 0) {
+        return entry.getKey();
+      }
+    }
+    throw new IllegalStateException("Weights changed");
+  }
+
+  /**
+   * Picks the time to think before the next action, uniformly distributed
+   * around the think time so that the users do not act in lockstep.
+   */
+  public long nextThinkTimeMs(Random random) {
+    return thinkTimeMs == 0 ? 0 : thinkTimeMs / 2 + (long) (random.nextDouble() * thinkTimeMs);
+  }
+
+  /**
+   * @return the weight of the given action.
+   */
+  public int getWeight(Action action) {
+    Integer weight = weights.get(action);
+    return weight != null ? weight : 0;
+  }
+
+  /**
+   * @return the mean time between two actions, in milliseconds.
+   */
+  public long getThinkTimeMs() {
+    return thinkTimeMs;
+  }
+
+  /**
+   * @return the number of keystrokes in a typing burst.
+   */
+  public int getBurstLength() {
+    return burstLength;
+  }
+
+  /**
+   * @return the time between two keystrokes of a burst, in milliseconds.
+   */
+  public long getKeystrokeIntervalMs() {
+    return keystrokeIntervalMs;
+  }
+
+  /**
+   * @return the query of the searches.
+   */
+  public String getSearchQuery() {
+    return searchQuery;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder script = new StringBuilder();
+    for (Map.Entry<Action, Integer> entry : weights.entrySet()) {
+      script.append(entry.getKey().getKey()).append('=').append(entry.getValue()).append(',');
+    }
+    return script.append("think=").append(thinkTimeMs)
+        .append(",burst=").append(burstLength)
+        .append(",keystroke=").append(keystrokeIntervalMs)
+        .append(",query=").append(searchQuery).toString();
+  }
+}
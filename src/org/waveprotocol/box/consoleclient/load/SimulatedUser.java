@@ -0,0 +1,620 @@
+/**
+ * Copyright 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.waveprotocol.box.consoleclient.load;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.io.ByteStreams;
+import com.google.gson.Gson;
+import com.google.wave.api.ApiIdSerializer;
+
+import org.waveprotocol.box.common.DocumentConstants;
+import org.waveprotocol.box.common.comms.WaveClientRpc.ProtocolSubmitResponse;
+import org.waveprotocol.box.consoleclient.ClientBackend;
+import org.waveprotocol.box.consoleclient.ClientUtils;
+import org.waveprotocol.box.consoleclient.ClientWaveView;
+import org.waveprotocol.box.consoleclient.WaveletOperationListener;
+import org.waveprotocol.box.consoleclient.load.LoadScript.Action;
+import org.waveprotocol.box.search.SearchResponse;
+import org.waveprotocol.box.search.gson.SearchResponseGsonImpl;
+import org.waveprotocol.box.server.util.SuccessFailCallback;
+import org.waveprotocol.wave.communication.gson.GsonException;
+import org.waveprotocol.wave.communication.gson.GsonUtil;
+import org.waveprotocol.wave.model.document.operation.DocOp;
+import org.waveprotocol.wave.model.document.operation.DocOpComponentType;
+import org.waveprotocol.wave.model.id.InvalidIdException;
+import org.waveprotocol.wave.model.id.WaveId;
+import org.waveprotocol.wave.model.id.WaveletId;
+import org.waveprotocol.wave.model.id.WaveletName;
+import org.waveprotocol.wave.model.operation.wave.AddParticipant;
+import org.waveprotocol.wave.model.operation.wave.BlipContentOperation;
+import org.waveprotocol.wave.model.operation.wave.BlipOperation;
+import org.waveprotocol.wave.model.operation.wave.WaveletBlipOperation;
+import org.waveprotocol.wave.model.operation.wave.WaveletOperation;
+import org.waveprotocol.wave.model.version.HashedVersion;
+import org.waveprotocol.wave.model.wave.ParticipantId;
+import org.waveprotocol.wave.model.wave.data.BlipData;
+import org.waveprotocol.wave.model.wave.data.WaveletData;
+import org.waveprotocol.wave.util.escapers.PercentEscaper;
+import org.waveprotocol.wave.util.logging.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpCookie;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A user simulated by a {@link LoadGenerator}, acting on a {@link ClientBackend}
+ * according to a {@link LoadScript}.
+ *
+ * Users never block: their actions are scheduled on an executor shared by all
+ * the users, which also delivers the events of their backends. A user has at
+ * most one delta in flight, and only builds the next one once its previous one
+ * has been applied to its view of the wave, as a real client does.
+ *
+ * Each typed keystroke carries the time it was typed, so that the users
+ * receiving it can measure the delay of the update fan-out.
+ */
+final class SimulatedUser implements WaveletOperationListener {
+
+  private static final Log LOG = Log.get(SimulatedUser.class);
+
+  /** Delay before retrying an action that waits for the previous delta to be applied. */
+  private static final long RETRY_DELAY_MS = 20;
+
+  /** How long to wait for a submitted delta to come back before giving up on it. */
+  private static final long AWAIT_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+  /** Starts the timestamps typed by the users. */
+  private static final char TIMESTAMP_MARKER = '~';
+
+  private static final int TIMESTAMP_RADIX = Character.MAX_RADIX;
+
+  private static final int SEARCH_RESULTS = 20;
+
+  private static final Gson GSON = new Gson();
+
+  private static final PercentEscaper QUERY_ESCAPER =
+      new PercentEscaper(PercentEscaper.SAFECHARS_URLENCODER, true);
+
+  private final ClientBackend backend;
+  private final LoadScript script;
+  private final LoadMetrics metrics;
+  private final ScheduledExecutorService scheduler;
+  private final Executor ioExecutor;
+  private final List<ParticipantId> population;
+  private final String searchUrl;
+  private final long epochNanos;
+  private final Random random;
+
+  /** Waves that the user found in its search results. */
+  private final Set<WaveId> knownWaves = Sets.newLinkedHashSet();
+
+  /** Open waves in which the user participates in the conversation. */
+  private final List<WaveId> readyWaves = Lists.newArrayList();
+
+  /** The blip the user types into, for each wave it has typed into. */
+  private final Map<WaveId, String> blips = Maps.newHashMap();
+
+  /** The time each wave being opened was opened at. */
+  private final Map<WaveId, Long> openingWaves = Maps.newHashMap();
+
+  /** Whether a delta has been submitted and not yet acknowledged. */
+  private boolean submitting = false;
+
+  /** The wavelet and version the last acknowledged delta is awaited at, if any. */
+  private WaveletName awaitedWavelet = null;
+  private long awaitedVersion;
+  private long awaitedSince;
+
+  private volatile boolean stopped = false;
+
+  /**
+   * @param backend the authenticated backend of the user.
+   * @param script the behaviour of the user.
+   * @param metrics the metrics to record into.
+   * @param scheduler the executor to run the actions on.
+   * @param ioExecutor the executor to run blocking requests, such as searches,
+   *        on.
+   * @param population the other users, which the user adds to its waves.
+   * @param searchUrl the URL of the search servlet.
+   * @param epochNanos the origin of the typed timestamps, in
+   *        {@link System#nanoTime()} time.
+   * @param random the source of the randomness of the user.
+   */
+  SimulatedUser(ClientBackend backend, LoadScript script, LoadMetrics metrics,
+      ScheduledExecutorService scheduler, Executor ioExecutor, List<ParticipantId> population,
+      String searchUrl, long epochNanos, Random random) {
+    this.backend = backend;
+    this.script = script;
+    this.metrics = metrics;
+    this.scheduler = scheduler;
+    this.ioExecutor = ioExecutor;
+    this.population = population;
+    this.searchUrl = searchUrl;
+    this.epochNanos = epochNanos;
+    this.random = random;
+    backend.addWaveletOperationListener(this);
+  }
+
+  /**
+   * Starts acting after the given delay.
+   */
+  void start(long delayMs) {
+    schedule(new Runnable() {
+      @Override
+      public void run() {
+        nextAction();
+      }
+    }, delayMs);
+  }
+
+  /**
+   * Stops acting. Actions in progress are abandoned.
+   */
+  void stop() {
+    stopped = true;
+    backend.removeWaveletOperationListener(this);
+  }
+
+  ParticipantId getUserId() {
+    return backend.getUserId();
+  }
+
+  private void schedule(final Runnable action, long delayMs) {
+    if (stopped) {
+      return;
+    }
+    try {
+      scheduler.schedule(new Runnable() {
+        @Override
+        public void run() {
+          if (stopped) {
+            return;
+          }
+          try {
+            action.run();
+          } catch (RuntimeException e) {
+            LOG.warning("Action of " + getUserId() + " failed", e);
+            scheduleNextAction();
+          }
+        }
+      }, delayMs, TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      // The generator is shutting down.
+      stopped = true;
+    }
+  }
+
+  private void scheduleNextAction() {
+    start(script.nextThinkTimeMs(random));
+  }
+
+  private synchronized void nextAction() {
+    Action action = script.nextAction(random);
+    boolean performed;
+    switch (action) {
+      case CREATE:
+        performed = createWave();
+        break;
+      case OPEN:
+        performed = openWave();
+        break;
+      case TYPE:
+        performed = typeBurst();
+        break;
+      case ADD_PARTICIPANT:
+        performed = addParticipant();
+        break;
+      case SEARCH:
+        performed = search();
+        break;
+      default:
+        throw new AssertionError(action);
+    }
+    if (performed) {
+      metrics.performed(action);
+    } else {
+      metrics.skipped(action);
+      scheduleNextAction();
+    }
+  }
+
+  private boolean createWave() {
+    if (!canSubmit()) {
+      return retry();
+    }
+    submitting = true;
+    final long start = System.nanoTime();
+    final WaveId waveId = backend.getIdGenerator().newWaveId();
+    backend.createConversationWave(waveId,
+        new SuccessFailCallback<ProtocolSubmitResponse, String>() {
+          @Override
+          public void onSuccess(ProtocolSubmitResponse response) {
+            if (acknowledged(response, start, waveId, ClientUtils.getConversationRootId(waveId))) {
+              backend.openWave(waveId);
+            }
+            scheduleNextAction();
+          }
+
+          @Override
+          public void onFailure(String reason) {
+            failed(reason);
+            scheduleNextAction();
+          }
+        });
+    return true;
+  }
+
+  private boolean openWave() {
+    for (WaveId waveId : knownWaves) {
+      if (!backend.isWaveOpen(waveId)) {
+        openingWaves.put(waveId, System.nanoTime());
+        backend.openWave(waveId);
+        scheduleNextAction();
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private boolean typeBurst() {
+    if (readyWaves.isEmpty()) {
+      return false;
+    }
+    typeKeystrokes(readyWaves.get(random.nextInt(readyWaves.size())), script.getBurstLength());
+    return true;
+  }
+
+  /**
+   * Types the given number of keystrokes into the blip of the user in a wave,
+   * one delta at a time.
+   */
+  private synchronized void typeKeystrokes(final WaveId waveId, final int remaining) {
+    if (remaining == 0 || !readyWaves.contains(waveId)) {
+      scheduleNextAction();
+      return;
+    }
+    Runnable next = new Runnable() {
+      @Override
+      public void run() {
+        typeKeystrokes(waveId, remaining - 1);
+      }
+    };
+    if (!canSubmit()) {
+      schedule(new Runnable() {
+        @Override
+        public void run() {
+          typeKeystrokes(waveId, remaining);
+        }
+      }, RETRY_DELAY_MS);
+      return;
+    }
+
+    WaveletData wavelet = ClientUtils.getConversationRoot(backend.getWave(waveId));
+    String text = TIMESTAMP_MARKER
+        + Long.toString(System.nanoTime() - epochNanos, TIMESTAMP_RADIX) + " ";
+    String blipId = blips.get(waveId);
+    WaveletOperation[] ops;
+    if (blipId == null) {
+      blipId = backend.getIdGenerator().newBlipId();
+      blips.put(waveId, blipId);
+      ops = ClientUtils.createAppendBlipOps(
+          wavelet.getDocument(DocumentConstants.MANIFEST_DOCUMENT_ID), blipId, text,
+          backend.createOperationContext());
+    } else {
+      BlipData blip = wavelet.getDocument(blipId);
+      if (blip == null) {
+        // The blip was never created.
+        blips.remove(waveId);
+        scheduleNextAction();
+        return;
+      }
+      int size = ClientUtils.findDocumentSize(blip.getContent().asOperation());
+      // Insert before the closing body tag.
+      ops = new WaveletOperation[] {new WaveletBlipOperation(blipId,
+          new BlipContentOperation(backend.createOperationContext(),
+              ClientUtils.createTextInsertion(text, size - 1, size)))};
+    }
+    submit(waveId, wavelet.getWaveletId(), next, script.getKeystrokeIntervalMs(), ops);
+  }
+
+  private boolean addParticipant() {
+    if (readyWaves.isEmpty() || population.size() < 2) {
+      return false;
+    }
+    if (!canSubmit()) {
+      return retry();
+    }
+    WaveId waveId = readyWaves.get(random.nextInt(readyWaves.size()));
+    WaveletData wavelet = ClientUtils.getConversationRoot(backend.getWave(waveId));
+    ParticipantId participant = population.get(random.nextInt(population.size()));
+    if (wavelet.getParticipants().contains(participant)) {
+      return false;
+    }
+    submit(waveId, wavelet.getWaveletId(), new Runnable() {
+      @Override
+      public void run() {
+        scheduleNextAction();
+      }
+    }, 0, new AddParticipant(backend.createOperationContext(), participant));
+    return true;
+  }
+
+  private boolean search() {
+    final HttpCookie token = backend.getAuthenticationToken();
+    if (token == null || script.getSearchQuery() == null) {
+      return false;
+    }
+    try {
+      ioExecutor.execute(new Runnable() {
+        @Override
+        public void run() {
+          long start = System.nanoTime();
+          try {
+            SearchResponse response = fetchSearch(token);
+            metrics.search.recordNanos(System.nanoTime() - start);
+            foundWaves(response);
+          } catch (IOException e) {
+            LOG.fine("Search failed", e);
+            metrics.searchFailures.incrementAndGet();
+          } catch (GsonException e) {
+            LOG.fine("Invalid search response", e);
+            metrics.searchFailures.incrementAndGet();
+          } catch (RuntimeException e) {
+            LOG.warning("Search failed", e);
+            metrics.searchFailures.incrementAndGet();
+          }
+          scheduleNextAction();
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      stopped = true;
+    }
+    return true;
+  }
+
+  /**
+   * Fetches the search results of the script's query.
+   */
+  private SearchResponse fetchSearch(HttpCookie token) throws IOException, GsonException {
+    URL url = new URL(searchUrl + "?query=" + QUERY_ESCAPER.escape(script.getSearchQuery())
+        + "&index=0&numResults=" + SEARCH_RESULTS);
+    HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+    try {
+      connection.setRequestProperty("Cookie", token.toString());
+      if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+        throw new IOException("Search returned " + connection.getResponseCode());
+      }
+      InputStream in = connection.getInputStream();
+      String json;
+      try {
+        json = new String(ByteStreams.toByteArray(in), Charsets.UTF_8);
+      } finally {
+        in.close();
+      }
+      SearchResponseGsonImpl response = new SearchResponseGsonImpl();
+      GsonUtil.parseJson(response, GSON, json, null);
+      return response;
+    } finally {
+      connection.disconnect();
+    }
+  }
+
+  /**
+   * Remembers the waves of search results, so that the user can open them.
+   */
+  private synchronized void foundWaves(SearchResponse response) {
+    for (SearchResponse.Digest digest : response.getDigests()) {
+      try {
+        knownWaves.add(ApiIdSerializer.instance().deserialiseWaveId(digest.getWaveId()));
+      } catch (InvalidIdException e) {
+        LOG.warning("Invalid wave id in search results: " + digest.getWaveId());
+      }
+    }
+  }
+
+  /**
+   * Reschedules the current action for when the previous delta has been applied.
+   *
+   * @return true, for use as the outcome of the action.
+   */
+  private boolean retry() {
+    schedule(new Runnable() {
+      @Override
+      public void run() {
+        nextAction();
+      }
+    }, RETRY_DELAY_MS);
+    return true;
+  }
+
+  /**
+   * @return whether no delta is in flight and the last acknowledged one has
+   *         been applied to the view of the user.
+   */
+  private boolean canSubmit() {
+    if (submitting) {
+      return false;
+    }
+    if (awaitedWavelet != null) {
+      ClientWaveView wave = backend.getWave(awaitedWavelet.waveId);
+      if (wave != null
+          && wave.getWaveletVersion(awaitedWavelet.waveletId).getVersion() < awaitedVersion
+          && System.nanoTime() - awaitedSince < AWAIT_TIMEOUT_NANOS) {
+        return false;
+      }
+      awaitedWavelet = null;
+    }
+    return true;
+  }
+
+  /**
+   * Submits a delta, and runs the given action after the given delay once it is
+   * acknowledged.
+   */
+  private void submit(final WaveId waveId, final WaveletId waveletId, final Runnable then,
+      final long delayMs, WaveletOperation... ops) {
+    submitting = true;
+    final long start = System.nanoTime();
+    backend.sendWaveletOperations(WaveletName.of(waveId, waveletId),
+        new SuccessFailCallback<ProtocolSubmitResponse, String>() {
+          @Override
+          public void onSuccess(ProtocolSubmitResponse response) {
+            acknowledged(response, start, waveId, waveletId);
+            schedule(then, delayMs);
+          }
+
+          @Override
+          public void onFailure(String reason) {
+            failed(reason);
+            scheduleNextAction();
+          }
+        }, ops);
+  }
+
+  /**
+   * Records the acknowledgement of a submitted delta.
+   *
+   * @return whether the delta was applied.
+   */
+  private synchronized boolean acknowledged(ProtocolSubmitResponse response, long start,
+      WaveId waveId, WaveletId waveletId) {
+    submitting = false;
+    if (response.hasErrorMessage() || !response.hasHashedVersionAfterApplication()) {
+      LOG.fine("Delta of " + getUserId() + " rejected: " + response.getErrorMessage());
+      metrics.submitFailures.incrementAndGet();
+      return false;
+    }
+    metrics.submitToAck.recordNanos(System.nanoTime() - start);
+    awaitedWavelet = WaveletName.of(waveId, waveletId);
+    awaitedVersion = response.getHashedVersionAfterApplication().getVersion();
+    awaitedSince = System.nanoTime();
+    return true;
+  }
+
+  private synchronized void failed(String reason) {
+    LOG.fine("Submit of " + getUserId() + " failed: " + reason);
+    submitting = false;
+    metrics.submitFailures.incrementAndGet();
+  }
+
+  @Override
+  public void waveletDocumentUpdated(String author, WaveletData wavelet, String docId,
+      BlipOperation docOp) {
+    if (!getUserId().getAddress().equals(author) && docOp instanceof BlipContentOperation) {
+      long now = System.nanoTime() - epochNanos;
+      for (long typedAt : typedTimestamps(((BlipContentOperation) docOp).getContentOp())) {
+        metrics.fanOut.recordNanos(now - typedAt);
+      }
+    }
+  }
+
+  /**
+   * Returns the timestamps typed by {@link SimulatedUser}s that a document
+   * operation inserts. Operations that only insert text, such as the ones that
+   * initialize documents from a snapshot, are ignored since their timestamps
+   * were already delivered.
+   */
+  @VisibleForTesting
+  static List<Long> typedTimestamps(DocOp op) {
+    List<Long> timestamps = Lists.newArrayList();
+    boolean retains = false;
+    for (int i = 0; i < op.size(); i++) {
+      retains |= op.getType(i) == DocOpComponentType.RETAIN;
+    }
+    if (!retains) {
+      return timestamps;
+    }
+    for (int i = 0; i < op.size(); i++) {
+      if (op.getType(i) != DocOpComponentType.CHARACTERS) {
+        continue;
+      }
+      String characters = op.getCharactersString(i);
+      int marker = characters.indexOf(TIMESTAMP_MARKER);
+      while (marker >= 0) {
+        int end = marker + 1;
+        while (end < characters.length()
+            && Character.digit(characters.charAt(end), TIMESTAMP_RADIX) >= 0) {
+          end++;
+        }
+        if (end > marker + 1) {
+          try {
+            timestamps.add(Long.parseLong(characters.substring(marker + 1, end), TIMESTAMP_RADIX));
+          } catch (NumberFormatException e) {
+            // Not a timestamp.
+          }
+        }
+        marker = characters.indexOf(TIMESTAMP_MARKER, end);
+      }
+    }
+    return timestamps;
+  }
+
+  @Override
+  public synchronized void onDeltaSequenceEnd(WaveletData wavelet) {
+    WaveId waveId = wavelet.getWaveId();
+    if (!wavelet.getWaveletId().equals(ClientUtils.getConversationRootId(waveId))) {
+      return;
+    }
+    Long openedAt = openingWaves.remove(waveId);
+    if (openedAt != null) {
+      metrics.open.recordNanos(System.nanoTime() - openedAt);
+    }
+    boolean participant = wavelet.getParticipants().contains(getUserId())
+        && wavelet.getDocument(DocumentConstants.MANIFEST_DOCUMENT_ID) != null;
+    if (participant && !readyWaves.contains(waveId)) {
+      readyWaves.add(waveId);
+    } else if (!participant) {
+      readyWaves.remove(waveId);
+    }
+  }
+
+  @Override
+  public void participantAdded(String author, WaveletData wavelet, ParticipantId participantId) {
+  }
+
+  @Override
+  public void participantRemoved(String author, WaveletData wavelet,
+      ParticipantId participantId) {
+  }
+
+  @Override
+  public void noOp(String author, WaveletData wavelet) {
+  }
+
+  @Override
+  public void onDeltaSequenceStart(WaveletData wavelet) {
+  }
+
+  @Override
+  public void onCommitNotice(WaveletData wavelet, HashedVersion version) {
+  }
+}
@@ -42,6 +42,8 @@ public class CoreSettings {
   public static final String ACCOUNT_STORE_DIRECTORY = "account_store_directory";
   public static final String DELTA_STORE_TYPE = "delta_store_type";
   public static final String DELTA_STORE_DIRECTORY = "delta_store_directory";
+  public static final String PROFILE_STORE_TYPE = "profile_store_type";
+  public static final String PROFILE_STORE_DIRECTORY = "profile_store_directory";
   public static final String FLASHSOCKET_POLICY_PORT = "flashsocket_policy_port";
   public static final String USE_SOCKETIO = "use_socketio";
   public static final String GADGET_SERVER_HOSTNAME = "gadget_server_hostname";
@@ -49,6 +51,7 @@ public class CoreSettings {
   public static final String GADGET_SERVER_PATH = "gadget_server_path";
   public static final String ADMIN_USER = "admin_user";
   public static final String  WELCOME_WAVE_ID = "welcome_wave_id";
+  public static final String TEMPLATES_RELOAD_POLICY = "templates_reload_policy";
   
   @Setting(name = WAVE_SERVER_DOMAIN)
   private static String waveServerDomain;
@@ -116,6 +119,16 @@ public class CoreSettings {
       defaultValue = "_deltas")
   private static String deltaStoreDirectory;
 
+  @Setting(name = PROFILE_STORE_TYPE,
+      description = "Type of persistence to use for the fetched profiles", defaultValue = "memory")
+  private static String profileStoreType;
+
+  @Setting(name = PROFILE_STORE_DIRECTORY,
+      description = "Location on disk where the profile store lives. Must be writeable by the "
+          + "wave-in-a-box process. Only used by file-based profile store.",
+      defaultValue = "_profiles")
+  private static String profileStoreDirectory;
+
   @Setting(name = FLASHSOCKET_POLICY_PORT,
       description = "Port on which to listen for Flashsocket policy requests.",
       defaultValue = "843")
@@ -144,4 +157,10 @@ public class CoreSettings {
   @Setting(name = WELCOME_WAVE_ID, description = "The welcome wave id.",
       defaultValue = "UNDEFINED")
   private static String welcomeWaveId;
+
+  @Setting(name = TEMPLATES_RELOAD_POLICY,
+      description = "When to reload the html templates of the rendered pages: 'never' to load "
+          + "them once, or 'modified' to reload them when their file changes.",
+      defaultValue = "modified")
+  private static String templatesReloadPolicy;
 }
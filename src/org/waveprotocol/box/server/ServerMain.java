@@ -38,6 +38,7 @@ import org.waveprotocol.box.server.frontend.WaveClientRpcImpl;
 import org.waveprotocol.box.server.persistence.AccountStore;
 import org.waveprotocol.box.server.persistence.PersistenceException;
 import org.waveprotocol.box.server.persistence.PersistenceModule;
+import org.waveprotocol.box.server.persistence.ProfileStore;
 import org.waveprotocol.box.server.persistence.SignerInfoStore;
 import org.waveprotocol.box.server.robots.RobotApiModule;
 import org.waveprotocol.box.server.robots.RobotRegistrationServlet;
@@ -46,6 +47,7 @@ import org.waveprotocol.box.server.robots.agent.passwd.PasswordAdminRobot;
 import org.waveprotocol.box.server.robots.agent.passwd.PasswordRobot;
 import org.waveprotocol.box.server.robots.dataapi.DataApiOAuthServlet;
 import org.waveprotocol.box.server.robots.dataapi.DataApiServlet;
+import org.waveprotocol.box.server.robots.operations.DigestSummaryIndex;
 import org.waveprotocol.box.server.robots.passive.RobotsGateway;
 import org.waveprotocol.box.server.rpc.AttachmentServlet;
 import org.waveprotocol.box.server.rpc.AuthenticationServlet;
@@ -55,6 +57,7 @@ import org.waveprotocol.box.server.rpc.SearchServlet;
 import org.waveprotocol.box.server.rpc.ServerRpcProvider;
 import org.waveprotocol.box.server.rpc.SignOutServlet;
 import org.waveprotocol.box.server.rpc.SitemapServlet;
+import org.waveprotocol.box.server.rpc.ThumbnailServlet;
 import org.waveprotocol.box.server.rpc.UserRegistrationServlet;
 import org.waveprotocol.box.server.rpc.WaveClientServlet;
 import org.waveprotocol.box.server.rpc.render.RenderSharedWaveServlet;
@@ -191,6 +194,9 @@ public class ServerMain {
     accountStore.initializeAccountStore();
     AccountStoreHolder.init(accountStore, waveDomain);
 
+    ProfileStore profileStore = injector.getInstance(ProfileStore.class);
+    profileStore.initializeProfileStore();
+
     // Initialize the SignerInfoStore.
     CertPathStore certPathStore = injector.getInstance(CertPathStore.class);
     if (certPathStore instanceof SignerInfoStore) {
@@ -204,6 +210,7 @@ public class ServerMain {
 
   private static void initializeServlets(Injector injector, ServerRpcProvider server) {
     server.addServlet("/attachment/*", AttachmentServlet.class);
+    server.addServlet("/thumbnail/*", ThumbnailServlet.class);
 
     server.addServlet(SessionManager.SIGN_IN_URL, AuthenticationServlet.class);
     server.addServlet("/auth/signout", SignOutServlet.class);
@@ -238,6 +245,7 @@ public class ServerMain {
   private static void initializeRobots(Injector injector, WaveBus waveBus) {
     RobotsGateway robotsGateway = injector.getInstance(RobotsGateway.class);
     waveBus.subscribe(robotsGateway);
+    waveBus.subscribe(injector.getInstance(DigestSummaryIndex.class));
   }
   
   private static void initializeRobotAgents(Injector injector, ServerRpcProvider server) {
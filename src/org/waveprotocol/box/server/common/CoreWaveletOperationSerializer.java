@@ -301,11 +301,11 @@ public class CoreWaveletOperationSerializer {
     List<WaveletOperation> ops = Lists.newArrayList();
     for (ProtocolWaveletOperation op : delta.getOperationList()) {
       WaveletOperationContext context = new WaveletOperationContext(
-          ParticipantId.ofUnsafe(delta.getAuthor()), Constants.NO_TIMESTAMP, 1);
+          IdInterner.participantOfUnsafe(delta.getAuthor()), Constants.NO_TIMESTAMP, 1);
       ops.add(deserialize(op, context));
     }
     HashedVersion hashedVersion = deserialize(delta.getHashedVersion());
-    return new WaveletDelta(new ParticipantId(delta.getAuthor()),
+    return new WaveletDelta(IdInterner.participant(delta.getAuthor()),
         deserialize(delta.getHashedVersion()), ops);
   }
 
@@ -314,7 +314,7 @@ public class CoreWaveletOperationSerializer {
    */
   public static TransformedWaveletDelta deserialize(ProtocolWaveletDelta delta,
       HashedVersion resultingVersion, long applicationTimestamp) {
-    ParticipantId author = ParticipantId.ofUnsafe(delta.getAuthor());
+    ParticipantId author = IdInterner.participantOfUnsafe(delta.getAuthor());
     int count = delta.getOperationCount();
     Preconditions.checkArgument(count > 0, "Cannot deserialize an empty delta");
     List<WaveletOperation> ops = Lists.newArrayListWithCapacity(count);
@@ -355,9 +355,10 @@ public class CoreWaveletOperationSerializer {
     if (protobufOp.hasNoOp()) {
       return new NoOp(context);
     } else if (protobufOp.hasAddParticipant()) {
-      return new AddParticipant(context, new ParticipantId(protobufOp.getAddParticipant()));
+      return new AddParticipant(context, IdInterner.participant(protobufOp.getAddParticipant()));
     } else if (protobufOp.hasRemoveParticipant()) {
-      return new RemoveParticipant(context, new ParticipantId(protobufOp.getRemoveParticipant()));
+      return new RemoveParticipant(context,
+          IdInterner.participant(protobufOp.getRemoveParticipant()));
     } else if (protobufOp.hasMutateDocument()) {
       return new WaveletBlipOperation(protobufOp.getMutateDocument().getDocumentId(),
           new BlipContentOperation(context,
@@ -377,7 +378,7 @@ public class CoreWaveletOperationSerializer {
   public static List<CoreWaveletOperation> deserialize(WaveletSnapshot snapshot) {
     List<CoreWaveletOperation> ops = Lists.newArrayList();
     for (String participant : snapshot.getParticipantIdList()) {
-      CoreAddParticipant addOp = new CoreAddParticipant(new ParticipantId(participant));
+      CoreAddParticipant addOp = new CoreAddParticipant(IdInterner.participant(participant));
       ops.add(addOp);
     }
     for (DocumentSnapshot document : snapshot.getDocumentList()) {
@@ -510,7 +511,7 @@ public class CoreWaveletOperationSerializer {
     Preconditions.checkArgument(snapshot.getParticipantIdCount() > 0);
     // Have to add a single participant for the copying to complete without a
     // NPE.
-    coreWavelet.addParticipant(ParticipantId.ofUnsafe(snapshot.getParticipantId(0)));
+    coreWavelet.addParticipant(IdInterner.participantOfUnsafe(snapshot.getParticipantId(0)));
 
     for (DocumentSnapshot document : snapshot.getDocumentList()) {
       DocOp op =
@@ -525,7 +526,7 @@ public class CoreWaveletOperationSerializer {
     ObservableWaveletData wavelet = WaveletDataUtil.copyWavelet(immutableWaveletData);
 
     for (String participant : snapshot.getParticipantIdList()) {
-      wavelet.addParticipant(new ParticipantId(participant));
+      wavelet.addParticipant(IdInterner.participant(participant));
     }
 
     return wavelet;
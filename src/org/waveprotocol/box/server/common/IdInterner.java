@@ -0,0 +1,133 @@
+/**
+ * Copyright 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.waveprotocol.box.server.common;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.google.common.collect.MapMaker;
+
+import org.waveprotocol.wave.model.id.WaveId;
+import org.waveprotocol.wave.model.id.WaveletId;
+import org.waveprotocol.wave.model.id.WaveletName;
+import org.waveprotocol.wave.model.wave.InvalidParticipantAddress;
+import org.waveprotocol.wave.model.wave.ParticipantId;
+
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Canonical instances of the participant, wave and wavelet ids the server
+ * deserializes, so that the many copies of an id read from deltas, snapshots
+ * and the file store share one object and one set of strings.
+ *
+ * Instances are held weakly, so an id is only kept while something else on
+ * the server refers to it. Participants are looked up by their address
+ * string, so that a participant seen before is not even allocated; that table
+ * is also bounded by {@link #MAX_PARTICIPANTS}, beyond which the least
+ * recently used participants are forgotten (and merely duplicated if they are
+ * seen again).
+ */
+public final class IdInterner {
+
+  /** The most participant addresses to remember. */
+  @VisibleForTesting
+  static final int MAX_PARTICIPANTS = 100000;
+
+  /** Whether ids are interned at all, so that the savings can be measured. */
+  @VisibleForTesting
+  static volatile boolean enabled = true;
+
+  /** Valid participants by the address they were read from. */
+  private static final ConcurrentMap<String, ParticipantId> participants =
+      new MapMaker().weakValues().maximumSize(MAX_PARTICIPANTS).makeMap();
+
+  private static final Interner<WaveId> waveIds = Interners.newWeakInterner();
+
+  private static final Interner<WaveletId> waveletIds = Interners.newWeakInterner();
+
+  private IdInterner() {
+  }
+
+  /**
+   * Returns the canonical participant of an address, which is validated the
+   * first time it is seen.
+   *
+   * @throws InvalidParticipantAddress if the address is invalid
+   */
+  public static ParticipantId participantOf(String address) throws InvalidParticipantAddress {
+    if (!enabled) {
+      return ParticipantId.of(address);
+    }
+    ParticipantId participant = participants.get(address);
+    if (participant == null) {
+      participant = ParticipantId.of(address);
+      ParticipantId existing = participants.putIfAbsent(address, participant);
+      if (existing != null) {
+        participant = existing;
+      }
+    }
+    return participant;
+  }
+
+  /**
+   * Returns the canonical participant of an address, like
+   * {@link ParticipantId#ofUnsafe(String)}.
+   *
+   * @throws IllegalArgumentException if the address is invalid
+   */
+  public static ParticipantId participantOfUnsafe(String address) {
+    try {
+      return participantOf(address);
+    } catch (InvalidParticipantAddress e) {
+      throw new IllegalArgumentException(e);
+    }
+  }
+
+  /**
+   * Returns the canonical participant of an address without insisting that it
+   * is valid, like {@link ParticipantId#ParticipantId(String)}. Invalid
+   * addresses are not interned.
+   */
+  public static ParticipantId participant(String address) {
+    try {
+      return participantOf(address);
+    } catch (InvalidParticipantAddress e) {
+      return new ParticipantId(address);
+    }
+  }
+
+  /** Returns the canonical instance of a wave id. */
+  public static WaveId intern(WaveId waveId) {
+    return enabled ? waveIds.intern(waveId) : waveId;
+  }
+
+  /** Returns the canonical instance of a wavelet id. */
+  public static WaveletId intern(WaveletId waveletId) {
+    return enabled ? waveletIds.intern(waveletId) : waveletId;
+  }
+
+  /** Returns a wavelet name made of the canonical wave and wavelet ids. */
+  public static WaveletName intern(WaveletName waveletName) {
+    WaveId waveId = intern(waveletName.waveId);
+    WaveletId waveletId = intern(waveletName.waveletId);
+    if (waveId == waveletName.waveId && waveletId == waveletName.waveletId) {
+      return waveletName;
+    }
+    return WaveletName.of(waveId, waveletId);
+  }
+}
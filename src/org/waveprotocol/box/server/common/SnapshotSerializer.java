@@ -101,8 +101,9 @@ public class SnapshotSerializer {
         WaveletDataImpl.Factory.create(
             ObservablePluggableMutableDocument.createFactory(SchemaCollection.empty()));
 
-    ParticipantId author = ParticipantId.of(snapshot.getCreator());
-    WaveletId waveletId = ModernIdSerialiser.INSTANCE.deserialiseWaveletId(snapshot.getWaveletId());
+    ParticipantId author = IdInterner.participantOf(snapshot.getCreator());
+    WaveletId waveletId = IdInterner.intern(
+        ModernIdSerialiser.INSTANCE.deserialiseWaveletId(snapshot.getWaveletId()));
     long creationTime = snapshot.getCreationTime();
 
     ObservableWaveletData wavelet = factory.create(new EmptyWaveletSnapshot(waveId, waveletId,
@@ -149,7 +150,7 @@ public class SnapshotSerializer {
 
   // TODO(ljvderijk): Should be removed once the AbstractWaveletData changes
   private static ParticipantId getParticipantId(String address) throws InvalidParticipantAddress {
-    return ParticipantId.of(address);
+    return IdInterner.participantOf(address);
   }
 
   private static void addDocumentSnapshotToWavelet(
@@ -84,7 +84,8 @@ public interface ClientFrontend {
    * @param waveId the wave id.
    * @param waveletIdFilter filter over wavelets to open
    * @param knownWavelets a collection of wavelet versions the client already
-   *        knows
+   *        knows, from which it is sent the deltas it has missed rather than
+   *        a snapshot
    * @param openListener callback for updates.
    */
   void openRequest(ParticipantId loggedInUser, WaveId waveId, IdFilter waveletIdFilter,
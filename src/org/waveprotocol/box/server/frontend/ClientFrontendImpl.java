@@ -20,7 +20,10 @@ package org.waveprotocol.box.server.frontend;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
 import com.google.common.collect.MapMaker;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 
 import org.waveprotocol.box.common.CommonConstants;
@@ -29,12 +32,16 @@ import org.waveprotocol.box.common.ExceptionalIterator;
 import org.waveprotocol.box.common.IndexWave;
 import org.waveprotocol.box.common.Snippets;
 import org.waveprotocol.box.common.comms.WaveClientRpc;
+import org.waveprotocol.box.server.common.CoreWaveletOperationSerializer;
 import org.waveprotocol.box.server.waveserver.WaveBus;
 import org.waveprotocol.box.server.waveserver.WaveServerException;
 import org.waveprotocol.box.server.waveserver.WaveletProvider;
 import org.waveprotocol.box.server.waveserver.WaveletProvider.SubmitRequestListener;
+import org.waveprotocol.wave.concurrencycontrol.server.ConcurrencyControlCore.ReOpenInfo;
 import org.waveprotocol.wave.federation.Proto.ProtocolWaveletDelta;
 import org.waveprotocol.wave.model.id.IdFilter;
+import org.waveprotocol.wave.model.id.InvalidIdException;
+import org.waveprotocol.wave.model.id.ModernIdSerialiser;
 import org.waveprotocol.wave.model.id.WaveId;
 import org.waveprotocol.wave.model.id.WaveletId;
 import org.waveprotocol.wave.model.id.WaveletName;
@@ -50,6 +57,7 @@ import org.waveprotocol.wave.util.logging.Log;
 
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
@@ -72,6 +80,12 @@ public class ClientFrontendImpl implements ClientFrontend, WaveBus.Subscriber {
   private static final Log LOG = Log.get(ClientFrontendImpl.class);
 
   private final static AtomicInteger channel_counter = new AtomicInteger(0);
+
+  /**
+   * Maximum number of operations in the deltas a reconnecting client has
+   * missed for them to be sent rather than a snapshot.
+   */
+  private static final int MAX_CATCH_UP_OPERATIONS = 1000;
   
   /** Information we hold in memory for each wavelet, including index wavelets. */
   private static class PerWavelet {
@@ -99,6 +113,7 @@ public class ClientFrontendImpl implements ClientFrontend, WaveBus.Subscriber {
   @VisibleForTesting final Map<ParticipantId, UserManager> perUser;
   private final Map<WaveId, Map< WaveletId, PerWavelet>> perWavelet;
   private final WaveletProvider waveletProvider;
+  private final int maxCatchUpOperations;
 
   /**
    * Creates a client frontend and subscribes it to the wave bus.
@@ -128,7 +143,21 @@ public class ClientFrontendImpl implements ClientFrontend, WaveBus.Subscriber {
   @VisibleForTesting
   ClientFrontendImpl(final HashedVersionFactory hashedVersionFactory,
       WaveletProvider waveletProvider) {
+    this(hashedVersionFactory, waveletProvider, MAX_CATCH_UP_OPERATIONS);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param maxCatchUpOperations maximum number of operations in the deltas a
+   *        reconnecting client has missed for them to be sent rather than a
+   *        snapshot.
+   */
+  @VisibleForTesting
+  ClientFrontendImpl(final HashedVersionFactory hashedVersionFactory,
+      WaveletProvider waveletProvider, int maxCatchUpOperations) {
     this.waveletProvider = waveletProvider;
+    this.maxCatchUpOperations = maxCatchUpOperations;
     final MapMaker mapMaker = new MapMaker();
     perWavelet = mapMaker.makeComputingMap(new Function<WaveId, Map<WaveletId, PerWavelet>>() {
       @Override
@@ -163,8 +192,12 @@ public class ClientFrontendImpl implements ClientFrontend, WaveBus.Subscriber {
       return;
     }
 
-    if (!knownWavelets.isEmpty()) {
-      openListener.onFailure("Known wavelets not supported");
+    Map<WaveletId, List<HashedVersion>> knownVersions;
+    try {
+      knownVersions = knownVersionsByWavelet(knownWavelets);
+    } catch (InvalidIdException e) {
+      LOG.warning("Invalid known wavelet id in openRequest", e);
+      openListener.onFailure("Invalid known wavelet id");
       return;
     }
 
@@ -197,12 +230,10 @@ public class ClientFrontendImpl implements ClientFrontend, WaveBus.Subscriber {
         WaveletName waveletName = WaveletName.of(waveId, waveletId);
         // The WaveletName by which the waveletProvider knows the relevant deltas
 
-        // TODO(anorth): if the client provides known wavelets, calculate
-        // where to start sending deltas from.
-
         DeltaSequence deltasToSend;
         CommittedWaveletSnapshot snapshotToSend;
         HashedVersion endVersion;
+        HashedVersion committedVersion = null;
 
         if (isIndexWave) {
           // Fetch deltas from the real wave from which the index wavelet
@@ -226,12 +257,26 @@ public class ClientFrontendImpl implements ClientFrontend, WaveBus.Subscriber {
           }
           snapshotToSend = null;
         } else {
-          // Send a snapshot of the current state.
-          // TODO(anorth): calculate resync point if the client already knows
-          // a snapshot.
-          deltasToSend = DeltaSequence.empty();
+          // Send a snapshot of the current state, unless the client already
+          // knows a version of the wavelet and has missed few enough deltas.
+          // The wavelet is only copied when a snapshot is sent.
           try {
-            snapshotToSend = waveletProvider.getSnapshot(waveletName);
+            DeltaSequence catchUp = null;
+            List<HashedVersion> versions = knownVersions.get(waveletId);
+            if (versions != null) {
+              committedVersion = waveletProvider.getLastCommittedVersion(waveletName);
+              if (committedVersion != null) {
+                catchUp = getCatchUpDeltas(loggedInUser, waveletName, versions);
+              }
+            }
+            if (catchUp != null) {
+              deltasToSend = catchUp;
+              snapshotToSend = null;
+            } else {
+              deltasToSend = DeltaSequence.empty();
+              snapshotToSend = waveletProvider.getSnapshot(waveletName);
+              committedVersion = null;
+            }
           } catch (WaveServerException e) {
             LOG.warning("Failed to retrieve snapshot for wavelet " + waveletName, e);
             openListener.onFailure("Wave server failure retrieving wavelet");
@@ -243,7 +288,7 @@ public class ClientFrontendImpl implements ClientFrontend, WaveBus.Subscriber {
         if (snapshotToSend == null) {
           // Send deltas.
           openListener.onUpdate(waveletName, snapshotToSend, deltasToSend,
-              null, null, channelId);
+              committedVersion, null, channelId);
         } else {
           // Send the snapshot.
           openListener.onUpdate(waveletName, snapshotToSend, deltasToSend,
@@ -263,6 +308,53 @@ public class ClientFrontendImpl implements ClientFrontend, WaveBus.Subscriber {
     }
   }
 
+  /**
+   * Groups the versions a client knows by wavelet, oldest first.
+   */
+  private static Map<WaveletId, List<HashedVersion>> knownVersionsByWavelet(
+      Collection<WaveClientRpc.WaveletVersion> knownWavelets) throws InvalidIdException {
+    Map<WaveletId, List<HashedVersion>> knownVersions = Maps.newHashMap();
+    for (WaveClientRpc.WaveletVersion knownWavelet : knownWavelets) {
+      WaveletId waveletId =
+          ModernIdSerialiser.INSTANCE.deserialiseWaveletId(knownWavelet.getWaveletId());
+      List<HashedVersion> versions = knownVersions.get(waveletId);
+      if (versions == null) {
+        versions = Lists.newArrayList();
+        knownVersions.put(waveletId, versions);
+      }
+      versions.add(CoreWaveletOperationSerializer.deserialize(knownWavelet.getHashedVersion()));
+    }
+    for (List<HashedVersion> versions : knownVersions.values()) {
+      Collections.sort(versions);
+    }
+    return knownVersions;
+  }
+
+  /**
+   * Returns the deltas a reconnecting client has missed since the most recent
+   * of its known versions in the wavelet history, preceded by an empty delta
+   * at that version, from which the client resumes.
+   *
+   * @return the deltas, or null if the client knows no version in the history
+   *         or has missed too many operations, in which case it should be sent
+   *         a snapshot.
+   */
+  private DeltaSequence getCatchUpDeltas(ParticipantId loggedInUser, WaveletName waveletName,
+      List<HashedVersion> knownVersions) throws WaveServerException {
+    ReOpenInfo catchUp =
+        waveletProvider.getCatchUpHistory(waveletName, knownVersions, maxCatchUpOperations);
+    if (catchUp == null) {
+      LOG.info("No known version of " + waveletName + " within " + maxCatchUpOperations
+          + " operations of the current version, sending a snapshot");
+      return null;
+    }
+    HashedVersion startVersion = catchUp.getStartSignature();
+    TransformedWaveletDelta reconnectDelta = new TransformedWaveletDelta(loggedInUser,
+        startVersion, 0L, Collections.<WaveletOperation>emptyList());
+    return DeltaSequence.of(ImmutableList.<TransformedWaveletDelta>builder()
+        .add(reconnectDelta).addAll(catchUp.getDeltas()).build());
+  }
+
   private String generateChannelID() {
     return "ch" + channel_counter.addAndGet(1);
   }
@@ -29,6 +29,7 @@ import org.waveprotocol.box.common.comms.WaveClientRpc.ProtocolSubmitResponse;
 import org.waveprotocol.box.common.comms.WaveClientRpc.ProtocolWaveClientRpc;
 import org.waveprotocol.box.common.comms.WaveClientRpc.ProtocolWaveletUpdate;
 import org.waveprotocol.box.server.common.CoreWaveletOperationSerializer;
+import org.waveprotocol.box.server.common.IdInterner;
 import org.waveprotocol.box.server.common.SnapshotSerializer;
 import org.waveprotocol.box.server.rpc.ServerRpcController;
 import org.waveprotocol.box.server.waveserver.WaveletProvider.SubmitRequestListener;
@@ -83,7 +84,8 @@ public class WaveClientRpcImpl implements ProtocolWaveClientRpc.Interface {
       final RpcCallback<ProtocolWaveletUpdate> done) {
     WaveId waveId;
     try {
-      waveId = ModernIdSerialiser.INSTANCE.deserialiseWaveId(request.getWaveId());
+      waveId = IdInterner.intern(
+          ModernIdSerialiser.INSTANCE.deserialiseWaveId(request.getWaveId()));
     } catch (InvalidIdException e) {
       LOG.warning("Invalid id in open", e);
       controller.setFailed(e.getMessage());
@@ -54,6 +54,15 @@ public interface AttachmentStore {
      * @param out The stream to write the attachment out to.
      */
     public void writeDataTo(OutputStream out) throws IOException;
+
+    /**
+     * Write a range of the attachment's data to the specified output stream.
+     *
+     * @param out The stream to write the attachment out to.
+     * @param offset The offset of the first byte to write.
+     * @param length The number of bytes to write.
+     */
+    public void writeDataTo(OutputStream out, long offset, long length) throws IOException;
     
     /**
      * Get the attachment data object as a stream.
@@ -95,8 +104,9 @@ public interface AttachmentStore {
   boolean storeAttachment(String id, InputStream data) throws IOException;
 
   /**
-   * Delete the specified attachment from the store. If the attachment does
-   * not exist, this has no effect.
+   * Delete the specified attachment from the store, along with its thumbnail
+   * (see {@link AttachmentUtil#getThumbnailId}). If the attachment does not
+   * exist, this has no effect.
    * 
    * The behavior of calling any methods on an open AttachmentData object is
    * undefined (implementation-specific).
@@ -20,6 +20,7 @@ package org.waveprotocol.box.server.persistence;
 import org.waveprotocol.box.server.persistence.AttachmentStore.AttachmentData;
 
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -30,7 +31,30 @@ import java.io.OutputStream;
  * @author josephg@gmail.com (Joseph Gentle)
  */
 public class AttachmentUtil {
+  private static final int BUFFER_SIZE = 8192;
+
+  /**
+   * Appended to the id of an attachment to get the id of its thumbnail, which
+   * is stored next to it. Attachments are never uploaded with such an id.
+   */
+  private static final String THUMBNAIL_ID_SUFFIX = "#thumbnail";
+
   private AttachmentUtil() {}
+
+  /**
+   * Returns the id under which the thumbnail of an attachment is stored.
+   */
+  public static String getThumbnailId(String attachmentId) {
+    return attachmentId + THUMBNAIL_ID_SUFFIX;
+  }
+
+  /**
+   * Returns whether an id is that of a thumbnail, and so may not be used for
+   * an uploaded attachment.
+   */
+  public static boolean isThumbnailId(String id) {
+    return id.endsWith(THUMBNAIL_ID_SUFFIX);
+  }
   
   /**
    * Write an input stream to an output stream. This will often be useful for
@@ -48,6 +72,38 @@ public class AttachmentUtil {
     }
   }
 
+  /**
+   * Write a range of an input stream to an output stream.
+   *
+   * @param source The InputStream to read from
+   * @param dest The OutputStream to write to
+   * @param offset The number of bytes to skip first
+   * @param length The number of bytes to write
+   * @throws IOException if the source ends before the end of the range
+   */
+  public static void writeTo(InputStream source, OutputStream dest, long offset, long length)
+      throws IOException {
+    while (offset > 0) {
+      long skipped = source.skip(offset);
+      if (skipped <= 0) {
+        if (source.read() == -1) {
+          throw new EOFException("Attachment data ends before offset " + offset);
+        }
+        skipped = 1;
+      }
+      offset -= skipped;
+    }
+    byte[] buffer = new byte[BUFFER_SIZE];
+    while (length > 0) {
+      int read = source.read(buffer, 0, (int) Math.min(buffer.length, length));
+      if (read == -1) {
+        throw new EOFException("Attachment data ends " + length + " bytes early");
+      }
+      dest.write(buffer, 0, read);
+      length -= read;
+    }
+  }
+
   /**
    * Write the attachment out to a string.
    * 
@@ -26,6 +26,7 @@ import org.waveprotocol.box.server.CoreSettings;
 import org.waveprotocol.box.server.persistence.file.FileAccountStore;
 import org.waveprotocol.box.server.persistence.file.FileAttachmentStore;
 import org.waveprotocol.box.server.persistence.file.FileDeltaStore;
+import org.waveprotocol.box.server.persistence.file.FileProfileStore;
 import org.waveprotocol.box.server.persistence.file.FileSignerInfoStore;
 import org.waveprotocol.box.server.persistence.memory.MemoryDeltaStore;
 import org.waveprotocol.box.server.persistence.memory.MemoryStore;
@@ -45,6 +46,9 @@ import org.waveprotocol.wave.crypto.CertPathStore;
  *<p>
  *The valid names for the account store are 'memory', 'file' and 'mongodb'.
  *
+ *<p>
+ *The valid names for the profile store are 'memory' and 'file'.
+ *
  * @author ljvderijk@google.com (Lennard de Rijk)
  */
 public class PersistenceModule extends AbstractModule {
@@ -57,17 +61,21 @@ public class PersistenceModule extends AbstractModule {
 
   private final String deltaStoreType;
 
+  private final String profileStoreType;
+
   private MongoDbProvider mongoDbProvider;
 
   @Inject
   public PersistenceModule(@Named(CoreSettings.SIGNER_INFO_STORE_TYPE) String signerInfoStoreType,
       @Named(CoreSettings.ATTACHMENT_STORE_TYPE) String attachmentStoreType,
       @Named(CoreSettings.ACCOUNT_STORE_TYPE) String accountStoreType,
-      @Named(CoreSettings.DELTA_STORE_TYPE) String deltaStoreType) {
+      @Named(CoreSettings.DELTA_STORE_TYPE) String deltaStoreType,
+      @Named(CoreSettings.PROFILE_STORE_TYPE) String profileStoreType) {
     this.signerInfoStoreType = signerInfoStoreType;
     this.attachmentStoreType = attachmentStoreType;
     this.accountStoreType = accountStoreType;
     this.deltaStoreType = deltaStoreType;
+    this.profileStoreType = profileStoreType;
   }
 
   /**
@@ -86,6 +94,7 @@ public class PersistenceModule extends AbstractModule {
     bindAttachmentStore();
     bindAccountStore();
     bindDeltaStore();
+    bindProfileStore();
   }
 
   /**
@@ -141,4 +150,14 @@ public class PersistenceModule extends AbstractModule {
       throw new RuntimeException("Invalid delta store type: '" + deltaStoreType + "'");
     }
   }
+
+  private void bindProfileStore() {
+    if (profileStoreType.equalsIgnoreCase("memory")) {
+      bind(ProfileStore.class).to(MemoryStore.class).in(Singleton.class);
+    } else if (profileStoreType.equalsIgnoreCase("file")) {
+      bind(ProfileStore.class).to(FileProfileStore.class).in(Singleton.class);
+    } else {
+      throw new RuntimeException("Invalid profile store type: '" + profileStoreType + "'");
+    }
+  }
 }
@@ -0,0 +1,51 @@
+/**
+ * Copyright 2011 Google Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package org.waveprotocol.box.server.persistence;
+
+import com.google.wave.api.ParticipantProfile;
+
+/**
+ * Interface for the storage and retrieval of the last fetched
+ * {@link ParticipantProfile} of each participant.
+ */
+public interface ProfileStore {
+  /**
+   * Initialize the profile store.
+   * Implementations are expected to validate any configuration values and
+   * validate the state of the store.
+   *
+   * @throws PersistenceException
+   */
+  void initializeProfileStore() throws PersistenceException;
+
+  /**
+   * Returns the stored {@link ParticipantProfile} for the given address or
+   * null if not exists.
+   *
+   * @param address the address of the participant.
+   */
+  ParticipantProfile getProfile(String address) throws PersistenceException;
+
+  /**
+   * Puts the given {@link ParticipantProfile} in the storage, keyed by its
+   * address. Overrides an existing profile for the same address.
+   *
+   * @param profile to store.
+   */
+  void putProfile(ParticipantProfile profile) throws PersistenceException;
+}
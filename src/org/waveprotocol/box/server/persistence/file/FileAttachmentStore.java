@@ -17,14 +17,21 @@
 
 package org.waveprotocol.box.server.persistence.file;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
 
+import org.apache.commons.codec.binary.Hex;
 import org.waveprotocol.box.server.CoreSettings;
 import org.waveprotocol.box.server.persistence.AttachmentStore;
 import org.waveprotocol.box.server.persistence.AttachmentUtil;
 import org.waveprotocol.wave.model.util.CharBase64;
+import org.waveprotocol.wave.util.logging.Log;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -32,20 +39,63 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * An implementation of AttachmentStore which uses files on disk
  *
+ * The store is content-addressed: the data of each attachment is hashed as it
+ * is stored, each distinct blob of data is stored once in a file named after
+ * its digest, and each attachment id is mapped to the digest of its data by a
+ * small file. Blobs that are no longer referenced by any attachment are
+ * deleted by a background sweep. Attachments stored before the store was
+ * content-addressed, as a file named after their id, are still served.
+ *
  * @author josephg@gmail.com (Joseph Gentle)
  */
 public class FileAttachmentStore implements AttachmentStore {
+  private static final Log LOG = Log.get(FileAttachmentStore.class);
+
+  private static final String IDS_DIRECTORY = "ids";
+  private static final String BLOBS_DIRECTORY = "blobs";
+  private static final String TEMP_DIRECTORY = "tmp";
+
+  private static final String DIGEST_ALGORITHM = "SHA-256";
+  private static final Charset DIGEST_CHARSET = Charset.forName("US-ASCII");
+
+  /** How long after an attachment is deleted its data is swept. */
+  private static final long SWEEP_DELAY_MINUTES = 1;
+
   /**
    * The directory in which the attachments are stored. This directory is created lazily
    * when the first attachment is stored.
    */
   private String basePath;
 
+  /**
+   * The number of attachments referencing each blob, by digest. Loaded from
+   * the id files when first needed. Guarded by this.
+   */
+  private Map<String, Integer> referenceCounts;
+
+  /** Whether a sweep is scheduled. Guarded by this. */
+  private boolean sweepScheduled;
+
+  /** Runs the sweeps. Its thread is only started by the first sweep. */
+  private final ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(
+      new ThreadFactoryBuilder().setNameFormat("AttachmentSweeper-%d").setDaemon(true).build());
+
   @Inject
   public FileAttachmentStore(@Named(CoreSettings.ATTACHMENT_STORE_DIRECTORY) String basePath) {
     this.basePath = basePath;
@@ -73,51 +123,161 @@ public class FileAttachmentStore implements AttachmentStore {
     return file;
   }
 
+  /** Gets the file which holds the digest of the attachment with the specified ID. */
+  private File getIdFile(String id) {
+    return new File(getDirectory(IDS_DIRECTORY), encodeId(id));
+  }
+
+  /** Gets the file which stores the blob with the specified digest. */
+  private File getBlobFile(String digest) {
+    return new File(getDirectory(BLOBS_DIRECTORY), digest);
+  }
+
+  private File getDirectory(String name) {
+    return new File(basePath + File.separatorChar + name);
+  }
+
+  private static String readDigest(File idFile) throws IOException {
+    return Files.toString(idFile, DIGEST_CHARSET).trim();
+  }
+
   @Override
   public AttachmentData getAttachment(String id) {
-    final File file = getAttachmentFile(id, false);
+    File idFile = getIdFile(id);
+    if (idFile.exists()) {
+      try {
+        File blobFile = getBlobFile(readDigest(idFile));
+        if (!blobFile.canRead()) {
+          LOG.warning("Missing data of attachment " + id);
+          return null;
+        }
+        return new FileAttachmentData(blobFile, idFile.lastModified());
+      } catch (IOException e) {
+        LOG.warning("Failed to read digest of attachment " + id, e);
+        return null;
+      }
+    }
 
+    File file = getAttachmentFile(id, false);
     if (!file.exists() || !file.canRead()) {
       return null;
     }
+    return new FileAttachmentData(file, file.lastModified());
+  }
 
-    return new AttachmentData() {
-      @Override
-      public Date getLastModifiedDate() {
-        return new Date(file.lastModified());
-      }
+  /** The data of an attachment, stored in a file. */
+  private static class FileAttachmentData implements AttachmentData {
+    private final File file;
+    private final long lastModified;
 
-      @Override
-      public InputStream getInputStream() throws IOException {
-        return new FileInputStream(file);
-      }
+    FileAttachmentData(File file, long lastModified) {
+      this.file = file;
+      this.lastModified = lastModified;
+    }
 
-      @Override
-      public long getContentSize() {
-        return file.length();
-      }
+    @Override
+    public Date getLastModifiedDate() {
+      return new Date(lastModified);
+    }
 
-      @Override
-      public void writeDataTo(OutputStream out) throws IOException {
-        InputStream is = getInputStream();
-        AttachmentUtil.writeTo(is, out);
+    @Override
+    public InputStream getInputStream() throws IOException {
+      return new FileInputStream(file);
+    }
+
+    @Override
+    public long getContentSize() {
+      return file.length();
+    }
+
+    @Override
+    public void writeDataTo(OutputStream out) throws IOException {
+      writeDataTo(out, 0, file.length());
+    }
+
+    @Override
+    public void writeDataTo(OutputStream out, long offset, long length) throws IOException {
+      // Transfer straight from the file channel, which the operating system
+      // does without copying when the output is itself a file or socket
+      // channel, and otherwise without going through an InputStream.
+      WritableByteChannel target = (out instanceof WritableByteChannel)
+          ? (WritableByteChannel) out : Channels.newChannel(out);
+      FileInputStream is = new FileInputStream(file);
+      try {
+        FileChannel channel = is.getChannel();
+        long end = offset + length;
+        while (offset < end) {
+          long transferred = channel.transferTo(offset, end - offset, target);
+          if (transferred <= 0) {
+            throw new EOFException("Attachment file ends before offset " + offset);
+          }
+          offset += transferred;
+        }
+      } finally {
         is.close();
       }
-    };
+    }
   }
 
   @Override
   public boolean storeAttachment(String id, InputStream data) throws IOException {
-    File file = getAttachmentFile(id, true);
+    File idFile = getIdFile(id);
+    if (idFile.exists() || getAttachmentFile(id, false).exists()) {
+      return false;
+    }
 
-    if (file.exists()) {
+    // Hash the data while writing it to a temporary file, outside of the lock.
+    File tempDirectory = getDirectory(TEMP_DIRECTORY);
+    tempDirectory.mkdirs();
+    File tempFile = File.createTempFile("attachment", null, tempDirectory);
+    try {
+      MessageDigest digest = newDigest();
+      FileOutputStream stream = new FileOutputStream(tempFile);
+      try {
+        AttachmentUtil.writeTo(new DigestInputStream(data, digest), stream);
+      } finally {
+        stream.close();
+      }
+      return addReference(id, idFile, new String(Hex.encodeHex(digest.digest())), tempFile);
+    } finally {
+      if (tempFile.exists()) {
+        tempFile.delete();
+      }
+    }
+  }
+
+  /**
+   * Maps an attachment id to a digest, moving the data in place if no blob
+   * with that digest is stored yet.
+   *
+   * @return false if the id is already mapped.
+   */
+  private synchronized boolean addReference(String id, File idFile, String digest, File tempFile)
+      throws IOException {
+    if (idFile.exists()) {
       return false;
-    } else {
-      FileOutputStream stream = new FileOutputStream(file);
-      AttachmentUtil.writeTo(data, stream);
-      stream.close();
-      return true;
     }
+    loadReferenceCounts();
+    File blobFile = getBlobFile(digest);
+    if (!blobFile.exists()) {
+      blobFile.getParentFile().mkdirs();
+      if (!tempFile.renameTo(blobFile)) {
+        throw new IOException("Failed to move attachment data to " + blobFile);
+      }
+    }
+    // Write the id file aside and move it in place, so that readers never see
+    // it partially written.
+    File tempIdFile = File.createTempFile("attachment-id", null, tempFile.getParentFile());
+    Files.write(digest, tempIdFile, DIGEST_CHARSET);
+    idFile.getParentFile().mkdirs();
+    if (!tempIdFile.renameTo(idFile)) {
+      tempIdFile.delete();
+      throw new IOException("Failed to write attachment id file " + idFile);
+    }
+
+    Integer count = referenceCounts.get(digest);
+    referenceCounts.put(digest, (count == null) ? 1 : count + 1);
+    return true;
   }
 
   @Override
@@ -126,5 +286,103 @@ public class FileAttachmentStore implements AttachmentStore {
     if (file.exists()) {
       file.delete();
     }
+    removeReference(id);
+    if (!AttachmentUtil.isThumbnailId(id)) {
+      deleteAttachment(AttachmentUtil.getThumbnailId(id));
+    }
+  }
+
+  private synchronized void removeReference(String id) {
+    File idFile = getIdFile(id);
+    if (!idFile.exists()) {
+      return;
+    }
+    String digest;
+    try {
+      loadReferenceCounts();
+      digest = readDigest(idFile);
+    } catch (IOException e) {
+      LOG.warning("Failed to read digest of attachment " + id, e);
+      idFile.delete();
+      return;
+    }
+    idFile.delete();
+
+    Integer count = referenceCounts.get(digest);
+    if (count == null || count <= 1) {
+      referenceCounts.remove(digest);
+      scheduleSweep();
+    } else {
+      referenceCounts.put(digest, count - 1);
+    }
+  }
+
+  /**
+   * Counts the references to each blob from the id files, if not done yet.
+   */
+  private synchronized void loadReferenceCounts() throws IOException {
+    if (referenceCounts != null) {
+      return;
+    }
+    Map<String, Integer> counts = Maps.newHashMap();
+    File[] idFiles = getDirectory(IDS_DIRECTORY).listFiles();
+    if (idFiles != null) {
+      for (File idFile : idFiles) {
+        String digest = readDigest(idFile);
+        Integer count = counts.get(digest);
+        counts.put(digest, (count == null) ? 1 : count + 1);
+      }
+    }
+    referenceCounts = counts;
+  }
+
+  private synchronized void scheduleSweep() {
+    if (sweepScheduled) {
+      return;
+    }
+    sweepScheduled = true;
+    sweeper.schedule(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          sweep();
+        } catch (IOException e) {
+          LOG.warning("Failed to sweep unreferenced attachment data", e);
+        }
+      }
+    }, SWEEP_DELAY_MINUTES, TimeUnit.MINUTES);
+  }
+
+  /**
+   * Deletes the blobs which are not referenced by any attachment.
+   *
+   * @return the number of blobs deleted.
+   */
+  @VisibleForTesting
+  synchronized int sweep() throws IOException {
+    sweepScheduled = false;
+    loadReferenceCounts();
+    int deleted = 0;
+    File[] blobFiles = getDirectory(BLOBS_DIRECTORY).listFiles();
+    if (blobFiles != null) {
+      for (File blobFile : blobFiles) {
+        if (!referenceCounts.containsKey(blobFile.getName()) && blobFile.delete()) {
+          deleted++;
+        }
+      }
+    }
+    if (deleted > 0) {
+      LOG.info("Swept " + deleted + " unreferenced attachment blobs");
+    }
+    return deleted;
+  }
+
+  private static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance(DIGEST_ALGORITHM);
+    } catch (NoSuchAlgorithmException e) {
+      // Every Java platform is required to support SHA-256.
+      throw new IllegalStateException(e);
+    }
   }
 }
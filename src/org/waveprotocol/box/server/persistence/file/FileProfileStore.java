@@ -0,0 +1,114 @@
+/**
+ * Copyright 2011 Google Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package org.waveprotocol.box.server.persistence.file;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+import com.google.wave.api.ParticipantProfile;
+
+import org.waveprotocol.box.server.CoreSettings;
+import org.waveprotocol.box.server.persistence.PersistenceException;
+import org.waveprotocol.box.server.persistence.ProfileStore;
+import org.waveprotocol.wave.util.logging.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+/**
+ * A flat file based implementation of {@link ProfileStore}. Each profile is
+ * stored as a properties file named after the hex encoded address.
+ */
+public class FileProfileStore implements ProfileStore {
+  private static final String PROFILE_FILE_EXTENSION = ".profile";
+  private static final String ADDRESS = "address";
+  private static final String NAME = "name";
+  private static final String IMAGE_URL = "imageUrl";
+  private static final String PROFILE_URL = "profileUrl";
+
+  private static final Log LOG = Log.get(FileProfileStore.class);
+
+  private final String profileStoreBasePath;
+
+  @Inject
+  public FileProfileStore(@Named(CoreSettings.PROFILE_STORE_DIRECTORY) String profileStoreBasePath) {
+    Preconditions.checkNotNull(profileStoreBasePath, "Requested path is null");
+    this.profileStoreBasePath = profileStoreBasePath;
+  }
+
+  @Override
+  public void initializeProfileStore() throws PersistenceException {
+    FileUtils.performDirectoryChecks(profileStoreBasePath, PROFILE_FILE_EXTENSION, "profile store",
+        LOG);
+  }
+
+  @Override
+  public ParticipantProfile getProfile(String address) throws PersistenceException {
+    File profileFile = new File(addressToFileName(address));
+    if (!profileFile.exists()) {
+      return null;
+    }
+    InputStream file = null;
+    try {
+      file = new FileInputStream(profileFile);
+      Properties properties = new Properties();
+      properties.load(file);
+      return new ParticipantProfile(properties.getProperty(ADDRESS, address),
+          properties.getProperty(NAME, ""), properties.getProperty(IMAGE_URL, ""),
+          properties.getProperty(PROFILE_URL, ""));
+    } catch (IOException e) {
+      LOG.severe("Failed to read profile from file: " + profileFile.getAbsolutePath(), e);
+      throw new PersistenceException(e);
+    } finally {
+      FileUtils.closeAndIgnoreException(file, profileFile, LOG);
+    }
+  }
+
+  @Override
+  public void putProfile(ParticipantProfile profile) throws PersistenceException {
+    Preconditions.checkNotNull(profile);
+    File profileFile = new File(addressToFileName(profile.getAddress()));
+    OutputStream file = null;
+    try {
+      Properties properties = new Properties();
+      properties.setProperty(ADDRESS, profile.getAddress());
+      properties.setProperty(NAME, Strings.nullToEmpty(profile.getName()));
+      properties.setProperty(IMAGE_URL, Strings.nullToEmpty(profile.getImageUrl()));
+      properties.setProperty(PROFILE_URL, Strings.nullToEmpty(profile.getProfileUrl()));
+      file = new FileOutputStream(profileFile);
+      properties.store(file, null);
+      file.flush();
+    } catch (IOException e) {
+      LOG.severe("Failed to write profile to file: " + profileFile.getAbsolutePath(), e);
+      throw new PersistenceException(e);
+    } finally {
+      FileUtils.closeAndIgnoreException(file, profileFile, LOG);
+    }
+  }
+
+  private String addressToFileName(String address) {
+    return profileStoreBasePath + File.separator
+        + FileUtils.toFilenameFriendlyString(address.toLowerCase()) + PROFILE_FILE_EXTENSION;
+  }
+}
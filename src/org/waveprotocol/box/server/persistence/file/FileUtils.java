@@ -21,6 +21,7 @@ import com.google.common.base.Preconditions;
 
 import org.apache.commons.codec.DecoderException;
 import org.apache.commons.codec.binary.Hex;
+import org.waveprotocol.box.server.common.IdInterner;
 import org.waveprotocol.box.server.persistence.PersistenceException;
 import org.waveprotocol.wave.model.id.WaveId;
 import org.waveprotocol.wave.model.id.WaveletId;
@@ -117,7 +118,7 @@ public class FileUtils {
    */
   public static WaveId waveIdFromPathSegment(String pathSegment) {
     Pair<String, String> segments = decodePathSegmentPair(pathSegment);
-    return WaveId.of(segments.first, segments.second);
+    return IdInterner.intern(WaveId.of(segments.first, segments.second));
   }
 
   /**
@@ -142,7 +143,7 @@ public class FileUtils {
    */
   public static WaveletId waveletIdFromPathSegment(String pathSegment) {
     Pair<String, String> segments = decodePathSegmentPair(pathSegment);
-    return WaveletId.of(segments.first, segments.second);
+    return IdInterner.intern(WaveletId.of(segments.first, segments.second));
   }
 
   /**
@@ -17,9 +17,12 @@
 
 package org.waveprotocol.box.server.persistence.memory;
 
+import com.google.wave.api.ParticipantProfile;
+
 import org.waveprotocol.box.server.account.AccountData;
 import org.waveprotocol.box.server.persistence.AccountStore;
 import org.waveprotocol.box.server.persistence.PersistenceException;
+import org.waveprotocol.box.server.persistence.ProfileStore;
 import org.waveprotocol.box.server.persistence.SignerInfoStore;
 import org.waveprotocol.wave.crypto.CertPathStore;
 import org.waveprotocol.wave.crypto.DefaultCertPathStore;
@@ -41,16 +44,20 @@ import java.util.concurrent.ConcurrentHashMap;
  *<p>
  *{@link AccountStore} implementation stores {@link AccountData} in a map keyed by username.
  *
+ *<p>
+ *{@link ProfileStore} implementation stores {@link ParticipantProfile} in a map keyed by address.
+ *
  * @author ljvderijk@google.com (Lennard de Rijk)
  *
  */
-public class MemoryStore implements SignerInfoStore, AccountStore {
+public class MemoryStore implements SignerInfoStore, AccountStore, ProfileStore {
 
   private final CertPathStore certPathStore;
 
   public MemoryStore() {
     certPathStore = new DefaultCertPathStore();
     accountStore = new ConcurrentHashMap<ParticipantId, AccountData>();
+    profileStore = new ConcurrentHashMap<String, ParticipantProfile>();
   }
 
   @Override
@@ -94,4 +101,25 @@ public class MemoryStore implements SignerInfoStore, AccountStore {
   public void removeAccount(ParticipantId id) {
     accountStore.remove(id);
   }
+
+  /*
+   *  ProfileStore
+   */
+
+  private final Map<String, ParticipantProfile> profileStore;
+
+  @Override
+  public void initializeProfileStore() {
+    // Nothing to initialize
+  }
+
+  @Override
+  public ParticipantProfile getProfile(String address) {
+    return profileStore.get(address);
+  }
+
+  @Override
+  public void putProfile(ParticipantProfile profile) {
+    profileStore.put(profile.getAddress(), profile);
+  }
 }
@@ -28,10 +28,12 @@ import com.mongodb.DB;
 import com.mongodb.DBCollection;
 import com.mongodb.DBObject;
 import com.mongodb.MongoException;
+import com.mongodb.WriteConcern;
 import com.mongodb.gridfs.GridFS;
 import com.mongodb.gridfs.GridFSDBFile;
 import com.mongodb.gridfs.GridFSInputFile;
 
+import org.apache.commons.codec.binary.Hex;
 import org.bson.types.BasicBSONList;
 import org.waveprotocol.box.server.account.AccountData;
 import org.waveprotocol.box.server.account.HumanAccountData;
@@ -41,6 +43,7 @@ import org.waveprotocol.box.server.account.RobotAccountDataImpl;
 import org.waveprotocol.box.server.authentication.PasswordDigest;
 import org.waveprotocol.box.server.persistence.AccountStore;
 import org.waveprotocol.box.server.persistence.AttachmentStore;
+import org.waveprotocol.box.server.persistence.AttachmentUtil;
 import org.waveprotocol.box.server.persistence.PersistenceException;
 import org.waveprotocol.box.server.persistence.SignerInfoStore;
 import org.waveprotocol.box.server.robots.RobotCapabilities;
@@ -53,6 +56,9 @@ import org.waveprotocol.wave.model.wave.ParticipantId;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
@@ -166,19 +172,58 @@ public final class MongoDbStore implements SignerInfoStore, AttachmentStore, Acc
 
   // *********** Attachments.
 
+  /**
+   * The collection mapping each attachment id (as _id) to the digest of its
+   * data, under which the data is stored once in the attachment grid.
+   */
+  private static final String ATTACHMENT_ID_COLLECTION = "attachmentIds";
+  private static final String ATTACHMENT_DIGEST_FIELD = "digest";
+  private static final String ATTACHMENT_BUCKET = "attachments";
+
   private GridFS attachmentGrid;
+  private DBCollection attachmentIds;
+
+  /**
+   * Guards the mapping of ids to digests against a blob being removed while
+   * it is referenced again.
+   */
+  private final Object attachmentLock = new Object();
 
   private GridFS getAttachmentGrid() {
     if (attachmentGrid == null) {
-      attachmentGrid = new GridFS(database, "attachments");
+      attachmentGrid = new GridFS(database, ATTACHMENT_BUCKET);
     }
 
     return attachmentGrid;
   }
 
+  private DBCollection getAttachmentIdCollection() {
+    if (attachmentIds == null) {
+      attachmentIds = database.getCollection(ATTACHMENT_ID_COLLECTION);
+      // Deleting an attachment counts the other ids referring to its digest.
+      attachmentIds.ensureIndex(new BasicDBObject(ATTACHMENT_DIGEST_FIELD, 1));
+    }
+
+    return attachmentIds;
+  }
+
+  /**
+   * Returns the stored data of an attachment. Attachments stored before their
+   * data was shared are stored in a grid file named after their id.
+   */
+  private GridFSDBFile findAttachmentFile(String id) {
+    DBObject mapping = getAttachmentIdCollection().findOne(new BasicDBObject("_id", id));
+    if (mapping == null) {
+      return getAttachmentGrid().findOne(id);
+    }
+    String digest = (String) mapping.get(ATTACHMENT_DIGEST_FIELD);
+    // The digest is only missing while the attachment is being stored.
+    return (digest == null) ? null : getAttachmentGrid().findOne(digest);
+  }
+
   @Override
   public AttachmentData getAttachment(String id) {
-    final GridFSDBFile attachment = getAttachmentGrid().findOne(id);
+    final GridFSDBFile attachment = findAttachmentFile(id);
 
     if (attachment == null) {
       return null;
@@ -189,6 +234,16 @@ public final class MongoDbStore implements SignerInfoStore, AttachmentStore, Acc
           attachment.writeTo(out);
         }
 
+        @Override
+        public void writeDataTo(OutputStream out, long offset, long length) throws IOException {
+          InputStream in = attachment.getInputStream();
+          try {
+            AttachmentUtil.writeTo(in, out, offset, length);
+          } finally {
+            in.close();
+          }
+        }
+
         @Override
         public Date getLastModifiedDate() {
           return attachment.getUploadDate();
@@ -207,36 +262,100 @@ public final class MongoDbStore implements SignerInfoStore, AttachmentStore, Acc
     }
   }
 
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The id is claimed first by a single insert, which fails if the id is
+   * taken. The data is then stored once per distinct SHA-256 digest: if a file
+   * with the same digest is stored already, the chunks just written are
+   * removed and the id refers to that file. Ids of attachments stored before
+   * their data was shared have no mapping, so they are checked for separately.
+   */
   @Override
   public boolean storeAttachment(String id, InputStream data) throws IOException {
-    // This method returns false if the attachment is already in the database.
-    // Unfortunately, as far as I can tell the only way to do this is to perform
-    // a second database query.
-    if (getAttachment(id) != null) {
+    if (getAttachmentGrid().findOne(id) != null) {
+      // Stored before the data was shared, and would be shadowed by a mapping.
       return false;
-    } else {
-      GridFSInputFile file = getAttachmentGrid().createFile(data, id);
+    }
+    DBCollection ids = getAttachmentIdCollection();
+    try {
+      ids.insert(new BasicDBObject("_id", id), WriteConcern.SAFE);
+    } catch (MongoException.DuplicateKey e) {
+      return false;
+    }
 
-      try {
-        file.save();
-      } catch (MongoException e) {
-        // Unfortunately, file.save() wraps any IOException thrown in a
-        // 'MongoException'. Since the interface explicitly throws IOExceptions,
-        // we unwrap any IOExceptions thrown.
-        Throwable innerException = e.getCause();
-        if (innerException instanceof IOException) {
-          throw (IOException) innerException;
+    boolean stored = false;
+    try {
+      MessageDigest digest = newDigest();
+      GridFSInputFile file =
+          getAttachmentGrid().createFile(new DigestInputStream(data, digest));
+      file.saveChunks();
+      String digestString = new String(Hex.encodeHex(digest.digest()));
+
+      synchronized (attachmentLock) {
+        if (getAttachmentGrid().findOne(digestString) == null) {
+          file.setFilename(digestString);
+          saveAttachmentFile(file);
         } else {
-          throw e;
+          database.getCollection(ATTACHMENT_BUCKET + ".chunks").remove(
+              new BasicDBObject("files_id", file.getId()));
         }
+        ids.update(new BasicDBObject("_id", id),
+            new BasicDBObject("$set", new BasicDBObject(ATTACHMENT_DIGEST_FIELD, digestString)),
+            false, false, WriteConcern.SAFE);
       }
+      stored = true;
       return true;
+    } finally {
+      if (!stored) {
+        // Release the id, so that the upload can be retried.
+        ids.remove(new BasicDBObject("_id", id));
+      }
+    }
+  }
+
+  private static void saveAttachmentFile(GridFSInputFile file) throws IOException {
+    try {
+      file.save();
+    } catch (MongoException e) {
+      // Unfortunately, file.save() wraps any IOException thrown in a
+      // 'MongoException'. Since the interface explicitly throws IOExceptions,
+      // we unwrap any IOExceptions thrown.
+      Throwable innerException = e.getCause();
+      if (innerException instanceof IOException) {
+        throw (IOException) innerException;
+      } else {
+        throw e;
+      }
+    }
+  }
+
+  private static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not supported", e);
     }
   }
 
   @Override
   public void deleteAttachment(String id) {
-    getAttachmentGrid().remove(id);
+    if (!AttachmentUtil.isThumbnailId(id)) {
+      deleteAttachment(AttachmentUtil.getThumbnailId(id));
+    }
+    DBCollection ids = getAttachmentIdCollection();
+    synchronized (attachmentLock) {
+      DBObject mapping = ids.findAndRemove(new BasicDBObject("_id", id));
+      if (mapping == null) {
+        getAttachmentGrid().remove(id);
+        return;
+      }
+      String digest = (String) mapping.get(ATTACHMENT_DIGEST_FIELD);
+      if (digest != null
+          && ids.getCount(new BasicDBObject(ATTACHMENT_DIGEST_FIELD, digest)) == 0) {
+        getAttachmentGrid().remove(digest);
+      }
+    }
   }
 
 
@@ -20,6 +20,7 @@ package org.waveprotocol.box.server.persistence.protos;
 import com.google.common.collect.ImmutableList;
 
 import org.waveprotocol.box.server.common.CoreWaveletOperationSerializer;
+import org.waveprotocol.box.server.common.IdInterner;
 import org.waveprotocol.box.server.persistence.protos.ProtoDeltaStoreData.ProtoTransformedWaveletDelta;
 import org.waveprotocol.wave.model.operation.wave.TransformedWaveletDelta;
 import org.waveprotocol.wave.model.operation.wave.WaveletOperation;
@@ -57,7 +58,7 @@ public class ProtoDeltaStoreDataSerializer {
     long applicationTimestamp = delta.getApplicationTimestamp();
     HashedVersion resultingVersion =
         CoreWaveletOperationSerializer.deserialize(delta.getResultingVersion());
-    ParticipantId author = ParticipantId.ofUnsafe(delta.getAuthor());
+    ParticipantId author = IdInterner.participantOfUnsafe(delta.getAuthor());
     ImmutableList.Builder<WaveletOperation> operations = ImmutableList.builder();
     int numOperations = delta.getOperationCount();
     for (int i = 0; i < numOperations; i++) {
@@ -36,16 +36,23 @@ import net.oauth.SimpleOAuthValidator;
 import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
 import org.waveprotocol.box.server.CoreSettings;
+import org.waveprotocol.box.server.persistence.ProfileStore;
 import org.waveprotocol.box.server.robots.active.ActiveApiOperationServiceRegistry;
 import org.waveprotocol.box.server.robots.dataapi.DataApiOAuthServlet;
 import org.waveprotocol.box.server.robots.dataapi.DataApiOperationServiceRegistry;
+import org.waveprotocol.box.server.robots.operations.CachingProfilesFetcher;
+import org.waveprotocol.box.server.robots.operations.FetchProfilesService;
+import org.waveprotocol.box.server.robots.operations.GravatarProfileFetcher;
 import org.waveprotocol.box.server.robots.operations.NotifyOperationService;
 import org.waveprotocol.box.server.robots.operations.SearchService;
 import org.waveprotocol.box.server.robots.passive.RobotConnector;
 
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Robot API Module.
@@ -56,6 +63,12 @@ public class RobotApiModule extends AbstractModule {
 
   private static final int NUMBER_OF_THREADS = 10;
 
+  /**
+   * Maximum number of profile fetches waiting for a thread. Beyond it fetches
+   * are rejected, and the profiles fall back to the last known ones.
+   */
+  private static final int MAX_QUEUED_PROFILE_FETCHES = 1000;
+
   private static final String AUTHORIZE_TOKEN_PATH = "/OAuthAuthorizeToken";
   private static final String REQUEST_TOKEN_PATH = "/OAuthGetRequestToken";
   private static final String ACCESS_TOKEN_PATH = "/OAuthGetAccessToken";
@@ -105,16 +118,30 @@ public class RobotApiModule extends AbstractModule {
   @Singleton
   @Inject
   @Named("ActiveApiRegistry")
-  protected OperationServiceRegistry provideActiveApiRegistry(NotifyOperationService notifyOpService) {
-    return new ActiveApiOperationServiceRegistry(notifyOpService);
+  protected OperationServiceRegistry provideActiveApiRegistry(
+      NotifyOperationService notifyOpService, FetchProfilesService fetchProfilesService) {
+    return new ActiveApiOperationServiceRegistry(notifyOpService, fetchProfilesService);
   }
 
   @Provides
   @Singleton
   @Inject
   @Named("DataApiRegistry")
-  protected OperationServiceRegistry provideDataApiRegistry(SearchService searchService) {
-    return new DataApiOperationServiceRegistry(searchService);
+  protected OperationServiceRegistry provideDataApiRegistry(
+      SearchService searchService, FetchProfilesService fetchProfilesService) {
+    return new DataApiOperationServiceRegistry(searchService, fetchProfilesService);
+  }
+
+  @Provides
+  @Singleton
+  @Inject
+  protected CachingProfilesFetcher provideProfilesFetcher(ProfileStore profileStore) {
+    ThreadFactory threadFactory =
+        new ThreadFactoryBuilder().setNameFormat("ProfileFetcher").setDaemon(true).build();
+    Executor executor = new ThreadPoolExecutor(NUMBER_OF_THREADS, NUMBER_OF_THREADS, 0L,
+        TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(MAX_QUEUED_PROFILE_FETCHES),
+        threadFactory, new ThreadPoolExecutor.AbortPolicy());
+    return CachingProfilesFetcher.create(GravatarProfileFetcher.create(), profileStore, executor);
   }
 
   @Provides
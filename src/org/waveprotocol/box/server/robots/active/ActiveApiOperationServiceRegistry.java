@@ -43,7 +43,8 @@ public final class ActiveApiOperationServiceRegistry extends AbstractOperationSe
   // the default client libraries
   @SuppressWarnings("deprecation")
   @Inject
-  public ActiveApiOperationServiceRegistry(NotifyOperationService notifyOpService) {
+  public ActiveApiOperationServiceRegistry(NotifyOperationService notifyOpService,
+      FetchProfilesService fetchProfilesService) {
     super();
 
     // Register all the OperationProviders
@@ -65,6 +66,6 @@ public final class ActiveApiOperationServiceRegistry extends AbstractOperationSe
     register(OperationType.DOCUMENT_MODIFY, DocumentModifyService.create());
     register(OperationType.WAVELET_SET_TITLE, WaveletSetTitleService.create());
     register(OperationType.ROBOT_FOLDER_ACTION, FolderActionService.create());
-    register(OperationType.ROBOT_FETCH_PROFILES, FetchProfilesService.create());
+    register(OperationType.ROBOT_FETCH_PROFILES, fetchProfilesService);
   }
 }
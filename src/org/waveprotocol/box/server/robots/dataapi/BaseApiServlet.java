@@ -18,6 +18,7 @@
 package org.waveprotocol.box.server.robots.dataapi;
 
 import com.google.common.collect.Lists;
+import com.google.common.io.CharStreams;
 import com.google.wave.api.InvalidRequestException;
 import com.google.wave.api.JsonRpcResponse;
 import com.google.wave.api.OperationRequest;
@@ -113,24 +114,12 @@ public abstract class BaseApiServlet extends HttpServlet {
       return;
     }
 
-    String apiRequest;
     try {
-      // message.readBodyAsString() doesn't work due to a NPE in the OAuth
-      // libraries.
-      BufferedReader reader = req.getReader();
-      apiRequest = reader.readLine();
-    } catch (IOException e) {
-      LOG.warning("Unable to read the incoming request", e);
-      throw e;
-    }
-
-    LOG.info("Received the following Json: " + apiRequest);
-    try {
-      operations = robotSerializer.deserializeOperations(apiRequest);
+      operations = readOperations(req);
     } catch (InvalidRequestException e) {
-      LOG.info("Unable to parse Json to list of OperationRequests: " + apiRequest);
+      LOG.info("Unable to parse Json to list of OperationRequests", e);
       resp.sendError(HttpServletResponse.SC_BAD_REQUEST,
-          "Unable to parse Json to list of OperationRequests: " + apiRequest);
+          "Unable to parse Json to list of OperationRequests: " + e.getMessage());
       return;
     }
 
@@ -143,6 +132,36 @@ public abstract class BaseApiServlet extends HttpServlet {
     handleResults(context, resp, version);
   }
 
+  /**
+   * Reads the operations from the full body of the request. The body is
+   * parsed straight from the request reader unless fine logging is enabled,
+   * in which case it is buffered so it can be logged.
+   *
+   * @param req the request to read the operations from.
+   * @return the operations in the request body.
+   * @throws IOException if the request body can not be read.
+   * @throws InvalidRequestException if the body is not a valid list of
+   *         operations.
+   */
+  private List<OperationRequest> readOperations(HttpServletRequest req)
+      throws IOException, InvalidRequestException {
+    // message.readBodyAsString() doesn't work due to a NPE in the OAuth
+    // libraries.
+    BufferedReader reader;
+    try {
+      reader = req.getReader();
+      if (LOG.isFineLoggable()) {
+        String apiRequest = CharStreams.toString(reader);
+        LOG.fine("Received the following Json: " + apiRequest);
+        return robotSerializer.deserializeOperations(apiRequest);
+      }
+    } catch (IOException e) {
+      LOG.warning("Unable to read the incoming request", e);
+      throw e;
+    }
+    return robotSerializer.deserializeOperations(reader);
+  }
+
   /**
    * Executes operations in the given context.
    *
@@ -180,15 +199,21 @@ public abstract class BaseApiServlet extends HttpServlet {
       responses.addLast(response);
     }
 
-    String jsonResponse =
-        robotSerializer.serialize(responses, GsonFactory.JSON_RPC_RESPONSE_LIST_TYPE, version);
-    LOG.info("Returning the following Json: " + jsonResponse);
-
     // Write the response back through the HttpServlet
     try {
       resp.setContentType(JSON_CONTENT_TYPE);
       PrintWriter writer = resp.getWriter();
-      writer.append(jsonResponse);
+      if (LOG.isFineLoggable()) {
+        String jsonResponse =
+            robotSerializer.serialize(responses, GsonFactory.JSON_RPC_RESPONSE_LIST_TYPE, version);
+        LOG.fine("Returning the following Json: " + jsonResponse);
+        writer.append(jsonResponse);
+      } else {
+        // Serialize straight into the response to avoid holding large
+        // responses, such as fetched waves, as one string.
+        robotSerializer.serialize(
+            responses, GsonFactory.JSON_RPC_RESPONSE_LIST_TYPE, version, writer);
+      }
       writer.flush();
       resp.setStatus(HttpServletResponse.SC_OK);
     } catch (IOException e) {
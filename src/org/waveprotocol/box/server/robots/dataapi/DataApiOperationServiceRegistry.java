@@ -43,7 +43,8 @@ public final class DataApiOperationServiceRegistry extends AbstractOperationServ
   // the default client libraries
   @SuppressWarnings("deprecation")
   @Inject
-  public DataApiOperationServiceRegistry(SearchService searchService) {
+  public DataApiOperationServiceRegistry(SearchService searchService,
+      FetchProfilesService fetchProfilesService) {
     super();
 
     // Register all the OperationProviders
@@ -66,6 +67,6 @@ public final class DataApiOperationServiceRegistry extends AbstractOperationServ
     register(OperationType.ROBOT_SEARCH, searchService);
     register(OperationType.WAVELET_SET_TITLE, WaveletSetTitleService.create());
     register(OperationType.ROBOT_FOLDER_ACTION, FolderActionService.create());
-    register(OperationType.ROBOT_FETCH_PROFILES, FetchProfilesService.create());
+    register(OperationType.ROBOT_FETCH_PROFILES, fetchProfilesService);
   }
 }
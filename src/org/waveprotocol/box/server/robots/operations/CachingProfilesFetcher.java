@@ -0,0 +1,318 @@
+/**
+ * Copyright 2011 Google Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package org.waveprotocol.box.server.robots.operations;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import com.google.common.collect.MapMaker;
+import com.google.common.util.concurrent.Futures;
+import com.google.wave.api.ParticipantProfile;
+
+import org.waveprotocol.box.server.persistence.PersistenceException;
+import org.waveprotocol.box.server.persistence.ProfileStore;
+import org.waveprotocol.box.server.robots.operations.FetchProfilesService.ProfilesFetcher;
+import org.waveprotocol.wave.crypto.DefaultTimeSource;
+import org.waveprotocol.wave.crypto.TimeSource;
+import org.waveprotocol.wave.util.logging.Log;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A {@link ProfilesFetcher} that caches the profiles fetched by a remote
+ * {@link ProfilesFetcher}, such as the {@link GravatarProfileFetcher}.
+ *
+ * Profiles are fetched on an {@link Executor}, at most once at a time for each
+ * address, and are cached for a while. Failed fetches are cached as well, for
+ * a shorter while, so that unknown addresses are not looked up on every
+ * request. Fetched profiles are saved to a {@link ProfileStore} so that they
+ * are still known after a restart; a stored profile is read by the background
+ * fetch before the remote lookup, and is served as a stale profile until the
+ * lookup completes. Fetches the executor rejects fall back like failed ones.
+ *
+ * {@link #getCachedProfile} never waits for a remote fetch, which makes it
+ * suitable for rendering. {@link #fetchProfiles} fetches a batch of profiles in
+ * parallel and waits for them up to a timeout; addresses that could not be
+ * fetched in time fall back to the last known profile, or to the profile built
+ * by {@link ProfilesFetcher#SIMPLE_PROFILE_FETCHER}.
+ */
+public class CachingProfilesFetcher implements ProfilesFetcher {
+
+  private static final Log LOG = Log.get(CachingProfilesFetcher.class);
+
+  /** Maximum number of profiles to keep in memory. */
+  private static final int MAX_PROFILES = 10000;
+
+  /** How long a fetched profile is served before it is fetched again. */
+  private static final long DEFAULT_TTL_MS = TimeUnit.HOURS.toMillis(1);
+
+  /** How long to wait before fetching again a profile that failed to fetch. */
+  private static final long DEFAULT_NEGATIVE_TTL_MS = TimeUnit.MINUTES.toMillis(5);
+
+  /** How long {@link #fetchProfiles} waits for the profiles to be fetched. */
+  private static final long DEFAULT_FETCH_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(3);
+
+  /** A cached profile and the time until which it is fresh. */
+  private static final class Entry {
+    private final ParticipantProfile profile;
+    private final long expiresAt;
+
+    Entry(ParticipantProfile profile, long expiresAt) {
+      this.profile = profile;
+      this.expiresAt = expiresAt;
+    }
+
+    boolean isFresh(long now) {
+      return now < expiresAt;
+    }
+  }
+
+  private final ConcurrentMap<String, Entry> profiles = new MapMaker()
+      .maximumSize(MAX_PROFILES)
+      .makeMap();
+
+  /** The fetches in progress, by address. */
+  private final ConcurrentMap<String, Future<ParticipantProfile>> inFlight =
+      new ConcurrentHashMap<String, Future<ParticipantProfile>>();
+
+  private final ProfilesFetcher remoteFetcher;
+  private final ProfileStore profileStore;
+  private final Executor executor;
+  private final TimeSource timeSource;
+  private final long ttlMs;
+  private final long negativeTtlMs;
+  private final long fetchTimeoutMs;
+
+  /**
+   * Creates a {@link CachingProfilesFetcher} with the default expiration times
+   * and timeout.
+   *
+   * @param remoteFetcher the fetcher of the profiles to cache.
+   * @param profileStore the store to save the fetched profiles to.
+   * @param executor the executor to run the fetches on.
+   */
+  public static CachingProfilesFetcher create(ProfilesFetcher remoteFetcher,
+      ProfileStore profileStore, Executor executor) {
+    return new CachingProfilesFetcher(remoteFetcher, profileStore, executor,
+        new DefaultTimeSource(), DEFAULT_TTL_MS, DEFAULT_NEGATIVE_TTL_MS,
+        DEFAULT_FETCH_TIMEOUT_MS);
+  }
+
+  CachingProfilesFetcher(ProfilesFetcher remoteFetcher, ProfileStore profileStore,
+      Executor executor, TimeSource timeSource, long ttlMs, long negativeTtlMs,
+      long fetchTimeoutMs) {
+    this.remoteFetcher = remoteFetcher;
+    this.profileStore = profileStore;
+    this.executor = executor;
+    this.timeSource = timeSource;
+    this.ttlMs = ttlMs;
+    this.negativeTtlMs = negativeTtlMs;
+    this.fetchTimeoutMs = fetchTimeoutMs;
+  }
+
+  /**
+   * Returns the cached profile for the given address without waiting for a
+   * remote fetch or reading the store. If the profile is missing or stale, a
+   * fetch is started in the background so that later calls return the stored
+   * and then the fetched profile.
+   *
+   * @param address the address of the participant.
+   * @return the cached profile, or {@code null} if no profile is cached yet.
+   */
+  public ParticipantProfile getCachedProfile(String address) {
+    Preconditions.checkNotNull(address);
+    Entry entry = profiles.get(address);
+    if (entry == null || !entry.isFresh(timeSource.currentTimeMillis())) {
+      startFetch(address);
+    }
+    return entry != null ? entry.profile : null;
+  }
+
+  /**
+   * Fetches the profiles for the given addresses in parallel, waiting for them
+   * at most the fetch timeout. Addresses whose profile could not be fetched in
+   * time get their last known profile, or a simple profile built from the
+   * address.
+   *
+   * @param addresses the addresses of the participants.
+   * @return the profiles, in the order of the addresses.
+   */
+  public List<ParticipantProfile> fetchProfiles(List<String> addresses) {
+    long now = timeSource.currentTimeMillis();
+    List<Future<ParticipantProfile>> futures = Lists.newArrayListWithCapacity(addresses.size());
+    for (String address : addresses) {
+      Preconditions.checkNotNull(address);
+      Entry entry = profiles.get(address);
+      if (entry != null && entry.isFresh(now)) {
+        futures.add(Futures.immediateFuture(entry.profile));
+      } else {
+        Future<ParticipantProfile> future = startFetch(address);
+        futures.add(future != null ? future : Futures.immediateFuture(fallbackProfile(address)));
+      }
+    }
+
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(fetchTimeoutMs);
+    List<ParticipantProfile> result = Lists.newArrayListWithCapacity(addresses.size());
+    for (int i = 0; i < addresses.size(); i++) {
+      String address = addresses.get(i);
+      try {
+        long remaining = Math.max(0, deadline - System.nanoTime());
+        result.add(futures.get(i).get(remaining, TimeUnit.NANOSECONDS));
+      } catch (TimeoutException e) {
+        LOG.fine("Timed out fetching profile for: " + address);
+        result.add(fallbackProfile(address));
+      } catch (ExecutionException e) {
+        LOG.warning("Failed to fetch profile for: " + address, e.getCause());
+        result.add(fallbackProfile(address));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        result.add(fallbackProfile(address));
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public ParticipantProfile fetchProfile(String address) {
+    return fetchProfiles(Collections.singletonList(address)).get(0);
+  }
+
+  /**
+   * Starts fetching the profile for the given address, unless it is already
+   * being fetched.
+   *
+   * @return the future profile, or {@code null} if the executor rejected the
+   *         fetch.
+   */
+  private Future<ParticipantProfile> startFetch(final String address) {
+    Future<ParticipantProfile> future = inFlight.get(address);
+    if (future != null) {
+      return future;
+    }
+    FutureTask<ParticipantProfile> task = new FutureTask<ParticipantProfile>(
+        new Callable<ParticipantProfile>() {
+          @Override
+          public ParticipantProfile call() {
+            return load(address);
+          }
+        }) {
+      @Override
+      protected void done() {
+        inFlight.remove(address, this);
+      }
+    };
+    future = inFlight.putIfAbsent(address, task);
+    if (future != null) {
+      return future;
+    }
+    try {
+      executor.execute(task);
+    } catch (RejectedExecutionException e) {
+      LOG.warning("Unable to schedule profile fetch for: " + address, e);
+      inFlight.remove(address, task);
+      return null;
+    }
+    return task;
+  }
+
+  /**
+   * Fetches the profile for the given address and caches the outcome.
+   */
+  private ParticipantProfile load(String address) {
+    Entry previous = getKnownEntry(address);
+
+    ParticipantProfile profile = null;
+    try {
+      profile = remoteFetcher.fetchProfile(address);
+    } catch (RuntimeException e) {
+      LOG.warning("Failed to fetch profile for: " + address, e);
+    }
+
+    long now = timeSource.currentTimeMillis();
+    if (profile == null || Strings.isNullOrEmpty(profile.getAddress())) {
+      ParticipantProfile fallback =
+          previous != null ? previous.profile : SIMPLE_PROFILE_FETCHER.fetchProfile(address);
+      profiles.put(address, new Entry(fallback, now + negativeTtlMs));
+      return fallback;
+    }
+    profiles.put(address, new Entry(profile, now + ttlMs));
+    storeProfile(profile);
+    return profile;
+  }
+
+  /**
+   * Returns the last known profile for the given address, or a simple profile
+   * built from the address. May read the store, so it is not to be called
+   * on the rendering path.
+   */
+  private ParticipantProfile fallbackProfile(String address) {
+    Entry entry = getKnownEntry(address);
+    return entry != null ? entry.profile : SIMPLE_PROFILE_FETCHER.fetchProfile(address);
+  }
+
+  /**
+   * Returns the cached entry for the given address, or else caches the stored
+   * profile as a stale entry, so that it is served while it is fetched again.
+   * Reads the store, so it is not to be called on the rendering path.
+   *
+   * @return the entry, or {@code null} if the profile is neither cached nor
+   *         stored.
+   */
+  private Entry getKnownEntry(String address) {
+    Entry entry = profiles.get(address);
+    if (entry == null) {
+      ParticipantProfile stored = readStoredProfile(address);
+      if (stored != null) {
+        entry = new Entry(stored, 0);
+        Entry existing = profiles.putIfAbsent(address, entry);
+        if (existing != null) {
+          entry = existing;
+        }
+      }
+    }
+    return entry;
+  }
+
+  private ParticipantProfile readStoredProfile(String address) {
+    try {
+      return profileStore.getProfile(address);
+    } catch (PersistenceException e) {
+      LOG.warning("Failed to read stored profile for: " + address, e);
+      return null;
+    }
+  }
+
+  private void storeProfile(ParticipantProfile profile) {
+    try {
+      profileStore.putProfile(profile);
+    } catch (PersistenceException e) {
+      LOG.warning("Failed to store profile for: " + profile.getAddress(), e);
+    }
+  }
+}
@@ -0,0 +1,587 @@
+/**
+ * Copyright 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.waveprotocol.box.server.robots.operations;
+
+import com.google.common.collect.MapMaker;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.inject.Singleton;
+
+import org.waveprotocol.box.common.DeltaSequence;
+import org.waveprotocol.box.common.Snippets;
+import org.waveprotocol.box.server.util.WaveletDataUtil;
+import org.waveprotocol.box.server.waveserver.WaveBus;
+import org.waveprotocol.wave.model.conversation.TitleHelper;
+import org.waveprotocol.wave.model.document.operation.AnnotationBoundaryMap;
+import org.waveprotocol.wave.model.document.operation.Attributes;
+import org.waveprotocol.wave.model.document.operation.DocInitializationCursor;
+import org.waveprotocol.wave.model.document.operation.automaton.DocumentSchema;
+import org.waveprotocol.wave.model.document.util.DocProviders;
+import org.waveprotocol.wave.model.id.IdConstants;
+import org.waveprotocol.wave.model.id.WaveId;
+import org.waveprotocol.wave.model.id.WaveletId;
+import org.waveprotocol.wave.model.id.WaveletName;
+import org.waveprotocol.wave.model.operation.OperationException;
+import org.waveprotocol.wave.model.operation.wave.TransformedWaveletDelta;
+import org.waveprotocol.wave.model.operation.wave.WaveletBlipOperation;
+import org.waveprotocol.wave.model.operation.wave.WaveletOperation;
+import org.waveprotocol.wave.model.supplement.ObservablePrimitiveSupplement;
+import org.waveprotocol.wave.model.supplement.PrimitiveSupplement;
+import org.waveprotocol.wave.model.supplement.PrimitiveSupplementImpl;
+import org.waveprotocol.wave.model.supplement.ThreadState;
+import org.waveprotocol.wave.model.supplement.WaveletBasedSupplement;
+import org.waveprotocol.wave.model.version.HashedVersion;
+import org.waveprotocol.wave.model.wave.ParticipantId;
+import org.waveprotocol.wave.model.wave.data.ObservableWaveletData;
+import org.waveprotocol.wave.model.wave.data.ReadableBlipData;
+import org.waveprotocol.wave.model.wave.data.ReadableWaveletData;
+import org.waveprotocol.wave.model.wave.opbased.OpBasedWavelet;
+import org.waveprotocol.wave.util.logging.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Keeps what the search digest of each conversational wave shows, so that
+ * {@link SearchService} does not build a conversation and a supplement for
+ * every result of every search.
+ *
+ * For each wave the index keeps the last-modified version of each blip of the
+ * conversation, the title and the snippet. For each user who searched for the
+ * wave, it keeps a copy of the user's user-data wavelet and the number of
+ * unread blips. Wave bus updates adjust these incrementally: an edit to a blip
+ * only reconsiders that blip, and a change to the read state of a blip, as
+ * reported by the read state of the user-data wavelet, only reconsiders that
+ * blip for that user.
+ *
+ * Summaries are checked against the version of the wavelets being digested,
+ * and are rebuilt from them when they are behind, so a missed update only
+ * costs a rebuild.
+ */
+@Singleton
+public class DigestSummaryIndex implements WaveBus.Subscriber {
+
+  private static final Log LOG = Log.get(DigestSummaryIndex.class);
+
+  /** Maximum number of waves to keep summaries for. */
+  private static final int MAX_WAVES = 20000;
+
+  private static final int DIGEST_SNIPPET_LENGTH = 140;
+  private static final String EMPTY_WAVELET_TITLE = "";
+
+  /** What the digest of a conversational wave shows to one user. */
+  public static final class Summary {
+    private final String title;
+    private final String snippet;
+    private final int blipCount;
+    private final int unreadCount;
+
+    Summary(String title, String snippet, int blipCount, int unreadCount) {
+      this.title = title;
+      this.snippet = snippet;
+      this.blipCount = blipCount;
+      this.unreadCount = unreadCount;
+    }
+
+    public String getTitle() {
+      return title;
+    }
+
+    public String getSnippet() {
+      return snippet;
+    }
+
+    public int getBlipCount() {
+      return blipCount;
+    }
+
+    public int getUnreadCount() {
+      return unreadCount;
+    }
+  }
+
+  private final ConcurrentMap<WaveId, WaveSummary> waves = new MapMaker()
+      .maximumSize(MAX_WAVES)
+      .makeMap();
+
+  /**
+   * Returns the summary of a conversational wavelet for a user.
+   *
+   * @param user the user the digest is for.
+   * @param conversation the conversational wavelet of the wave.
+   * @param udw the user's user-data wavelet for the wave, or null if there is
+   *        none.
+   * @return the summary, or null if the wavelet has no conversation.
+   */
+  public Summary summarize(ParticipantId user, ReadableWaveletData conversation,
+      ReadableWaveletData udw) {
+    WaveId waveId = conversation.getWaveId();
+    WaveSummary wave = waves.get(waveId);
+    if (wave == null) {
+      wave = new WaveSummary();
+      WaveSummary existing = waves.putIfAbsent(waveId, wave);
+      if (existing != null) {
+        wave = existing;
+      }
+    }
+    return wave.summarize(user, conversation, udw);
+  }
+
+  @Override
+  public void waveletUpdate(ReadableWaveletData wavelet, DeltaSequence deltas) {
+    WaveSummary wave = waves.get(wavelet.getWaveId());
+    if (wave != null) {
+      wave.update(wavelet, deltas);
+    }
+  }
+
+  @Override
+  public void waveletCommitted(WaveletName waveletName, HashedVersion version) {
+    // We ignore this event.
+  }
+
+  /**
+   * Tests if a blip is unread, as {@link PrimitiveSupplement} read states are
+   * interpreted by the supplement.
+   */
+  private static boolean isUnread(int blipReadVersion, int waveletReadVersion, int modified) {
+    return (blipReadVersion == PrimitiveSupplement.NO_VERSION || blipReadVersion < modified)
+        && (waveletReadVersion == PrimitiveSupplement.NO_VERSION
+            || waveletReadVersion < modified);
+  }
+
+  /**
+   * The summary of one wave, and of its users. All state is guarded by the
+   * wave summary's monitor.
+   */
+  private static final class WaveSummary {
+    /** The conversational wavelet summarized, null until first summarized. */
+    private WaveletId waveletId;
+
+    /** The version summarized, or -1 if the summary is behind. */
+    private long version = -1;
+
+    private boolean conversational;
+
+    /** Last-modified version of each blip of the conversation. */
+    private Map<String, Integer> blipVersions = Maps.newHashMap();
+
+    /** Blips in the manifest without a document, not (yet) in the conversation. */
+    private Set<String> missingBlips = Sets.newHashSet();
+
+    private String firstBlipId;
+    private String title;
+
+    /** The snippet, or null if it needs rendering. */
+    private String snippet;
+
+    private final Map<ParticipantId, UserSummary> users = Maps.newHashMap();
+
+    synchronized Summary summarize(ParticipantId user, ReadableWaveletData conversation,
+        ReadableWaveletData udw) {
+      if (!conversation.getWaveletId().equals(waveletId)) {
+        waveletId = conversation.getWaveletId();
+        blipVersions = Maps.newHashMap();
+        users.clear();
+        version = -1;
+      }
+      if (version != conversation.getVersion()) {
+        rebuild(conversation);
+      }
+      if (!conversational) {
+        return null;
+      }
+      if (snippet == null) {
+        snippet = renderSnippet(conversation, title);
+      }
+
+      UserSummary userSummary = users.get(user);
+      if (userSummary == null || !userSummary.isAt(udw)) {
+        userSummary = new UserSummary(this, udw);
+        users.put(user, userSummary);
+      }
+      return new Summary(title, snippet, blipVersions.size(), userSummary.unreadCount);
+    }
+
+    synchronized void update(ReadableWaveletData wavelet, DeltaSequence deltas) {
+      if (deltas.isEmpty()) {
+        return;
+      }
+      if (wavelet.getWaveletId().equals(waveletId)) {
+        updateConversation(wavelet, deltas);
+        return;
+      }
+      for (Map.Entry<ParticipantId, UserSummary> entry : users.entrySet()) {
+        UserSummary userSummary = entry.getValue();
+        if (wavelet.getWaveletId().equals(userSummary.udwId)) {
+          if (!userSummary.update(deltas)) {
+            // Rebuilt from the user-data wavelet at the next search.
+            users.remove(entry.getKey());
+          }
+          return;
+        }
+      }
+    }
+
+    private void updateConversation(ReadableWaveletData wavelet, DeltaSequence deltas) {
+      if (version != deltas.getStartVersion()) {
+        version = -1;
+        return;
+      }
+      Set<String> changedDocuments = Sets.newHashSet();
+      for (TransformedWaveletDelta delta : deltas) {
+        for (WaveletOperation op : delta) {
+          if (op instanceof WaveletBlipOperation) {
+            changedDocuments.add(((WaveletBlipOperation) op).getBlipId());
+          }
+        }
+      }
+      if (changedDocuments.contains(IdConstants.MANIFEST_DOCUMENT_ID)
+          || !Sets.intersection(changedDocuments, missingBlips).isEmpty()) {
+        rebuild(wavelet);
+        return;
+      }
+      for (String blipId : changedDocuments) {
+        Integer oldVersion = blipVersions.get(blipId);
+        if (oldVersion != null) {
+          int newVersion = (int) wavelet.getDocument(blipId).getLastModifiedVersion();
+          blipVersions.put(blipId, newVersion);
+          for (UserSummary userSummary : users.values()) {
+            userSummary.onBlipModified(blipId, oldVersion, newVersion);
+          }
+          snippet = null;
+        }
+      }
+      if (changedDocuments.contains(firstBlipId)) {
+        title = extractTitle(wavelet, firstBlipId);
+      }
+      version = wavelet.getVersion();
+    }
+
+    /**
+     * Summarizes the conversation from scratch, and adjusts the unread counts
+     * of the users by the blips that changed.
+     */
+    private void rebuild(ReadableWaveletData conversation) {
+      ManifestReader manifest = new ManifestReader(conversation);
+      ReadableBlipData manifestDocument =
+          conversation.getDocument(IdConstants.MANIFEST_DOCUMENT_ID);
+      if (manifestDocument != null) {
+        manifestDocument.getContent().asOperation().apply(manifest);
+      }
+
+      Map<String, Integer> oldVersions = blipVersions;
+      blipVersions = manifest.blipVersions;
+      for (Map.Entry<String, Integer> entry : oldVersions.entrySet()) {
+        Integer newVersion = blipVersions.get(entry.getKey());
+        if (newVersion == null) {
+          for (UserSummary userSummary : users.values()) {
+            userSummary.onBlipRemoved(entry.getKey(), entry.getValue());
+          }
+        } else if (!newVersion.equals(entry.getValue())) {
+          for (UserSummary userSummary : users.values()) {
+            userSummary.onBlipModified(entry.getKey(), entry.getValue(), newVersion);
+          }
+        }
+      }
+      for (Map.Entry<String, Integer> entry : blipVersions.entrySet()) {
+        if (!oldVersions.containsKey(entry.getKey())) {
+          for (UserSummary userSummary : users.values()) {
+            userSummary.onBlipAdded(entry.getKey(), entry.getValue());
+          }
+        }
+      }
+
+      conversational = manifest.conversational;
+      missingBlips = manifest.missingBlips;
+      firstBlipId = manifest.firstBlipId;
+      title = firstBlipId != null ? extractTitle(conversation, firstBlipId) : EMPTY_WAVELET_TITLE;
+      snippet = null;
+      version = conversation.getVersion();
+    }
+  }
+
+  /**
+   * The unread state of a wave for one user, kept up to date by applying the
+   * updates of the user-data wavelet to a copy of it and listening to its read
+   * state. Guarded by the monitor of the wave summary.
+   */
+  private static final class UserSummary extends ReadStateListener {
+    private final WaveSummary wave;
+
+    /** The user-data wavelet, or null if the user has none for the wave. */
+    private final WaveletId udwId;
+    private final ObservableWaveletData udwCopy;
+    private final PrimitiveSupplement readState;
+    private long udwVersion;
+
+    private int unreadCount;
+
+    UserSummary(WaveSummary wave, ReadableWaveletData udw) {
+      this.wave = wave;
+      if (udw != null) {
+        udwId = udw.getWaveletId();
+        udwCopy = WaveletDataUtil.copyWavelet(udw);
+        WaveletBasedSupplement supplement =
+            WaveletBasedSupplement.create(OpBasedWavelet.createReadOnly(udwCopy));
+        supplement.addListener(this);
+        readState = supplement;
+        udwVersion = udw.getVersion();
+      } else {
+        udwId = null;
+        udwCopy = null;
+        readState = new PrimitiveSupplementImpl();
+        udwVersion = -1;
+      }
+      recount();
+    }
+
+    /** Whether this summary is of the given user-data wavelet. */
+    boolean isAt(ReadableWaveletData udw) {
+      return udw == null ? udwId == null
+          : udw.getWaveletId().equals(udwId) && udw.getVersion() == udwVersion;
+    }
+
+    /**
+     * Applies deltas of the user-data wavelet, which adjust the unread count
+     * through the read state listener.
+     *
+     * @return false if the deltas could not be applied.
+     */
+    boolean update(DeltaSequence deltas) {
+      if (deltas.getStartVersion() != udwVersion) {
+        return false;
+      }
+      try {
+        for (TransformedWaveletDelta delta : deltas) {
+          for (WaveletOperation op : delta) {
+            op.apply(udwCopy);
+          }
+        }
+      } catch (OperationException e) {
+        LOG.warning("Failed to apply a user-data wavelet delta to its summary", e);
+        return false;
+      }
+      udwVersion = deltas.getEndVersion().getVersion();
+      return true;
+    }
+
+    void onBlipAdded(String blipId, int modified) {
+      if (isBlipUnread(blipId, modified)) {
+        unreadCount++;
+      }
+    }
+
+    void onBlipRemoved(String blipId, int modified) {
+      if (isBlipUnread(blipId, modified)) {
+        unreadCount--;
+      }
+    }
+
+    void onBlipModified(String blipId, int oldModified, int newModified) {
+      onBlipRemoved(blipId, oldModified);
+      onBlipAdded(blipId, newModified);
+    }
+
+    @Override
+    public void onLastReadBlipVersionChanged(WaveletId wid, String bid, int oldVersion,
+        int newVersion) {
+      Integer modified = wid.equals(wave.waveletId) ? wave.blipVersions.get(bid) : null;
+      if (modified != null) {
+        int waveletReadVersion = readState.getLastReadWaveletVersion(wid);
+        if (isUnread(oldVersion, waveletReadVersion, modified)) {
+          unreadCount--;
+        }
+        if (isUnread(newVersion, waveletReadVersion, modified)) {
+          unreadCount++;
+        }
+      }
+    }
+
+    @Override
+    public void onLastReadWaveletVersionChanged(WaveletId wid, int oldVersion, int newVersion) {
+      if (wid.equals(wave.waveletId)) {
+        recount();
+      }
+    }
+
+    private boolean isBlipUnread(String blipId, int modified) {
+      return isUnread(readState.getLastReadBlipVersion(wave.waveletId, blipId),
+          readState.getLastReadWaveletVersion(wave.waveletId), modified);
+    }
+
+    private void recount() {
+      unreadCount = 0;
+      for (Map.Entry<String, Integer> entry : wave.blipVersions.entrySet()) {
+        onBlipAdded(entry.getKey(), entry.getValue());
+      }
+    }
+  }
+
+  /** A read state listener that ignores every event. */
+  private abstract static class ReadStateListener
+      implements ObservablePrimitiveSupplement.Listener {
+    @Override
+    public void onLastReadBlipVersionChanged(WaveletId wid, String bid, int oldVersion,
+        int newVersion) {
+    }
+
+    @Override
+    public void onLastReadWaveletVersionChanged(WaveletId wid, int oldVersion, int newVersion) {
+    }
+
+    @Override
+    public void onLastReadParticipantsVersionChanged(WaveletId wid, int oldVersion,
+        int newVersion) {
+    }
+
+    @Override
+    public void onLastReadTagsVersionChanged(WaveletId wid, int oldVersion, int newVersion) {
+    }
+
+    @Override
+    public void onFollowed() {
+    }
+
+    @Override
+    public void onUnfollowed() {
+    }
+
+    @Override
+    public void onFollowCleared() {
+    }
+
+    @Override
+    public void onArchiveVersionChanged(WaveletId wid, int oldVersion, int newVersion) {
+    }
+
+    @Override
+    public void onArchiveClearChanged(boolean oldValue, boolean newValue) {
+    }
+
+    @Override
+    public void onFolderAdded(int newFolder) {
+    }
+
+    @Override
+    public void onFolderRemoved(int oldFolder) {
+    }
+
+    @Override
+    public void onWantedEvaluationsChanged(WaveletId wid) {
+    }
+
+    @Override
+    public void onThreadStateChanged(WaveletId wid, String tid, ThreadState oldState,
+        ThreadState newState) {
+    }
+
+    @Override
+    public void onGadgetStateChanged(String gadgetId, String key, String oldValue,
+        String newValue) {
+    }
+  }
+
+  /**
+   * Reads the blips of a conversation from its manifest without building the
+   * conversation. As in the conversation model, the root thread is the
+   * top-level conversation element, and a blip without a document is left out
+   * together with its replies.
+   */
+  private static final class ManifestReader implements DocInitializationCursor {
+    private enum Node { ROOT_THREAD, THREAD, BLIP, OTHER }
+
+    private final ReadableWaveletData wavelet;
+    private final List<Node> path = new ArrayList<Node>();
+    private int topLevelElements = 0;
+
+    boolean conversational;
+    final Map<String, Integer> blipVersions = Maps.newHashMap();
+    final Set<String> missingBlips = Sets.newHashSet();
+    String firstBlipId;
+
+    ManifestReader(ReadableWaveletData wavelet) {
+      this.wavelet = wavelet;
+    }
+
+    @Override
+    public void elementStart(String type, Attributes attrs) {
+      Node parent = path.isEmpty() ? null : path.get(path.size() - 1);
+      Node node = Node.OTHER;
+      if (parent == null) {
+        // The schema implies that the manifest is the first top-level element.
+        if (topLevelElements == 0 && "conversation".equals(type)) {
+          conversational = true;
+          node = Node.ROOT_THREAD;
+        }
+        topLevelElements++;
+      } else if ((parent == Node.ROOT_THREAD || parent == Node.THREAD) && "blip".equals(type)) {
+        String blipId = attrs.get("id");
+        ReadableBlipData blip = blipId != null ? wavelet.getDocument(blipId) : null;
+        if (blip != null) {
+          node = Node.BLIP;
+          blipVersions.put(blipId, (int) blip.getLastModifiedVersion());
+          if (parent == Node.ROOT_THREAD && firstBlipId == null) {
+            firstBlipId = blipId;
+          }
+        } else if (blipId != null) {
+          missingBlips.add(blipId);
+        }
+      } else if (parent == Node.BLIP && "thread".equals(type)) {
+        node = Node.THREAD;
+      }
+      path.add(node);
+    }
+
+    @Override
+    public void elementEnd() {
+      path.remove(path.size() - 1);
+    }
+
+    @Override
+    public void characters(String chars) {
+    }
+
+    @Override
+    public void annotationBoundary(AnnotationBoundaryMap map) {
+    }
+  }
+
+  /** Extracts the title of a blip as the conversation model would. */
+  private static String extractTitle(ReadableWaveletData wavelet, String blipId) {
+    ReadableBlipData blip = wavelet.getDocument(blipId);
+    if (blip == null) {
+      return EMPTY_WAVELET_TITLE;
+    }
+    return TitleHelper.extractTitle(DocProviders.POJO.build(
+        blip.getContent().asOperation(), DocumentSchema.NO_SCHEMA_CONSTRAINTS)).trim();
+  }
+
+  /** Renders the snippet of a wavelet, without its title. */
+  private static String renderSnippet(ReadableWaveletData wavelet, String title) {
+    String snippet = Snippets.renderSnippet(wavelet, DIGEST_SNIPPET_LENGTH).trim();
+    if (snippet.startsWith(title) && !title.isEmpty()) {
+      // Strip the title from the snippet if the snippet starts with the title.
+      snippet = snippet.substring(title.length());
+    }
+    return snippet;
+  }
+}
@@ -19,7 +19,7 @@ package org.waveprotocol.box.server.robots.operations;
 
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.Lists;
+import com.google.inject.Inject;
 import com.google.wave.api.FetchProfilesRequest;
 import com.google.wave.api.FetchProfilesResult;
 import com.google.wave.api.InvalidRequestException;
@@ -101,13 +101,10 @@ public class FetchProfilesService implements OperationService {
     };
   };
   
-  private final ProfilesFetcher profilesFetcher;
-  
-  public static FetchProfilesService create() {
-    return new FetchProfilesService(GravatarProfileFetcher.create());
-  }
+  private final CachingProfilesFetcher profilesFetcher;
 
-  FetchProfilesService(ProfilesFetcher profilesFetcher) {
+  @Inject
+  public FetchProfilesService(CachingProfilesFetcher profilesFetcher) {
     this.profilesFetcher = profilesFetcher;
   }
 
@@ -117,14 +114,7 @@ public class FetchProfilesService implements OperationService {
     FetchProfilesRequest request =
         OperationUtil.getRequiredParameter(operation, ParamsProperty.FETCH_PROFILES_REQUEST);
     List<String> requestAddresses = request.getParticipantIds();
-    List<ParticipantProfile> profiles = Lists.newArrayListWithCapacity(requestAddresses.size());
-    for (String address : requestAddresses) {
-      ParticipantProfile participantProfile = null;
-      participantProfile = profilesFetcher.fetchProfile(address);
-      if (participantProfile != null) {
-        profiles.add(participantProfile);
-      }
-    }
+    List<ParticipantProfile> profiles = profilesFetcher.fetchProfiles(requestAddresses);
     FetchProfilesResult result = new FetchProfilesResult(profiles);
     Map<ParamsProperty, Object> data =
         ImmutableMap.<ParamsProperty, Object> of(ParamsProperty.FETCH_PROFILES_RESULT, result);
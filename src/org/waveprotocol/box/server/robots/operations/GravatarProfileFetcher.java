@@ -18,7 +18,6 @@
 package org.waveprotocol.box.server.robots.operations;
 
 import com.google.common.base.Preconditions;
-import com.google.common.collect.MapMaker;
 import com.google.gxp.com.google.common.collect.Maps;
 import com.google.wave.api.ParticipantProfile;
 
@@ -36,14 +35,13 @@ import java.net.MalformedURLException;
 import java.net.ProtocolException;
 import java.net.URL;
 import java.util.Map;
-import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * A {@link ProfilesFetcher} implementation that fetches profile data from
- * Gravatar using the wave address as email.
+ * Gravatar using the wave address as email. The profiles are fetched on every
+ * call, use a {@link CachingProfilesFetcher} to cache them.
  * 
  * @author yurize@apache.org (Yuri Zelikov)
  */
@@ -54,13 +52,9 @@ public class GravatarProfileFetcher implements ProfilesFetcher {
   private static final String EXCEPTION_FETCHING_PROFILE = "Exception while fetching profile for: ";
   private static final String GRAVATAR_BASIC_URL = "http://www.gravatar.com/";
   private static final String GRAVATAR_URL = "http://www.gravatar.com/avatar/";
-  private static final long EXPIRE_AFTER = 1;
 
   private static String ROBOT_APP_ID = "wavyemail";
 
-  private static final ConcurrentMap<String, ParticipantProfile> PROFILES_CACHE = new MapMaker()
-      .expireAfterWrite(EXPIRE_AFTER, TimeUnit.HOURS).makeMap();
-   
   private static final Map<String, ParticipantProfile> KNOWN_PROFILES_CACHE = Maps.newHashMap();
 
   private static final String DEFAULT_WAVE_DOMAIN = "vegalabz.com";
@@ -142,9 +136,7 @@ public class GravatarProfileFetcher implements ProfilesFetcher {
     } catch (JSONException e) {
       throw new ProfileFetchException(EXCEPTION_FETCHING_PROFILE + email, e);
     }
-    ParticipantProfile profile = new ParticipantProfile(waveAddress, name, imageUrl, profileUrl);
-    PROFILES_CACHE.put(email, profile);
-    return profile;
+    return new ParticipantProfile(waveAddress, name, imageUrl, profileUrl);
   }
 
   /**
@@ -168,9 +160,7 @@ public class GravatarProfileFetcher implements ProfilesFetcher {
   @Override
   public ParticipantProfile fetchProfile(String waveAddress) {
     Preconditions.checkNotNull(waveAddress);
-    if (PROFILES_CACHE.containsKey(waveAddress)) {
-      return PROFILES_CACHE.get(waveAddress);
-    } else if (KNOWN_PROFILES_CACHE.containsKey(waveAddress)) {
+    if (KNOWN_PROFILES_CACHE.containsKey(waveAddress)) {
       return KNOWN_PROFILES_CACHE.get(waveAddress);
     }
     ParticipantProfile participantProfile = null;
@@ -200,7 +190,6 @@ public class GravatarProfileFetcher implements ProfilesFetcher {
         }
       }
     }
-    PROFILES_CACHE.put(waveAddress, participantProfile);
     return participantProfile;
   }
 }
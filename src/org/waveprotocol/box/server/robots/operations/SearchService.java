@@ -27,34 +27,18 @@ import com.google.wave.api.OperationRequest;
 import com.google.wave.api.SearchResult;
 import com.google.wave.api.SearchResult.Digest;
 
-import org.waveprotocol.box.common.Snippets;
 import org.waveprotocol.box.server.robots.OperationContext;
-import org.waveprotocol.box.server.robots.util.ConversationUtil;
+import org.waveprotocol.box.server.robots.operations.DigestSummaryIndex.Summary;
 import org.waveprotocol.box.server.robots.util.OperationUtil;
 import org.waveprotocol.box.server.waveserver.SearchProvider;
-import org.waveprotocol.wave.model.conversation.BlipIterators;
-import org.waveprotocol.wave.model.conversation.ConversationBlip;
-import org.waveprotocol.wave.model.conversation.ObservableConversation;
-import org.waveprotocol.wave.model.conversation.ObservableConversationBlip;
-import org.waveprotocol.wave.model.conversation.ObservableConversationView;
-import org.waveprotocol.wave.model.conversation.TitleHelper;
-import org.waveprotocol.wave.model.conversation.WaveletBasedConversation;
-import org.waveprotocol.wave.model.document.Document;
 import org.waveprotocol.wave.model.id.IdUtil;
 import org.waveprotocol.wave.model.id.ModernIdSerialiser;
 import org.waveprotocol.wave.model.id.WaveletId;
-import org.waveprotocol.wave.model.supplement.PrimitiveSupplement;
-import org.waveprotocol.wave.model.supplement.PrimitiveSupplementImpl;
-import org.waveprotocol.wave.model.supplement.SupplementedWave;
-import org.waveprotocol.wave.model.supplement.SupplementedWaveImpl;
-import org.waveprotocol.wave.model.supplement.SupplementedWaveImpl.DefaultFollow;
-import org.waveprotocol.wave.model.supplement.WaveletBasedSupplement;
 import org.waveprotocol.wave.model.util.CollectionUtils;
 import org.waveprotocol.wave.model.wave.ParticipantId;
 import org.waveprotocol.wave.model.wave.data.ObservableWaveletData;
 import org.waveprotocol.wave.model.wave.data.WaveViewData;
 import org.waveprotocol.wave.model.wave.data.WaveletData;
-import org.waveprotocol.wave.model.wave.opbased.OpBasedWavelet;
 
 import java.util.ArrayList;
 import java.util.Collection;
@@ -75,17 +59,15 @@ public class SearchService implements OperationService {
    * Defined in the spec.
    */
   private static final int DEFAULT_NUMBER_SEARCH_RESULTS = 10;
-  private static final int DIGEST_SNIPPET_LENGTH = 140;
   private static final int PARTICIPANTS_SNIPPET_LENGTH = 5;
-  private static final String EMPTY_WAVELET_TITLE = "";
 
   private final SearchProvider searchProvider;
-  private final ConversationUtil conversationUtil;
+  private final DigestSummaryIndex digestSummaries;
 
   @Inject
-  public SearchService(SearchProvider searchProvider, ConversationUtil conversationUtil) {
+  public SearchService(SearchProvider searchProvider, DigestSummaryIndex digestSummaries) {
     this.searchProvider = searchProvider;
-    this.conversationUtil = conversationUtil;
+    this.digestSummaries = digestSummaries;
   }
 
   @Override
@@ -105,37 +87,14 @@ public class SearchService implements OperationService {
   }
 
   /**
-   * Produces a digest for a set of conversations. Never returns null.
+   * Produces a digest for a conversational wavelet. Never returns null.
    *
-   * @param conversations the conversation.
-   * @param supplement the supplement that allows to easily perform various
-   *        queries on user related state of the wavelet.
+   * @param summary the summary of the wavelet for the user.
    * @param rawWaveletData the waveletData from which the digest is generated.
    *        This wavelet is a copy.
    * @return the server representation of the digest for the query.
    */
-  @VisibleForTesting
-  Digest generateDigest(ObservableConversationView conversations, SupplementedWave supplement,
-      WaveletData rawWaveletData) {
-    ObservableConversation rootConversation = conversations.getRoot();
-    ObservableConversationBlip firstBlip = null;
-    if (rootConversation != null && rootConversation.getRootThread() != null
-        && rootConversation.getRootThread().getFirstBlip() != null) {
-      firstBlip = rootConversation.getRootThread().getFirstBlip();
-    }
-    String title;
-    if (firstBlip != null) {
-      Document firstBlipContents = firstBlip.getContent();
-      title = TitleHelper.extractTitle(firstBlipContents).trim();
-    } else {
-      title = EMPTY_WAVELET_TITLE;
-    }
-
-    String snippet = Snippets.renderSnippet(rawWaveletData, DIGEST_SNIPPET_LENGTH).trim();
-    if (snippet.startsWith(title) && !title.isEmpty()) {
-      // Strip the title from the snippet if the snippet starts with the title.
-      snippet = snippet.substring(title.length());
-    }
+  private Digest generateDigest(Summary summary, WaveletData rawWaveletData) {
     String waveId = ApiIdSerializer.instance().serialiseWaveId(rawWaveletData.getWaveId());
     List<String> participants = CollectionUtils.newArrayList();
     for (ParticipantId p : rawWaveletData.getParticipants()) {
@@ -145,16 +104,8 @@ public class SearchService implements OperationService {
         break;
       }
     }
-    int unreadCount = 0;
-    int blipCount = 0;
-    for (ConversationBlip blip : BlipIterators.breadthFirst(rootConversation)) {
-      if (supplement.isUnread(blip)) {
-        unreadCount++;
-      }
-      blipCount++;
-    }
-    return new Digest(title, snippet, waveId, participants, rawWaveletData.getLastModifiedTime(),
-        unreadCount, blipCount);
+    return new Digest(summary.getTitle(), summary.getSnippet(), waveId, participants,
+        rawWaveletData.getLastModifiedTime(), summary.getUnreadCount(), summary.getBlipCount());
   }
 
   /** @return a digest for an empty wave. */
@@ -187,7 +138,8 @@ public class SearchService implements OperationService {
   }
 
   // Note that this search implementation is only of prototype quality.
-  private SearchResult search(
+  @VisibleForTesting
+  SearchResult search(
       ParticipantId participant, String query, int startAt, int numResults) {
     Collection<WaveViewData> results =
         searchProvider.search(participant, query, startAt, numResults);
@@ -217,18 +169,13 @@ public class SearchService implements OperationService {
       }
 
       ObservableWaveletData convWavelet = root != null ? root : other;
-      SupplementedWave supplement = null;
-      ObservableConversationView conversations = null;
+      Summary summary = null;
       if (convWavelet != null) {
-        OpBasedWavelet wavelet = OpBasedWavelet.createReadOnly(convWavelet);
-        if (WaveletBasedConversation.waveletHasConversation(wavelet)) {
-          conversations = conversationUtil.buildConversation(wavelet);
-          supplement = buildSupplement(participant, conversations, udw);
-        }
+        summary = digestSummaries.summarize(participant, convWavelet, udw);
       }
-      if (conversations != null) {
+      if (summary != null) {
         // This is a conversational wave. Produce a conversational digest.
-        result.addDigest(generateDigest(conversations, supplement, convWavelet));
+        result.addDigest(generateDigest(summary, convWavelet));
       } else {
         // It is unknown how to present this wave.
         result.addDigest(generateEmptyorUnknownDigest(wave));
@@ -251,22 +198,4 @@ public class SearchService implements OperationService {
     Digest digest = empty ? emptyDigest(wave) : unknownDigest(wave);
     return digest;
   }
-
-  /**
-   * Builds the supplement model from a wave. Never returns null.
-   *
-   * @param viewer the participant for which the supplement is constructed.
-   * @param conversations conversations in the wave
-   * @param udw the user data wavelet for the logged user.
-   * @return the wave supplement.
-   */
-  @VisibleForTesting
-  SupplementedWave buildSupplement(
-      ParticipantId viewer, ObservableConversationView conversations, ObservableWaveletData udw) {
-    // Use mock state if there is no UDW.
-    PrimitiveSupplement udwState =
-        udw != null ? WaveletBasedSupplement.create(OpBasedWavelet.createReadOnly(udw))
-            : new PrimitiveSupplementImpl();
-    return SupplementedWaveImpl.create(udwState, conversations, viewer, DefaultFollow.ALWAYS);
-  }
 }
@@ -72,11 +72,15 @@ public class RobotConnector {
     String serializedBundle = serializer.serialize(bundle, version);
 
     String robotUrl = robot.getAccount().getUrl() + Robot.RPC_URL;
-    LOG.info("Sending: " + serializedBundle + " to " + robotUrl);
+    if (LOG.isFineLoggable()) {
+      LOG.fine("Sending: " + serializedBundle + " to " + robotUrl);
+    }
 
     try {
       String response = connection.postJson(robotUrl, serializedBundle);
-      LOG.info("Received: " + response + " from " + robotUrl);
+      if (LOG.isFineLoggable()) {
+        LOG.fine("Received: " + response + " from " + robotUrl);
+      }
       return serializer.deserializeOperations(response);
     } catch (RobotConnectionException e) {
       LOG.info("Failed to receive a response from " + robotUrl, e);
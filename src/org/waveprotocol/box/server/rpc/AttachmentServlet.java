@@ -17,6 +17,8 @@
 
 package org.waveprotocol.box.server.rpc;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Lists;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 
@@ -24,12 +26,15 @@ import org.apache.commons.fileupload.FileItem;
 import org.apache.commons.fileupload.FileItemFactory;
 import org.apache.commons.fileupload.disk.DiskFileItemFactory;
 import org.apache.commons.fileupload.servlet.ServletFileUpload;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.FilenameUtils;
 import org.waveprotocol.box.server.persistence.AttachmentStore;
 import org.waveprotocol.box.server.persistence.AttachmentStore.AttachmentData;
+import org.waveprotocol.box.server.persistence.AttachmentUtil;
 import org.waveprotocol.wave.util.logging.Log;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.List;
 
 import javax.servlet.ServletException;
@@ -40,17 +45,58 @@ import javax.servlet.http.HttpServletResponse;
 /**
  * An attachment servlet is a simple servlet that serves up attachments from a
  * provided store.
+ *
+ * Attachments are served with a strong ETag and their last modified date, so
+ * that clients can revalidate them with If-None-Match or If-Modified-Since.
+ * Range requests, with one or several ranges and optionally If-Range, are
+ * answered with the requested ranges only.
+ *
+ * Uploaded attachments are handed to the {@link ThumbnailGenerator}, which
+ * generates the thumbnail of images in the background.
  */
 @SuppressWarnings("serial")
 @Singleton
 public class AttachmentServlet extends HttpServlet {
   private static final Log LOG = Log.get(AttachmentServlet.class);
 
+  private static final String BYTES_UNIT = "bytes=";
+
+  /** The largest number of ranges served, more are ignored. */
+  private static final int MAX_RANGES = 16;
+
+  /** Separates the parts of a response holding several ranges. */
+  private static final String MULTIPART_BOUNDARY = "wave_attachment_byteranges";
+
+  private static final String HEADER_CHARSET = "ISO-8859-1";
+
+  /** A range of the bytes of an attachment, from start to end inclusive. */
+  @VisibleForTesting
+  static final class ByteRange {
+    final long start;
+    final long end;
+
+    ByteRange(long start, long end) {
+      this.start = start;
+      this.end = end;
+    }
+
+    long length() {
+      return end - start + 1;
+    }
+
+    String toContentRange(long size) {
+      return "bytes " + start + "-" + end + "/" + size;
+    }
+  }
+
   private final AttachmentStore store;
+  private final ThumbnailGenerator thumbnails;
 
   @Inject
-  private AttachmentServlet(AttachmentStore store) {
+  @VisibleForTesting
+  AttachmentServlet(AttachmentStore store, ThumbnailGenerator thumbnails) {
     this.store = store;
+    this.thumbnails = thumbnails;
   }
 
   /**
@@ -98,19 +144,187 @@ public class AttachmentServlet extends HttpServlet {
       response.sendError(HttpServletResponse.SC_NOT_FOUND);
       return;
     }
+    long size = data.getContentSize();
+    long lastModified = data.getLastModifiedDate().getTime();
+    String etag = computeETag(attachmentId, size);
+    response.setHeader("ETag", etag);
+    response.setDateHeader("Last-Modified", lastModified);
+    response.setHeader("Accept-Ranges", "bytes");
+
+    if (isNotModified(request, etag, lastModified)) {
+      response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      return;
+    }
+
     String mimetype = getMimeTypeByFileName(fileName);
-    response.setContentType((mimetype != null) ? mimetype : "application/octet-stream");
-    response.setContentLength((int) data.getContentSize());
+    String contentType = (mimetype != null) ? mimetype : "application/octet-stream";
     response.setHeader("Content-Disposition", "attachment; filename=\"" + fileName + "\"");
 
-    response.setStatus(HttpServletResponse.SC_OK);
-    response.setContentLength((int) data.getContentSize());
-    response.setDateHeader("Last-Modified", data.getLastModifiedDate().getTime());
-    data.writeDataTo(response.getOutputStream());
+    List<ByteRange> ranges = ifRangeMatches(request, etag, lastModified)
+        ? parseRanges(request.getHeader("Range"), size) : null;
+    if (ranges == null) {
+      response.setContentType(contentType);
+      response.setStatus(HttpServletResponse.SC_OK);
+      setContentLength(response, size);
+      data.writeDataTo(response.getOutputStream());
+    } else if (ranges.isEmpty()) {
+      response.setHeader("Content-Range", "bytes */" + size);
+      response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+      return;
+    } else if (ranges.size() == 1) {
+      ByteRange range = ranges.get(0);
+      response.setContentType(contentType);
+      response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+      response.setHeader("Content-Range", range.toContentRange(size));
+      setContentLength(response, range.length());
+      data.writeDataTo(response.getOutputStream(), range.start, range.length());
+    } else {
+      writeRanges(response, data, contentType, ranges, size);
+    }
 
     LOG.info("Fetched attachment with id '" + attachmentId + "'");
   }
 
+  /**
+   * Writes a multipart/byteranges response holding several ranges of an
+   * attachment.
+   */
+  private static void writeRanges(HttpServletResponse response, AttachmentData data,
+      String contentType, List<ByteRange> ranges, long size) throws IOException {
+    List<byte[]> partHeaders = Lists.newArrayListWithCapacity(ranges.size());
+    byte[] end = ("\r\n--" + MULTIPART_BOUNDARY + "--\r\n").getBytes(HEADER_CHARSET);
+    long length = end.length;
+    for (ByteRange range : ranges) {
+      byte[] partHeader = ("\r\n--" + MULTIPART_BOUNDARY + "\r\n"
+          + "Content-Type: " + contentType + "\r\n"
+          + "Content-Range: " + range.toContentRange(size) + "\r\n\r\n").getBytes(HEADER_CHARSET);
+      partHeaders.add(partHeader);
+      length += partHeader.length + range.length();
+    }
+
+    response.setContentType("multipart/byteranges; boundary=" + MULTIPART_BOUNDARY);
+    response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+    setContentLength(response, length);
+    OutputStream out = response.getOutputStream();
+    for (int i = 0; i < ranges.size(); i++) {
+      ByteRange range = ranges.get(i);
+      out.write(partHeaders.get(i));
+      data.writeDataTo(out, range.start, range.length());
+    }
+    out.write(end);
+  }
+
+  private static void setContentLength(HttpServletResponse response, long length) {
+    // setContentLength() takes an int, which is too small for large attachments.
+    response.setHeader("Content-Length", Long.toString(length));
+  }
+
+  /**
+   * Computes the strong ETag of an attachment. Attachments are never modified
+   * once stored, so the id and the size identify their content.
+   */
+  @VisibleForTesting
+  static String computeETag(String attachmentId, long size) {
+    return '"' + DigestUtils.md5Hex(attachmentId) + "-" + size + '"';
+  }
+
+  /**
+   * Checks the If-None-Match and If-Modified-Since headers of a request.
+   */
+  private static boolean isNotModified(HttpServletRequest request, String etag,
+      long lastModified) {
+    String ifNoneMatch = request.getHeader("If-None-Match");
+    if (ifNoneMatch != null) {
+      return FetchServlet.matchesETag(ifNoneMatch, etag);
+    }
+    long ifModifiedSince = getDateHeader(request, "If-Modified-Since");
+    // HTTP dates have a precision of one second.
+    return ifModifiedSince != -1 && lastModified / 1000 <= ifModifiedSince / 1000;
+  }
+
+  /**
+   * Checks the If-Range header of a request, which makes a Range header apply
+   * only if the attachment has the given ETag or last modified date.
+   */
+  private static boolean ifRangeMatches(HttpServletRequest request, String etag,
+      long lastModified) {
+    String ifRange = request.getHeader("If-Range");
+    if (ifRange == null) {
+      return true;
+    }
+    if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+      // Ranges require a strong comparison, which never matches a weak ETag.
+      return ifRange.equals(etag);
+    }
+    long date = getDateHeader(request, "If-Range");
+    return date != -1 && lastModified / 1000 == date / 1000;
+  }
+
+  /**
+   * Returns the value of a date header, or -1 if the header is missing or is
+   * not a date.
+   */
+  private static long getDateHeader(HttpServletRequest request, String name) {
+    try {
+      return request.getDateHeader(name);
+    } catch (IllegalArgumentException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * Parses the Range header of a request for an attachment of the given size.
+   *
+   * @return the satisfiable ranges, which is empty if none is, or null if the
+   *         header is missing, malformed or asks for too many ranges, in which
+   *         case the whole attachment is served.
+   */
+  @VisibleForTesting
+  static List<ByteRange> parseRanges(String header, long size) {
+    if (header == null || !header.startsWith(BYTES_UNIT)) {
+      return null;
+    }
+    String[] specs = header.substring(BYTES_UNIT.length()).split(",");
+    if (specs.length > MAX_RANGES) {
+      return null;
+    }
+    List<ByteRange> ranges = Lists.newArrayListWithCapacity(specs.length);
+    for (String spec : specs) {
+      spec = spec.trim();
+      int dash = spec.indexOf('-');
+      if (dash < 0) {
+        return null;
+      }
+      long start;
+      long end;
+      try {
+        if (dash == 0) {
+          // A suffix range: the last n bytes.
+          long suffixLength = Long.parseLong(spec.substring(1));
+          start = Math.max(0, size - suffixLength);
+          end = (suffixLength > 0) ? size - 1 : -1;
+        } else {
+          start = Long.parseLong(spec.substring(0, dash));
+          if (dash == spec.length() - 1) {
+            end = size - 1;
+          } else {
+            end = Long.parseLong(spec.substring(dash + 1));
+            if (end < start) {
+              return null;
+            }
+            end = Math.min(end, size - 1);
+          }
+        }
+      } catch (NumberFormatException e) {
+        return null;
+      }
+      if (start < size && start <= end) {
+        ranges.add(new ByteRange(start, end));
+      }
+    }
+    return ranges;
+  }
+
   private String getMimeTypeByFileName(String fileName) {
     String mimeType = "application/octet-stream";
     if (fileName.endsWith(".ico")) {
@@ -143,8 +357,14 @@ public class AttachmentServlet extends HttpServlet {
       response.sendError(HttpServletResponse.SC_NOT_FOUND);
       return;
     }
+    if (AttachmentUtil.isThumbnailId(attachmentId)) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+      return;
+    }
 
-    store.storeAttachment(attachmentId, request.getInputStream());
+    if (store.storeAttachment(attachmentId, request.getInputStream())) {
+      thumbnails.requestThumbnail(attachmentId);
+    }
 
     response.setContentType("text/html");
     response.setStatus(HttpServletResponse.SC_OK);
@@ -182,11 +402,16 @@ public class AttachmentServlet extends HttpServlet {
             fileItem = item;
           }
         }
+        if (id == null || AttachmentUtil.isThumbnailId(id)) {
+          resp.sendError(HttpServletResponse.SC_BAD_REQUEST);
+          return;
+        }
         String fileName = fileItem.getName();
         // Get only the file name not whole path.
         if (fileName != null) {
           fileName = FilenameUtils.getName(fileName);
           if (store.storeAttachment(id, fileItem.getInputStream())) {
+            thumbnails.requestThumbnail(id);
             resp.setStatus(HttpServletResponse.SC_CREATED);
             String msg =
                 String.format("The file with name: %s and id: %s was created successfully.",
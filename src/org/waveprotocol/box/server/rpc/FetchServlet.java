@@ -18,10 +18,15 @@
 package org.waveprotocol.box.server.rpc;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.MapMaker;
+import com.google.common.collect.Maps;
 import com.google.inject.Inject;
 import com.google.protobuf.MessageLite;
 
-import org.waveprotocol.box.common.comms.WaveClientRpc.DocumentSnapshot;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.waveprotocol.box.common.comms.WaveClientRpc.WaveViewSnapshot;
 import org.waveprotocol.box.server.authentication.SessionManager;
 import org.waveprotocol.box.server.common.SnapshotSerializer;
@@ -32,6 +37,7 @@ import org.waveprotocol.box.server.waveserver.WaveletProvider;
 import org.waveprotocol.wave.model.id.ModernIdSerialiser;
 import org.waveprotocol.wave.model.id.WaveletId;
 import org.waveprotocol.wave.model.id.WaveletName;
+import org.waveprotocol.wave.model.version.HashedVersion;
 import org.waveprotocol.wave.model.wave.ParticipantId;
 import org.waveprotocol.wave.model.wave.data.ReadableWaveletData;
 import org.waveprotocol.wave.model.waveref.InvalidWaveRefException;
@@ -40,6 +46,14 @@ import org.waveprotocol.wave.util.escapers.jvm.JavaWaverefEncoder;
 import org.waveprotocol.wave.util.logging.Log;
 
 import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 
 import javax.inject.Singleton;
 import javax.servlet.http.HttpServlet;
@@ -49,7 +63,8 @@ import javax.servlet.http.HttpServletResponse;
 /**
  * A servlet for static fetching of wave data. Typically, the servlet will be
  * hosted on /fetch/*. A document, a wavelet, or a whole wave can be specified
- * in the URL.
+ * in the URL. Fetching a whole wave returns all the wavelets of the wave that
+ * are visible to the user.
  *
  *  Valid request formats are: Fetch a wave: GET /fetch/wavedomain.com/waveid
  * Fetch a wavelet: GET /fetch/wavedomain.com/waveid/waveletdomain.com/waveletid
@@ -58,12 +73,38 @@ import javax.servlet.http.HttpServletResponse;
  *
  *  The format of the returned information is the protobuf-JSON format used by
  * the websocket interface.
+ *
+ *  Responses carry an ETag derived from the versions of the fetched wavelets,
+ * and may be cached privately by browsers as long as they revalidate them; a
+ * request whose If-None-Match header matches the current ETag gets a 304
+ * response. The serialized responses are cached, so fetching an unchanged
+ * wavelet again does not serialize it again. The ETag is computed from the
+ * wavelet versions alone, so neither case copies the wavelets.
  */
 @SuppressWarnings("serial")
 @Singleton
 public final class FetchServlet extends HttpServlet {
   private static final Log LOG = Log.get(FetchServlet.class);
 
+  /** Maximum number of serialized responses to keep. */
+  private static final int MAX_CACHED_RESPONSES = 1000;
+
+  /** How long a serialized response is kept since it was last fetched. */
+  private static final int CACHE_EXPIRATION_MINUTES = 10;
+
+  private static final String CACHE_CONTROL = "private, max-age=0, must-revalidate";
+
+  /** A serialized response, together with the ETag of the data it holds. */
+  private static final class CachedResponse {
+    private final String etag;
+    private final byte[] json;
+
+    CachedResponse(String etag, byte[] json) {
+      this.etag = etag;
+      this.json = json;
+    }
+  }
+
   @Inject
   public FetchServlet(
       WaveletProvider waveletProvider, ProtoSerializer serializer, SessionManager sessionManager) {
@@ -76,6 +117,16 @@ public final class FetchServlet extends HttpServlet {
   private final WaveletProvider waveletProvider;
   private final SessionManager sessionManager;
 
+  /**
+   * Serialized responses, keyed by the fetched path. Only the response for
+   * the latest seen ETag of each path is kept.
+   */
+  private final ConcurrentMap<String, CachedResponse> responseCache = new MapMaker()
+      .maximumSize(MAX_CACHED_RESPONSES)
+      .expireAfterAccess(CACHE_EXPIRATION_MINUTES, TimeUnit.MINUTES)
+      .softValues()
+      .makeMap();
+
   /**
    * Create an http response to the fetch query. Main entrypoint for this class.
    */
@@ -98,30 +149,7 @@ public final class FetchServlet extends HttpServlet {
       return;
     }
 
-    renderSnapshot(waveref, user, response);
-  }
-
-  private void serializeObjectToServlet(MessageLite message, HttpServletResponse dest)
-      throws IOException {
-    if (message == null) {
-      // Snapshot is null. It would be nice to 404 here, but we can't let
-      // clients guess valid wavelet ids that they're not authorized to access.
-      dest.sendError(HttpServletResponse.SC_FORBIDDEN);
-    } else {
-      dest.setStatus(HttpServletResponse.SC_OK);
-      dest.setContentType("application/json");
-
-      // This is a hack to make sure the fetched data is fresh.
-      // TODO(josephg): Change this so that browsers can cache wave snapshots. Probably need:
-      // 'Cache-Control: must-revalidate, private' and an ETag with the wave[let]'s version.
-      dest.setHeader("Cache-Control", "no-store");
-
-      try {
-        dest.getWriter().append(serializer.toJson(message).toString());
-      } catch (SerializationException e) {
-        throw new IOException(e);
-      }
-    }
+    renderSnapshot(waveref, user, req, response);
   }
 
   /**
@@ -132,55 +160,184 @@ public final class FetchServlet extends HttpServlet {
    * @param dest The servlet response to render the snapshot out to.
    * @throws IOException
    */
-  private void renderSnapshot(WaveRef waveref, ParticipantId requester, HttpServletResponse dest)
-      throws IOException {
-    // TODO(josephg): Its currently impossible to fetch all wavelets inside a
-    // wave that are visible to the user. Until this is fixed, if no wavelet is
-    // specified we'll just return the conv+root.
-    WaveletId waveletId = waveref.hasWaveletId() ? waveref.getWaveletId() : WaveletId.of(
-        waveref.getWaveId().getDomain(), "conv+root");
+  private void renderSnapshot(WaveRef waveref, ParticipantId requester, HttpServletRequest req,
+      HttpServletResponse dest) throws IOException {
+    SortedMap<WaveletId, HashedVersion> versions;
+    try {
+      versions = getVisibleVersions(waveref, requester);
+    } catch (WaveServerException e) {
+      throw new IOException(e);
+    }
+    if (versions.isEmpty()) {
+      // It would be nice to 404 here, but we can't let clients guess valid
+      // wavelet ids that they're not authorized to access.
+      dest.sendError(HttpServletResponse.SC_FORBIDDEN);
+      return;
+    }
 
-    WaveletName waveletName = WaveletName.of(waveref.getWaveId(), waveletId);
+    String etag = computeETag(versions);
+    if (matchesETag(req.getHeader("If-None-Match"), etag)) {
+      dest.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      setCacheHeaders(dest, etag);
+      return;
+    }
 
-    CommittedWaveletSnapshot committedSnapshot;
-    try {
-      if (!waveletProvider.checkAccessPermission(waveletName, requester)) {
+    String cacheKey = JavaWaverefEncoder.encodeToUriPathSegment(waveref);
+    CachedResponse cached = responseCache.get(cacheKey);
+    if (cached == null || !cached.etag.equals(etag)) {
+      // Only now are the wavelets copied, and they may have changed since
+      // their versions were looked up.
+      List<ReadableWaveletData> snapshots;
+      try {
+        snapshots = getSnapshots(waveref, versions.keySet());
+      } catch (WaveServerException e) {
+        throw new IOException(e);
+      }
+      MessageLite message = snapshots.isEmpty() ? null : buildMessage(waveref, snapshots);
+      if (message == null) {
         dest.sendError(HttpServletResponse.SC_FORBIDDEN);
         return;
       }
+      try {
+        cached = new CachedResponse(computeETag(versionsOf(snapshots)),
+            serializer.toJson(message).toString().getBytes(Charsets.UTF_8));
+      } catch (SerializationException e) {
+        throw new IOException(e);
+      }
+      responseCache.put(cacheKey, cached);
+    }
+
+    dest.setStatus(HttpServletResponse.SC_OK);
+    dest.setContentType("application/json; charset=UTF-8");
+    setCacheHeaders(dest, cached.etag);
+    dest.setContentLength(cached.json.length);
+    dest.getOutputStream().write(cached.json);
+  }
+
+  /**
+   * Returns the current versions of the referenced wavelet, or of all the
+   * wavelets in the referenced wave that the requester can access. No wavelet
+   * is copied.
+   */
+  private SortedMap<WaveletId, HashedVersion> getVisibleVersions(WaveRef waveref,
+      ParticipantId requester) throws WaveServerException {
+    Collection<WaveletId> waveletIds = waveref.hasWaveletId()
+        ? Collections.singleton(waveref.getWaveletId())
+        : waveletProvider.getWaveletIds(waveref.getWaveId());
+    SortedMap<WaveletId, HashedVersion> versions = Maps.newTreeMap();
+    for (WaveletId waveletId : waveletIds) {
+      WaveletName waveletName = WaveletName.of(waveref.getWaveId(), waveletId);
+      if (waveletProvider.checkAccessPermission(waveletName, requester)) {
+        HashedVersion version = waveletProvider.getLatestVersion(waveletName);
+        if (version != null) {
+          versions.put(waveletId, version);
+        }
+      }
+    }
+    return versions;
+  }
+
+  /**
+   * Returns the snapshots of the given wavelets of the referenced wave, in
+   * wavelet id order.
+   */
+  private List<ReadableWaveletData> getSnapshots(WaveRef waveref, Set<WaveletId> waveletIds)
+      throws WaveServerException {
+    List<ReadableWaveletData> snapshots = Lists.newArrayListWithCapacity(waveletIds.size());
+    for (WaveletId waveletId : waveletIds) {
+      WaveletName waveletName = WaveletName.of(waveref.getWaveId(), waveletId);
       LOG.info("Fetching snapshot of wavelet " + waveletName);
-      committedSnapshot = waveletProvider.getSnapshot(waveletName);
-    } catch (WaveServerException e) {
-      throw new IOException(e);
+      CommittedWaveletSnapshot committedSnapshot = waveletProvider.getSnapshot(waveletName);
+      if (committedSnapshot != null && committedSnapshot.snapshot != null) {
+        snapshots.add(committedSnapshot.snapshot);
+      }
+    }
+    return snapshots;
+  }
+
+  private static SortedMap<WaveletId, HashedVersion> versionsOf(
+      List<ReadableWaveletData> snapshots) {
+    SortedMap<WaveletId, HashedVersion> versions = Maps.newTreeMap();
+    for (ReadableWaveletData snapshot : snapshots) {
+      versions.put(snapshot.getWaveletId(), snapshot.getHashedVersion());
     }
-    if (committedSnapshot != null) {
-      ReadableWaveletData snapshot = committedSnapshot.snapshot;
-      if (waveref.hasDocumentId()) {
-        // We have a wavelet id and document id. Find the document in the
-        // snapshot and return it.
-        DocumentSnapshot docSnapshot = null;
-        for (String docId : snapshot.getDocumentIds()) {
-          if (docId.equals(waveref.getDocumentId())) {
-            docSnapshot = SnapshotSerializer.serializeDocument(snapshot.getDocument(docId));
-            break;
-          }
+    return versions;
+  }
+
+  /**
+   * Builds the message to send for the referenced wave, wavelet or document.
+   *
+   * @return the message, or null if the referenced document does not exist.
+   */
+  private MessageLite buildMessage(WaveRef waveref, List<ReadableWaveletData> snapshots) {
+    if (waveref.hasDocumentId()) {
+      // We have a wavelet id and document id. Find the document in the
+      // snapshot and return it.
+      ReadableWaveletData snapshot = snapshots.get(0);
+      for (String docId : snapshot.getDocumentIds()) {
+        if (docId.equals(waveref.getDocumentId())) {
+          return SnapshotSerializer.serializeDocument(snapshot.getDocument(docId));
         }
-        serializeObjectToServlet(docSnapshot, dest);
-      } else if (waveref.hasWaveletId()) {
-        // We have a wavelet id. Pull up the wavelet snapshot and return it.
-        serializeObjectToServlet(SnapshotSerializer.serializeWavelet(snapshot,
-            snapshot.getHashedVersion()), dest);
-      } else {
-        // Wrap the conv+root we fetched earlier in a WaveSnapshot object and
-        // send it.
-        WaveViewSnapshot waveSnapshot = WaveViewSnapshot.newBuilder()
-            .setWaveId(ModernIdSerialiser.INSTANCE.serialiseWaveId(waveref.getWaveId()))
-            .addWavelet(SnapshotSerializer.serializeWavelet(snapshot, snapshot.getHashedVersion()))
-            .build();
-        serializeObjectToServlet(waveSnapshot, dest);
       }
+      return null;
+    } else if (waveref.hasWaveletId()) {
+      // We have a wavelet id. Pull up the wavelet snapshot and return it.
+      ReadableWaveletData snapshot = snapshots.get(0);
+      return SnapshotSerializer.serializeWavelet(snapshot, snapshot.getHashedVersion());
     } else {
-      dest.sendError(HttpServletResponse.SC_FORBIDDEN);
+      // Wrap the visible wavelets in a WaveSnapshot object.
+      WaveViewSnapshot.Builder waveSnapshot = WaveViewSnapshot.newBuilder()
+          .setWaveId(ModernIdSerialiser.INSTANCE.serialiseWaveId(waveref.getWaveId()));
+      for (ReadableWaveletData snapshot : snapshots) {
+        waveSnapshot.addWavelet(
+            SnapshotSerializer.serializeWavelet(snapshot, snapshot.getHashedVersion()));
+      }
+      return waveSnapshot.build();
     }
   }
+
+  /**
+   * Computes the ETag of a response from the versions of the wavelets it is
+   * built from.
+   */
+  @VisibleForTesting
+  static String computeETag(SortedMap<WaveletId, HashedVersion> versions) {
+    if (versions.size() == 1) {
+      return '"' + versionTag(versions.values().iterator().next()) + '"';
+    }
+    StringBuilder tags = new StringBuilder();
+    for (Map.Entry<WaveletId, HashedVersion> entry : versions.entrySet()) {
+      tags.append(ModernIdSerialiser.INSTANCE.serialiseWaveletId(entry.getKey()))
+          .append(':').append(versionTag(entry.getValue())).append(';');
+    }
+    return '"' + DigestUtils.md5Hex(tags.toString()) + '"';
+  }
+
+  private static String versionTag(HashedVersion version) {
+    return version.getVersion() + "-" + new String(Hex.encodeHex(version.getHistoryHash()));
+  }
+
+  /**
+   * Checks whether an If-None-Match header matches the given ETag.
+   */
+  static boolean matchesETag(String ifNoneMatch, String etag) {
+    if (ifNoneMatch == null) {
+      return false;
+    }
+    for (String candidate : ifNoneMatch.split(",")) {
+      candidate = candidate.trim();
+      if (candidate.startsWith("W/")) {
+        candidate = candidate.substring(2);
+      }
+      if (candidate.equals("*") || candidate.equals(etag)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static void setCacheHeaders(HttpServletResponse dest, String etag) {
+    dest.setHeader("Cache-Control", CACHE_CONTROL);
+    dest.setHeader("ETag", etag);
+  }
 }
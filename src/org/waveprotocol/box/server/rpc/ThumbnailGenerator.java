@@ -0,0 +1,266 @@
+/**
+ * Copyright 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.waveprotocol.box.server.rpc;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.MapMaker;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import org.waveprotocol.box.server.persistence.AttachmentStore;
+import org.waveprotocol.box.server.persistence.AttachmentStore.AttachmentData;
+import org.waveprotocol.box.server.persistence.AttachmentUtil;
+import org.waveprotocol.wave.util.logging.Log;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Generates the thumbnails of image attachments in the background and stores
+ * them in the {@link AttachmentStore}, next to the original attachment.
+ *
+ * Thumbnails are generated once, when an attachment is uploaded, on a small
+ * bounded pool of worker threads, so that serving a thumbnail never decodes an
+ * image. A thumbnail that was not generated at upload time, because the pool
+ * was busy or because the attachment was stored another way, is generated the
+ * first time it is requested.
+ */
+@Singleton
+public class ThumbnailGenerator {
+  private static final Log LOG = Log.get(ThumbnailGenerator.class);
+
+  static {
+    // Image decoding and scaling must not need a display.
+    if (System.getProperty("java.awt.headless") == null) {
+      System.setProperty("java.awt.headless", "true");
+    }
+  }
+
+  /** The largest width and height of a thumbnail, in pixels. */
+  public static final int THUMBNAIL_SIZE = 120;
+
+  /** The format of the stored thumbnails. */
+  public static final String THUMBNAIL_FORMAT = "png";
+
+  /** Images with more pixels than this are not decoded. */
+  private static final long MAX_PIXELS = 50L * 1000 * 1000;
+
+  private static final int WORKER_THREADS = 2;
+  private static final int MAX_QUEUED_IMAGES = 100;
+
+  /** Maximum number of attachments remembered as not being images. */
+  private static final int MAX_REMEMBERED_FAILURES = 10000;
+
+  private final AttachmentStore store;
+  private final Executor executor;
+
+  /** The ids of the attachments whose thumbnail is being generated. */
+  private final ConcurrentMap<String, Boolean> inFlight =
+      new ConcurrentHashMap<String, Boolean>();
+
+  /** The ids of the attachments which are not images that can be decoded. */
+  private final ConcurrentMap<String, Boolean> failures = new MapMaker()
+      .maximumSize(MAX_REMEMBERED_FAILURES)
+      .makeMap();
+
+  @Inject
+  public ThumbnailGenerator(AttachmentStore store) {
+    this(store, new ThreadPoolExecutor(WORKER_THREADS, WORKER_THREADS, 60, TimeUnit.SECONDS,
+        new ArrayBlockingQueue<Runnable>(MAX_QUEUED_IMAGES),
+        new ThreadFactoryBuilder().setNameFormat("ThumbnailGenerator-%d").setDaemon(true).build()));
+  }
+
+  @VisibleForTesting
+  ThumbnailGenerator(AttachmentStore store, Executor executor) {
+    this.store = store;
+    this.executor = executor;
+  }
+
+  /**
+   * Returns the id under which the thumbnail of an attachment is stored.
+   */
+  public static String getThumbnailId(String attachmentId) {
+    return AttachmentUtil.getThumbnailId(attachmentId);
+  }
+
+  /**
+   * Returns the stored thumbnail of an attachment, without generating it.
+   *
+   * @return the thumbnail, or null if it has not been generated yet.
+   */
+  public AttachmentData getThumbnail(String attachmentId) {
+    return store.getAttachment(getThumbnailId(attachmentId));
+  }
+
+  /**
+   * Starts generating the thumbnail of an attachment in the background, unless
+   * it is already being generated.
+   *
+   * @return false if the attachment has no thumbnail, because it does not
+   *         exist or is known not to be an image.
+   */
+  public boolean requestThumbnail(final String attachmentId) {
+    if (failures.containsKey(attachmentId) || store.getAttachment(attachmentId) == null) {
+      return false;
+    }
+    if (inFlight.putIfAbsent(attachmentId, Boolean.TRUE) != null) {
+      return true;
+    }
+    try {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            generateThumbnail(attachmentId);
+          } finally {
+            inFlight.remove(attachmentId);
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      // The thumbnail will be generated when it is next requested.
+      LOG.warning("Unable to schedule thumbnail generation for: " + attachmentId, e);
+      inFlight.remove(attachmentId);
+    }
+    return true;
+  }
+
+  /**
+   * Generates and stores the thumbnail of an attachment, on the calling thread.
+   */
+  private void generateThumbnail(String attachmentId) {
+    String thumbnailId = getThumbnailId(attachmentId);
+    if (store.getAttachment(thumbnailId) != null) {
+      return;
+    }
+    AttachmentData data = store.getAttachment(attachmentId);
+    if (data == null) {
+      // Not remembered as a failure, since the attachment may still be stored.
+      return;
+    }
+
+    try {
+      BufferedImage image;
+      InputStream in = data.getInputStream();
+      try {
+        image = decode(in);
+      } finally {
+        in.close();
+      }
+      if (image == null) {
+        failures.put(attachmentId, Boolean.TRUE);
+        return;
+      }
+
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      ImageIO.write(scale(image), THUMBNAIL_FORMAT, out);
+      store.storeAttachment(thumbnailId, new ByteArrayInputStream(out.toByteArray()));
+      LOG.fine("Generated thumbnail for attachment with id '" + attachmentId + "'");
+    } catch (IOException e) {
+      // Likely transient, so the thumbnail is generated again when requested.
+      LOG.warning("Failed to generate thumbnail for attachment with id '" + attachmentId + "'", e);
+    } catch (RuntimeException e) {
+      // Image readers throw unchecked exceptions on some malformed images.
+      LOG.warning("Failed to generate thumbnail for attachment with id '" + attachmentId + "'", e);
+      failures.put(attachmentId, Boolean.TRUE);
+    }
+  }
+
+  /**
+   * Decodes an image, skipping the rows and columns which are not needed for
+   * the thumbnail.
+   *
+   * @return the image, or null if the data is not an image in a known format
+   *         or has too many pixels.
+   */
+  @VisibleForTesting
+  BufferedImage decode(InputStream in) throws IOException {
+    ImageInputStream imageIn = ImageIO.createImageInputStream(in);
+    if (imageIn == null) {
+      return null;
+    }
+    try {
+      Iterator<ImageReader> readers = ImageIO.getImageReaders(imageIn);
+      if (!readers.hasNext()) {
+        return null;
+      }
+      ImageReader reader = readers.next();
+      try {
+        reader.setInput(imageIn, true, true);
+        int width = reader.getWidth(0);
+        int height = reader.getHeight(0);
+        if ((long) width * height > MAX_PIXELS) {
+          return null;
+        }
+        // Keep at least twice the thumbnail resolution, for smooth scaling.
+        int subsampling = Math.max(1, Math.max(width, height) / (2 * THUMBNAIL_SIZE));
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        return reader.read(0, param);
+      } finally {
+        reader.dispose();
+      }
+    } finally {
+      imageIn.close();
+    }
+  }
+
+  /**
+   * Scales an image down to fit in a square of {@link #THUMBNAIL_SIZE} pixels,
+   * keeping its aspect ratio. Smaller images keep their size.
+   */
+  private static BufferedImage scale(BufferedImage image) {
+    int width = image.getWidth();
+    int height = image.getHeight();
+    double ratio = Math.min(1.0, (double) THUMBNAIL_SIZE / Math.max(width, height));
+    int thumbnailWidth = Math.max(1, (int) Math.round(width * ratio));
+    int thumbnailHeight = Math.max(1, (int) Math.round(height * ratio));
+
+    BufferedImage thumbnail = new BufferedImage(thumbnailWidth, thumbnailHeight,
+        image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB
+            : BufferedImage.TYPE_INT_RGB);
+    Graphics2D graphics = thumbnail.createGraphics();
+    try {
+      graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+          RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+      graphics.drawImage(image, 0, 0, thumbnailWidth, thumbnailHeight, null);
+    } finally {
+      graphics.dispose();
+    }
+    return thumbnail;
+  }
+}
@@ -0,0 +1,150 @@
+/**
+ * Copyright 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.waveprotocol.box.server.rpc;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import org.waveprotocol.box.server.authentication.SessionManager;
+import org.waveprotocol.box.server.persistence.AttachmentStore.AttachmentData;
+import org.waveprotocol.box.server.waveserver.WaveServerException;
+import org.waveprotocol.box.server.waveserver.WaveletProvider;
+import org.waveprotocol.wave.model.id.WaveletName;
+import org.waveprotocol.wave.model.wave.ParticipantId;
+import org.waveprotocol.wave.model.waveref.InvalidWaveRefException;
+import org.waveprotocol.wave.model.waveref.WaveRef;
+import org.waveprotocol.wave.util.escapers.jvm.JavaWaverefEncoder;
+
+import java.io.IOException;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Serves the thumbnails of image attachments, as generated by the
+ * {@link ThumbnailGenerator}. The path of a request is the id of the attachment,
+ * and its {@code waveRef} parameter names the wavelet the attachment is shown
+ * in, such as {@code example.com/w+abc/~/conv+root}. Thumbnails are only
+ * served to signed in participants of that wavelet.
+ *
+ * Attachments never change once stored, so thumbnails are served with a long
+ * lived Cache-Control header. A thumbnail which has not been generated yet is
+ * answered with 503 and a Retry-After header while it is generated in the
+ * background; the request itself never decodes an image.
+ */
+@SuppressWarnings("serial")
+@Singleton
+public class ThumbnailServlet extends HttpServlet {
+
+  /** How long clients may cache a thumbnail, in seconds. */
+  private static final long MAX_AGE_SECONDS = 365L * 24 * 60 * 60;
+
+  /** How long clients should wait for a thumbnail being generated. */
+  private static final int RETRY_AFTER_SECONDS = 1;
+
+  /** The request parameter naming the wavelet the attachment is shown in. */
+  @VisibleForTesting
+  static final String WAVE_REF_PARAMETER = "waveRef";
+
+  private final ThumbnailGenerator thumbnails;
+  private final WaveletProvider waveletProvider;
+  private final SessionManager sessionManager;
+
+  @Inject
+  @VisibleForTesting
+  ThumbnailServlet(ThumbnailGenerator thumbnails, WaveletProvider waveletProvider,
+      SessionManager sessionManager) {
+    this.thumbnails = thumbnails;
+    this.waveletProvider = waveletProvider;
+    this.sessionManager = sessionManager;
+  }
+
+  @Override
+  protected void doGet(HttpServletRequest request, HttpServletResponse response)
+      throws IOException {
+    if (!isAuthorized(request)) {
+      // As for wavelets, don't tell whether the attachment exists.
+      response.sendError(HttpServletResponse.SC_FORBIDDEN);
+      return;
+    }
+
+    String pathInfo = request.getPathInfo();
+    String attachmentId = (pathInfo != null && pathInfo.length() > 1) ? pathInfo.substring(1) : "";
+    if (attachmentId.isEmpty()) {
+      response.sendError(HttpServletResponse.SC_NOT_FOUND);
+      return;
+    }
+
+    AttachmentData thumbnail = thumbnails.getThumbnail(attachmentId);
+    if (thumbnail == null) {
+      if (thumbnails.requestThumbnail(attachmentId)) {
+        response.setIntHeader("Retry-After", RETRY_AFTER_SECONDS);
+        response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+      } else {
+        response.sendError(HttpServletResponse.SC_NOT_FOUND);
+      }
+      return;
+    }
+
+    long size = thumbnail.getContentSize();
+    String etag =
+        AttachmentServlet.computeETag(ThumbnailGenerator.getThumbnailId(attachmentId), size);
+    response.setHeader("ETag", etag);
+    response.setHeader("Cache-Control", "private, max-age=" + MAX_AGE_SECONDS);
+    String ifNoneMatch = request.getHeader("If-None-Match");
+    if (ifNoneMatch != null && FetchServlet.matchesETag(ifNoneMatch, etag)) {
+      response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      return;
+    }
+
+    response.setContentType("image/" + ThumbnailGenerator.THUMBNAIL_FORMAT);
+    response.setStatus(HttpServletResponse.SC_OK);
+    response.setHeader("Content-Length", Long.toString(size));
+    thumbnail.writeDataTo(response.getOutputStream());
+  }
+
+  /**
+   * Checks that the user is signed in and may access the wavelet named by the
+   * request. Attachments are not stored with the wavelets they are shown in,
+   * so the wavelet is the one the client names.
+   */
+  private boolean isAuthorized(HttpServletRequest request) throws IOException {
+    ParticipantId user = sessionManager.getLoggedInUser(request.getSession(false));
+    String waveRefString = request.getParameter(WAVE_REF_PARAMETER);
+    if (user == null || waveRefString == null) {
+      return false;
+    }
+    WaveRef waveRef;
+    try {
+      waveRef = JavaWaverefEncoder.decodeWaveRefFromPath(waveRefString);
+    } catch (InvalidWaveRefException e) {
+      return false;
+    }
+    if (waveRef.getWaveletId() == null) {
+      return false;
+    }
+    try {
+      return waveletProvider.checkAccessPermission(
+          WaveletName.of(waveRef.getWaveId(), waveRef.getWaveletId()), user);
+    } catch (WaveServerException e) {
+      throw new IOException(e);
+    }
+  }
+}
@@ -17,7 +17,11 @@
 
 package org.waveprotocol.box.server.rpc;
 
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.gson.Gson;
+import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
@@ -30,9 +34,16 @@ import org.waveprotocol.wave.communication.gson.GsonSerializable;
 import org.waveprotocol.wave.util.logging.Log;
 
 import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * A channel abstraction for websocket, for sending and receiving strings.
+ *
+ * A frame holds either a single message envelope, or a JSON array of
+ * envelopes. The responses to the submit requests of an array frame are sent
+ * back together in one array frame, once they have all been answered.
  */
 public abstract class WebSocketChannel extends MessageExpectingChannel {
   private static final Log LOG = Log.get(WebSocketChannel.class);
@@ -45,8 +56,6 @@ public abstract class WebSocketChannel extends MessageExpectingChannel {
    * contains an arbitrary protobuf, which breaks the protobuf typing rules.
    */
   private static class MessageWrapper {
-    private final static JsonParser parser = new JsonParser();
-
     final int sequenceNumber;
     final String messageType;
     final JsonElement message;
@@ -57,8 +66,7 @@ public abstract class WebSocketChannel extends MessageExpectingChannel {
       this.message = message;
     }
 
-    public static MessageWrapper deserialize(Gson gson, String data) {
-      JsonElement e = parser.parse(data);
+    public static MessageWrapper deserialize(JsonElement e) {
       JsonObject obj = e.getAsJsonObject();
       String type = obj.get("messageType").getAsString();
       int seqno = obj.get("sequenceNumber").getAsInt();
@@ -66,19 +74,55 @@ public abstract class WebSocketChannel extends MessageExpectingChannel {
       return new MessageWrapper(seqno, type, message);
     }
 
-    public static String serialize(String type,int seqno,  JsonElement message) {
+    public static JsonObject serialize(String type, int seqno, JsonElement message) {
       JsonObject o = new JsonObject();
       o.add("messageType", new JsonPrimitive(type));
       o.add("sequenceNumber", new JsonPrimitive(seqno));
       o.add("message", message);
-      return o.toString();
+      return o;
+    }
+  }
+
+  /**
+   * Type of the requests whose responses are batched when they arrive in an
+   * array frame. Submits have exactly one response each.
+   */
+  private static final String BATCHED_REQUEST_TYPE = "ProtocolSubmitRequest";
+
+  /**
+   * The submit requests of an array frame which have not been answered yet,
+   * and the responses to the others.
+   */
+  private static final class Batch {
+    final Set<Integer> unanswered = Sets.newHashSet();
+    final JsonArray responses = new JsonArray();
+
+    /**
+     * Records the response to a request of this batch.
+     *
+     * @param response the response, or null if the request will not be
+     *        answered
+     * @return the frame to send if all the requests have now been answered,
+     *         otherwise null
+     */
+    String answer(int sequenceNumber, JsonObject response) {
+      unanswered.remove(sequenceNumber);
+      if (response != null) {
+        responses.add(response);
+      }
+      return unanswered.isEmpty() && responses.size() > 0 ? responses.toString() : null;
     }
   }
 
+  private static final JsonParser PARSER = new JsonParser();
+
   private final ProtoCallback callback;
   private final Gson gson = new Gson();
   private final ProtoSerializer serializer;
 
+  /** The unanswered batches, by the sequence numbers of their requests. */
+  private final Map<Integer, Batch> batches = Maps.newHashMap();
+
   /**
    * Constructs a new WebSocketChannel, using the callback to handle any
    * incoming messages.
@@ -95,18 +139,70 @@ public abstract class WebSocketChannel extends MessageExpectingChannel {
 
   public void handleMessageString(String data) {
     LOG.fine("received JSON message " + data);
-    Message message;
+    JsonElement frame = PARSER.parse(data);
+    if (frame.isJsonArray()) {
+      handleBatch(frame.getAsJsonArray());
+    } else {
+      handleMessage(MessageWrapper.deserialize(frame));
+    }
+  }
 
-    MessageWrapper wrapper = MessageWrapper.deserialize(gson, data);
-    
+  /**
+   * Delivers the messages of an array frame, and starts collecting the
+   * responses to its submit requests.
+   */
+  private void handleBatch(JsonArray frame) {
+    List<MessageWrapper> wrappers = Lists.newArrayListWithCapacity(frame.size());
+    Batch batch = new Batch();
+    for (JsonElement element : frame) {
+      MessageWrapper wrapper = MessageWrapper.deserialize(element);
+      wrappers.add(wrapper);
+      if (BATCHED_REQUEST_TYPE.equals(wrapper.messageType)) {
+        batch.unanswered.add(wrapper.sequenceNumber);
+      }
+    }
+    synchronized (batches) {
+      for (int sequenceNumber : batch.unanswered) {
+        batches.put(sequenceNumber, batch);
+      }
+    }
+
+    RuntimeException failure = null;
+    for (MessageWrapper wrapper : wrappers) {
+      boolean delivered = false;
+      try {
+        delivered = handleMessage(wrapper);
+      } catch (RuntimeException e) {
+        if (failure == null) {
+          failure = e;
+        }
+      }
+      if (!delivered) {
+        // Don't hold back the other responses for one that won't come.
+        sendBatchedResponse(wrapper.sequenceNumber, null);
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  /**
+   * Delivers a message to the callback.
+   *
+   * @return whether the message was delivered
+   */
+  private boolean handleMessage(MessageWrapper wrapper) {
+    Message message;
     try {
       message = serializer.fromJson(wrapper.message, wrapper.messageType);
     } catch (SerializationException e) {
       LOG.warning("message handling error", e);
       e.printStackTrace();
-      return;
+      return false;
     }
     callback.message(wrapper.sequenceNumber, message);
+    return true;
   }
 
   static <T extends GsonSerializable> T load(JsonElement payload, T x, Gson gson) {
@@ -138,7 +234,12 @@ public abstract class WebSocketChannel extends MessageExpectingChannel {
       return;
     }
     String type = message.getDescriptorForType().getName();
-    String str = MessageWrapper.serialize(type, sequenceNo, json);
+    JsonObject wrapper = MessageWrapper.serialize(type, sequenceNo, json);
+    if (sendBatchedResponse(sequenceNo, wrapper)) {
+      LOG.fine("batched JSON message, sequence number " + sequenceNo + ", message " + message);
+      return;
+    }
+    String str = wrapper.toString();
     try {
       sendMessageString(str);
       LOG.fine("sent JSON message over websocket, sequence number " + sequenceNo
@@ -151,4 +252,31 @@ public abstract class WebSocketChannel extends MessageExpectingChannel {
       return;
     }
   }
+
+  /**
+   * Records the response to a request of an array frame, sending the
+   * responses of the frame if they have all been collected.
+   *
+   * @param response the response, or null if the request will not be answered
+   * @return false if the request was not part of an unanswered array frame
+   */
+  private boolean sendBatchedResponse(int sequenceNo, JsonObject response) {
+    String frame;
+    synchronized (batches) {
+      Batch batch = batches.remove(sequenceNo);
+      if (batch == null) {
+        return false;
+      }
+      frame = batch.answer(sequenceNo, response);
+    }
+    if (frame != null) {
+      try {
+        sendMessageString(frame);
+        LOG.fine("sent batched JSON messages over websocket: " + frame);
+      } catch (IOException e) {
+        LOG.warning("Failed to transmit batched messages on socket: " + frame, e);
+      }
+    }
+    return true;
+  }
 }
@@ -11,6 +11,7 @@ import org.waveprotocol.box.server.CoreSettings;
 import org.waveprotocol.box.server.authentication.AccountStoreHolder;
 import org.waveprotocol.box.server.authentication.SessionManager;
 import org.waveprotocol.box.server.robots.OperationContextImpl;
+import org.waveprotocol.box.server.robots.operations.CachingProfilesFetcher;
 import org.waveprotocol.box.server.robots.util.ConversationUtil;
 import org.waveprotocol.box.server.rpc.render.web.template.Templates;
 import org.waveprotocol.box.server.waveserver.WaveletProvider;
@@ -49,17 +50,22 @@ public class RenderSharedWaveServlet extends HttpServlet {
   private final WaveletProvider waveletProvider;
   private final SessionManager sessionManager;
   private final String httpAddress;
-  
+  private final RenderedWaveCache renderedWaveCache;
+  private final CachingProfilesFetcher profilesFetcher;
+
   @Inject
   public RenderSharedWaveServlet(EventDataConverterManager converterManager,
       WaveletProvider waveletProvider, ConversationUtil conversationUtil, Templates templates,
-      SessionManager sessionManager, @Named(CoreSettings.HTTP_FRONTEND_PUBLIC_ADDRESS) String httpAddress) {
+      SessionManager sessionManager, @Named(CoreSettings.HTTP_FRONTEND_PUBLIC_ADDRESS) String httpAddress,
+      RenderedWaveCache renderedWaveCache, CachingProfilesFetcher profilesFetcher) {
     this.converterManager = converterManager;
     this.waveletProvider = waveletProvider;
     this.conversationUtil = conversationUtil;
     this.templates = templates;
     this.sessionManager = sessionManager;
     this.httpAddress = httpAddress;
+    this.renderedWaveCache = renderedWaveCache;
+    this.profilesFetcher = profilesFetcher;
   }
 
   @Override
@@ -68,7 +74,6 @@ public class RenderSharedWaveServlet extends HttpServlet {
       IOException {
     ParticipantId user = sessionManager.getLoggedInUser(req.getSession(false));
     PrintWriter w = resp.getWriter();
-    StringBuilder out = new StringBuilder();
     String waveRefStringValue = req.getRequestURI().replace("/render/wave/", "");
     WaveRef waveRef = null;
     try {
@@ -77,8 +82,7 @@ public class RenderSharedWaveServlet extends HttpServlet {
         waveRef = JavaWaverefEncoder.decodeWaveRefFromPath(waveRefStringValue + "/~/conv+root");
       }
     } catch (InvalidWaveRefException e) {
-      out.append(NO_CONVERSATIONS);
-      w.print(out.toString());
+      w.print(NO_CONVERSATIONS);
       w.flush();
       return;
     }
@@ -93,10 +97,8 @@ public class RenderSharedWaveServlet extends HttpServlet {
         user != null ? user.getAddress() : "@" + AccountStoreHolder.getDefaultDomain();
     String link = "http://" + httpAddress + req.getRequestURI();
     String indexLink = "http://" + httpAddress + "/render/index.html";
-    String outerHtml =
-        templates.process(Templates.OUTER_TEMPLATE, new String[] {userIdStr, innerHtml, waveRefStringValue, Templates.GA_FRAGMENT, link, indexLink});
-    out.append(outerHtml);
-    w.print(out.toString());
+    templates.render(Templates.OUTER_TEMPLATE, w, userIdStr, innerHtml, waveRefStringValue,
+        Templates.GA_FRAGMENT, link, indexLink);
     w.flush();
   }
 
@@ -112,7 +114,8 @@ public class RenderSharedWaveServlet extends HttpServlet {
     }
     String html = null;
     try {
-      html = RenderWaveService.create().exec(waveId, waveletId, blipId, viewer, context);
+      html = RenderWaveService.create(renderedWaveCache, profilesFetcher, waveletProvider).exec(
+          waveId, waveletId, blipId, viewer, context);
     } catch (InvalidRequestException e) {
     }
     return html;
@@ -23,13 +23,13 @@ import com.google.wave.api.BlipThread;
 import com.google.wave.api.InvalidRequestException;
 import com.google.wave.api.OperationRequest;
 import com.google.wave.api.ParticipantProfile;
-import com.google.wave.api.data.converter.ContextResolver;
 import com.google.wave.api.data.converter.EventDataConverter;
 import com.google.wave.api.impl.EventMessageBundle;
 import com.google.wave.api.impl.WaveletData;
 
 import org.waveprotocol.box.server.robots.OperationContext;
-import org.waveprotocol.box.server.robots.operations.GravatarProfileFetcher;
+import org.waveprotocol.box.server.robots.operations.CachingProfilesFetcher;
+import org.waveprotocol.box.server.robots.operations.FetchProfilesService.ProfilesFetcher;
 import org.waveprotocol.box.server.robots.operations.OperationService;
 import org.waveprotocol.box.server.rpc.render.FullHtmlWaveRenderer.DocRefRenderer;
 import org.waveprotocol.box.server.rpc.render.account.impl.ProfileImpl;
@@ -50,6 +50,8 @@ import org.waveprotocol.box.server.rpc.render.view.builder.RootThreadViewBuilder
 import org.waveprotocol.box.server.rpc.render.view.builder.TopConversationViewBuilder;
 import org.waveprotocol.box.server.rpc.render.view.builder.WavePanelResources;
 import org.waveprotocol.box.server.rpc.render.web.text.ContentRenderer;
+import org.waveprotocol.box.server.waveserver.WaveServerException;
+import org.waveprotocol.box.server.waveserver.WaveletProvider;
 import org.waveprotocol.wave.model.conversation.Conversation;
 import org.waveprotocol.wave.model.conversation.ConversationBlip;
 import org.waveprotocol.wave.model.conversation.ConversationThread;
@@ -57,6 +59,7 @@ import org.waveprotocol.wave.model.conversation.ObservableConversation;
 import org.waveprotocol.wave.model.conversation.ObservableConversationView;
 import org.waveprotocol.wave.model.id.WaveId;
 import org.waveprotocol.wave.model.id.WaveletId;
+import org.waveprotocol.wave.model.id.WaveletName;
 import org.waveprotocol.wave.model.supplement.ReadableSupplementedWave;
 import org.waveprotocol.wave.model.supplement.SimpleWantedEvaluationSet;
 import org.waveprotocol.wave.model.supplement.ThreadState;
@@ -71,6 +74,7 @@ import org.waveprotocol.wave.model.wave.Wavelet;
 import org.waveprotocol.wave.model.wave.opbased.OpBasedWavelet;
 import org.waveprotocol.wave.model.waveref.WaveRef;
 import org.waveprotocol.wave.util.escapers.jvm.JavaWaverefEncoder;
+import org.waveprotocol.wave.util.logging.Log;
 
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
@@ -88,6 +92,7 @@ import java.util.Set;
  */
 public class RenderWaveService implements OperationService {
 
+  private static final Log LOG = Log.get(RenderWaveService.class);
 
   private static final WavePanelResources RESOURCES = new WavePanelResources() {
     
@@ -348,23 +353,68 @@ public class RenderWaveService implements OperationService {
   }
 
 
-  private RenderWaveService() {
+  private final RenderedWaveCache cache;
+  private final CachingProfilesFetcher profilesFetcher;
+  private final WaveletProvider waveletProvider;
+
+  private RenderWaveService(RenderedWaveCache cache, CachingProfilesFetcher profilesFetcher,
+      WaveletProvider waveletProvider) {
+    this.cache = cache;
+    this.profilesFetcher = profilesFetcher;
+    this.waveletProvider = waveletProvider;
   }
-  
+
+  /**
+   * Renders a wavelet, or a single blip of it, to HTML for the given viewer.
+   * Pages and blips that are unchanged since they were last rendered are
+   * served from the {@link RenderedWaveCache}. Pages are looked up by the
+   * versions the {@link WaveletProvider} reports, so that a cached page is
+   * served without opening the wavelets.
+   *
+   * Profiles are only looked up in the {@link CachingProfilesFetcher}, so
+   * rendering never waits for them to be fetched. Participants whose profile
+   * is not known yet are rendered with a simple profile, and the page is then
+   * not cached so that the next request renders the fetched profile.
+   */
   public String exec(WaveId waveId, WaveletId waveletId, String blipId, ParticipantId participant,
       OperationContext context) throws InvalidRequestException {
+    WaveletName waveletName = WaveletName.of(waveId, waveletId);
+    HashedVersion waveletVersion = null;
+    HashedVersion supplementVersion = null;
+    try {
+      if (waveletProvider.checkAccessPermission(waveletName, participant)) {
+        waveletVersion = waveletProvider.getLatestVersion(waveletName);
+        supplementVersion = waveletProvider.getLatestVersion(
+            WaveletName.of(waveId, ServiceUtil.buildUserDataWaveletId(participant)));
+      }
+    } catch (WaveServerException e) {
+      LOG.warning("Failed to read the versions of " + waveletName, e);
+      waveletVersion = null;
+    }
+    if (waveletVersion != null) {
+      String html =
+          cache.getPage(waveletName, participant, blipId, waveletVersion, supplementVersion);
+      if (html != null) {
+        return html;
+      }
+    }
 
-    OpBasedWavelet opBasedWavelet = null;
-    opBasedWavelet = context.openWavelet(waveId, waveletId, participant);
+    // The versions were read before the wavelets are opened, so the page may
+    // render later deltas than its key, which only makes a later lookup miss.
+    OpBasedWavelet opBasedWavelet = context.openWavelet(waveId, waveletId, participant);
     ObservableConversationView conversationView =
         context.getConversationUtil().buildConversation(opBasedWavelet);
+    final boolean[] missingProfiles = {false};
     ProfileManagerImpl profileManagerImpl = new ProfileManagerImpl() {
-      GravatarProfileFetcher profileFetcher = GravatarProfileFetcher.create();
-
       @Override
       public ProfileImpl getProfile(ParticipantId participantId) {
         ParticipantProfile participantProfile =
-            profileFetcher.fetchProfile(participantId.getAddress());
+            profilesFetcher.getCachedProfile(participantId.getAddress());
+        if (participantProfile == null) {
+          missingProfiles[0] = true;
+          participantProfile =
+              ProfilesFetcher.SIMPLE_PROFILE_FETCHER.fetchProfile(participantId.getAddress());
+        }
         ProfileImpl profile = new ProfileImpl(null, participantId);
         profile.update(participantProfile.getName(), participantProfile.getName(),
             participantProfile.getImageUrl());
@@ -381,39 +431,83 @@ public class RenderWaveService implements OperationService {
             new ViewIdMapper(ModelIdMapperImpl.create(conversationView, "UC")), readStateMonitor,
             FIXED, HTML_DOC_RENDERER, RESOURCES, "/#" + path);
 
-    String html = null;
+    String skeleton = null;
     ObservableConversation conversation = conversationView.getRoot();
     if (blipId == null) {
-      html = renderer.render(conversationView);
+      skeleton = renderer.render(conversationView);
     } else {
       ConversationBlip blip = conversation.getBlip(blipId);
-      html = renderer.render(blip);
+      skeleton = renderer.render(blip);
     }
-    
-    EventMessageBundle messages =
-      mapWaveletToMessageBundle(context.getConverter(), participant, opBasedWavelet, conversation);
 
+    String html = renderBlips(skeleton, waveletName, opBasedWavelet, conversation,
+        context.getConverter(), participant);
+    if (waveletVersion != null && !missingProfiles[0]) {
+      cache.putPage(waveletName, participant, blipId, waveletVersion, supplementVersion, html);
+    }
+    return html;
+  }
+
+  /**
+   * Fills in the blip content placeholders left by {@link #HTML_DOC_RENDERER}
+   * in a single pass over the rendered skeleton. Blip content is taken from
+   * the cache when the blip has not changed since it was last rendered,
+   * otherwise it is rendered through the robot API model of the blip.
+   *
+   * @param skeleton the rendered wavelet, with a placeholder for each blip.
+   * @param waveletName the name of the rendered wavelet.
+   * @param opBasedWavelet the rendered wavelet.
+   * @param conversation the conversation in the wavelet.
+   * @param converter the converter to robot API objects.
+   * @param participant the viewer.
+   * @return the rendered wavelet including the content of its blips.
+   */
+  private String renderBlips(String skeleton, WaveletName waveletName,
+      OpBasedWavelet opBasedWavelet, Conversation conversation, EventDataConverter converter,
+      ParticipantId participant) {
+    EventMessageBundle messages = new EventMessageBundle(participant.getAddress(), "");
     Map<String, Blip> blips = new HashMap<String, Blip>();
     Map<String, BlipThread> threads = new HashMap<String, BlipThread>();
-    WaveletData waveletData = context.getConverter().toWaveletData(opBasedWavelet, conversation, messages);
-    com.google.wave.api.Wavelet wavelet = com.google.wave.api.Wavelet.deserialize(null, blips, threads,  waveletData);
-    
-    threads.putAll(messages.getThreads());
-    for (Map.Entry<String, BlipData> entry : messages.getBlipData().entrySet()) {
-      BlipData blipData = context.getConverter().toBlipData(conversation.getBlip(entry.getKey()), opBasedWavelet, messages);
-      Blip tempBlip = Blip.deserialize(null, wavelet, blipData);
-      blips.put(tempBlip.getBlipId(), tempBlip);
-    }
-    
-    ContentRenderer contentRenderer = new ContentRenderer();
-    for (Map.Entry<java.lang.String,com.google.wave.api.Blip> entry : wavelet.getBlips().entrySet()) {
-      com.google.wave.api.Blip blip = entry.getValue();
-      String blipHtml = contentRenderer.renderHtml(blip.getContent(), blip.getAnnotations(), blip.getElements(), blip.getContributors());
-      // TODO (Yuri Z.) Make it more efficient and safe.
-      String htmlId = "[" + blip.getBlipId() + "]";
-      html = html.replace(htmlId, blipHtml);
+    // Only built once a blip has to be rendered.
+    com.google.wave.api.Wavelet wavelet = null;
+    ContentRenderer contentRenderer = null;
+
+    StringBuilder html = new StringBuilder(skeleton.length());
+    int start = 0;
+    int open;
+    while ((open = skeleton.indexOf('[', start)) != -1) {
+      int close = skeleton.indexOf(']', open + 1);
+      if (close == -1) {
+        break;
+      }
+      ConversationBlip blip = conversation.getBlip(skeleton.substring(open + 1, close));
+      if (blip == null) {
+        // Not a placeholder, keep the bracket and look for the next one.
+        html.append(skeleton, start, open + 1);
+        start = open + 1;
+        continue;
+      }
+
+      String blipHtml = cache.getBlip(waveletName, blip.getId(), blip.getLastModifiedVersion());
+      if (blipHtml == null) {
+        if (wavelet == null) {
+          WaveletData waveletData =
+              converter.toWaveletData(opBasedWavelet, conversation, messages);
+          wavelet = com.google.wave.api.Wavelet.deserialize(null, blips, threads, waveletData);
+          contentRenderer = new ContentRenderer();
+        }
+        BlipData blipData = converter.toBlipData(blip, opBasedWavelet, messages);
+        threads.putAll(messages.getThreads());
+        Blip apiBlip = Blip.deserialize(null, wavelet, blipData);
+        blipHtml = contentRenderer.renderHtml(apiBlip.getContent(), apiBlip.getAnnotations(),
+            apiBlip.getElements(), apiBlip.getContributors());
+        cache.putBlip(waveletName, blip.getId(), blip.getLastModifiedVersion(), blipHtml);
+      }
+      html.append(skeleton, start, open).append(blipHtml);
+      start = close + 1;
     }
-    return html;
+    html.append(skeleton, start, skeleton.length());
+    return html.toString();
   }
 
   @Override
@@ -454,24 +548,8 @@ public class RenderWaveService implements OperationService {
 
   }
   
-  /**
-   * Maps a wavelet and its conversation to a new {@link EventMessageBundle}.
-   *
-   * @param converter to convert to API objects.
-   * @param participant the participant who the bundle is for.
-   * @param wavelet the wavelet to put in the bundle.
-   * @param conversation the conversation to put in the bundle.
-   */
-  private EventMessageBundle mapWaveletToMessageBundle(EventDataConverter converter,
-      ParticipantId participant, Wavelet wavelet, Conversation conversation) {
-    EventMessageBundle messages = new EventMessageBundle(participant.getAddress(), "");
-    WaveletData waveletData = converter.toWaveletData(wavelet, conversation, messages);
-    messages.setWaveletData(waveletData);
-    ContextResolver.addAllBlipsToEventMessages(messages, conversation, wavelet, converter);
-    return messages;
-  }
-
-  public static RenderWaveService create() {
-    return new RenderWaveService();
+  public static RenderWaveService create(RenderedWaveCache cache,
+      CachingProfilesFetcher profilesFetcher, WaveletProvider waveletProvider) {
+    return new RenderWaveService(cache, profilesFetcher, waveletProvider);
   }
 }
\ No newline at end of file
@@ -0,0 +1,273 @@
+/**
+ * Copyright 2011 Google Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package org.waveprotocol.box.server.rpc.render;
+
+import com.google.common.base.Objects;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import org.waveprotocol.wave.model.id.WaveletName;
+import org.waveprotocol.wave.model.version.HashedVersion;
+import org.waveprotocol.wave.model.wave.ParticipantId;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches the HTML produced by {@link RenderWaveService}.
+ *
+ * Whole pages are cached per wavelet, viewer and rendered blip, and are valid
+ * for a single version of the wavelet and of the viewer's supplement. Public
+ * viewers all render as the shared domain participant, so they share a single
+ * page per wavelet, while signed in participants get their own page because
+ * the read state is rendered into it.
+ *
+ * The content of each blip is cached separately per blip version, so that a
+ * page invalidated by an edit only re-renders the blips that changed.
+ *
+ * Only the latest rendering of a page or blip is kept: a lookup at another
+ * version misses, and storing the new rendering replaces the stale one. Pages
+ * and blips are each bounded by the memory taken by their HTML, evicting the
+ * least recently used, since pages of large waves are much larger than others.
+ */
+@Singleton
+public class RenderedWaveCache {
+
+  /** Maximum number of bytes of rendered pages to keep. */
+  private static final long MAX_PAGE_BYTES = 64L * 1024 * 1024;
+
+  /** Maximum number of bytes of rendered blips to keep. */
+  private static final long MAX_BLIP_BYTES = 64L * 1024 * 1024;
+
+  /**
+   * How long an entry is kept since it was rendered. This bounds the staleness
+   * of data that is not versioned with the wavelet, such as profiles.
+   */
+  private static final long EXPIRATION_MS = TimeUnit.MINUTES.toMillis(10);
+
+  /** Identifies a rendered page. */
+  private static final class PageKey {
+    private final WaveletName waveletName;
+    private final ParticipantId viewer;
+    private final String blipId;
+
+    PageKey(WaveletName waveletName, ParticipantId viewer, String blipId) {
+      this.waveletName = waveletName;
+      this.viewer = viewer;
+      this.blipId = blipId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof PageKey)) {
+        return false;
+      }
+      PageKey other = (PageKey) o;
+      return waveletName.equals(other.waveletName) && viewer.equals(other.viewer)
+          && Objects.equal(blipId, other.blipId);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(waveletName, viewer, blipId);
+    }
+  }
+
+  /** Rendered HTML, together with the time it was rendered at. */
+  private static class Rendered {
+    protected final String html;
+    private final long renderedAt = System.currentTimeMillis();
+
+    Rendered(String html) {
+      this.html = html;
+    }
+
+    /** Returns the number of bytes taken by the HTML. */
+    long getBytes() {
+      return 2L * html.length();
+    }
+
+    boolean isExpired(long now) {
+      return now - renderedAt >= EXPIRATION_MS;
+    }
+  }
+
+  /** A rendered page, together with the versions it was rendered at. */
+  private static final class Page extends Rendered {
+    private final HashedVersion waveletVersion;
+    private final HashedVersion supplementVersion;
+
+    Page(HashedVersion waveletVersion, HashedVersion supplementVersion, String html) {
+      super(html);
+      this.waveletVersion = waveletVersion;
+      this.supplementVersion = supplementVersion;
+    }
+  }
+
+  /** Identifies a rendered blip. */
+  private static final class BlipKey {
+    private final WaveletName waveletName;
+    private final String blipId;
+
+    BlipKey(WaveletName waveletName, String blipId) {
+      this.waveletName = waveletName;
+      this.blipId = blipId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof BlipKey)) {
+        return false;
+      }
+      BlipKey other = (BlipKey) o;
+      return waveletName.equals(other.waveletName) && blipId.equals(other.blipId);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(waveletName, blipId);
+    }
+  }
+
+  /** A rendered blip, together with the blip version it was rendered at. */
+  private static final class RenderedBlip extends Rendered {
+    private final long version;
+
+    RenderedBlip(long version, String html) {
+      super(html);
+      this.version = version;
+    }
+  }
+
+  /**
+   * A map of rendered HTML bounded by the bytes it takes, which evicts the
+   * least recently used entries and drops expired entries when they are read.
+   */
+  private static final class RenderedMap<K, V extends Rendered> {
+    private final long maxBytes;
+    private final LinkedHashMap<K, V> map = new LinkedHashMap<K, V>(16, 0.75f, true);
+    private long bytes;
+
+    RenderedMap(long maxBytes) {
+      this.maxBytes = maxBytes;
+    }
+
+    synchronized V get(K key) {
+      V value = map.get(key);
+      if (value != null && value.isExpired(System.currentTimeMillis())) {
+        remove(key);
+        return null;
+      }
+      return value;
+    }
+
+    synchronized void put(K key, V value) {
+      remove(key);
+      if (value.getBytes() > maxBytes) {
+        return;
+      }
+      map.put(key, value);
+      bytes += value.getBytes();
+      Iterator<Map.Entry<K, V>> it = map.entrySet().iterator();
+      while (bytes > maxBytes) {
+        bytes -= it.next().getValue().getBytes();
+        it.remove();
+      }
+    }
+
+    private void remove(K key) {
+      V removed = map.remove(key);
+      if (removed != null) {
+        bytes -= removed.getBytes();
+      }
+    }
+  }
+
+  private final RenderedMap<PageKey, Page> pages;
+  private final RenderedMap<BlipKey, RenderedBlip> blips;
+
+  @Inject
+  public RenderedWaveCache() {
+    this(MAX_PAGE_BYTES, MAX_BLIP_BYTES);
+  }
+
+  RenderedWaveCache(long maxPageBytes, long maxBlipBytes) {
+    pages = new RenderedMap<PageKey, Page>(maxPageBytes);
+    blips = new RenderedMap<BlipKey, RenderedBlip>(maxBlipBytes);
+  }
+
+  /**
+   * Returns the cached page for the given wavelet and viewer.
+   *
+   * @param waveletName the rendered wavelet.
+   * @param viewer the viewer the page was rendered for.
+   * @param blipId the rendered blip, or {@code null} if the whole conversation
+   *        was rendered.
+   * @param waveletVersion the current version of the wavelet.
+   * @param supplementVersion the current version of the viewer's supplement,
+   *        or {@code null} if the viewer has none.
+   * @return the page, or {@code null} if there is no page rendered at these
+   *         versions.
+   */
+  public String getPage(WaveletName waveletName, ParticipantId viewer, String blipId,
+      HashedVersion waveletVersion, HashedVersion supplementVersion) {
+    Page page = pages.get(new PageKey(waveletName, viewer, blipId));
+    if (page != null && page.waveletVersion.equals(waveletVersion)
+        && Objects.equal(page.supplementVersion, supplementVersion)) {
+      return page.html;
+    }
+    return null;
+  }
+
+  /**
+   * Stores a rendered page, replacing any page rendered at other versions.
+   *
+   * @see #getPage
+   */
+  public void putPage(WaveletName waveletName, ParticipantId viewer, String blipId,
+      HashedVersion waveletVersion, HashedVersion supplementVersion, String html) {
+    pages.put(new PageKey(waveletName, viewer, blipId),
+        new Page(waveletVersion, supplementVersion, html));
+  }
+
+  /**
+   * Returns the cached content of a blip.
+   *
+   * @param waveletName the wavelet containing the blip.
+   * @param blipId the blip id.
+   * @param version the last modified version of the blip.
+   * @return the rendered blip content, or {@code null} if the blip was not
+   *         rendered at this version.
+   */
+  public String getBlip(WaveletName waveletName, String blipId, long version) {
+    RenderedBlip blip = blips.get(new BlipKey(waveletName, blipId));
+    return blip != null && blip.version == version ? blip.html : null;
+  }
+
+  /**
+   * Stores the rendered content of a blip, replacing any rendering of other
+   * versions of the blip.
+   *
+   * @see #getBlip
+   */
+  public void putBlip(WaveletName waveletName, String blipId, long version, String html) {
+    blips.put(new BlipKey(waveletName, blipId), new RenderedBlip(version, html));
+  }
+}
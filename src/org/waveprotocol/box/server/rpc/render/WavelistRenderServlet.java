@@ -35,6 +35,7 @@ import org.waveprotocol.box.server.robots.OperationContextImpl;
 import org.waveprotocol.box.server.robots.OperationServiceRegistry;
 import org.waveprotocol.box.server.robots.util.ConversationUtil;
 import org.waveprotocol.box.server.robots.util.OperationUtil;
+import org.waveprotocol.box.server.rpc.render.web.template.CompiledTemplate.Fragment;
 import org.waveprotocol.box.server.rpc.render.web.template.Templates;
 import org.waveprotocol.box.server.waveserver.WaveletProvider;
 import org.waveprotocol.wave.model.wave.ParticipantId;
@@ -42,6 +43,7 @@ import org.waveprotocol.wave.model.wave.ParticipantId;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.Date;
+import java.util.List;
 import java.util.logging.Logger;
 
 import javax.servlet.ServletException;
@@ -87,19 +89,15 @@ public class WavelistRenderServlet extends HttpServlet {
  throws ServletException,
       IOException {
     ParticipantId user = sessionManager.getLoggedInUser(req.getSession(false));
-    PrintWriter w = resp.getWriter();
-    StringBuilder out = new StringBuilder();
     String query = "with:@";
     user = user != null ? user : ParticipantId.ofUnsafe("@" + AccountStoreHolder.getDefaultDomain());
-        String innerHtml = fetchSearchResult(query, user);
-    String outerHtml =
-        templates.process(Templates.WAVELIST_TEMPLATE, new String[] {innerHtml});
-    out.append(outerHtml);
-    w.print(out.toString());
+    SearchResult searchResult = fetchSearchResult(query, user);
+    PrintWriter w = resp.getWriter();
+    renderWavelist(searchResult, w);
     w.flush();
   }
 
-  private String fetchSearchResult(String query, ParticipantId viewer) {
+  private SearchResult fetchSearchResult(String query, ParticipantId viewer) {
     OperationContextImpl context =
         new OperationContextImpl(waveletProvider,
             converterManager.getEventDataConverter(ProtocolVersion.DEFAULT), conversationUtil);
@@ -112,30 +110,43 @@ public class WavelistRenderServlet extends HttpServlet {
     String opId = operationRequest.getId();
     OperationUtil.executeOperation(operationRequest, operationRegistry, context, viewer);
     JsonRpcResponse jsonRpcResponse = context.getResponses().get(opId);
-    SearchResult searchResult =
-        (SearchResult) jsonRpcResponse.getData().get(ParamsProperty.SEARCH_RESULTS);
-    StringBuilder html = new StringBuilder();
+    return (SearchResult) jsonRpcResponse.getData().get(ParamsProperty.SEARCH_RESULTS);
+  }
+
+  /**
+   * Renders the wave list page for the given search result straight to the
+   * output, without building the page or the digests in memory.
+   */
+  void renderWavelist(final SearchResult searchResult, Appendable out) throws IOException {
+    templates.render(Templates.WAVELIST_TEMPLATE, out, new Fragment() {
+      @Override
+      public void render(Appendable out) throws IOException {
+        renderDigests(searchResult, out);
+      }
+    });
+  }
+
+  private void renderDigests(SearchResult searchResult, Appendable out) throws IOException {
+    Date now = new Date();
     for (Digest digest : searchResult.getDigests()) {
-      int participantsLength = digest.getParticipants().size();
-      StringBuilder avatarsSb = new StringBuilder();
-      for (int i = 0; i < 3; i++) {
-        if (i >= participantsLength) {
-          break;
+      final List<String> participants = digest.getParticipants();
+      Fragment avatars = new Fragment() {
+        @Override
+        public void render(Appendable out) throws IOException {
+          int avatarCount = Math.min(participants.size(), 3);
+          for (int i = 0; i < avatarCount; i++) {
+            templates.render(Templates.AVATAR_TEMPLATE, out, participants.get(i));
+          }
         }
-        String id =  digest.getParticipants().get(i);
-        avatarsSb.append(templates.process(Templates.AVATAR_TEMPLATE, new String[] {id}));
-      }
-      String digestId = "'" + digest.getWaveId().replace("!", "/") + "'";
-      String href = "'http://" + httpAddress +  "/render/wave/" + digest.getWaveId().replace("!", "/") + "'";
-      String lmt = HtmlShallowBlipRenderer.formatPastDate(new Date(digest.getLastModified()), new Date());
+      };
+      String wavePath = digest.getWaveId().replace("!", "/");
+      String digestId = "'" + wavePath + "'";
+      String href = "'http://" + httpAddress + "/render/wave/" + wavePath + "'";
+      String lmt = HtmlShallowBlipRenderer.formatPastDate(new Date(digest.getLastModified()), now);
       String unread = String.valueOf(digest.getUnreadCount());
       String total = String.valueOf(digest.getBlipCount());
-      String title = digest.getTitle();
-      String snippet = digest.getSnippet();
-      String[] args = new String[] {digestId, avatarsSb.toString(), lmt, unread, total, title, href, snippet};
-      String digestStr = templates.process(Templates.DIGEST_TEMPLATE, args);
-      html.append(digestStr);
+      templates.render(Templates.DIGEST_TEMPLATE, out, digestId, avatars, lmt, unread, total,
+          digest.getTitle(), href, digest.getSnippet());
     }
-    return html.toString();
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,222 @@
+/**
+ * Copyright 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.waveprotocol.box.server.rpc.render.web.template;
+
+import com.google.common.collect.ImmutableList;
+
+import java.io.IOException;
+import java.text.DateFormat;
+import java.text.MessageFormat;
+import java.text.NumberFormat;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * A template parsed once into a list of literal text and argument segments,
+ * which can then be rendered any number of times straight to an
+ * {@link Appendable}.
+ *
+ * Templates use the {@link MessageFormat} pattern syntax and render exactly as
+ * {@link MessageFormat#format(String, Object...)} would: {@code '} quotes
+ * text, {@code ''} is a literal quote, and <code>{n}</code> is replaced by
+ * the n-th argument. Arguments with a format type, such as
+ * <code>{0,number}</code>, are delegated to a {@link MessageFormat}.
+ *
+ * An argument can also be a {@link Fragment}, which renders itself in place,
+ * so that nested templates are streamed rather than built into strings.
+ */
+public final class CompiledTemplate {
+
+  /**
+   * Content that renders itself when used as a template argument.
+   */
+  public interface Fragment {
+    void render(Appendable out) throws IOException;
+  }
+
+  /** A piece of a compiled template. */
+  private interface Segment {
+    void render(Appendable out, Object[] args) throws IOException;
+  }
+
+  private static final class Literal implements Segment {
+    private final String text;
+
+    Literal(String text) {
+      this.text = text;
+    }
+
+    @Override
+    public void render(Appendable out, Object[] args) throws IOException {
+      out.append(text);
+    }
+  }
+
+  private static final class Argument implements Segment {
+    private final int index;
+
+    /**
+     * Formats arguments that have a format type, null for simple ones. Guarded
+     * by itself, since a MessageFormat is not thread safe.
+     */
+    private final MessageFormat format;
+
+    Argument(int index, MessageFormat format) {
+      this.index = index;
+      this.format = format;
+    }
+
+    @Override
+    public void render(Appendable out, Object[] args) throws IOException {
+      if (args == null || index >= args.length) {
+        // MessageFormat leaves the placeholder of missing arguments.
+        out.append('{').append(Integer.toString(index)).append('}');
+        return;
+      }
+      Object arg = args[index];
+      if (arg == null) {
+        out.append("null");
+      } else if (arg instanceof Fragment) {
+        ((Fragment) arg).render(out);
+      } else if (format != null) {
+        String formatted;
+        synchronized (format) {
+          formatted = format.format(new Object[] {arg});
+        }
+        out.append(formatted);
+      } else if (arg instanceof Number) {
+        // As MessageFormat formats simple arguments, without parsing a pattern.
+        out.append(NumberFormat.getInstance().format(arg));
+      } else if (arg instanceof Date) {
+        out.append(DateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.SHORT)
+            .format((Date) arg));
+      } else {
+        out.append(arg.toString());
+      }
+    }
+  }
+
+  private final List<Segment> segments;
+
+  private CompiledTemplate(List<Segment> segments) {
+    this.segments = segments;
+  }
+
+  /**
+   * Parses a {@link MessageFormat} pattern.
+   *
+   * @throws IllegalArgumentException if the pattern is invalid.
+   */
+  public static CompiledTemplate compile(String pattern) {
+    ImmutableList.Builder<Segment> segments = ImmutableList.builder();
+    StringBuilder literal = new StringBuilder();
+    boolean inQuote = false;
+    int i = 0;
+    while (i < pattern.length()) {
+      char ch = pattern.charAt(i);
+      if (ch == '\'') {
+        if (i + 1 < pattern.length() && pattern.charAt(i + 1) == '\'') {
+          literal.append('\'');
+          i += 2;
+        } else {
+          inQuote = !inQuote;
+          i++;
+        }
+      } else if (ch == '{' && !inQuote) {
+        int end = findArgumentEnd(pattern, i + 1);
+        if (literal.length() > 0) {
+          segments.add(new Literal(literal.toString()));
+          literal.setLength(0);
+        }
+        segments.add(parseArgument(pattern.substring(i + 1, end)));
+        i = end + 1;
+      } else {
+        literal.append(ch);
+        i++;
+      }
+    }
+    if (literal.length() > 0) {
+      segments.add(new Literal(literal.toString()));
+    }
+    return new CompiledTemplate(segments.build());
+  }
+
+  /**
+   * Returns the index of the brace closing the argument that starts at the
+   * given index, honouring quotes and nested braces as MessageFormat does.
+   */
+  private static int findArgumentEnd(String pattern, int start) {
+    int depth = 0;
+    boolean inQuote = false;
+    for (int i = start; i < pattern.length(); i++) {
+      char ch = pattern.charAt(i);
+      if (ch == '\'') {
+        inQuote = !inQuote;
+      } else if (!inQuote) {
+        if (ch == '{') {
+          depth++;
+        } else if (ch == '}') {
+          if (depth == 0) {
+            return i;
+          }
+          depth--;
+        }
+      }
+    }
+    throw new IllegalArgumentException("Unmatched braces in the pattern.");
+  }
+
+  private static Argument parseArgument(String argument) {
+    int comma = argument.indexOf(',');
+    String indexString = (comma < 0 ? argument : argument.substring(0, comma)).trim();
+    int index;
+    try {
+      index = Integer.parseInt(indexString);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("can't parse argument number: " + indexString, e);
+    }
+    if (index < 0) {
+      throw new IllegalArgumentException("negative argument number: " + index);
+    }
+    MessageFormat format =
+        comma < 0 ? null : new MessageFormat("{0" + argument.substring(comma) + "}");
+    return new Argument(index, format);
+  }
+
+  /**
+   * Renders the template with the given arguments.
+   */
+  public void render(Appendable out, Object... args) throws IOException {
+    for (Segment segment : segments) {
+      segment.render(out, args);
+    }
+  }
+
+  /**
+   * Renders the template with the given arguments to a string.
+   */
+  public String format(Object... args) {
+    StringBuilder out = new StringBuilder();
+    try {
+      render(out, args);
+    } catch (IOException e) {
+      // StringBuilder does not throw.
+      throw new IllegalStateException(e);
+    }
+    return out.toString();
+  }
+}
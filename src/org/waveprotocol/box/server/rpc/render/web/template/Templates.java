@@ -16,25 +16,31 @@
  */
 package org.waveprotocol.box.server.rpc.render.web.template;
 
-import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
-import com.google.common.collect.MapMaker;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
 import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+
+import org.waveprotocol.box.server.CoreSettings;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.StringWriter;
 import java.io.Writer;
-import java.text.MessageFormat;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Logger;
 
-import javax.annotation.Nullable;
 import javax.servlet.ServletContext;
 
 /**
@@ -66,10 +72,36 @@ public class Templates {
           + "pageTracker._trackPageview();" + "} catch(err) {}</script>";
 
 
-  private static boolean PRODUCTION_MODE = false;
+  /**
+   * When templates are reloaded from their files.
+   */
+  public enum ReloadPolicy {
+    /** Templates are loaded and compiled once. */
+    NEVER,
+    /**
+     * Templates are reloaded when their file has been modified, which is
+     * checked at most once a second.
+     */
+    MODIFIED
+  }
+
+  private static final long MODIFIED_CHECK_INTERVAL_MS = 1000;
 
   private static final Logger log = Logger.getLogger(Templates.class.getName());
 
+  /** A compiled template and the version of the file it was compiled from. */
+  private static final class Entry {
+    private final CompiledTemplate template;
+    private final long lastModified;
+    private volatile long checkedAt;
+
+    Entry(CompiledTemplate template, long lastModified, long checkedAt) {
+      this.template = template;
+      this.lastModified = lastModified;
+      this.checkedAt = checkedAt;
+    }
+  }
+
   public static String convertStreamToString(InputStream is) throws IOException {
     /*
      * To convert the InputStream to String we use the Reader.read(char[]
@@ -107,35 +139,105 @@ public class Templates {
   }
 
   /**
-   * file name of template -> compiled template lazy cache.
+   * file name of template -> compiled template.
    */
-  private final ConcurrentMap<String, String> templates = new MapMaker()
-      .makeComputingMap(new Function<String, String>() {
-        @Override
-        public String apply(@Nullable String template) {
-          return loadTemplate(template);
-        }
-      });
+  private final ConcurrentMap<String, Entry> templates = new ConcurrentHashMap<String, Entry>();
 
   private final Provider<ServletContext> servletContext;
+  private final ReloadPolicy reloadPolicy;
 
   @Inject
-  public Templates(Provider<ServletContext> servletContext) {
+  public Templates(Provider<ServletContext> servletContext,
+      @Named(CoreSettings.TEMPLATES_RELOAD_POLICY) String reloadPolicy) {
+    this(servletContext, parseReloadPolicy(reloadPolicy));
+  }
+
+  public Templates(Provider<ServletContext> servletContext, ReloadPolicy reloadPolicy) {
     this.servletContext = servletContext;
+    this.reloadPolicy = reloadPolicy;
+  }
+
+  /**
+   * Parses the value of the {@link CoreSettings#TEMPLATES_RELOAD_POLICY}
+   * setting, ignoring case.
+   *
+   * @throws IllegalArgumentException if the value is not a reload policy.
+   */
+  static ReloadPolicy parseReloadPolicy(String value) {
+    try {
+      return ReloadPolicy.valueOf(value.toUpperCase(Locale.ENGLISH));
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("Invalid value for "
+          + CoreSettings.TEMPLATES_RELOAD_POLICY + ": '" + value + "', expected one of "
+          + Arrays.toString(ReloadPolicy.values()).toLowerCase(Locale.ENGLISH), e);
+    }
   }
 
-  private String loadTemplate(String template) {
-    // Load from jar if in production mode, otherwise servlet root.
+  /**
+   * Returns the compiled template, loading it if necessary.
+   *
+   * @param template Name of the template file. example: "blip.html.fragment"
+   */
+  public CompiledTemplate get(String template) {
+    Entry entry = templates.get(template);
+    if (entry == null) {
+      entry = loadTemplate(template);
+      templates.put(template, entry);
+    } else if (reloadPolicy == ReloadPolicy.MODIFIED) {
+      long now = System.currentTimeMillis();
+      if (now - entry.checkedAt >= MODIFIED_CHECK_INTERVAL_MS) {
+        if (getLastModified(template) != entry.lastModified) {
+          log.info("Reloading modified template: " + template);
+          entry = loadTemplate(template);
+          templates.put(template, entry);
+        } else {
+          entry.checkedAt = now;
+        }
+      }
+    }
+    return entry.template;
+  }
+
+  private Entry loadTemplate(String template) {
+    long lastModified = getLastModified(template);
     InputStream input = openResource(template);
     Preconditions.checkArgument(input != null, "Could not find template named: " + template);
 
+    String pattern = "";
     try {
-      InputStream is = openResource(template);
-      return convertStreamToString(is);
+      pattern = convertStreamToString(input);
     } catch (IOException e) {
       log.warning(e.toString());
     }
-    return "";
+    return new Entry(CompiledTemplate.compile(pattern), lastModified, System.currentTimeMillis());
+  }
+
+  /**
+   * Returns the last modification time of a template file, or 0 if unknown.
+   */
+  private long getLastModified(String template) {
+    try {
+      URL url = servletContext.get().getResource("/templates/" + template);
+      if (url == null) {
+        return 0;
+      } else if ("file".equals(url.getProtocol())) {
+        return new File(url.toURI()).lastModified();
+      }
+      // Other connections, such as to a jar, hold a file open until their
+      // stream is closed.
+      URLConnection connection = url.openConnection();
+      try {
+        return connection.getLastModified();
+      } finally {
+        connection.getInputStream().close();
+      }
+    } catch (IOException e) {
+      log.warning("Unable to check template for modifications: " + e);
+      return 0;
+    } catch (URISyntaxException e) {
+      log.warning("Unable to check template for modifications: " + e);
+      return 0;
+    }
   }
 
   /**
@@ -145,9 +247,7 @@ public class Templates {
    * @return An {@linkplain InputStream} to the named file, if found
    */
   public InputStream openResource(String file) {
-    InputStream stream =
-        PRODUCTION_MODE ? Templates.class.getResourceAsStream(file) : servletContext.get()
-            .getResourceAsStream("/templates/" + file);
+    InputStream stream = servletContext.get().getResourceAsStream("/templates/" + file);
 
     // load + compile templates on-demand
     if (null == stream) {
@@ -164,14 +264,18 @@ public class Templates {
    * @return the processed, filled-in template.
    */
   public String process(String template, Object[] context) {
-    // Reload template each time for development mode.
-    String pattern = PRODUCTION_MODE ? templates.get(template) : loadTemplate(template);
-    return MessageFormat.format(pattern, context);
+    return get(template).format(context);
   }
 
-  public static void main(String[] args) {
-    Templates templates = new Templates(null);
-    String out = templates.process(BLIP_TEMPLATE, new String[] {"\'0\'", "\'1\'", "2", "3", "4"});
-    System.out.println(out);
+  /**
+   * Loads templates if necessary, and renders them straight to the output.
+   *
+   * @param template Name of the template file. example: "blip.html.fragment"
+   * @param out the output to render to.
+   * @param context the template arguments, which may be
+   *        {@link CompiledTemplate.Fragment}s.
+   */
+  public void render(String template, Appendable out, Object... context) throws IOException {
+    get(template).render(out, context);
   }
 }
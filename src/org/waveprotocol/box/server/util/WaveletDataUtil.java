@@ -34,6 +34,7 @@ import org.waveprotocol.wave.model.wave.data.ObservableWaveletData;
 import org.waveprotocol.wave.model.wave.data.ReadableWaveletData;
 import org.waveprotocol.wave.model.wave.data.WaveViewData;
 import org.waveprotocol.wave.model.wave.data.WaveletData;
+import org.waveprotocol.wave.model.wave.data.impl.DocumentTrust;
 import org.waveprotocol.wave.model.wave.data.impl.EmptyWaveletSnapshot;
 import org.waveprotocol.wave.model.wave.data.impl.ObservablePluggableMutableDocument;
 import org.waveprotocol.wave.model.wave.data.impl.WaveletDataImpl;
@@ -57,6 +58,10 @@ public final class WaveletDataUtil {
       WaveletDataImpl.Factory.create(
           ObservablePluggableMutableDocument.createFactory(SchemaCollection.empty()));
 
+  private static final ObservableWaveletData.Factory<?> COMPACT_WAVELET_FACTORY =
+      WaveletDataImpl.Factory.create(
+          ObservablePluggableMutableDocument.createCompactFactory(SchemaCollection.empty()));
+
   private WaveletDataUtil() {
   }
 
@@ -176,6 +181,55 @@ public final class WaveletDataUtil {
     return wavelet;
   }
 
+  /**
+   * Like {@link #buildWaveletFromDeltas}, but trusts the deltas to be valid,
+   * as deltas that were applied and persisted before are. The deltas are
+   * applied without validating their document operations, and without
+   * computing inverse operations to roll them back, so the wavelet is left
+   * partially built if a delta fails to apply. Operations applied to the
+   * returned wavelet afterwards are validated as usual.
+   *
+   * @param waveletName the name of the wavelet.
+   * @param deltas non-empty, contiguous sequence of non-empty, valid deltas
+   *        beginning from version zero.
+   */
+  public static ObservableWaveletData buildWaveletFromTrustedDeltas(WaveletName waveletName,
+      Iterator<TransformedWaveletDelta> deltas) throws OperationException {
+    Preconditions.checkArgument(deltas.hasNext(), "empty deltas");
+    TransformedWaveletDelta first = deltas.next();
+    Preconditions.checkArgument(first.getAppliedAtVersion() == 0,
+        "first delta has non-zero version: %s", first.getAppliedAtVersion());
+    DocumentTrust trust = new DocumentTrust();
+    ObservableWaveletData wavelet = WaveletDataImpl.Factory.create(
+        ObservablePluggableMutableDocument.createFactory(SchemaCollection.empty(), trust))
+        .create(new EmptyWaveletSnapshot(waveletName.waveId, waveletName.waveletId,
+            first.getAuthor(), HashedVersion.unsigned(0), first.getApplicationTimestamp()));
+    trust.setTrusted(true);
+    try {
+      applyTrustedWaveletDelta(first, wavelet);
+      while (deltas.hasNext()) {
+        applyTrustedWaveletDelta(deltas.next(), wavelet);
+      }
+    } finally {
+      trust.setTrusted(false);
+    }
+    return wavelet;
+  }
+
+  /**
+   * Applies a delta known to be valid to the given wavelet, without keeping
+   * its inverse.
+   */
+  private static void applyTrustedWaveletDelta(TransformedWaveletDelta delta,
+      WaveletData wavelet) throws OperationException {
+    Preconditions.checkState(delta.getAppliedAtVersion() == wavelet.getVersion(),
+        "Delta's version %s doesn't apply to wavelet at %s", delta.getAppliedAtVersion(),
+        wavelet.getVersion());
+    for (WaveletOperation op : delta) {
+      op.apply(wavelet);
+    }
+  }
+
   /**
    * Copies a wavelet.
    *
@@ -186,6 +240,18 @@ public final class WaveletDataUtil {
     return WAVELET_FACTORY.create(wavelet);
   }
 
+  /**
+   * Copies a wavelet into one whose documents are kept in a compact, read-only
+   * form until they are modified. Copies of the returned wavelet share that
+   * form.
+   *
+   * @param wavelet the wavelet to copy.
+   * @return A mutable copy.
+   */
+  public static ObservableWaveletData compactWavelet(ReadableWaveletData wavelet) {
+    return COMPACT_WAVELET_FACTORY.create(wavelet);
+  }
+
   /**
    * Adds an empty blip to the given wavelet.
    *
@@ -28,7 +28,6 @@ import org.waveprotocol.wave.model.id.IdURIEncoderDecoder;
 import org.waveprotocol.wave.model.operation.wave.TransformedWaveletDelta;
 import org.waveprotocol.wave.model.operation.wave.WaveletDelta;
 import org.waveprotocol.wave.model.version.HashedVersion;
-import org.waveprotocol.wave.model.version.HashedVersionFactory;
 import org.waveprotocol.wave.model.version.HashedVersionFactoryImpl;
 import org.waveprotocol.wave.util.escapers.jvm.JavaUrlCodec;
 
@@ -40,7 +39,7 @@ public class AppliedDeltaUtil {
   private static final IdURIEncoderDecoder URI_CODEC =
       new IdURIEncoderDecoder(new JavaUrlCodec());
 
-  private static final HashedVersionFactory HASH_FACTORY =
+  private static final HashedVersionFactoryImpl HASH_FACTORY =
       new HashedVersionFactoryImpl(URI_CODEC);
 
   /**
@@ -74,7 +73,7 @@ public class AppliedDeltaUtil {
       ByteStringMessage<ProtocolAppliedWaveletDelta> appliedDelta)
       throws InvalidProtocolBufferException {
     return HASH_FACTORY.create(
-        appliedDelta.getByteArray(),
+        appliedDelta.getByteString().asReadOnlyByteBuffer(),
         getHashedVersionAppliedAt(appliedDelta),
         appliedDelta.getMessage().getOperationsApplied());
   }
@@ -113,7 +112,8 @@ public class AppliedDeltaUtil {
     Preconditions.checkArgument(
         getHashedVersionAppliedAt(appliedDeltaBytes).equals(transformed.getTargetVersion()));
     Preconditions.checkArgument(appliedDelta.getOperationsApplied() == transformed.size());
-    HashedVersion resultingVersion = HASH_FACTORY.create(appliedDeltaBytes.getByteArray(),
+    HashedVersion resultingVersion = HASH_FACTORY.create(
+        appliedDeltaBytes.getByteString().asReadOnlyByteBuffer(),
         transformed.getTargetVersion(), appliedDelta.getOperationsApplied());
     return TransformedWaveletDelta.cloneOperations(resultingVersion,
         appliedDelta.getApplicationTimestamp(), transformed);
@@ -31,6 +31,8 @@ import org.waveprotocol.wave.federation.Proto.ProtocolWaveletDelta;
 import org.waveprotocol.wave.model.id.WaveletName;
 import org.waveprotocol.wave.model.version.HashedVersion;
 
+import java.util.List;
+
 /**
  * Stand-in interface for the certificate manager.
  *
@@ -65,6 +67,17 @@ public interface CertificateManager {
   ByteStringMessage<ProtocolWaveletDelta> verifyDelta(ProtocolSignedDelta signedDelta)
       throws SignatureException, UnknownSignerException;
 
+  /**
+   * Verify the signatures in a batch of Signed Deltas, as
+   * {@link #verifyDelta(ProtocolSignedDelta)} does, possibly in parallel.
+   *
+   * @param signedDeltas to verify
+   * @return verified serialised ProtocolWaveletDeltas, in the same order
+   * @throws SignatureException if the signatures of any delta cannot be verified.
+   */
+  List<ByteStringMessage<ProtocolWaveletDelta>> verifyDeltas(List<ProtocolSignedDelta> signedDeltas)
+      throws SignatureException, UnknownSignerException;
+
   /**
    * Stores information about a signer (i.e., its certificate chain) in a
    * permanent store. In addition to a certificate chain, a {@link SignerInfo}
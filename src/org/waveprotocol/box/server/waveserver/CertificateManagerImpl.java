@@ -17,12 +17,14 @@
 
 package org.waveprotocol.box.server.waveserver;
 
+import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.MapMaker;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
 import com.google.inject.Inject;
@@ -51,8 +53,16 @@ import org.waveprotocol.wave.model.version.HashedVersion;
 import org.waveprotocol.wave.model.wave.ParticipantId;
 import org.waveprotocol.wave.util.logging.Log;
 
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Default implementation of {@link CertificateManager}.
@@ -61,11 +71,70 @@ public class CertificateManagerImpl implements CertificateManager {
 
   private static final Log LOG = Log.get(CertificateManagerImpl.class);
 
+  /** Name of the executor on which batches of deltas are verified. */
+  public static final String VERIFICATION_EXECUTOR = "verification_executor";
+
+  /** Maximum number of verified signatures to remember. */
+  private static final int MAX_VERIFIED_SIGNATURES = 100000;
+
+  /**
+   * How long a verified signature is remembered, bounding how long a signer
+   * whose certificate chain has expired may still be trusted.
+   */
+  private static final long VERIFIED_SIGNATURE_EXPIRY_MINUTES = 60;
+
+  /** Digest of the delta bytes in the verified signatures. */
+  private static final String DELTA_DIGEST_ALGORITHM = "SHA-256";
+
+  /**
+   * A signature that has been verified: the signer and authority of the
+   * signature, and the digest of the delta it signs.
+   */
+  private static final class VerifiedSignature {
+    private final ByteString signerId;
+    private final String domain;
+    private final ByteString deltaDigest;
+
+    VerifiedSignature(ByteString signerId, String domain, ByteString deltaDigest) {
+      this.signerId = signerId;
+      this.domain = domain;
+      this.deltaDigest = deltaDigest;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (obj == this) {
+        return true;
+      }
+      if (!(obj instanceof VerifiedSignature)) {
+        return false;
+      }
+      VerifiedSignature other = (VerifiedSignature) obj;
+      return signerId.equals(other.signerId) && domain.equals(other.domain)
+          && deltaDigest.equals(other.deltaDigest);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(signerId, domain, deltaDigest);
+    }
+  }
+
   private final SignatureHandler waveSigner;
   private final ImmutableSet<String> localDomains;
   private final WaveSignatureVerifier verifier;
   private final CertPathStore certPathStore;
   private final boolean disableVerfication;
+  private final Executor verificationExecutor;
+
+  /**
+   * Signatures verified recently, so that deltas received again, for example
+   * in a history response, are not verified again.
+   */
+  private final ConcurrentMap<VerifiedSignature, Boolean> verifiedSignatures = new MapMaker()
+      .maximumSize(MAX_VERIFIED_SIGNATURES)
+      .expireAfterWrite(VERIFIED_SIGNATURE_EXPIRY_MINUTES, TimeUnit.MINUTES)
+      .makeMap();
 
   /**
    * Map of signer ids to requests for the signer info for those ids.  Each signer id is mapped to
@@ -79,8 +148,10 @@ public class CertificateManagerImpl implements CertificateManager {
   @Inject
   public CertificateManagerImpl(
       @Named(CoreSettings.WAVESERVER_DISABLE_VERIFICATION) boolean disableVerfication,
-      SignatureHandler signer, WaveSignatureVerifier verifier, CertPathStore certPathStore) {
+      SignatureHandler signer, WaveSignatureVerifier verifier, CertPathStore certPathStore,
+      @Named(VERIFICATION_EXECUTOR) Executor verificationExecutor) {
     this.disableVerfication = disableVerfication;
+    this.verificationExecutor = verificationExecutor;
     this.waveSigner = signer;
     // for now, we just support a single signer
     this.localDomains = ImmutableSet.of(signer.getDomain());
@@ -148,6 +219,68 @@ public class CertificateManagerImpl implements CertificateManager {
     return delta;
   }
 
+  /**
+   * {@inheritDoc}
+   *
+   * The deltas are verified on the verification executor, and this method
+   * waits until all of them are verified. If the executor is saturated, it
+   * may verify some deltas in the calling thread.
+   */
+  @Override
+  public List<ByteStringMessage<ProtocolWaveletDelta>> verifyDeltas(
+      List<ProtocolSignedDelta> signedDeltas) throws SignatureException, UnknownSignerException {
+    List<ByteStringMessage<ProtocolWaveletDelta>> deltas =
+        Lists.newArrayListWithCapacity(signedDeltas.size());
+    if (disableVerfication || signedDeltas.size() <= 1) {
+      for (ProtocolSignedDelta signedDelta : signedDeltas) {
+        deltas.add(verifyDelta(signedDelta));
+      }
+      return deltas;
+    }
+
+    List<FutureTask<ByteStringMessage<ProtocolWaveletDelta>>> tasks =
+        Lists.newArrayListWithCapacity(signedDeltas.size());
+    for (final ProtocolSignedDelta signedDelta : signedDeltas) {
+      FutureTask<ByteStringMessage<ProtocolWaveletDelta>> task =
+          new FutureTask<ByteStringMessage<ProtocolWaveletDelta>>(
+              new Callable<ByteStringMessage<ProtocolWaveletDelta>>() {
+                @Override
+                public ByteStringMessage<ProtocolWaveletDelta> call()
+                    throws SignatureException, UnknownSignerException {
+                  return verifyDelta(signedDelta);
+                }
+              });
+      tasks.add(task);
+      verificationExecutor.execute(task);
+    }
+
+    try {
+      for (FutureTask<ByteStringMessage<ProtocolWaveletDelta>> task : tasks) {
+        deltas.add(task.get());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SignatureException("Interrupted while verifying deltas");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof SignatureException) {
+        throw (SignatureException) cause;
+      } else if (cause instanceof UnknownSignerException) {
+        throw (UnknownSignerException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IllegalStateException(cause);
+    } finally {
+      for (FutureTask<ByteStringMessage<ProtocolWaveletDelta>> task : tasks) {
+        task.cancel(false);
+      }
+    }
+    return deltas;
+  }
+
   /**
    * Verifies a single signature.
    * @param delta the payload that we're verifying the signature on.
@@ -159,7 +292,23 @@ public class CertificateManagerImpl implements CertificateManager {
   private void verifySingleSignature(ByteStringMessage<ProtocolWaveletDelta> delta,
       ProtocolSignature signature, String domain)
       throws SignatureException, UnknownSignerException {
-    verifier.verify(delta.getByteString().toByteArray(), signature, domain);
+    byte[] deltaBytes = delta.getByteString().toByteArray();
+    VerifiedSignature verified =
+        new VerifiedSignature(signature.getSignerId(), domain, digest(deltaBytes));
+    if (verifiedSignatures.containsKey(verified)) {
+      return;
+    }
+    verifier.verify(deltaBytes, signature, domain);
+    verifiedSignatures.put(verified, Boolean.TRUE);
+  }
+
+  private static ByteString digest(byte[] bytes) {
+    try {
+      return ByteString.copyFrom(MessageDigest.getInstance(DELTA_DIGEST_ALGORITHM).digest(bytes));
+    } catch (NoSuchAlgorithmException e) {
+      // Every Java platform is required to support SHA-256.
+      throw new IllegalStateException(e);
+    }
   }
 
   /**
@@ -0,0 +1,172 @@
+/**
+ * Copyright 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.waveprotocol.box.server.waveserver;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import org.waveprotocol.box.common.DeltaSequence;
+import org.waveprotocol.wave.model.document.operation.DocOp;
+import org.waveprotocol.wave.model.document.operation.algorithm.Composer;
+import org.waveprotocol.wave.model.document.operation.algorithm.DocOpCollector;
+import org.waveprotocol.wave.model.operation.OperationException;
+import org.waveprotocol.wave.model.operation.wave.AddParticipant;
+import org.waveprotocol.wave.model.operation.wave.BlipContentOperation;
+import org.waveprotocol.wave.model.operation.wave.BlipOperation;
+import org.waveprotocol.wave.model.operation.wave.RemoveParticipant;
+import org.waveprotocol.wave.model.operation.wave.Transform;
+import org.waveprotocol.wave.model.operation.wave.TransformedWaveletDelta;
+import org.waveprotocol.wave.model.operation.wave.WaveletBlipOperation;
+import org.waveprotocol.wave.model.operation.wave.WaveletOperation;
+import org.waveprotocol.wave.model.operation.wave.WaveletOperationContext;
+import org.waveprotocol.wave.model.version.HashedVersion;
+import org.waveprotocol.wave.model.wave.ParticipantId;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The deltas applied to a wavelet from some version on, composed into as few
+ * operations as client deltas submitted at that version need to be
+ * transformed against.
+ *
+ * The content operations on each document are composed into a single
+ * operation, so that transforming a client operation costs one transform per
+ * document rather than one per server operation. Participant operations are
+ * kept in order. All other operations, and the order of operations on
+ * different documents, are dropped: {@link Transform} leaves client operations
+ * unchanged against them.
+ *
+ * A composition can be extended with the deltas applied since, so that it can
+ * be shared by all the clients submitting at its start version.
+ */
+final class ComposedDeltaHistory {
+
+  /** The version the composition starts at. */
+  private final HashedVersion startVersion;
+
+  /** The version the composition ends at. */
+  private HashedVersion endVersion;
+
+  /** The composed content operation of each document, by blip id. */
+  private final Map<String, DocOp> contentOps = Maps.newLinkedHashMap();
+
+  /** The context of the last content operation of each document, by blip id. */
+  private final Map<String, WaveletOperationContext> contentContexts = Maps.newHashMap();
+
+  private final List<WaveletOperation> participantOps = Lists.newArrayList();
+
+  private final Set<ParticipantId> authors = Sets.newHashSet();
+
+  /** The composed operations, or null if they must be rebuilt. */
+  private List<WaveletOperation> operations = ImmutableList.of();
+
+  /**
+   * Creates an empty composition.
+   *
+   * @param startVersion the version the composition starts at.
+   */
+  ComposedDeltaHistory(HashedVersion startVersion) {
+    this.startVersion = startVersion;
+    this.endVersion = startVersion;
+  }
+
+  HashedVersion getStartVersion() {
+    return startVersion;
+  }
+
+  HashedVersion getEndVersion() {
+    return endVersion;
+  }
+
+  /**
+   * Returns whether any of the composed deltas was authored by a participant.
+   */
+  boolean hasAuthor(ParticipantId author) {
+    return authors.contains(author);
+  }
+
+  /**
+   * Extends the composition with the deltas that follow it.
+   *
+   * @param deltas deltas starting at the end version of the composition.
+   * @throws OperationException if the content operations of a document do not
+   *         compose, which means the history is corrupt.
+   */
+  void append(DeltaSequence deltas) throws OperationException {
+    Preconditions.checkArgument(deltas.getStartVersion() == endVersion.getVersion(),
+        "Deltas start at version %s, composition ends at %s", deltas.getStartVersion(),
+        endVersion);
+    if (deltas.isEmpty()) {
+      return;
+    }
+
+    // Compose the new operations of each document together first, then once
+    // with the operation composed so far, which is typically the largest.
+    Map<String, DocOpCollector> collectors = Maps.newLinkedHashMap();
+    for (TransformedWaveletDelta delta : deltas) {
+      authors.add(delta.getAuthor());
+      for (WaveletOperation op : delta) {
+        if (op instanceof WaveletBlipOperation) {
+          WaveletBlipOperation blipOp = (WaveletBlipOperation) op;
+          BlipOperation contentOp = blipOp.getBlipOp();
+          if (contentOp instanceof BlipContentOperation) {
+            DocOpCollector collector = collectors.get(blipOp.getBlipId());
+            if (collector == null) {
+              collector = new DocOpCollector();
+              collectors.put(blipOp.getBlipId(), collector);
+            }
+            collector.add(((BlipContentOperation) contentOp).getContentOp());
+            contentContexts.put(blipOp.getBlipId(), contentOp.getContext());
+          }
+        } else if (op instanceof AddParticipant || op instanceof RemoveParticipant) {
+          participantOps.add(op);
+        }
+      }
+    }
+    for (Map.Entry<String, DocOpCollector> entry : collectors.entrySet()) {
+      DocOp composed = entry.getValue().composeAll();
+      DocOp previous = contentOps.get(entry.getKey());
+      contentOps.put(entry.getKey(),
+          (previous != null) ? Composer.compose(previous, composed) : composed);
+    }
+    endVersion = deltas.getEndVersion();
+    operations = null;
+  }
+
+  /**
+   * Returns the composed operations, to transform client operations against.
+   */
+  List<WaveletOperation> getOperations() {
+    if (operations == null) {
+      ImmutableList.Builder<WaveletOperation> builder = ImmutableList.builder();
+      for (Map.Entry<String, DocOp> entry : contentOps.entrySet()) {
+        String blipId = entry.getKey();
+        builder.add(new WaveletBlipOperation(blipId,
+            new BlipContentOperation(contentContexts.get(blipId), entry.getValue())));
+      }
+      builder.addAll(participantOps);
+      operations = builder.build();
+    }
+    return operations;
+  }
+}
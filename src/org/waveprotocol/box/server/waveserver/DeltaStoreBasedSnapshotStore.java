@@ -115,7 +115,7 @@ class DeltaStoreBasedSnapshotStore implements DeltaAndSnapshotStore {
       // TODO(soren): better error handling of IllegalStateExceptions and
       // OperationExceptions thrown from here
       ReadableWaveletData wavelet =
-          WaveletDataUtil.buildWaveletFromDeltas(reader.getWaveletName(),
+          WaveletDataUtil.buildWaveletFromTrustedDeltas(reader.getWaveletName(),
               new TransformedWaveletDeltaIterator(reader));
       Preconditions.checkState(wavelet.getHashedVersion().equals(reader.getEndVersion()));
       return wavelet;
@@ -110,8 +110,11 @@ class DeltaStoreBasedWaveletState implements WaveletState {
     } else {
       try {
         ImmutableList<WaveletDeltaRecord> deltas = readAll(deltasAccess);
-        WaveletData snapshot = WaveletDataUtil.buildWaveletFromDeltas(deltasAccess.getWaveletName(),
-            Iterators.transform(deltas.iterator(), TRANSFORMED));
+        // Most documents of a loaded wavelet are only ever read, so they are
+        // held compactly.
+        WaveletData snapshot = WaveletDataUtil.compactWavelet(
+            WaveletDataUtil.buildWaveletFromTrustedDeltas(deltasAccess.getWaveletName(),
+                Iterators.transform(deltas.iterator(), TRANSFORMED)));
         return new DeltaStoreBasedWaveletState(deltasAccess, deltas, snapshot, persistExecutor);
       } catch (IOException e) {
         throw new PersistenceException("Failed to read stored deltas", e);
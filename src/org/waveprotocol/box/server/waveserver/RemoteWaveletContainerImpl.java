@@ -174,26 +174,33 @@ class RemoteWaveletContainerImpl extends WaveletContainerImpl implements RemoteW
       final String domain, final WaveletFederationProvider federationProvider,
       final CertificateManager certificateManager, final SettableFuture<Void> futureResult) {
     LOG.info("Passed signer info check, now applying all " + appliedDeltas.size() + " deltas");
+
+    // Verify signatures of all deltas, in parallel and before taking the lock.
+    List<ProtocolSignedDelta> signedDeltas = Lists.newArrayListWithCapacity(appliedDeltas.size());
+    for (ByteStringMessage<ProtocolAppliedWaveletDelta> appliedDelta : appliedDeltas) {
+      signedDeltas.add(appliedDelta.getMessage().getSignedOriginalDelta());
+    }
+    try {
+      certificateManager.verifyDeltas(signedDeltas);
+    } catch (SignatureException e) {
+      LOG.warning("Verification failure for " + domain + " incoming " + getWaveletName(), e);
+      futureResult.setException(
+          new FederationException(FederationErrors.badRequest("Verification failure")));
+      return;
+    } catch (UnknownSignerException e) {
+      LOG.severe("Unknown signer for " + domain + " incoming " + getWaveletName() +
+          ", this is BAD! We were supposed to have prefetched it!", e);
+      futureResult.setException(
+          new FederationException(FederationErrors.badRequest("Unknown signer")));
+      return;
+    }
+
     acquireWriteLock();
     try {
       checkStateOk(); // TODO(soren): if CORRUPTED, throw away wavelet and start again
       HashedVersion expectedVersion = getCurrentVersion();
       boolean haveRequestedHistory = false;
 
-      // Verify signatures of all deltas
-      for (ByteStringMessage<ProtocolAppliedWaveletDelta> appliedDelta : appliedDeltas) {
-        try {
-          certificateManager.verifyDelta(appliedDelta.getMessage().getSignedOriginalDelta());
-        } catch (SignatureException e) {
-          LOG.warning("Verification failure for " + domain + " incoming " + getWaveletName(), e);
-          throw new WaveServerException("Verification failure", e);
-        } catch (UnknownSignerException e) {
-          LOG.severe("Unknown signer for " + domain + " incoming " + getWaveletName() +
-              ", this is BAD! We were supposed to have prefetched it!", e);
-          throw new WaveServerException("Unknown signer", e);
-        }
-      }
-
       // Insert all available deltas into pendingDeltas.
       for (ByteStringMessage<ProtocolAppliedWaveletDelta> appliedDelta : appliedDeltas) {
         LOG.info("Delta incoming: " + appliedDelta);
@@ -237,10 +244,14 @@ class RemoteWaveletContainerImpl extends WaveletContainerImpl implements RemoteW
             // TODO: only one request history should be pending at any one time?
             // We should derive a new one whenever the active one is finished,
             // based on the current state of pendingDeltas.
+            // The host may truncate the history it returns. The rest of it is
+            // requested once the returned deltas are applied, when the gap to
+            // the pending deltas is found again. Requesting no more than a
+            // host like this one returns bounds the deltas held meanwhile.
             federationProvider.requestHistory(getWaveletName(), domain,
                 CoreWaveletOperationSerializer.serialize(expectedVersion),
                 CoreWaveletOperationSerializer.serialize(appliedAt),
-                -1,
+                WaveServerImpl.MAX_HISTORY_RESPONSE_BYTES,
                 new HistoryResponseListener() {
                     @Override
                     public void onFailure(FederationError error) {
@@ -251,7 +262,9 @@ class RemoteWaveletContainerImpl extends WaveletContainerImpl implements RemoteW
                     public void onSuccess(List<ByteString> deltaList,
                         ProtocolHashedVersion lastCommittedVersion, long versionTruncatedAt) {
                       LOG.info("Got response callback: " + getWaveletName() + ", lcv "
-                          + lastCommittedVersion + " deltaList length = " + deltaList.size());
+                          + lastCommittedVersion + " deltaList length = " + deltaList.size()
+                          + (versionTruncatedAt > 0 ? ", truncated at " + versionTruncatedAt
+                              : ""));
 
                       // Try updating again with the new history
                       internalUpdate(deltaList, domain, federationProvider, certificateManager,
@@ -307,13 +320,16 @@ class RemoteWaveletContainerImpl extends WaveletContainerImpl implements RemoteW
         pendingDeltas.remove(appliedAt);
       }
 
+      // Deltas applied from a truncated history page are notified now; the
+      // update itself only completes once the final page has been applied.
+      ImmutableList<WaveletDeltaRecord> applied = resultingDeltas.build();
+      if (!applied.isEmpty()) {
+        notifyOfDeltas(applied, ImmutableSet.<String>of());
+      }
       if (!haveRequestedHistory) {
-        notifyOfDeltas(resultingDeltas.build(), ImmutableSet.<String>of());
         futureResult.set(null);
-      } else if (!resultingDeltas.build().isEmpty()) {
-        LOG.severe("History requested but non-empty result, non-contiguous deltas?");
       } else {
-        LOG.info("History requested, ignoring callback");
+        LOG.info("History requested, waiting for the rest of it");
       }
     } catch (WaveServerException e) {
       LOG.warning("Update failure", e);
@@ -31,6 +31,7 @@ import org.waveprotocol.box.common.ExceptionalIterator;
 import org.waveprotocol.box.server.common.CoreWaveletOperationSerializer;
 import org.waveprotocol.box.server.frontend.CommittedWaveletSnapshot;
 import org.waveprotocol.box.server.persistence.PersistenceException;
+import org.waveprotocol.wave.concurrencycontrol.server.ConcurrencyControlCore.ReOpenInfo;
 import org.waveprotocol.wave.crypto.SignatureException;
 import org.waveprotocol.wave.crypto.SignerInfo;
 import org.waveprotocol.wave.crypto.UnknownSignerException;
@@ -71,6 +72,14 @@ public class WaveServerImpl implements WaveletProvider,
 
   private static final Log LOG = Log.get(WaveServerImpl.class);
 
+  /**
+   * Maximum number of delta bytes in a response to a history request. Longer
+   * histories are truncated, and the requester pages through them by
+   * requesting the rest from the version the response was truncated at.
+   * Remote wavelets request their history in pages of this length too.
+   */
+  static final long MAX_HISTORY_RESPONSE_BYTES = 512 * 1024;
+
   private final Executor listenerExecutor;
   private final CertificateManager certificateManager;
   private final WaveletFederationProvider federationRemote;
@@ -223,15 +232,36 @@ public class WaveServerImpl implements WaveletProvider,
         return;
       }
 
-      // TODO(soren): enforce length limit
+      // Return whole deltas up to the length limit, but at least one delta so
+      // that the requester always makes progress.
+      long limit = (lengthLimit > 0)
+          ? Math.min(lengthLimit, MAX_HISTORY_RESPONSE_BYTES) : MAX_HISTORY_RESPONSE_BYTES;
       ImmutableList.Builder<ByteString> deltaHistoryBytes = ImmutableList.builder();
+      long length = 0;
+      int deltaCount = 0;
+      long versionTruncatedAt = 0;
       for (ByteStringMessage<ProtocolAppliedWaveletDelta> d : deltaHistory) {
-        deltaHistoryBytes.add(d.getByteString());
+        ByteString bytes = d.getByteString();
+        if (deltaCount > 0 && length + bytes.size() > limit) {
+          try {
+            versionTruncatedAt = AppliedDeltaUtil.getHashedVersionAppliedAt(d).getVersion();
+          } catch (InvalidProtocolBufferException e) {
+            LOG.severe("Invalid applied delta in the history of " + waveletName, e);
+            listener.onFailure(FederationErrors.badRequest(
+                "Server error while retrieving wavelet history."));
+            return;
+          }
+          break;
+        }
+        deltaHistoryBytes.add(bytes);
+        length += bytes.size();
+        deltaCount++;
       }
       // Now determine whether we received the entire requested wavelet history.
-      LOG.info("Found deltaHistory between " + startVersion + " - " + endVersion
-          + ", returning to requester domain " + domain + " -- " + deltaHistory);
-      listener.onSuccess(deltaHistoryBytes.build(), endVersion, endVersion.getVersion());
+      LOG.info("Found " + deltaCount + " deltas (" + length + " bytes) between " + startVersion
+          + " - " + endVersion + ", returning to requester domain " + domain
+          + (versionTruncatedAt > 0 ? ", truncated at " + versionTruncatedAt : ""));
+      listener.onSuccess(deltaHistoryBytes.build(), endVersion, versionTruncatedAt);
     }
   }
 
@@ -296,6 +326,18 @@ public class WaveServerImpl implements WaveletProvider,
     return wavelet.requestTransformedHistory(startVersion, endVersion);
   }
 
+  @Override
+  public ReOpenInfo getCatchUpHistory(WaveletName waveletName, List<HashedVersion> knownVersions,
+      int maxOperations) throws WaveServerException {
+    Preconditions.checkState(initialized, "Wave server not yet initialized");
+    WaveletContainer wavelet = getWavelet(waveletName);
+    if (wavelet == null) {
+      throw new AccessControlException(
+          "Client request for catch-up history made for non-existent wavelet: " + waveletName);
+    }
+    return wavelet.requestCatchUpHistory(knownVersions, maxOperations);
+  }
+
   @Override
   public
   ExceptionalIterator<WaveId, WaveServerException> getWaveIds() {
@@ -322,6 +364,21 @@ public class WaveServerImpl implements WaveletProvider,
     }
   }
 
+  @Override
+  public HashedVersion getLatestVersion(WaveletName waveletName) throws WaveServerException {
+    Preconditions.checkState(initialized, "Wave server not yet initialized");
+    WaveletContainer wavelet = getWavelet(waveletName);
+    return (wavelet != null) ? wavelet.getLatestVersion() : null;
+  }
+
+  @Override
+  public HashedVersion getLastCommittedVersion(WaveletName waveletName)
+      throws WaveServerException {
+    Preconditions.checkState(initialized, "Wave server not yet initialized");
+    WaveletContainer wavelet = getWavelet(waveletName);
+    return (wavelet != null) ? wavelet.getLastCommittedVersion() : null;
+  }
+
   @Override
   public void submitRequest(WaveletName waveletName, ProtocolWaveletDelta delta,
       final SubmitRequestListener listener) {
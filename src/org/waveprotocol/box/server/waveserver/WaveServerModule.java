@@ -46,8 +46,11 @@ import org.waveprotocol.wave.model.version.HashedVersionFactoryImpl;
 import org.waveprotocol.wave.util.escapers.jvm.JavaUrlCodec;
 
 import java.util.concurrent.Callable;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Guice Module for the prototype Server.
@@ -57,6 +60,9 @@ public class WaveServerModule extends AbstractModule {
   // TODO(soren): move to global config file
   private static final int LISTENER_EXECUTOR_THREAD_COUNT = 2;
   private static final int WAVELET_LOAD_EXECUTOR_THREAD_COUNT = 2;
+  private static final int VERIFICATION_EXECUTOR_THREAD_COUNT =
+      Runtime.getRuntime().availableProcessors();
+  private static final int VERIFICATION_EXECUTOR_QUEUE_SIZE = 1000;
   private static final IdURIEncoderDecoder URI_CODEC =
       new IdURIEncoderDecoder(new JavaUrlCodec());
   private static final HashedVersionFactory HASH_FACTORY = new HashedVersionFactoryImpl(URI_CODEC);
@@ -103,6 +109,13 @@ public class WaveServerModule extends AbstractModule {
     bind(HashedVersionFactory.class).toInstance(HASH_FACTORY);
     bind(Executor.class).annotatedWith(Names.named("listener_executor")).toInstance(
         Executors.newFixedThreadPool(LISTENER_EXECUTOR_THREAD_COUNT));
+    // Bounded, so that a flood of incoming deltas is verified in the threads
+    // receiving them rather than queued without limit.
+    bind(Executor.class).annotatedWith(Names.named(CertificateManagerImpl.VERIFICATION_EXECUTOR))
+        .toInstance(new ThreadPoolExecutor(VERIFICATION_EXECUTOR_THREAD_COUNT,
+            VERIFICATION_EXECUTOR_THREAD_COUNT, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<Runnable>(VERIFICATION_EXECUTOR_QUEUE_SIZE),
+            new ThreadPoolExecutor.CallerRunsPolicy()));
   }
 
   @Provides
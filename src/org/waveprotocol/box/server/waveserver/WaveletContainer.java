@@ -20,6 +20,7 @@ package org.waveprotocol.box.server.waveserver;
 import com.google.common.base.Function;
 
 import org.waveprotocol.box.server.frontend.CommittedWaveletSnapshot;
+import org.waveprotocol.wave.concurrencycontrol.server.ConcurrencyControlCore.ReOpenInfo;
 import org.waveprotocol.wave.federation.Proto.ProtocolAppliedWaveletDelta;
 import org.waveprotocol.wave.model.id.WaveletName;
 import org.waveprotocol.wave.model.operation.wave.TransformedWaveletDelta;
@@ -29,6 +30,7 @@ import org.waveprotocol.wave.model.wave.data.ObservableWaveletData;
 import org.waveprotocol.wave.model.wave.data.ReadableWaveletData;
 
 import java.util.Collection;
+import java.util.List;
 
 /**
  * Interface for a container class for a Wavelet's current state as well as its
@@ -98,6 +100,21 @@ interface WaveletContainer {
   Collection<TransformedWaveletDelta> requestTransformedHistory(HashedVersion versionStart,
       HashedVersion versionEnd) throws AccessControlException, WaveletStateException;
 
+  /**
+   * Retrieves the deltas a reconnecting client has missed, from the most
+   * recent of the versions it knows that is in the wavelet history.
+   *
+   * @param knownVersions the versions the client knows, oldest first.
+   * @param maxOperations maximum number of operations in the deltas.
+   * @return the version the deltas start at and the deltas up to the current
+   *         version, or null if none of the versions is in the history or the
+   *         deltas hold more than {@code maxOperations} operations.
+   * @throws WaveletStateException if the wavelet is in a state unsuitable for
+   *         retrieving history.
+   */
+  ReOpenInfo requestCatchUpHistory(List<HashedVersion> knownVersions, int maxOperations)
+      throws WaveletStateException;
+
   /**
    * @param participantId id of participant attempting to gain access to
    *        wavelet, or null if the user isn't logged in.
@@ -118,6 +135,15 @@ interface WaveletContainer {
    */
   HashedVersion getLastCommittedVersion() throws WaveletStateException;
 
+  /**
+   * Returns the current version of the wavelet, without copying its state.
+   *
+   * @return the current version, or null if the wavelet is empty.
+   * @throws WaveletStateException if the wavelet is in a state unsuitable for
+   *         getting its version.
+   */
+  HashedVersion getLatestVersion() throws WaveletStateException;
+
   /**
    * @return true if the participant id is a current participant of the wavelet.
    *          Each invocation acquires and releases the lock.
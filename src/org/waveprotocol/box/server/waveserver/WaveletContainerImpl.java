@@ -29,15 +29,16 @@ import org.waveprotocol.box.common.DeltaSequence;
 import org.waveprotocol.box.server.frontend.CommittedWaveletSnapshot;
 import org.waveprotocol.box.server.persistence.PersistenceException;
 import org.waveprotocol.box.server.util.WaveletDataUtil;
+import org.waveprotocol.wave.concurrencycontrol.server.ConcurrencyControlCore;
+import org.waveprotocol.wave.concurrencycontrol.server.ConcurrencyControlCore.ReOpenInfo;
 import org.waveprotocol.wave.federation.Proto.ProtocolAppliedWaveletDelta;
 import org.waveprotocol.wave.model.id.WaveletName;
 import org.waveprotocol.wave.model.operation.OperationException;
-import org.waveprotocol.wave.model.operation.OperationPair;
 import org.waveprotocol.wave.model.operation.TransformException;
-import org.waveprotocol.wave.model.operation.wave.Transform;
 import org.waveprotocol.wave.model.operation.wave.TransformedWaveletDelta;
 import org.waveprotocol.wave.model.operation.wave.WaveletDelta;
 import org.waveprotocol.wave.model.operation.wave.WaveletOperation;
+import org.waveprotocol.wave.model.operation.wave.WaveletOperationTransformer;
 import org.waveprotocol.wave.model.version.HashedVersion;
 import org.waveprotocol.wave.model.wave.ParticipantId;
 import org.waveprotocol.wave.model.wave.ParticipantIdUtil;
@@ -46,7 +47,9 @@ import org.waveprotocol.wave.model.wave.data.ReadableWaveletData;
 import org.waveprotocol.wave.util.logging.Log;
 
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
@@ -67,6 +70,9 @@ abstract class WaveletContainerImpl implements WaveletContainer {
 
   private static final int AWAIT_LOAD_TIMEOUT_SECONDS = 20;
 
+  /** The number of compositions of the history kept for each wavelet. */
+  private static final int MAX_COMPOSED_HISTORIES = 8;
+
   protected enum State {
     /** Everything is working fine. */
     OK,
@@ -95,8 +101,22 @@ abstract class WaveletContainerImpl implements WaveletContainer {
   private final ParticipantId sharedDomainParticipantId;
   /** Is counted down when initial loading from storage completes. */
   private final CountDownLatch loadLatch = new CountDownLatch(1);
+  /**
+   * Compositions of the recent history, by start version, to transform late
+   * client deltas against. Guarded by the write lock.
+   */
+  @SuppressWarnings("serial")
+  private final Map<HashedVersion, ComposedDeltaHistory> composedHistories =
+      new LinkedHashMap<HashedVersion, ComposedDeltaHistory>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<HashedVersion, ComposedDeltaHistory> eldest) {
+          return size() > MAX_COMPOSED_HISTORIES;
+        }
+      };
   /** Is set at most once, before loadLatch is counted down. */
   private WaveletState waveletState;
+  /** The history of waveletState, set with it. */
+  private WaveletStateDeltaHistory deltaHistory;
   private State state = State.LOADING;
 
   /**
@@ -132,6 +152,7 @@ abstract class WaveletContainerImpl implements WaveletContainer {
               Preconditions.checkState(waveletState.getWaveletName().equals(getWaveletName()),
                   "Wrong wavelet state, named %s, expected %s",
                   waveletState.getWaveletName(), getWaveletName());
+              deltaHistory = new WaveletStateDeltaHistory(waveletState);
               state = State.OK;
             } catch (PersistenceException e) {
               LOG.warning("Failed to load wavelet " + getWaveletName(), e);
@@ -281,6 +302,18 @@ abstract class WaveletContainerImpl implements WaveletContainer {
     }
   }
 
+  @Override
+  public HashedVersion getLatestVersion() throws WaveletStateException {
+    awaitLoad();
+    acquireReadLock();
+    try {
+      checkStateOk();
+      return (waveletState.getSnapshot() != null) ? waveletState.getCurrentVersion() : null;
+    } finally {
+      releaseReadLock();
+    }
+  }
+
   @Override
   public ObservableWaveletData copyWaveletData() throws WaveletStateException {
     awaitLoad();
@@ -351,14 +384,73 @@ abstract class WaveletContainerImpl implements WaveletContainer {
   }
 
   /**
-   * Finds range of server deltas needed to transform against, then transforms all client
-   * ops against the server ops.
+   * Transforms a client delta against the server deltas applied since its
+   * target version.
+   *
+   * The server deltas are composed, and the composition is cached so that
+   * further client deltas submitted at the same version are transformed
+   * against it without reading the history again. If the client's author
+   * also authored some of the server deltas, the client delta may duplicate
+   * one of them, so it is transformed against each server delta in turn.
    */
   private WaveletDelta transformSubmittedDelta(WaveletDelta submittedDelta)
       throws OperationException, InvalidHashException {
     HashedVersion targetVersion = submittedDelta.getTargetVersion();
     HashedVersion currentVersion = getCurrentVersion();
     Preconditions.checkArgument(!targetVersion.equals(currentVersion));
+    ComposedDeltaHistory history = getComposedHistory(targetVersion, currentVersion);
+
+    ParticipantId clientAuthor = submittedDelta.getAuthor();
+    if (history.hasAuthor(clientAuthor)) {
+      return transformAgainstEachDelta(submittedDelta);
+    }
+    List<WaveletOperation> clientOps = Lists.newArrayList(submittedDelta);
+    if (clientOps.isEmpty()) {
+      return new WaveletDelta(clientAuthor, targetVersion, clientOps);
+    }
+    clientOps = transformOps(clientOps, history.getOperations());
+    return new WaveletDelta(clientAuthor, currentVersion, clientOps);
+  }
+
+  /**
+   * Returns the composition of the server deltas from the given version to the
+   * current version, extending or adding a cached composition.
+   *
+   * @throws InvalidHashException if the start version is not in the history.
+   */
+  private ComposedDeltaHistory getComposedHistory(HashedVersion startVersion,
+      HashedVersion currentVersion) throws OperationException, InvalidHashException {
+    ComposedDeltaHistory history = composedHistories.get(startVersion);
+    boolean cached = (history != null);
+    if (!cached) {
+      history = new ComposedDeltaHistory(startVersion);
+    }
+    if (!history.getEndVersion().equals(currentVersion)) {
+      DeltaSequence serverDeltas =
+          waveletState.getTransformedDeltaHistory(history.getEndVersion(), currentVersion);
+      if (serverDeltas == null) {
+        LOG.warning("Attempt to apply delta at unknown hashed version " + startVersion);
+        throw new InvalidHashException(currentVersion, startVersion);
+      }
+      Preconditions.checkState(!serverDeltas.isEmpty(),
+          "No deltas between valid versions %s and %s", history.getEndVersion(), currentVersion);
+      history.append(serverDeltas);
+    }
+    if (!cached) {
+      composedHistories.put(startVersion, history);
+    }
+    return history;
+  }
+
+  /**
+   * Finds range of server deltas needed to transform against, then transforms all client
+   * ops against the server ops, one server delta at a time.
+   */
+  private WaveletDelta transformAgainstEachDelta(WaveletDelta submittedDelta)
+      throws OperationException, InvalidHashException {
+    HashedVersion targetVersion = submittedDelta.getTargetVersion();
+    HashedVersion currentVersion = getCurrentVersion();
+    Preconditions.checkArgument(!targetVersion.equals(currentVersion));
     DeltaSequence serverDeltas =
         waveletState.getTransformedDeltaHistory(targetVersion, currentVersion);
     if (serverDeltas == null) {
@@ -395,25 +487,29 @@ abstract class WaveletContainerImpl implements WaveletContainer {
 
   /**
    * Transforms the specified client operations against the specified server operations,
-   * returning the transformed client operations in a new list.
+   * returning the transformed client operations in a new list. Each client operation
+   * is transformed against the server operations as transformed by the previous client
+   * operations.
    *
    * @param clientOps may be unmodifiable
    * @param serverOps may be unmodifiable
    * @return transformed client ops
    */
-  private List<WaveletOperation> transformOps(List<WaveletOperation> clientOps,
+  private static List<WaveletOperation> transformOps(List<WaveletOperation> clientOps,
       List<WaveletOperation> serverOps) throws OperationException {
     List<WaveletOperation> transformedClientOps = Lists.newArrayList();
+    List<WaveletOperation> transformedServerOps = Lists.newArrayList(serverOps);
+    WaveletOperationTransformer transformer = new WaveletOperationTransformer();
 
     for (WaveletOperation c : clientOps) {
-      for (WaveletOperation s : serverOps) {
-        OperationPair<WaveletOperation> pair;
+      for (int i = 0; i < transformedServerOps.size(); i++) {
         try {
-          pair = Transform.transform(c, s);
+          transformer.transform(c, transformedServerOps.get(i));
         } catch (TransformException e) {
           throw new OperationException(e);
         }
-        c = pair.clientOp();
+        c = transformer.getClientOp();
+        transformedServerOps.set(i, transformer.getServerOp());
       }
       transformedClientOps.add(c);
     }
@@ -501,6 +597,19 @@ abstract class WaveletContainerImpl implements WaveletContainer {
     }
   }
 
+  @Override
+  public ReOpenInfo requestCatchUpHistory(List<HashedVersion> knownVersions, int maxOperations)
+      throws WaveletStateException {
+    awaitLoad();
+    acquireReadLock();
+    try {
+      checkStateOk();
+      return new ConcurrencyControlCore(deltaHistory).reopen(knownVersions, maxOperations);
+    } finally {
+      releaseReadLock();
+    }
+  }
+
   @Override
   public boolean hasParticipant(ParticipantId participant) throws WaveletStateException {
     awaitLoad();
@@ -21,6 +21,7 @@ import com.google.common.collect.ImmutableSet;
 
 import org.waveprotocol.box.common.ExceptionalIterator;
 import org.waveprotocol.box.server.frontend.CommittedWaveletSnapshot;
+import org.waveprotocol.wave.concurrencycontrol.server.ConcurrencyControlCore.ReOpenInfo;
 import org.waveprotocol.wave.federation.Proto.ProtocolWaveletDelta;
 import org.waveprotocol.wave.model.id.WaveId;
 import org.waveprotocol.wave.model.id.WaveletId;
@@ -30,6 +31,7 @@ import org.waveprotocol.wave.model.version.HashedVersion;
 import org.waveprotocol.wave.model.wave.ParticipantId;
 
 import java.util.Collection;
+import java.util.List;
 
 /**
  * Provides wavelet snapshots and history, and accepts delta submissions to
@@ -87,6 +89,23 @@ public interface WaveletProvider {
   Collection<TransformedWaveletDelta> getHistory(WaveletName waveletName,
       HashedVersion versionStart, HashedVersion versionEnd) throws WaveServerException;
 
+  /**
+   * Retrieves the deltas a reconnecting client has missed, from the most
+   * recent of the versions it knows that is in the wavelet history.
+   *
+   * @param waveletName name of wavelet.
+   * @param knownVersions the versions the client knows, oldest first.
+   * @param maxOperations maximum number of operations in the deltas.
+   * @return the version the deltas start at and the deltas up to the current
+   *         version, or null if none of the versions is in the history or the
+   *         deltas hold more than {@code maxOperations} operations.
+   * @throws AccessControlException if the wavelet does not exist.
+   * @throws WaveServerException if storage access fails or if the wavelet is in
+   *         a bad state
+   */
+  ReOpenInfo getCatchUpHistory(WaveletName waveletName, List<HashedVersion> knownVersions,
+      int maxOperations) throws WaveServerException;
+
   /**
    * Check if the specified participantId has access to the named wavelet.
    *
@@ -129,4 +148,25 @@ public interface WaveletProvider {
    *         a bad state
    */
   CommittedWaveletSnapshot getSnapshot(WaveletName waveletName) throws WaveServerException;
+
+  /**
+   * Request the current version of the wavelet, without copying its state.
+   *
+   * @param waveletName the name of the wavelet
+   * @return the current version, or null if the wavelet doesn't exist
+   * @throws WaveServerException if storage access fails or if the wavelet is in
+   *         a bad state
+   */
+  HashedVersion getLatestVersion(WaveletName waveletName) throws WaveServerException;
+
+  /**
+   * Request the last committed version of the wavelet, without copying its
+   * state.
+   *
+   * @param waveletName the name of the wavelet
+   * @return the last committed version, or null if the wavelet doesn't exist
+   * @throws WaveServerException if storage access fails or if the wavelet is in
+   *         a bad state
+   */
+  HashedVersion getLastCommittedVersion(WaveletName waveletName) throws WaveServerException;
 }
@@ -0,0 +1,55 @@
+/**
+ * Copyright 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.waveprotocol.box.server.waveserver;
+
+import org.waveprotocol.wave.concurrencycontrol.server.ConcurrencyControlCore;
+import org.waveprotocol.wave.concurrencycontrol.server.DeltaHistory;
+import org.waveprotocol.wave.model.operation.wave.TransformedWaveletDelta;
+import org.waveprotocol.wave.model.version.HashedVersion;
+
+/**
+ * A {@link DeltaHistory} over the transformed deltas of a {@link WaveletState},
+ * so that {@link ConcurrencyControlCore#reopen} can find the deltas a
+ * reconnecting client has missed.
+ *
+ * Deltas are looked up by the hashed version the wavelet state holds at each
+ * delta boundary. Calls must hold the wavelet's lock.
+ */
+final class WaveletStateDeltaHistory implements DeltaHistory {
+
+  private final WaveletState state;
+
+  WaveletStateDeltaHistory(WaveletState state) {
+    this.state = state;
+  }
+
+  @Override
+  public long getCurrentVersion() {
+    return state.getCurrentVersion().getVersion();
+  }
+
+  @Override
+  public TransformedWaveletDelta getDeltaStartingAt(long version) {
+    HashedVersion hashedVersion = state.getHashedVersion(version);
+    return (hashedVersion == null) ? null : state.getTransformedDelta(hashedVersion);
+  }
+
+  @Override
+  public boolean hasSignature(HashedVersion signature) {
+    return signature.equals(state.getHashedVersion(signature.getVersion()));
+  }
+}
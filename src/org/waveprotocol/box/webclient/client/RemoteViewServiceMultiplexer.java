@@ -28,6 +28,7 @@ import org.waveprotocol.wave.model.id.WaveletId;
 import org.waveprotocol.wave.model.id.WaveletName;
 import org.waveprotocol.wave.model.util.CollectionUtils;
 
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -159,6 +160,24 @@ public final class RemoteViewServiceMultiplexer implements WaveWebSocketCallback
     socket.submit(request, callback);
   }
 
+  /**
+   * Submits several deltas in a single frame.
+   *
+   * @param requests deltas to submit
+   * @param callbacks callbacks for the submit responses, in the same order
+   */
+  public void submit(List<ProtocolSubmitRequestJsoImpl> requests,
+      List<SubmitResponseCallback> callbacks) {
+    socket.startBatch();
+    try {
+      for (int i = 0; i < requests.size(); i++) {
+        submit(requests.get(i), callbacks.get(i));
+      }
+    } finally {
+      socket.sendBatch();
+    }
+  }
+
   public static WaveletName deserialize(String name) {
     try {
       return ModernIdSerialiser.INSTANCE.deserialiseWaveletName(name);
@@ -245,12 +245,39 @@ public final class RemoteWaveViewService implements WaveViewService, WaveWebSock
   @Override
   public String viewSubmit(final WaveletName wavelet, WaveletDelta delta, String channelId,
       final SubmitCallback callback) {
+    mux.submit(createSubmitRequest(wavelet, delta, channelId),
+        createSubmitResponseCallback(wavelet, callback));
+
+    // We don't support the getDebugProfiling thing anyway.
+    return null;
+  }
+
+  @Override
+  public String viewSubmitBatch(List<Submission> submissions, String channelId) {
+    List<ProtocolSubmitRequestJsoImpl> requests = Lists.newArrayList();
+    List<SubmitResponseCallback> callbacks = Lists.newArrayList();
+    for (Submission submission : submissions) {
+      requests.add(
+          createSubmitRequest(submission.getWavelet(), submission.getDelta(), channelId));
+      callbacks.add(
+          createSubmitResponseCallback(submission.getWavelet(), submission.getCallback()));
+    }
+    mux.submit(requests, callbacks);
+    return null;
+  }
+
+  private ProtocolSubmitRequestJsoImpl createSubmitRequest(WaveletName wavelet,
+      WaveletDelta delta, String channelId) {
     ProtocolSubmitRequestJsoImpl submitRequest = ProtocolSubmitRequestJsoImpl.create();
     submitRequest.setWaveletName(serialize(wavelet));
     submitRequest.setDelta(serialize(wavelet, delta));
     submitRequest.setChannelId(channelId);
+    return submitRequest;
+  }
 
-    mux.submit(submitRequest, new SubmitResponseCallback() {
+  private SubmitResponseCallback createSubmitResponseCallback(final WaveletName wavelet,
+      final SubmitCallback callback) {
+    return new SubmitResponseCallback() {
       @Override
       public void run(ProtocolSubmitResponse response) {
         HashedVersion resultVersion = HashedVersion.unsigned(0);
@@ -261,10 +288,7 @@ public final class RemoteWaveViewService implements WaveViewService, WaveWebSock
         }
         callback.onSuccess(resultVersion, response.getOperationsApplied(), null, ResponseCode.OK);
       }
-    });
-
-    // We don't support the getDebugProfiling thing anyway.
-    return null;
+    };
   }
 
   @Override
@@ -25,6 +25,8 @@ import static org.waveprotocol.wave.communication.gwt.JsonHelper.setPropertyAsOb
 import static org.waveprotocol.wave.communication.gwt.JsonHelper.setPropertyAsString;
 
 import com.google.common.base.Preconditions;
+import com.google.gwt.core.client.JavaScriptObject;
+import com.google.gwt.core.client.JsArray;
 import com.google.gwt.core.client.Scheduler;
 import com.google.gwt.core.client.Scheduler.RepeatingCommand;
 import com.google.gwt.user.client.Cookies;
@@ -42,6 +44,7 @@ import org.waveprotocol.wave.communication.json.JsonException;
 import org.waveprotocol.wave.model.util.CollectionUtils;
 import org.waveprotocol.wave.model.util.IntMap;
 
+import java.util.List;
 import java.util.Queue;
 
 
@@ -105,6 +108,12 @@ public class WaveWebSocketClient implements WaveSocket.WaveSocketCallback {
 
   private final Queue<JsonMessage> messages = CollectionUtils.createQueue();
 
+  /**
+   * Messages held back to be sent together in one frame, or null if messages
+   * are sent as they come.
+   */
+  private List<JsonMessage> batch;
+
   private final RepeatingCommand reconnectCommand = new RepeatingCommand() {
     @Override
     public boolean execute() {
@@ -171,13 +180,25 @@ public class WaveWebSocketClient implements WaveSocket.WaveSocketCallback {
   @Override
   public void onMessage(final String message) {
     LOG.info("received JSON message " + message);
-    MessageWrapper wrapper;
+    JsonMessage frame;
     try {
-      wrapper = MessageWrapper.parse(message);
+      frame = JsonMessage.createJsonMessage(message);
     } catch (JsonException e) {
       LOG.severe("invalid JSON message " + message, e);
       return;
     }
+    if (isArray(frame)) {
+      // The responses to the messages of a batch.
+      JsArray<MessageWrapper> wrappers = frame.cast();
+      for (int i = 0; i < wrappers.length(); i++) {
+        handleMessage(wrappers.get(i));
+      }
+    } else {
+      handleMessage(frame.<MessageWrapper>cast());
+    }
+  }
+
+  private void handleMessage(MessageWrapper wrapper) {
     String messageType = wrapper.getType();
     if ("ProtocolWaveletUpdate".equals(messageType)) {
       if (callback != null) {
@@ -193,6 +214,42 @@ public class WaveWebSocketClient implements WaveSocket.WaveSocketCallback {
     }
   }
 
+  private static native boolean isArray(JavaScriptObject object) /*-{
+    return Object.prototype.toString.call(object) === '[object Array]';
+  }-*/;
+
+  /**
+   * Holds back the messages sent from now on until {@link #sendBatch()}, so
+   * that they are sent in a single frame. The server then responds to the
+   * submits of the frame in a single frame too.
+   */
+  public void startBatch() {
+    Preconditions.checkState(batch == null, "Already batching");
+    batch = CollectionUtils.newArrayList();
+  }
+
+  /**
+   * Sends the messages held back since {@link #startBatch()}.
+   */
+  public void sendBatch() {
+    Preconditions.checkState(batch != null, "Not batching");
+    List<JsonMessage> held = batch;
+    batch = null;
+    if (held.size() == 1 || connected != ConnectState.CONNECTED) {
+      for (JsonMessage message : held) {
+        send(message);
+      }
+    } else if (!held.isEmpty()) {
+      StringBuilder json = new StringBuilder("[");
+      for (int i = 0; i < held.size(); i++) {
+        json.append(i == 0 ? "" : ",").append(held.get(i).toJson());
+      }
+      json.append("]");
+      LOG.info("Sending JSON data " + json);
+      socket.sendMessage(json.toString());
+    }
+  }
+
   public void submit(ProtocolSubmitRequestJsoImpl message, SubmitResponseCallback callback) {
     int submitId = sequenceNo++;
     submitRequestCallbacks.put(submitId, callback);
@@ -204,6 +261,10 @@ public class WaveWebSocketClient implements WaveSocket.WaveSocketCallback {
   }
 
   private void send(JsonMessage message) {
+    if (batch != null) {
+      batch.add(message);
+      return;
+    }
     switch (connected) {
       case CONNECTED:
         String json = message.toJson();
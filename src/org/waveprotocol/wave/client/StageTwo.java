@@ -184,6 +184,12 @@ public interface StageTwo {
    */
   public static abstract class DefaultProvider extends AsyncHolder.Impl<StageTwo>
       implements StageTwo {
+    /**
+     * How long a submitted delta is held back, so that the deltas of a single
+     * user action on several wavelets are sent together.
+     */
+    private static final int SUBMIT_BATCH_DELAY_MS = 20;
+
     // Asynchronously constructed and external dependencies
     protected final StageOne stageOne;
     private WaveViewData waveData;
@@ -507,7 +513,8 @@ public interface StageTwo {
           .setRandomisationFactor(0.5)
           .build();
 
-      ViewChannelFactory viewFactory = ViewChannelImpl.factory(createWaveViewService(), logger);
+      ViewChannelFactory viewFactory = ViewChannelImpl.factory(
+          createWaveViewService(), logger, getRpcScheduler(), SUBMIT_BATCH_DELAY_MS);
       UnsavedDataListenerFactory unsyncedListeners = UnsavedDataListenerFactory.NONE;
 
       WaveletId udwId = getIdGenerator().newUserDataWaveletId(getSignedInUser().getAddress());
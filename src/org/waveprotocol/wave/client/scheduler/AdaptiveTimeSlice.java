@@ -0,0 +1,171 @@
+/**
+ * Copyright 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.waveprotocol.wave.client.scheduler;
+
+import org.waveprotocol.wave.model.util.Preconditions;
+
+/**
+ * Feedback controller for the length of a scheduler work slice.
+ *
+ * While there is continuous work, the time between the starts of consecutive
+ * slices is a frame: the slice itself plus whatever the browser did before
+ * giving control back (layout, painting, event handling). Each measured frame
+ * nudges the slice budget towards the value that makes frames last
+ * {@code targetFrameMillis}, so slow devices get shorter slices and more
+ * frequent repaints, and fast devices get longer slices and higher throughput.
+ *
+ * Frames are only measured between back-to-back slices; a slice that ends with
+ * nothing left to do breaks the chain, so idle time is never mistaken for
+ * rendering time. A frame that outlasts its slice budget by more than
+ * {@link #THROTTLED_FRAME_MS} is not measured either: that is a timer the
+ * browser has throttled, as it does in background tabs, and not rendering
+ * time that a shorter slice would help. The threshold is well above the
+ * layout and paint time of even a slow device, which must still be measured.
+ */
+public final class AdaptiveTimeSlice {
+
+  /** Default frame length to aim for, roughly 30 frames per second. */
+  public static final int DEFAULT_TARGET_FRAME_MS = 33;
+
+  /** Default lower bound on the slice budget. */
+  public static final int DEFAULT_MIN_SLICE_MS = 4;
+
+  /** Default upper bound on the slice budget. */
+  public static final int DEFAULT_MAX_SLICE_MS = 100;
+
+  /**
+   * Default proportion of the frame error applied to the budget on each frame.
+   * Any gain in (0, 2) converges; a half damps single slow frames while still
+   * settling within a handful of slices.
+   */
+  public static final double DEFAULT_GAIN = 0.5;
+
+  /**
+   * Time outside a slice beyond which the frame is treated as a throttled
+   * timer rather than rendering time. Background tabs delay timers by a
+   * second or more.
+   */
+  public static final int THROTTLED_FRAME_MS = 500;
+
+  private final int targetFrameMillis;
+  private final int minSliceMillis;
+  private final int maxSliceMillis;
+  private final double gain;
+
+  /** Current budget, kept fractional so that small corrections accumulate. */
+  private double budget;
+
+  /** Start time of the previous slice, or -1 if it was not followed by work. */
+  private double lastSliceStart = -1;
+
+  /** Budget of the previous slice. */
+  private int lastSliceBudget;
+
+  /** Length of the most recently measured frame, or -1 if none yet. */
+  private double lastFrameMillis = -1;
+
+  /**
+   * Creates a controller with the default target, bounds and gain, starting
+   * at the maximum budget.
+   */
+  public AdaptiveTimeSlice() {
+    this(DEFAULT_TARGET_FRAME_MS, DEFAULT_MIN_SLICE_MS, DEFAULT_MAX_SLICE_MS, DEFAULT_GAIN);
+  }
+
+  /**
+   * Creates a controller starting at the maximum budget.
+   *
+   * @param targetFrameMillis desired time between the starts of back-to-back
+   *        slices
+   * @param minSliceMillis lower bound on the budget
+   * @param maxSliceMillis upper bound on the budget
+   * @param gain proportion of the frame error applied per frame, in (0, 2)
+   */
+  public AdaptiveTimeSlice(int targetFrameMillis, int minSliceMillis, int maxSliceMillis,
+      double gain) {
+    Preconditions.checkArgument(minSliceMillis > 0, "Minimum slice must be positive");
+    Preconditions.checkArgument(maxSliceMillis >= minSliceMillis,
+        "Maximum slice must not be less than minimum slice");
+    Preconditions.checkArgument(targetFrameMillis > 0, "Target frame must be positive");
+    Preconditions.checkArgument(gain > 0 && gain < 2, "Gain must be in (0, 2)");
+    this.targetFrameMillis = targetFrameMillis;
+    this.minSliceMillis = minSliceMillis;
+    this.maxSliceMillis = maxSliceMillis;
+    this.gain = gain;
+    this.budget = maxSliceMillis;
+  }
+
+  /**
+   * Notes the start of a slice, adjusting the budget if the previous slice
+   * was followed directly by this one, and not by a throttled timer.
+   *
+   * @param now current time in millis
+   * @return the budget for the slice that is starting
+   */
+  public int onSliceStart(double now) {
+    if (lastSliceStart >= 0) {
+      double frameMillis = now - lastSliceStart;
+      if (frameMillis - lastSliceBudget <= THROTTLED_FRAME_MS) {
+        lastFrameMillis = frameMillis;
+        budget += gain * (targetFrameMillis - lastFrameMillis);
+        if (budget < minSliceMillis) {
+          budget = minSliceMillis;
+        } else if (budget > maxSliceMillis) {
+          budget = maxSliceMillis;
+        }
+      }
+    }
+    lastSliceStart = now;
+    lastSliceBudget = getBudget();
+    return lastSliceBudget;
+  }
+
+  /**
+   * Notes the end of a slice.
+   *
+   * @param moreWork true if another slice has been requested as soon as
+   *        possible, so that the next slice start closes a frame
+   */
+  public void onSliceEnd(boolean moreWork) {
+    if (!moreWork) {
+      lastSliceStart = -1;
+    }
+  }
+
+  /**
+   * @return the current slice budget, in whole millis.
+   */
+  public int getBudget() {
+    return (int) budget;
+  }
+
+  /**
+   * @return the length of the last measured frame, or -1 if none has been
+   *         measured yet.
+   */
+  public double getLastFrameMillis() {
+    return lastFrameMillis;
+  }
+
+  @Override
+  public String toString() {
+    return "AdaptiveTimeSlice[budget: " + getBudget() + "ms, target frame: " + targetFrameMillis
+        + "ms, last frame: " + (int) lastFrameMillis + "ms, bounds: [" + minSliceMillis + ", "
+        + maxSliceMillis + "]]";
+  }
+}
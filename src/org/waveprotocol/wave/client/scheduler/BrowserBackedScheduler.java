@@ -32,13 +32,24 @@ import org.waveprotocol.wave.model.util.IdentityMap.ProcV;
  * @author danilatos@google.com (Daniel Danilatos)
  */
 public class BrowserBackedScheduler implements Scheduler {
+  /**
+   * Suggested time after which a job that is kept from running by higher
+   * priority work is run anyway, see {@link #setStarvationThreshold(int)}.
+   */
+  public static final int DEFAULT_STARVATION_THRESHOLD_MS = 1000;
+
   private final SimpleTimer timer;
 
   private final Runnable runner = new Runnable() {
     public void run() {
       nextSliceRunTime = Double.MAX_VALUE;
-      workSlice(timeSliceMillis);
+      int budget = adaptiveTimeSlice != null
+          ? adaptiveTimeSlice.onSliceStart(timer.getTime()) : timeSliceMillis;
+      workSlice(budget);
       double next = getNextRunTime();
+      if (adaptiveTimeSlice != null) {
+        adaptiveTimeSlice.onSliceEnd(next == 0);
+      }
       if (next == 0) {
         maybeScheduleSlice();
       } else if (next > 0) {
@@ -79,6 +90,21 @@ public class BrowserBackedScheduler implements Scheduler {
    */
   private int timeSliceMillis = 100;
 
+  /**
+   * If not null, decides the length of each work slice instead of
+   * {@link #timeSliceMillis}.
+   */
+  private AdaptiveTimeSlice adaptiveTimeSlice;
+
+  /**
+   * How long a job may wait behind higher priority work before it is run out
+   * of turn. Negative means never.
+   */
+  private int starvationThresholdMillis = -1;
+
+  /** Queue delay and run time statistics, for debugging. */
+  private final SchedulerStatistics statistics = new SchedulerStatistics();
+
   /**
    * When the next work slice is scheduled to run.
    * 0 means a slice is already scheduled to run as soon as possible.
@@ -139,6 +165,7 @@ public class BrowserBackedScheduler implements Scheduler {
     }
 
     info = createTask(priority, job);
+    info.queuedTime = timer.getTime();
     jobs.add(priority, job);
 
     maybeScheduleSlice();
@@ -240,11 +267,43 @@ public class BrowserBackedScheduler implements Scheduler {
   }
 
   /**
-   * Set the size of a work time slice before work is deferred again
+   * Set the size of a work time slice before work is deferred again.
+   * This replaces any adaptive time slice.
    * @param millis
    */
   public void setTimeSlice(int millis) {
     timeSliceMillis = millis;
+    adaptiveTimeSlice = null;
+  }
+
+  /**
+   * Lets the given controller decide the size of each work time slice, based
+   * on the measured time between slices.
+   *
+   * @param timeSlice the controller, or null to go back to the fixed slice
+   */
+  public void setAdaptiveTimeSlice(AdaptiveTimeSlice timeSlice) {
+    adaptiveTimeSlice = timeSlice;
+  }
+
+  /**
+   * Sets how long a job may be kept waiting by higher priority work. When a
+   * slice runs out of time, the longest waiting job at each lower priority is
+   * run anyway if it has waited at least this long, so that a steady stream of
+   * high priority work can not postpone low priority work forever.
+   *
+   * @param millis the threshold, or a negative value to never run jobs out of
+   *        turn (the default)
+   */
+  public void setStarvationThreshold(int millis) {
+    starvationThresholdMillis = millis;
+  }
+
+  /**
+   * @return queue delay and run time statistics for the jobs run so far.
+   */
+  public SchedulerStatistics getStatistics() {
+    return statistics;
   }
 
   private boolean hasTasks() {
@@ -267,6 +326,7 @@ public class BrowserBackedScheduler implements Scheduler {
     }
 
     double start = timer.getTime();
+    statistics.recordQueueDelay(priority, start - taskInfos.get(job).queuedTime);
 
     if (job instanceof IncrementalTask) {
       boolean isFinished = !jobs.getRemovedJobAsProcess().execute();
@@ -283,6 +343,7 @@ public class BrowserBackedScheduler implements Scheduler {
           if (task.calculateNextExecuteTime(start)) {
             delayedJobs.addDelayedJob(task);
           } else if (!delayedJobs.has(task.id)) {
+            task.queuedTime = timer.getTime();
             jobs.add(priority, job);
           }
         }
@@ -294,7 +355,9 @@ public class BrowserBackedScheduler implements Scheduler {
       task.execute();
     }
 
-    int timeSpent = (int) ( timer.getTime() - start);
+    double duration = timer.getTime() - start;
+    statistics.recordRunTime(priority, duration);
+    int timeSpent = (int) duration;
 
     // This will only be useful when debugging in deobfuscated mode.
     triggerOnJobExecuted(job, timeSpent);
@@ -317,17 +380,6 @@ public class BrowserBackedScheduler implements Scheduler {
       boolean moreTime;
       do {
         moreWork = workUnit(priority, maxMillis);
-        // TODO(user):
-        //   Add the following:
-        //
-        // double duration = finish - start;
-        // if (duration > MAX_DURATION_MS && Debug.errorClient().shouldLog()) {
-        //   Debug.errorClient().log("HIGH priority task took a whopping: "
-        //       + ((int) duration) + "ms to run");
-        // }
-        //
-        // after dependencies are cleaned up such that Debug does not depend on Scheduler, so that
-        // Scheduler can depend on Debug without a cycle.
         moreTime = timer.getTime() < endTime;
       } while (moreWork && moreTime);
 
@@ -354,6 +406,7 @@ public class BrowserBackedScheduler implements Scheduler {
     Schedulable delayedJob;
     while ((delayedJob = delayedJobs.getDueDelayedJob(now)) != null) {
       TaskInfo info = taskInfos.get(delayedJob);
+      info.queuedTime = info.getNextExecuteTime();
       jobs.add(info.priority, delayedJob);
     }
 
@@ -365,11 +418,36 @@ public class BrowserBackedScheduler implements Scheduler {
     double end = now + maxMillis;
     for (Priority p : Priority.values()) {
       if (!workAll(p, maxMillis, end)) {
+        runStarvedJobs(p, maxMillis);
         return;
       }
     }
   }
 
+  /**
+   * Runs one unit of work at each priority below the given one whose longest
+   * waiting job has waited past the starvation threshold.
+   *
+   * @param exhausted the priority that used up the slice
+   */
+  private void runStarvedJobs(Priority exhausted, int maxMillis) {
+    if (starvationThresholdMillis < 0) {
+      return;
+    }
+    for (Priority p : Priority.values()) {
+      if (p.ordinal() <= exhausted.ordinal() || p == Priority.INTERNAL_SUPPRESS
+          || !controller.isRunnable(p)) {
+        continue;
+      }
+      Schedulable oldest = jobs.getFirst(p);
+      if (oldest != null
+          && timer.getTime() - taskInfos.get(oldest).queuedTime >= starvationThresholdMillis) {
+        statistics.recordStarvationRescue(p);
+        workUnit(p, maxMillis);
+      }
+    }
+  }
+
   /**
    * @return Next time that a work slice should be due (not necessarily currently scheduled)
    *   -1 means nothing to run, 0 means run as soon as possible, and >0 means don't run until
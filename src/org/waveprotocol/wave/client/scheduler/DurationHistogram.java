@@ -0,0 +1,140 @@
+/**
+ * Copyright 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.waveprotocol.wave.client.scheduler;
+
+/**
+ * Cheap histogram of durations, with power-of-two millisecond buckets.
+ *
+ * Bucket 0 holds durations under 1ms, bucket i holds durations in
+ * [2^(i-1), 2^i) ms, and the last bucket holds everything from
+ * {@link #OVERFLOW_MILLIS} upwards. Recording is constant time and allocation
+ * free, so it is safe to do for every job the scheduler runs.
+ */
+public final class DurationHistogram {
+
+  /** Number of buckets, including the overflow bucket. */
+  public static final int NUM_BUCKETS = 13;
+
+  /** Lower bound of the overflow bucket. */
+  public static final int OVERFLOW_MILLIS = 1 << (NUM_BUCKETS - 2);
+
+  private final int[] buckets = new int[NUM_BUCKETS];
+  private int count;
+  private double totalMillis;
+  private double maxMillis;
+
+  /**
+   * Records a duration.
+   *
+   * @param millis duration in millis; negative values are treated as zero
+   */
+  public void record(double millis) {
+    if (millis < 0) {
+      millis = 0;
+    }
+    buckets[bucketOf(millis)]++;
+    count++;
+    totalMillis += millis;
+    if (millis > maxMillis) {
+      maxMillis = millis;
+    }
+  }
+
+  private static int bucketOf(double millis) {
+    int bucket = 0;
+    int bound = 1;
+    while (bucket < NUM_BUCKETS - 1 && millis >= bound) {
+      bucket++;
+      bound <<= 1;
+    }
+    return bucket;
+  }
+
+  /**
+   * @param bucket bucket index, in [0, {@link #NUM_BUCKETS})
+   * @return the exclusive upper bound of the bucket in millis, or
+   *         {@link Double#POSITIVE_INFINITY} for the overflow bucket.
+   */
+  public static double getUpperBoundMillis(int bucket) {
+    return bucket < NUM_BUCKETS - 1 ? 1 << bucket : Double.POSITIVE_INFINITY;
+  }
+
+  /**
+   * @param bucket bucket index, in [0, {@link #NUM_BUCKETS})
+   * @return the number of durations recorded in the bucket.
+   */
+  public int getBucketCount(int bucket) {
+    return buckets[bucket];
+  }
+
+  /** @return the number of durations recorded. */
+  public int getCount() {
+    return count;
+  }
+
+  /** @return the sum of all durations recorded. */
+  public double getTotalMillis() {
+    return totalMillis;
+  }
+
+  /** @return the longest duration recorded, or 0 if none. */
+  public double getMaxMillis() {
+    return maxMillis;
+  }
+
+  /** @return the mean duration recorded, or 0 if none. */
+  public double getMeanMillis() {
+    return count == 0 ? 0 : totalMillis / count;
+  }
+
+  /**
+   * Estimates a percentile from the bucket counts.
+   *
+   * @param fraction percentile as a fraction, in (0, 1]
+   * @return the upper bound of the bucket containing the percentile, capped at
+   *         the maximum recorded duration, or 0 if nothing has been recorded.
+   */
+  public double getPercentileMillis(double fraction) {
+    int rank = (int) Math.ceil(fraction * count);
+    int seen = 0;
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      seen += buckets[i];
+      if (seen >= rank && seen > 0) {
+        return Math.min(getUpperBoundMillis(i), maxMillis);
+      }
+    }
+    return 0;
+  }
+
+  /** Forgets everything recorded. */
+  public void reset() {
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      buckets[i] = 0;
+    }
+    count = 0;
+    totalMillis = 0;
+    maxMillis = 0;
+  }
+
+  @Override
+  public String toString() {
+    return "{ count: " + count + "; mean: " + (int) getMeanMillis() + "; p50: "
+        + (int) getPercentileMillis(0.5) + "; p95: " + (int) getPercentileMillis(0.95)
+        + "; max: " + (int) maxMillis + " }";
+  }
+}
@@ -93,6 +93,15 @@ public class JobRegistry {
     return priorities.get(priority.ordinal()).size();
   }
 
+  /**
+   * @param priority
+   * @return the job that has been waiting longest at the given priority, or
+   *     null if there are none. The job is not removed.
+   */
+  public Schedulable getFirst(Priority priority) {
+    return priorities.get(priority.ordinal()).peek();
+  }
+
   /**
    * Remove the first job for the given priority.
    * The job and its id can be retrieved by the various getRemoved* methods
@@ -50,7 +50,11 @@ public class SchedulerInstance {
   /** Initialise a default BrowserBackedScheduler if there wasn't one */
   private static void init() {
     if (instance == null) {
-      setSchedulerInstance(new BrowserBackedScheduler(GwtSimpleTimer.FACTORY, Controller.NOOP));
+      BrowserBackedScheduler scheduler =
+          new BrowserBackedScheduler(GwtSimpleTimer.FACTORY, Controller.NOOP);
+      scheduler.setAdaptiveTimeSlice(new AdaptiveTimeSlice());
+      scheduler.setStarvationThreshold(BrowserBackedScheduler.DEFAULT_STARVATION_THRESHOLD_MS);
+      setSchedulerInstance(scheduler);
     }
   }
 
@@ -93,4 +97,12 @@ public class SchedulerInstance {
     init();
     return instance.getController();
   }
+
+  /**
+   * @return queue delay and run time statistics of the singleton scheduler.
+   */
+  public static SchedulerStatistics getStatistics() {
+    init();
+    return instance.getStatistics();
+  }
 }
@@ -0,0 +1,96 @@
+/**
+ * Copyright 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.waveprotocol.wave.client.scheduler;
+
+import org.waveprotocol.wave.client.scheduler.Scheduler.Priority;
+
+/**
+ * Per-priority timing statistics collected by {@link BrowserBackedScheduler}.
+ *
+ * For each priority this tracks how long jobs waited in the queue before
+ * running, how long each unit of work ran for, and how many times a job was
+ * run out of turn because it had been starved by higher priority work.
+ */
+public final class SchedulerStatistics {
+
+  private final DurationHistogram[] queueDelays = createHistograms();
+  private final DurationHistogram[] runTimes = createHistograms();
+  private final int[] starvationRescues = new int[Priority.values().length];
+
+  private static DurationHistogram[] createHistograms() {
+    DurationHistogram[] histograms = new DurationHistogram[Priority.values().length];
+    for (int i = 0; i < histograms.length; i++) {
+      histograms[i] = new DurationHistogram();
+    }
+    return histograms;
+  }
+
+  /** Records how long a job at the given priority waited before running. */
+  void recordQueueDelay(Priority priority, double millis) {
+    queueDelays[priority.ordinal()].record(millis);
+  }
+
+  /** Records how long a unit of work at the given priority ran for. */
+  void recordRunTime(Priority priority, double millis) {
+    runTimes[priority.ordinal()].record(millis);
+  }
+
+  /** Records that a starved job at the given priority was run out of turn. */
+  void recordStarvationRescue(Priority priority) {
+    starvationRescues[priority.ordinal()]++;
+  }
+
+  /** @return queue delays of jobs at the given priority. */
+  public DurationHistogram getQueueDelays(Priority priority) {
+    return queueDelays[priority.ordinal()];
+  }
+
+  /** @return run times of work units at the given priority. */
+  public DurationHistogram getRunTimes(Priority priority) {
+    return runTimes[priority.ordinal()];
+  }
+
+  /** @return how many starved jobs at the given priority were run out of turn. */
+  public int getStarvationRescues(Priority priority) {
+    return starvationRescues[priority.ordinal()];
+  }
+
+  /** Forgets everything recorded. */
+  public void reset() {
+    for (Priority p : Priority.values()) {
+      queueDelays[p.ordinal()].reset();
+      runTimes[p.ordinal()].reset();
+      starvationRescues[p.ordinal()] = 0;
+    }
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder result = new StringBuilder();
+    for (Priority p : Priority.values()) {
+      if (queueDelays[p.ordinal()].getCount() == 0 && runTimes[p.ordinal()].getCount() == 0) {
+        continue;
+      }
+      result.append(" { priority: " + p + "; ");
+      result.append(" queue delay: " + queueDelays[p.ordinal()] + "; ");
+      result.append(" run time: " + runTimes[p.ordinal()] + "; ");
+      result.append(" starvation rescues: " + starvationRescues[p.ordinal()] + "; } ");
+    }
+    return result.toString();
+  }
+}
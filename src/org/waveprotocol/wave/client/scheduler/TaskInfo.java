@@ -35,6 +35,9 @@ final class TaskInfo {
   final Schedulable job;
   private double nextExecuteTime;
 
+  /** When the task was last put in the queue of jobs ready to run. */
+  double queuedTime;
+
   public TaskInfo(Priority p, Schedulable job) {
     this(p, 0, 0, job);
   }
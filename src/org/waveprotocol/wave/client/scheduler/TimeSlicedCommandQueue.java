@@ -41,13 +41,19 @@ public class TimeSlicedCommandQueue implements CommandQueue {
   /**
    * The time when the time slice started.
    */
-  public long timeSliceStart;
+  public double timeSliceStart;
 
   /**
    * The maximum time allowed to execute the commands in a single turn.
    */
   public int timeSliceMs = DEFAULT_TIME_SLICE_MS;
 
+  /**
+   * If not null, decides {@link #timeSliceMs} at the start of each scheduled
+   * turn.
+   */
+  private AdaptiveTimeSlice adaptiveTimeSlice;
+
   /**
    * Are we executing the queue.
    */
@@ -63,11 +69,17 @@ public class TimeSlicedCommandQueue implements CommandQueue {
    */
   private final Scheduler.IncrementalTask task = new Scheduler.IncrementalTask() {
     public boolean execute() {
-      timeSliceStart = System.currentTimeMillis();
+      timeSliceStart = timeService.currentTimeMillis();
+      if (adaptiveTimeSlice != null) {
+        timeSliceMs = adaptiveTimeSlice.onSliceStart(timeSliceStart);
+      }
       executeQueue();
       if (queue.size() == 0 && isScheduled) {
         cancel();
       }
+      if (adaptiveTimeSlice != null) {
+        adaptiveTimeSlice.onSliceEnd(isScheduled);
+      }
       timeSliceStart = 0;
       return true;  // Run until canceled
     }
@@ -131,7 +143,7 @@ public class TimeSlicedCommandQueue implements CommandQueue {
     isExecutingQueue = true;
     while (queue.size() > 0) {
       queue.remove(0).execute();
-      long end = System.currentTimeMillis();
+      double end = timeService.currentTimeMillis();
       if ((end - timeSliceStart) > timeSliceMs) {
         break;
       }
@@ -147,7 +159,7 @@ public class TimeSlicedCommandQueue implements CommandQueue {
    */
   public void start() {
     if (timeSliceStart == 0) {
-      timeSliceStart = System.currentTimeMillis();
+      timeSliceStart = timeService.currentTimeMillis();
       executeQueue();
     }
   }
@@ -157,7 +169,7 @@ public class TimeSlicedCommandQueue implements CommandQueue {
    */
   private void defer() {
     // Still has some time left in the current time slice
-    if (!forceAsync && (System.currentTimeMillis() - timeSliceStart) < timeSliceMs) {
+    if (!forceAsync && (timeService.currentTimeMillis() - timeSliceStart) < timeSliceMs) {
       executeQueue();
     }
 
@@ -187,6 +199,15 @@ public class TimeSlicedCommandQueue implements CommandQueue {
    */
   public void setTimeSlice(int ms) {
     timeSliceMs = ms;
+    adaptiveTimeSlice = null;
+  }
+
+  /**
+   * @param timeSlice controller that sizes each scheduled turn from the
+   *     measured time between turns, or null to keep the current time slice.
+   */
+  public void setAdaptiveTimeSlice(AdaptiveTimeSlice timeSlice) {
+    adaptiveTimeSlice = timeSlice;
   }
 
   /** @return The size of the queue. */
@@ -27,7 +27,11 @@ import org.waveprotocol.wave.model.id.WaveId;
 import org.waveprotocol.wave.model.id.WaveletId;
 import org.waveprotocol.wave.model.id.WaveletName;
 import org.waveprotocol.wave.model.operation.wave.WaveletDelta;
+import org.waveprotocol.wave.model.util.CollectionUtils;
+import org.waveprotocol.wave.model.util.FuzzingBackOffScheduler;
+import org.waveprotocol.wave.model.util.FuzzingBackOffScheduler.CollectiveScheduler;
 import org.waveprotocol.wave.model.util.Preconditions;
+import org.waveprotocol.wave.model.util.Scheduler;
 import org.waveprotocol.wave.model.version.HashedVersion;
 
 import java.util.HashMap;
@@ -74,6 +78,22 @@ public class ViewChannelImpl implements ViewChannel, WaveViewService.OpenCallbac
   private final Map<WaveletId, String> debugLastSubmit =
       new HashMap<WaveletId, String>();
 
+  /**
+   * Schedules the sending of the submits held back in {@link #pendingSubmits},
+   * or null if deltas are submitted as soon as they are given.
+   */
+  private final Scheduler submitScheduler;
+
+  /** Submits held back to be sent in a single request. */
+  private final List<WaveViewService.Submission> pendingSubmits = CollectionUtils.newArrayList();
+
+  private final Scheduler.Command flushCommand = new Scheduler.Command() {
+    @Override
+    public void execute() {
+      flushSubmits();
+    }
+  };
+
 
   //
   // Mutable state.
@@ -134,6 +154,31 @@ public class ViewChannelImpl implements ViewChannel, WaveViewService.OpenCallbac
     };
   }
 
+  /**
+   * Creates a factory for view channels which send the deltas submitted to
+   * several wavelets within a short delay of each other in a single request.
+   *
+   * @param waveService server with which to back channels
+   * @param logger logger for channels
+   * @param batchScheduler scheduler on which submits are held back
+   * @param batchDelayMs how long a submit is held back for others to join it
+   */
+  public static ViewChannelFactory factory(final WaveViewService waveService,
+      final LoggerBundle logger, final CollectiveScheduler batchScheduler,
+      final int batchDelayMs) {
+    return new ViewChannelFactory() {
+      @Override
+      public ViewChannel create(WaveId viewWaveId) {
+        Scheduler submitScheduler = new FuzzingBackOffScheduler.Builder(batchScheduler)
+            .setInitialBackOffMs(batchDelayMs)
+            .setMaxBackOffMs(batchDelayMs)
+            .setRandomisationFactor(0)
+            .build();
+        return new ViewChannelImpl(viewWaveId, waveService, logger, submitScheduler);
+      }
+    };
+  }
+
   /**
    * Constructs a view channel.
    *
@@ -143,9 +188,25 @@ public class ViewChannelImpl implements ViewChannel, WaveViewService.OpenCallbac
    */
   public ViewChannelImpl(WaveId waveId, WaveViewService service,
       LoggerBundle logger) {
+    this(waveId, service, logger, null);
+  }
+
+  /**
+   * Constructs a view channel which holds submitted deltas back, so that the
+   * deltas submitted to several wavelets together are sent in one request.
+   *
+   * @param waveId           id of the wave for which this channel is a view
+   * @param service          service through which RPCs are made
+   * @param logger           logger for error messages
+   * @param submitScheduler  scheduler for sending held back deltas, or null
+   *                         to send deltas immediately
+   */
+  public ViewChannelImpl(WaveId waveId, WaveViewService service,
+      LoggerBundle logger, Scheduler submitScheduler) {
     this.waveId = waveId;
     this.waveService = service;
     this.logger = logger;
+    this.submitScheduler = submitScheduler;
     this.state = State.INITIAL;
 
     registerChannel();
@@ -179,7 +240,11 @@ public class ViewChannelImpl implements ViewChannel, WaveViewService.OpenCallbac
     Preconditions.checkState(state == State.CONNECTED,
         "Cannot submit to disconnected view channel: %s, delta version %s", this,
         delta.getTargetVersion());
-    doSubmitDelta(waveletId, delta, callback);
+    if (submitScheduler == null) {
+      doSubmitDelta(waveletId, delta, callback);
+    } else {
+      holdSubmit(waveletId, delta, callback);
+    }
   }
 
   /**
@@ -192,11 +257,61 @@ public class ViewChannelImpl implements ViewChannel, WaveViewService.OpenCallbac
     // a fake request id and detect it's removal later.
     debugLastSubmit.put(waveletId, SUBMITTING);
 
-    final String channelId = this.channelId;
-    final WaveId waveId = this.waveId;
-
     String requestId = waveService.viewSubmit(WaveletName.of(waveId, waveletId),
-        delta, channelId, new WaveViewService.SubmitCallback() {
+        delta, channelId, wrapSubmitCallback(waveletId, callback));
+
+    if (debugLastSubmit.containsKey(waveletId)) {
+      debugLastSubmit.put(waveletId, requestId);
+    }
+  }
+
+  /**
+   * Holds a delta back, to be submitted together with the deltas submitted
+   * before the submit scheduler runs.
+   */
+  private void holdSubmit(WaveletId waveletId, WaveletDelta delta, SubmitCallback callback) {
+    debugLastSubmit.put(waveletId, SUBMITTING);
+    pendingSubmits.add(new WaveViewService.Submission(WaveletName.of(waveId, waveletId), delta,
+        wrapSubmitCallback(waveletId, callback)));
+    if (pendingSubmits.size() == 1) {
+      submitScheduler.schedule(flushCommand);
+    }
+  }
+
+  /**
+   * Makes a single RPC call to the server to submit the held back deltas.
+   */
+  private void flushSubmits() {
+    if (state != State.CONNECTED || pendingSubmits.isEmpty()) {
+      return;
+    }
+    List<WaveViewService.Submission> submissions = CollectionUtils.newArrayList(pendingSubmits);
+    pendingSubmits.clear();
+
+    String requestId;
+    if (submissions.size() == 1) {
+      WaveViewService.Submission submission = submissions.get(0);
+      requestId = waveService.viewSubmit(submission.getWavelet(), submission.getDelta(),
+          channelId, submission.getCallback());
+    } else {
+      requestId = waveService.viewSubmitBatch(submissions, channelId);
+    }
+
+    for (WaveViewService.Submission submission : submissions) {
+      WaveletId waveletId = submission.getWavelet().waveletId;
+      if (debugLastSubmit.containsKey(waveletId)) {
+        debugLastSubmit.put(waveletId, requestId);
+      }
+    }
+  }
+
+  /**
+   * Wraps a submit callback to handle the exceptions it throws.
+   */
+  private WaveViewService.SubmitCallback wrapSubmitCallback(final WaveletId waveletId,
+      final SubmitCallback callback) {
+    final WaveId waveId = this.waveId;
+    return new WaveViewService.SubmitCallback() {
       @Override
       public void onSuccess(HashedVersion version, int opsApplied, String errorMessage,
           ResponseCode responseCode) {
@@ -227,11 +342,7 @@ public class ViewChannelImpl implements ViewChannel, WaveViewService.OpenCallbac
         terminate("View submit [" + methodName + "] for wavelet " + waveId + "/" + waveletId
             + " raised exception: " + e);
       }
-    });
-
-    if (debugLastSubmit.containsKey(waveletId)) {
-      debugLastSubmit.put(waveletId, requestId);
-    }
+    };
   }
 
   /**
@@ -471,6 +582,12 @@ public class ViewChannelImpl implements ViewChannel, WaveViewService.OpenCallbac
         }
     }
 
+    // Held back deltas are dropped with the connection, like unacknowledged ones.
+    pendingSubmits.clear();
+    if (submitScheduler != null) {
+      submitScheduler.reset();
+    }
+
     // Connection is now closed.
     if (logger.trace().shouldLog()) {
       logger.trace().log(this.toString() + " terminated: " + failure);
@@ -105,6 +105,25 @@ public interface WaveViewService {
     void onFailure(String failure);
   }
 
+  /**
+   * A delta to submit to one wavelet, as part of a batch.
+   */
+  final class Submission {
+    private final WaveletName wavelet;
+    private final WaveletDelta delta;
+    private final SubmitCallback callback;
+
+    public Submission(WaveletName wavelet, WaveletDelta delta, SubmitCallback callback) {
+      this.wavelet = wavelet;
+      this.delta = delta;
+      this.callback = callback;
+    }
+
+    public WaveletName getWavelet() { return wavelet; }
+    public WaveletDelta getDelta() { return delta; }
+    public SubmitCallback getCallback() { return callback; }
+  }
+
   /**
    * Callback for closing a connection to the server.
    */
@@ -131,6 +150,16 @@ public interface WaveViewService {
   String viewSubmit(WaveletName wavelet, WaveletDelta delta, String channelId,
       SubmitCallback callback);
 
+  /**
+   * Submits deltas to several wavelets in a single request. The server
+   * replies to each delta as to {@link #viewSubmit}, in a single response.
+   *
+   * @param submissions the deltas to submit, in order
+   * @return the request id that can be passed later into
+   *     {@link #debugGetProfilingInfo(String)}
+   */
+  String viewSubmitBatch(List<Submission> submissions, String channelId);
+
   /**
    * Closes a wave from the server.
    */
@@ -36,6 +36,7 @@ import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.ListIterator;
 
 public class ConcurrencyControl implements ServerConnectionListener {
   /**
@@ -80,7 +81,11 @@ public class ConcurrencyControl implements ServerConnectionListener {
       new UnsavedDataListener.UnsavedDataInfo() {
         @Override
         public int inFlightSize() {
-          return (unacknowledged != null) ? unacknowledged.size() : 0;
+          int size = 0;
+          for (WaveletDelta delta : unacknowledged) {
+            size += delta.size();
+          }
+          return size;
         }
 
         @Override
@@ -151,13 +156,25 @@ public class ConcurrencyControl implements ServerConnectionListener {
   private long lastCommitVersion = 0;
 
   /**
-   * This is the delta in the inferredServerPath that is not yet acked by the
-   * server. Any new operations coming from the client will be queued in other
-   * deltas after this delta in the inferredServerPath.
+   * These are the deltas in the inferredServerPath that are not yet acked by
+   * the server, in the order they were sent. Any new operations coming from the
+   * client will be queued in other deltas after these deltas in the
+   * inferredServerPath.
+   *
+   * The first delta targets a version signed by the server. Each following
+   * delta targets the unsigned version inferred from the delta before it,
+   * which is the version the server reaches after applying it if nothing else
+   * is applied meanwhile.
    *
-   * If null, nothing is in flight to the server.
+   * If empty, nothing is in flight to the server.
+   */
+  private final LinkedList<WaveletDelta> unacknowledged = CollectionUtils.newLinkedList();
+
+  /**
+   * The maximum number of deltas in flight to the server. With one delta, the
+   * next delta is only sent once the previous one is acknowledged.
    */
-  private WaveletDelta unacknowledged;
+  private final int maxUnacknowledgedDeltas;
 
   /** Queue of operations from the client not yet sent to the server. */
   private final OperationQueue clientOperationQueue = new OperationQueue();
@@ -200,9 +217,32 @@ public class ConcurrencyControl implements ServerConnectionListener {
    * @param startSignature the version/hash at which to begin connecting
    */
   public ConcurrencyControl(LoggerBundle logger, HashedVersion startSignature) {
+    this(logger, startSignature, 1);
+  }
+
+  /**
+   * Constructs a client side concurrency control module which sends up to the
+   * given number of deltas without waiting for them to be acknowledged. Each
+   * delta sent while others are in flight targets the version the server is
+   * inferred to reach after the deltas before it, which the server must
+   * recognise and transform against the client's own earlier deltas, as
+   * {@link org.waveprotocol.wave.concurrencycontrol.server.ConcurrencyControlCore}
+   * does. The class must be {@link #initialise(ServerConnection, ConnectionListener) initialised}
+   * before use.
+   *
+   * @param logger a Logger to use for trace output
+   * @param startSignature the version/hash at which to begin connecting
+   * @param maxUnacknowledgedDeltas the maximum number of deltas in flight,
+   *        at least one
+   */
+  public ConcurrencyControl(LoggerBundle logger, HashedVersion startSignature,
+      int maxUnacknowledgedDeltas) {
     Preconditions.checkNotNull(startSignature, "startSignature cannot be null");
+    Preconditions.checkArgument(maxUnacknowledgedDeltas > 0,
+        "maxUnacknowledgedDeltas must be positive");
     this.logger = logger;
     this.startSignature = startSignature;
+    this.maxUnacknowledgedDeltas = maxUnacknowledgedDeltas;
   }
 
   /**
@@ -308,10 +348,8 @@ public class ConcurrencyControl implements ServerConnectionListener {
       }
     }
 
-    if (unacknowledged != null) {
-      deltas.add(unacknowledged);
-      unacknowledged = null;
-    }
+    deltas.addAll(unacknowledged);
+    unacknowledged.clear();
 
     Collections.reverse(deltas);
     for (WaveletDelta delta : deltas) {
@@ -332,17 +370,18 @@ public class ConcurrencyControl implements ServerConnectionListener {
   }
 
   /**
-   * Packages up transformed client operations as a delta, and sends it to the
-   * server. A send does not occur if there are unacknowledged deltas.
+   * Packages up transformed client operations as deltas, and sends them to the
+   * server. A send does not occur if the maximum number of unacknowledged
+   * deltas are in flight.
    */
   private void sendDelta() {
     if (!isReadyToSend()) {
       return;
     }
 
-    if (unacknowledged != null) {
+    if (unacknowledged.size() >= maxUnacknowledgedDeltas) {
       logger.trace().log("Unacknowledged delta, expected to be applied at version ",
-          unacknowledged.getTargetVersion().getVersion());
+          unacknowledged.getFirst().getTargetVersion().getVersion());
       return;
     }
 
@@ -357,22 +396,27 @@ public class ConcurrencyControl implements ServerConnectionListener {
     // If we are sending something then we have inferred our location on the server path
     endOfStartingDelta = null;
 
-    List<WaveletOperation> ops = clientOperationQueue.take();
-    unacknowledged = new WaveletDelta(ops.get(0).getContext().getCreator(),
-        getLastSignature(), ops);
+    while (unacknowledged.size() < maxUnacknowledgedDeltas && !clientOperationQueue.isEmpty()) {
+      List<WaveletOperation> ops = clientOperationQueue.take();
+      HashedVersion targetVersion = unacknowledged.isEmpty() ? getLastSignature()
+          : HashedVersion.unsigned(unacknowledged.getLast().getResultingVersion());
+      WaveletDelta delta =
+          new WaveletDelta(ops.get(0).getContext().getCreator(), targetVersion, ops);
+      unacknowledged.add(delta);
+
+      if (logger.isModuleEnabled() && logger.trace().shouldLog()) {
+        logger.trace().log("Sending delta to server with last known server version " +
+            delta.getTargetVersion(), delta);
+      }
 
-    if (logger.isModuleEnabled() && logger.trace().shouldLog()) {
-      logger.trace().log("Sending delta to server with last known server version " +
-          unacknowledged.getTargetVersion(), unacknowledged);
+      serverConnection.send(delta);
     }
-
-    serverConnection.send(unacknowledged);
     triggerUnsavedDataListener();
   }
 
   /**
    * Transform all the operation in the incoming server delta against all the
-   * operation in {@link #unacknowledged} and {@link #clientOperationQueue}
+   * operations in {@link #unacknowledged}, in turn, and {@link #clientOperationQueue}
    * before notifying the client.
    *
    * Also keep track of the transformed client operation so that we can infer
@@ -380,7 +424,7 @@ public class ConcurrencyControl implements ServerConnectionListener {
    *
    * Assumption:
    * <ul>
-   * <li>serverDelta.getVersion() == unacknowledged.getVersion()</li>
+   * <li>serverDelta.getVersion() == the first unacknowledged delta's version</li>
    * <li>clientOps will never skip a version</li>
    * <li>serverDelta.getSignature() is never null</li>
    * </ul>
@@ -411,21 +455,28 @@ public class ConcurrencyControl implements ServerConnectionListener {
     // Transform against any unacknowledged ops.
     List<WaveletOperation> transformedServerDelta = serverDelta;
 
-    if (unacknowledged != null) {
-      if (serverDelta.getAppliedAtVersion() != unacknowledged.getTargetVersion().getVersion()) {
+    if (!unacknowledged.isEmpty()) {
+      WaveletDelta first = unacknowledged.getFirst();
+      if (serverDelta.getAppliedAtVersion() != first.getTargetVersion().getVersion()) {
         throw new TransformException(
             "Cannot accept server version newer than unacknowledged. server version:"
                 + serverDelta.getAppliedAtVersion() + " unacknowledged version:"
-                + unacknowledged.getTargetVersion() + ". [Received serverDelta:" + serverDelta
+                + first.getTargetVersion() + ". [Received serverDelta:" + serverDelta
                 + "] " + this);
       }
 
-      DeltaPair transformedPair = (new DeltaPair(unacknowledged, serverDelta)).transform();
-      // The ops of the server delta are transformed, all metadata remains.
-      transformedServerDelta = transformedPair.getServer();
-      // The unacknowledged delta must have applied after the server delta.
-      unacknowledged = new WaveletDelta(unacknowledged.getAuthor(),
-          serverDelta.getResultingVersion(), transformedPair.getClient());
+      // The unacknowledged deltas must have applied after the server delta.
+      HashedVersion targetVersion = serverDelta.getResultingVersion();
+      ListIterator<WaveletDelta> deltas = unacknowledged.listIterator();
+      while (deltas.hasNext()) {
+        WaveletDelta delta = deltas.next();
+        DeltaPair transformedPair = (new DeltaPair(delta, transformedServerDelta)).transform();
+        // The ops of the server delta are transformed, all metadata remains.
+        transformedServerDelta = transformedPair.getServer();
+        delta = new WaveletDelta(delta.getAuthor(), targetVersion, transformedPair.getClient());
+        deltas.set(delta);
+        targetVersion = HashedVersion.unsigned(delta.getResultingVersion());
+      }
     }
 
     // Transform against any queued ops
@@ -452,7 +503,7 @@ public class ConcurrencyControl implements ServerConnectionListener {
 
     // Check to see if we are getting a delta that was sent by us, in case the
     // server echos back our own delta from a recovery scenario.
-    if (unacknowledged != null && DeltaPair.areSame(serverDelta, unacknowledged)) {
+    if (!unacknowledged.isEmpty() && DeltaPair.areSame(serverDelta, unacknowledged.getFirst())) {
       // If we completely match then take it as an ack.
       onSuccess(serverDelta.size(), serverDelta.getResultingVersion());
       return true;
@@ -470,23 +521,25 @@ public class ConcurrencyControl implements ServerConnectionListener {
   @Override
   public void onSuccess(int opsApplied, HashedVersion signature) throws TransformException {
 
-    if (unacknowledged == null) {
+    if (unacknowledged.isEmpty()) {
       // Note: An ACK will only occur before echoBack delta.
       throw new TransformException("Got ACK from server, but we had not sent anything. " + this);
     }
+    // Acks arrive in the order the deltas were sent.
+    WaveletDelta acknowledged = unacknowledged.getFirst();
 
-    if (unacknowledged.getResultingVersion() != signature.getVersion()) {
+    if (acknowledged.getResultingVersion() != signature.getVersion()) {
       throw new TransformException("Got ACK from server, but we don't have the same version. " +
-          "Client expects new version " + unacknowledged.getResultingVersion() +
-          " and " + unacknowledged.size() + " acked ops, " +
+          "Client expects new version " + acknowledged.getResultingVersion() +
+          " and " + acknowledged.size() + " acked ops, " +
           " Server acked " + opsApplied + ", new version " + signature.getVersion()  + ". " +
           "[Received signature:" + signature + "] [Received opsApplied:" + opsApplied + "] " +
           this);
     }
 
-    if (opsApplied != unacknowledged.size()) {
+    if (opsApplied != acknowledged.size()) {
       throw new TransformException("Unable to accept ACK of different number of operations than "
-          + "client issued. Client sent = " + unacknowledged.size() + " Server acked = "
+          + "client issued. Client sent = " + acknowledged.size() + " Server acked = "
           + opsApplied + ". " + this);
     }
 
@@ -498,26 +551,31 @@ public class ConcurrencyControl implements ServerConnectionListener {
     }
 
     // We know the server has done this now.
-    if (unacknowledged.getTargetVersion().getVersion() < startSignature.getVersion()) {
+    if (acknowledged.getTargetVersion().getVersion() < startSignature.getVersion()) {
       logger.error().log(
-          "unexpected ack for version " + unacknowledged.getTargetVersion()
+          "unexpected ack for version " + acknowledged.getTargetVersion()
               + " before start version " + startSignature.getVersion() + ". [Received signature:"
               + signature + "] [Received opsApplied:" + opsApplied + "] " + this);
     }
 
     // Remember delta as received by the server (unless it transformed away).
     AckInfo ack = new AckInfo(opsApplied, signature);
-    if (unacknowledged.size() > 0) {
-      inferredServerPath.add(new AckedDelta(unacknowledged, ack));
+    if (acknowledged.size() > 0) {
+      inferredServerPath.add(new AckedDelta(acknowledged, ack));
     }
     acks.add(ack);
 
     // We now need to tell the client model about how the server applied the operation by
     // faking a server operation which contains the version number.
-    makeFakeServerOpsFromAckAndNotify(signature);
+    makeFakeServerOpsFromAckAndNotify(acknowledged, signature);
 
-    // Mark nothing in flight.
-    unacknowledged = null;
+    // Mark the delta as no longer in flight. The next one now targets the
+    // acknowledged version, which is signed.
+    unacknowledged.removeFirst();
+    if (!unacknowledged.isEmpty()) {
+      WaveletDelta next = unacknowledged.removeFirst();
+      unacknowledged.addFirst(new WaveletDelta(next.getAuthor(), signature, next));
+    }
 
     triggerUnsavedDataListener();
 
@@ -530,18 +588,17 @@ public class ConcurrencyControl implements ServerConnectionListener {
    * server version and last modified time.
    *
    * Assumption:
-   *   Server applied the ops starting at unacknowledged.getVersion()
+   *   Server applied the ops starting at acknowledged.getVersion()
    * @throws TransformException
    */
-  private void makeFakeServerOpsFromAckAndNotify(HashedVersion ackedSignature)
-      throws TransformException {
+  private void makeFakeServerOpsFromAckAndNotify(WaveletDelta acknowledged,
+      HashedVersion ackedSignature) throws TransformException {
     List<WaveletOperation> versionOps = CollectionUtils.newArrayList();
 
-    // All unacknowledged ops are assumed to be acked now. Ops in unacknowledged
-    // are transformed against any server ops received prior to the ack. We now
-    // create a version update op for each unacknowledged op. The last one also
-    // includes the acked signature.
-    Iterator<WaveletOperation> opItr = unacknowledged.iterator();
+    // All acknowledged ops are transformed against any server ops received
+    // prior to the ack. We now create a version update op for each acknowledged
+    // op. The last one also includes the acked signature.
+    Iterator<WaveletOperation> opItr = acknowledged.iterator();
     while (opItr.hasNext()) {
       WaveletOperation op = opItr.next();
       HashedVersion signedVersion = opItr.hasNext() ? null : ackedSignature;
@@ -664,7 +721,7 @@ public class ConcurrencyControl implements ServerConnectionListener {
 
     lastCommitVersion = committedVersion;
     logger.trace().log("onCommit: version =", committedVersion, " serverpathsize =",
-        inferredServerPath.size(), " any unacknowledged ? ", (unacknowledged == null));
+        inferredServerPath.size(), " any unacknowledged ? ", !unacknowledged.isEmpty());
     triggerUnsavedDataListener();
   }
 
@@ -715,7 +772,7 @@ public class ConcurrencyControl implements ServerConnectionListener {
 
   /** True if nothing is queued or in flight or uncommitted. */
   private boolean everythingIsCommitted() {
-    return acks.isEmpty() && (unacknowledged == null);
+    return acks.isEmpty() && unacknowledged.isEmpty();
   }
 
   private void triggerUnsavedDataListener() {
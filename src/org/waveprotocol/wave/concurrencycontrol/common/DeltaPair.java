@@ -16,10 +16,9 @@
  */
 package org.waveprotocol.wave.concurrencycontrol.common;
 
-import org.waveprotocol.wave.model.operation.OperationPair;
 import org.waveprotocol.wave.model.operation.TransformException;
-import org.waveprotocol.wave.model.operation.wave.Transform;
 import org.waveprotocol.wave.model.operation.wave.WaveletOperation;
+import org.waveprotocol.wave.model.operation.wave.WaveletOperationTransformer;
 import org.waveprotocol.wave.model.util.CollectionUtils;
 
 import java.util.Arrays;
@@ -72,16 +71,16 @@ public class DeltaPair {
 
     List<WaveletOperation> outServer = CollectionUtils.newArrayList();
     List<WaveletOperation> outClient = CollectionUtils.newArrayList(client);
+    WaveletOperationTransformer transformer = new WaveletOperationTransformer();
 
     for (WaveletOperation serverOp : server) {
       WaveletOperation newServerOp = serverOp;
       List<WaveletOperation> tempClientDelta = CollectionUtils.newArrayList();
 
       for (WaveletOperation clientOp : outClient) {
-        OperationPair<WaveletOperation> operationPair =
-            Transform.transform(clientOp, newServerOp);
-        clientOp = operationPair.clientOp();
-        newServerOp = operationPair.serverOp();
+        transformer.transform(clientOp, newServerOp);
+        clientOp = transformer.getClientOp();
+        newServerOp = transformer.getServerOp();
         tempClientDelta.add(clientOp);
       }
       outClient = tempClientDelta;
@@ -20,21 +20,82 @@ import org.waveprotocol.wave.concurrencycontrol.common.DeltaPair;
 import org.waveprotocol.wave.model.operation.TransformException;
 import org.waveprotocol.wave.model.operation.wave.TransformedWaveletDelta;
 import org.waveprotocol.wave.model.operation.wave.WaveletDelta;
+import org.waveprotocol.wave.model.operation.wave.WaveletOperation;
 import org.waveprotocol.wave.model.util.CollectionUtils;
 import org.waveprotocol.wave.model.version.HashedVersion;
+import org.waveprotocol.wave.model.wave.ParticipantId;
 
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 /**
  * The core of the concurrency control that lives on the server. It manages all
  * of the transforms for a single wavelet that needs CC.
  *
+ * Clients may send deltas without waiting for their earlier deltas to be
+ * acknowledged. Such a pipelined delta targets the unsigned version the client
+ * infers the server reaches after its earlier deltas, and is defined after
+ * them. The core remembers the recent deltas of each client as they were sent,
+ * so that it can transform a pipelined delta against the other clients' deltas
+ * as transformed against the client's own earlier deltas.
+ *
  * @author zdwang@google.com (David Wang)
  */
 public class ConcurrencyControlCore {
+  /** Maximum number of authors whose pipelines are remembered. */
+  private static final int MAX_AUTHORS = 32;
+
+  /** Maximum number of pipelines remembered per author, one per client. */
+  private static final int MAX_PIPELINES_PER_AUTHOR = 4;
+
   /** This is a list of delta history which we can use for transformation */
   private final DeltaHistory deltaHistory;
 
+  /**
+   * A client delta remembered as it was sent, with the version at which its
+   * transformation was applied.
+   */
+  private static final class SentDelta {
+    /** The ops, defined after the base version and the sent deltas before it. */
+    List<WaveletOperation> ops;
+    /** The version at which the transformed delta was applied. */
+    final long appliedAt;
+
+    SentDelta(List<WaveletOperation> ops, long appliedAt) {
+      this.ops = ops;
+      this.appliedAt = appliedAt;
+    }
+  }
+
+  /**
+   * The recent deltas sent by a client, from a version known to the client.
+   */
+  private static final class Pipeline {
+    /** A version the client has seen all deltas up to. */
+    HashedVersion baseVersion;
+    /** The client's deltas applied at or after the base version, in order. */
+    final LinkedList<SentDelta> deltas = CollectionUtils.newLinkedList();
+
+    Pipeline(HashedVersion baseVersion) {
+      this.baseVersion = baseVersion;
+    }
+  }
+
+  /**
+   * The pipelines of recent clients by author, least recently used author
+   * first, and each author's pipelines most recently used first.
+   */
+  private final Map<ParticipantId, LinkedList<Pipeline>> pipelines =
+      new LinkedHashMap<ParticipantId, LinkedList<Pipeline>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ParticipantId, LinkedList<Pipeline>> e) {
+          return size() > MAX_AUTHORS;
+        }
+      };
+
   /**
    * This is the information needed to resend to the client.
    *
@@ -72,7 +133,9 @@ public class ConcurrencyControlCore {
   }
 
   /**
-   * Transform the given client delta against the known delta history.
+   * Transform the given client delta against the known delta history. The
+   * returned delta must be applied at the current version before the next
+   * client delta is transformed.
    *
    * @param delta The received delta
    * @return The transformed client operation and it starts off from the latest version.
@@ -84,6 +147,40 @@ public class ConcurrencyControlCore {
                                    + delta.getTargetVersion() + ", server: "
                                    + deltaHistory.getCurrentVersion());
     }
+    LinkedList<Pipeline> authorPipelines = pipelines.get(delta.getAuthor());
+    Pipeline pipeline = findPipeline(authorPipelines, delta);
+    WaveletDelta result;
+    if (pipeline != null) {
+      result = transformPipelined(pipeline, delta);
+    } else if (delta.getTargetVersion().getHistoryHash().length == 0) {
+      // The client inferred the target from deltas no longer remembered, e.g.
+      // after its pipeline was evicted or the server restarted. It must resync.
+      throw new TransformException("Unsigned target version matches no pipeline: "
+          + delta.getTargetVersion());
+    } else {
+      result = transform(delta);
+      if (authorPipelines == null) {
+        authorPipelines = CollectionUtils.newLinkedList();
+        pipelines.put(delta.getAuthor(), authorPipelines);
+      }
+      pipeline = new Pipeline(delta.getTargetVersion());
+      authorPipelines.addFirst(pipeline);
+      if (authorPipelines.size() > MAX_PIPELINES_PER_AUTHOR) {
+        authorPipelines.removeLast();
+      }
+    }
+    if (delta.size() > 0) {
+      // The delta is immutable, so its ops need no copy.
+      pipeline.deltas.add(new SentDelta(delta, result.getTargetVersion().getVersion()));
+    }
+    return result;
+  }
+
+  /**
+   * Transforms a client delta against the server deltas from its target
+   * version.
+   */
+  private WaveletDelta transform(WaveletDelta delta) throws TransformException {
     WaveletDelta result = delta;
     while (result.getTargetVersion().getVersion() < deltaHistory.getCurrentVersion()) {
       TransformedWaveletDelta serverDelta =
@@ -102,18 +199,147 @@ public class ConcurrencyControlCore {
     return result;
   }
 
+  /**
+   * Finds the pipeline a delta was sent in, if it targets a version inferred
+   * from the author's earlier deltas, and moves the pipeline's base version to
+   * the version the client had seen when sending the delta.
+   *
+   * @return the pipeline, or null if the delta is not pipelined.
+   */
+  private Pipeline findPipeline(LinkedList<Pipeline> authorPipelines, WaveletDelta delta)
+      throws TransformException {
+    HashedVersion target = delta.getTargetVersion();
+    if (authorPipelines == null || target.getHistoryHash().length != 0) {
+      return null;
+    }
+    Iterator<Pipeline> it = authorPipelines.iterator();
+    while (it.hasNext()) {
+      Pipeline pipeline = it.next();
+      if (advance(pipeline, target.getVersion())) {
+        it.remove();
+        authorPipelines.addFirst(pipeline);
+        return pipeline;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Looks for the version from which the client inferred the target version,
+   * the first one whose version plus the size of the client's deltas applied
+   * after it is the target version, and moves the base version there.
+   *
+   * @return false if the client inferred no such version.
+   */
+  private boolean advance(Pipeline pipeline, long target) throws TransformException {
+    LinkedList<SentDelta> remaining = copy(pipeline.deltas);
+    HashedVersion version = pipeline.baseVersion;
+    long inferred = version.getVersion();
+    for (SentDelta delta : remaining) {
+      inferred += delta.ops.size();
+    }
+    // The inferred version grows over other clients' deltas and stays the same
+    // over the client's own, since transformation keeps the number of ops.
+    while (inferred < target) {
+      TransformedWaveletDelta serverDelta = deltaHistory.getDeltaStartingAt(version.getVersion());
+      if (serverDelta == null) {
+        return false;
+      }
+      if (!remaining.isEmpty() && remaining.getFirst().appliedAt == version.getVersion()) {
+        remaining.removeFirst();
+      } else {
+        transformSentDeltas(remaining, serverDelta);
+        inferred += serverDelta.size();
+      }
+      version = serverDelta.getResultingVersion();
+    }
+    if (inferred != target) {
+      return false;
+    }
+    pipeline.baseVersion = version;
+    pipeline.deltas.clear();
+    pipeline.deltas.addAll(remaining);
+    return true;
+  }
+
+  /**
+   * Transforms a pipelined client delta against the server deltas from the
+   * pipeline's base version, skipping the client's own deltas, against which
+   * the delta is already defined.
+   */
+  private WaveletDelta transformPipelined(Pipeline pipeline, WaveletDelta delta)
+      throws TransformException {
+    LinkedList<SentDelta> remaining = copy(pipeline.deltas);
+    HashedVersion version = pipeline.baseVersion;
+    List<WaveletOperation> ops = delta;
+    while (version.getVersion() < deltaHistory.getCurrentVersion()) {
+      TransformedWaveletDelta serverDelta = deltaHistory.getDeltaStartingAt(version.getVersion());
+      if (serverDelta == null) {
+        throw new IllegalStateException("No delta at version: " + version);
+      }
+      if (!remaining.isEmpty() && remaining.getFirst().appliedAt == version.getVersion()) {
+        remaining.removeFirst();
+      } else {
+        List<WaveletOperation> serverOps = transformSentDeltas(remaining, serverDelta);
+        ops = new DeltaPair(ops, serverOps).transform().getClient();
+      }
+      version = serverDelta.getResultingVersion();
+    }
+    return new WaveletDelta(delta.getAuthor(), version, ops);
+  }
+
+  /**
+   * Transforms sent client deltas against a server delta applied after them.
+   *
+   * @return the server delta's ops, transformed against the client deltas.
+   */
+  private static List<WaveletOperation> transformSentDeltas(List<SentDelta> deltas,
+      List<WaveletOperation> serverOps) throws TransformException {
+    for (SentDelta delta : deltas) {
+      DeltaPair pair = new DeltaPair(delta.ops, serverOps).transform();
+      delta.ops = pair.getClient();
+      serverOps = pair.getServer();
+    }
+    return serverOps;
+  }
+
+  private static LinkedList<SentDelta> copy(List<SentDelta> deltas) {
+    LinkedList<SentDelta> copy = CollectionUtils.newLinkedList();
+    for (SentDelta delta : deltas) {
+      copy.add(new SentDelta(delta.ops, delta.appliedAt));
+    }
+    return copy;
+  }
+
   /**
    * A client wants to reopen a wave. They'll send us a list of signature that they
    * know of. We'll return a list of Deltas from the last signature we know of.
    */
   public ReOpenInfo reopen(List<HashedVersion> clientKnownSignatures) {
+    return reopen(clientKnownSignatures, Long.MAX_VALUE);
+  }
+
+  /**
+   * Like {@link #reopen(List)}, but gives up as soon as the deltas to resend
+   * hold more than the given number of operations, so that the history of a
+   * client far behind is not walked to the end.
+   *
+   * @return null if no signature is known, or if there are too many operations
+   *         to resend.
+   */
+  public ReOpenInfo reopen(List<HashedVersion> clientKnownSignatures, long maxOperations) {
     List<TransformedWaveletDelta> deltas = CollectionUtils.newArrayList();
     // Find the most recent delta.
     for (int i = clientKnownSignatures.size() - 1; i >= 0; i--) {
       if (deltaHistory.hasSignature(clientKnownSignatures.get(i))) {
         TransformedWaveletDelta old =
             deltaHistory.getDeltaStartingAt(clientKnownSignatures.get(i).getVersion());
+        long operations = 0;
         while (old != null) {
+          operations += old.size();
+          if (operations > maxOperations) {
+            return null;
+          }
           deltas.add(old);
           old = deltaHistory.getDeltaStartingAt(old.getResultingVersion().getVersion());
         }
@@ -78,6 +78,7 @@ public class MockWaveViewService implements WaveViewService {
 
   public final List<OpenArguments> opens = new ArrayList<OpenArguments>();
   public final List<SubmitArguments> submits = new ArrayList<SubmitArguments>();
+  public final List<List<SubmitArguments>> batchSubmits = new ArrayList<List<SubmitArguments>>();
   public final List<CloseArguments> closes = new ArrayList<CloseArguments>();
 
   public OpenArguments lastOpen() {
@@ -90,6 +91,11 @@ public class MockWaveViewService implements WaveViewService {
     return submits.get(submits.size() - 1);
   }
 
+  public List<SubmitArguments> lastBatchSubmit() {
+    Assert.assertFalse(batchSubmits.isEmpty());
+    return batchSubmits.get(batchSubmits.size() - 1);
+  }
+
   public CloseArguments lastClose() {
     Assert.assertFalse(closes.isEmpty());
     return closes.get(closes.size() - 1);
@@ -108,6 +114,17 @@ public class MockWaveViewService implements WaveViewService {
     return null;
   }
 
+  @Override
+  public String viewSubmitBatch(List<Submission> submissions, String channelId) {
+    List<SubmitArguments> batch = new ArrayList<SubmitArguments>();
+    for (Submission submission : submissions) {
+      batch.add(new SubmitArguments(submission.getWavelet(), submission.getDelta(), channelId,
+          submission.getCallback()));
+    }
+    batchSubmits.add(batch);
+    return null;
+  }
+
   @Override
   public void viewClose(WaveId waveId, String channelId, CloseCallback callback) {
     closes.add(new CloseArguments(waveId, channelId, callback));
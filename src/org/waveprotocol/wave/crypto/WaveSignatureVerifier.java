@@ -16,6 +16,8 @@
  */
 package org.waveprotocol.wave.crypto;
 
+import com.google.common.collect.Maps;
+
 import org.apache.commons.codec.binary.Base64;
 import org.waveprotocol.wave.federation.Proto.ProtocolSignature;
 
@@ -26,6 +28,7 @@ import java.security.cert.CertificateParsingException;
 import java.security.cert.X509Certificate;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -49,6 +52,16 @@ public class WaveSignatureVerifier {
   // cert chains.
   private final CertPathStore pathStore;
 
+  // Signature objects are expensive to look up and are not thread-safe, so
+  // each thread keeps one per JCE algorithm name, re-initialized on each use.
+  private final ThreadLocal<Map<String, Signature>> signatures =
+      new ThreadLocal<Map<String, Signature>>() {
+        @Override
+        protected Map<String, Signature> initialValue() {
+          return Maps.newHashMap();
+        }
+      };
+
   public WaveSignatureVerifier(WaveCertPathValidator validator, CertPathStore store) {
     this.pathValidator = validator;
     this.pathStore = store;
@@ -82,8 +95,7 @@ public class WaveSignatureVerifier {
 
     Signature verifier;
     try {
-      verifier = Signature.getInstance(AlgorithmUtil.getJceName(
-          signatureInfo.getSignatureAlgorithm()));
+      verifier = getSignature(AlgorithmUtil.getJceName(signatureInfo.getSignatureAlgorithm()));
     } catch (NoSuchAlgorithmException e) {
       throw new SignatureException("can't verify signatures of type " +
           signatureInfo.getSignatureAlgorithm().toString(), e);
@@ -117,6 +129,19 @@ public class WaveSignatureVerifier {
     verifyMatchingAuthority(authority, cert);
   }
 
+  /**
+   * Returns this thread's {@link Signature} object for the given algorithm.
+   */
+  private Signature getSignature(String jceName) throws NoSuchAlgorithmException {
+    Map<String, Signature> threadSignatures = signatures.get();
+    Signature signature = threadSignatures.get(jceName);
+    if (signature == null) {
+      signature = Signature.getInstance(jceName);
+      threadSignatures.put(jceName, signature);
+    }
+    return signature;
+  }
+
   /**
    * Verifies that the {@link SignerInfo} (i.e., the cerificate chain) checks
    * out, i.e., chains up to a trusted CA, and has certificates that aren't
@@ -17,6 +17,7 @@
 
 package org.waveprotocol.wave.crypto;
 
+import com.google.common.collect.Lists;
 import com.google.protobuf.ByteString;
 
 import org.waveprotocol.wave.federation.Proto.ProtocolSignature;
@@ -26,6 +27,7 @@ import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
 import java.security.Signature;
+import java.util.List;
 
 /**
  * Class that can sign payloads (i.e., byte arrays).
@@ -35,6 +37,26 @@ public class WaveSigner {
   private final SignatureAlgorithm algorithm;
   private final SignerInfo signerInfo;
   private final PrivateKey signingKey;
+  private final ByteString signerId;
+
+  // Signature objects are not thread-safe, and looking them up and
+  // initializing them with the key is expensive, so each thread keeps one
+  // that is ready to sign. A Signature returns to its initialized state once
+  // it has signed.
+  private final ThreadLocal<Signature> signatures = new ThreadLocal<Signature>() {
+    @Override
+    protected Signature initialValue() {
+      try {
+        return newSignature();
+      } catch (InvalidKeyException e) {
+        // we checked for this in the constructor - this really shouldn't happen
+        throw new IllegalStateException(e);
+      } catch (NoSuchAlgorithmException e) {
+        // we checked for this in the constructor - this really shouldn't happen
+        throw new IllegalStateException(e);
+      }
+    }
+  };
 
   /**
    * Public constructor.
@@ -53,14 +75,14 @@ public class WaveSigner {
     this.algorithm = alg;
     this.signerInfo = signerInfo;
     this.signingKey = signingKey;
+    this.signerId = ByteString.copyFrom(signerInfo.getSignerId());
 
     try {
 
       // we'll check here whether we can make such a signer, but we won't use
-      // it. We'll (re-)make a new signer object in the sign() method in order
-      // to be thread-safe.
-      Signature signer = Signature.getInstance(AlgorithmUtil.getJceName(alg));
-      signer.initSign(signingKey);
+      // it. Each thread makes its own signer object when it first signs, in
+      // order to be thread-safe.
+      newSignature();
 
     } catch (InvalidKeyException e) {
       throw new SignatureException("private key does not match algorithm " +
@@ -71,6 +93,12 @@ public class WaveSigner {
     }
   }
 
+  private Signature newSignature() throws InvalidKeyException, NoSuchAlgorithmException {
+    Signature signer = Signature.getInstance(AlgorithmUtil.getJceName(algorithm));
+    signer.initSign(signingKey);
+    return signer;
+  }
+
   /**
    * Signs a payload and returns a {@link ProtocolSignature} object
    * representing the signature.
@@ -78,33 +106,39 @@ public class WaveSigner {
    * @return the {@link SignerInfo} object.
    */
   public ProtocolSignature sign(byte[] payload) {
+    return sign(signatures.get(), payload);
+  }
+
+  /**
+   * Signs several payloads in one go, and returns the
+   * {@link ProtocolSignature} objects representing their signatures.
+   * @param payloads the payloads that are to be signed.
+   * @return the signatures, in the order of the payloads.
+   */
+  public List<ProtocolSignature> sign(List<byte[]> payloads) {
+    Signature signer = signatures.get();
+    List<ProtocolSignature> result = Lists.newArrayListWithCapacity(payloads.size());
+    for (byte[] payload : payloads) {
+      result.add(sign(signer, payload));
+    }
+    return result;
+  }
 
+  private ProtocolSignature sign(Signature signer, byte[] payload) {
     try {
-      Signature signer = Signature.getInstance(
-          AlgorithmUtil.getJceName(algorithm));
-      signer.initSign(signingKey);
       signer.update(payload);
       return ProtocolSignature.newBuilder()
           .setSignatureBytes(ByteString.copyFrom(signer.sign()))
-          .setSignerId(ByteString.copyFrom(signerInfo.getSignerId()))
+          .setSignerId(signerId)
           .setSignatureAlgorithm(algorithm)
           .build();
 
     } catch (java.security.SignatureException e) {
 
       // This is thrown if the signer object isn't properly initialized.
-      // Since we just made that object from scratch and initialized it, this
-      // really shouldn't happen
-      throw new IllegalStateException(e);
-
-    } catch (InvalidKeyException e) {
-
-      // we checked for this in the constructor - this really shouldn't happen
-      throw new IllegalStateException(e);
-
-    } catch (NoSuchAlgorithmException e) {
-
-      // we checked for this in the constructor - this really shouldn't happen
+      // Since it was initialized when it was made, this really shouldn't
+      // happen. Make a new one next time, just in case.
+      signatures.remove();
       throw new IllegalStateException(e);
     }
   }
@@ -35,6 +35,9 @@ public class FederationSettings {
   public static final String XMPP_DISCO_FAILED_EXPIRY_SECS = "xmpp_disco_failed_expiry_secs";
   public static final String XMPP_DISCO_SUCCESSFUL_EXPIRY_SECS = "xmpp_disco_successful_expiry_secs";
   public static final String XMPP_JID = "xmpp_jid";
+  public static final String XMPP_UPDATE_MAX_BYTES = "xmpp_update_max_bytes";
+  public static final String XMPP_UPDATE_LINGER_MS = "xmpp_update_linger_ms";
+  public static final String XMPP_UPDATE_MAX_QUEUED = "xmpp_update_max_queued";
 
   public static final String CERTIFICATE_PRIVATE_KEY = "certificate_private_key";
   public static final String CERTIFICATE_FILES = "certificate_files";
@@ -69,6 +72,19 @@ public class FederationSettings {
   @Setting(name = XMPP_JID)
   private static String xmppJid;
 
+  @Setting(name = XMPP_UPDATE_MAX_BYTES, defaultValue = "65536",
+      description = "Delta bytes above which updates to a wavelet are not coalesced.")
+  private static int xmppUpdateMaxBytes;
+
+  @Setting(name = XMPP_UPDATE_LINGER_MS, defaultValue = "20",
+      description = "How long outgoing updates are queued for, to be coalesced.")
+  private static int xmppUpdateLingerMs;
+
+  @Setting(name = XMPP_UPDATE_MAX_QUEUED, defaultValue = "10000",
+      description = "Maximum number of outgoing updates per remote domain that are queued"
+          + " or waiting for a receipt.")
+  private static int xmppUpdateMaxQueued;
+
   @Setting(name = CERTIFICATE_PRIVATE_KEY)
   private static String certificatePrivKey;
 
@@ -22,12 +22,10 @@ import com.google.protobuf.ByteString;
 import org.waveprotocol.wave.federation.Proto.ProtocolHashedVersion;
 import org.waveprotocol.wave.model.id.IdURIEncoderDecoder;
 import org.waveprotocol.wave.model.id.WaveletName;
-import org.waveprotocol.wave.model.version.HashedVersionFactory;
+import org.waveprotocol.wave.model.version.HashedVersion;
 import org.waveprotocol.wave.model.version.HashedVersionFactoryImpl;
 import org.waveprotocol.wave.util.escapers.jvm.JavaUrlCodec;
 
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 
 /**
  * Utility class for creating ProtocolHashedVersion instances from bytes.
@@ -39,10 +37,8 @@ public class ProtocolHashedVersionFactory {
   private static final IdURIEncoderDecoder URI_CODEC =
     new IdURIEncoderDecoder(new JavaUrlCodec());
 
-  private static final HashedVersionFactory HASH_FACTORY = new HashedVersionFactoryImpl(URI_CODEC);
-
-  /** The first N bits of a SHA-256 hash are stored in the hash. Must not exceed 256. */
-  private static final int HASH_SIZE_BITS = 160;
+  private static final HashedVersionFactoryImpl HASH_FACTORY =
+      new HashedVersionFactoryImpl(URI_CODEC);
 
   /**
    * Utility class only, disallow construction.
@@ -50,18 +46,6 @@ public class ProtocolHashedVersionFactory {
   private ProtocolHashedVersionFactory() {
   }
 
-  private static ByteString nextHash(ByteString historyHash, ByteString appliedDeltaBytes) {
-    MessageDigest sha256;
-    try {
-      sha256 = MessageDigest.getInstance("SHA-256");
-    } catch (NoSuchAlgorithmException e) {
-      throw new RuntimeException(e);
-    }
-    sha256.update(historyHash.toByteArray());
-    return ByteString.copyFrom(
-        sha256.digest(appliedDeltaBytes.toByteArray()), 0, HASH_SIZE_BITS / 8);
-  }
-
   /**
    * Return the version zero hash for the given wavelet name.
    */
@@ -84,9 +68,12 @@ public class ProtocolHashedVersionFactory {
   public static ProtocolHashedVersion create(ByteString appliedDeltaBytes,
       ProtocolHashedVersion appliedAt, int operationsApplied) {
     // TODO(thorogood): verify appliedAt and operationsApplied against the raw bytes?
+    HashedVersion version = HASH_FACTORY.create(appliedDeltaBytes.asReadOnlyByteBuffer(),
+        HashedVersion.of(appliedAt.getVersion(), appliedAt.getHistoryHash().toByteArray()),
+        operationsApplied);
     return ProtocolHashedVersion.newBuilder()
-        .setVersion(appliedAt.getVersion() + operationsApplied)
-        .setHistoryHash(nextHash(appliedAt.getHistoryHash(), appliedDeltaBytes))
+        .setVersion(version.getVersion())
+        .setHistoryHash(ByteString.copyFrom(version.getHistoryHash()))
         .build();
   }
 
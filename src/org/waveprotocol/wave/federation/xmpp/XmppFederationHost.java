@@ -18,7 +18,9 @@
 package org.waveprotocol.wave.federation.xmpp;
 
 import com.google.common.base.Function;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.MapMaker;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
 import com.google.protobuf.ByteString;
@@ -41,6 +43,8 @@ import org.xmpp.packet.IQ;
 
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.logging.Logger;
 
 /**
@@ -55,18 +59,27 @@ public class XmppFederationHost implements WaveletFederationListener.Factory {
   private final WaveletFederationProvider waveletProvider;
   private final XmppDisco disco;
   private final String jid;
+  private final int updateMaxBytes;
+  private final int updateLingerMs;
+  private final int updateMaxQueued;
 
   private XmppManager manager = null;
 
+  // Sends the updates that lingered in the per domain queues.
+  private final ScheduledExecutorService flushExecutor =
+      Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+          .setNameFormat("XmppFederationHostFlush-%d").setDaemon(true).build());
+
   // A map of update listeners. There is one per remote domain we are sending updates to.
   // The name 'listener' refers to them listening for updates from the waveserver to send to the
-  // network.
-  private final Map<String, WaveletFederationListener> listeners =
-      new MapMaker().softValues().makeComputingMap(
-          new Function<String, WaveletFederationListener>() {
+  // network. The listeners hold the queues of outgoing updates, so they are strongly referenced.
+  private final Map<String, XmppFederationHostForDomain> listeners =
+      new MapMaker().makeComputingMap(
+          new Function<String, XmppFederationHostForDomain>() {
             @Override
-            public WaveletFederationListener apply(String domain) {
-              return new XmppFederationHostForDomain(domain, manager, disco, jid);
+            public XmppFederationHostForDomain apply(String domain) {
+              return new XmppFederationHostForDomain(domain, manager, disco, jid, flushExecutor,
+                  updateMaxBytes, updateLingerMs, updateMaxQueued);
             }
           });
 
@@ -78,13 +91,24 @@ public class XmppFederationHost implements WaveletFederationListener.Factory {
    *        wavelet server.
    * @param disco           used for discovery
    * @param jid             this server's local JID
+   * @param updateMaxBytes  delta bytes above which updates to a wavelet are
+   *                        not coalesced
+   * @param updateLingerMs  how long outgoing updates are queued for
+   * @param updateMaxQueued maximum number of outgoing updates per remote
+   *                        domain that are queued or waiting for a receipt
    */
   @Inject
   public XmppFederationHost(@FederationHostBridge WaveletFederationProvider waveletProvider,
-      XmppDisco disco, @Named(FederationSettings.XMPP_JID) String jid) {
+      XmppDisco disco, @Named(FederationSettings.XMPP_JID) String jid,
+      @Named(FederationSettings.XMPP_UPDATE_MAX_BYTES) int updateMaxBytes,
+      @Named(FederationSettings.XMPP_UPDATE_LINGER_MS) int updateLingerMs,
+      @Named(FederationSettings.XMPP_UPDATE_MAX_QUEUED) int updateMaxQueued) {
     this.waveletProvider = waveletProvider;
     this.disco = disco;
     this.jid = jid;
+    this.updateMaxBytes = updateMaxBytes;
+    this.updateLingerMs = updateLingerMs;
+    this.updateMaxQueued = updateMaxQueued;
   }
 
   /**
@@ -196,7 +220,7 @@ public class XmppFederationHost implements WaveletFederationListener.Factory {
             for (ByteString appliedDelta : appliedDeltaSet) {
               items.addElement("item").addElement("applied-delta",
                   XmppNamespace.NAMESPACE_WAVE_SERVER).addCDATA(
-                  Base64Util.encode(appliedDelta.toByteArray()));
+                  Base64Util.encode(appliedDelta));
             }
 
             // Set the LCV history-hash, if provided.
@@ -444,4 +468,16 @@ public class XmppFederationHost implements WaveletFederationListener.Factory {
     // XmppFederationHostForDomain.
     return listeners.get(domain);
   }
+
+  /**
+   * Returns the number of outgoing updates that are queued or waiting for a
+   * receipt, for each remote domain updates have been sent to.
+   */
+  public Map<String, Integer> getOutboundQueueDepths() {
+    ImmutableMap.Builder<String, Integer> depths = ImmutableMap.builder();
+    for (Map.Entry<String, XmppFederationHostForDomain> entry : listeners.entrySet()) {
+      depths.put(entry.getKey(), entry.getValue().getQueueDepth());
+    }
+    return depths.build();
+  }
 }
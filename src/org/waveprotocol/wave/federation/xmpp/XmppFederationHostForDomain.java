@@ -17,13 +17,12 @@
 
 package org.waveprotocol.wave.federation.xmpp;
 
-import com.google.inject.Inject;
-import com.google.inject.name.Named;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.protobuf.ByteString;
 
 import org.dom4j.Element;
 import org.waveprotocol.wave.federation.FederationErrors;
-import org.waveprotocol.wave.federation.FederationSettings;
 import org.waveprotocol.wave.federation.WaveletFederationListener;
 import org.waveprotocol.wave.federation.FederationErrorProto.FederationError;
 import org.waveprotocol.wave.federation.Proto.ProtocolHashedVersion;
@@ -33,6 +32,9 @@ import org.xmpp.packet.Message;
 import org.xmpp.packet.Packet;
 
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -40,6 +42,14 @@ import java.util.logging.Logger;
  * An instance of this class is created on demand for outgoing
  * messages to another wave Federation Remote. The wave server asks
  * the XmppFederationHost to create these.
+ *
+ * Updates are queued per remote domain. Consecutive updates to the same
+ * wavelet are coalesced into a single wavelet-update, and thus a single XMPP
+ * message, until the deltas in it reach a byte cap. Queued updates are sent
+ * once the first of them has lingered for a while, so that a busy wavelet is
+ * sent as a few large messages rather than one message per delta. The number
+ * of updates that are queued or waiting for a receipt is bounded; updates
+ * beyond the bound are failed right away.
  */
 class XmppFederationHostForDomain implements WaveletFederationListener {
 
@@ -49,18 +59,89 @@ class XmppFederationHostForDomain implements WaveletFederationListener {
   // Timeout for outstanding listener updates sent over XMPP.
   private static final int XMPP_LISTENER_TIMEOUT = 30;
 
+  /**
+   * The coalesced updates to a wavelet, to be sent as one wavelet-update
+   * element.
+   */
+  private static final class PendingUpdate {
+    final WaveletName waveletName;
+    final List<ByteString> deltas = Lists.newArrayList();
+    final List<WaveletUpdateCallback> callbacks = Lists.newArrayList();
+    ProtocolHashedVersion committedVersion;
+    int deltaBytes;
+    int updateCount;
+
+    PendingUpdate(WaveletName waveletName) {
+      this.waveletName = waveletName;
+    }
+
+    void onSuccess() {
+      for (WaveletUpdateCallback callback : callbacks) {
+        callback.onSuccess();
+      }
+    }
+
+    void onFailure(FederationError error) {
+      for (WaveletUpdateCallback callback : callbacks) {
+        callback.onFailure(error);
+      }
+    }
+  }
+
   private final String remoteDomain;
   private final XmppManager manager;
   private final String jid;
   private final XmppDisco disco;
+  private final ScheduledExecutorService flushExecutor;
+  private final int maxMessageBytes;
+  private final long lingerMs;
+  private final int maxQueuedUpdates;
+
+  /** Queued updates, in the order they are to be sent. */
+  private final List<PendingUpdate> queue = Lists.newArrayList();
+
+  /** The queued update that later updates to each wavelet are merged into. */
+  private final Map<WaveletName, PendingUpdate> openUpdates = Maps.newHashMap();
+
+  /** Number of updates queued or waiting for a receipt. */
+  private int queueDepth = 0;
 
-  @Inject
-  public XmppFederationHostForDomain(final String domain, XmppManager manager,
-      XmppDisco disco, @Named(FederationSettings.XMPP_JID) String jid) {
+  /** Whether a flush of the queue is scheduled. */
+  private boolean flushScheduled = false;
+
+  private final Runnable flushTask = new Runnable() {
+    @Override
+    public void run() {
+      flush();
+    }
+  };
+
+  /**
+   * Constructor.
+   *
+   * @param domain           the remote domain to send updates to
+   * @param manager          used to send packets
+   * @param disco            used to discover the remote JID
+   * @param jid              this server's local JID
+   * @param flushExecutor    executor on which lingering updates are sent
+   * @param maxMessageBytes  the delta bytes above which no more deltas are
+   *                         coalesced into an update
+   * @param lingerMs         how long updates are queued for before being sent,
+   *                         0 to send each update as soon as it is queued
+   * @param maxQueuedUpdates maximum number of updates queued or waiting for a
+   *                         receipt
+   */
+  public XmppFederationHostForDomain(String domain, XmppManager manager, XmppDisco disco,
+      String jid, ScheduledExecutorService flushExecutor, int maxMessageBytes, long lingerMs,
+      int maxQueuedUpdates) {
     this.remoteDomain = domain;
     this.manager = manager;
     this.jid = jid;
     this.disco = disco;
+    this.flushExecutor = flushExecutor;
+    this.maxMessageBytes = maxMessageBytes;
+    this.lingerMs = lingerMs;
+    this.maxQueuedUpdates = maxQueuedUpdates;
   }
 
   @Override
@@ -76,9 +157,20 @@ class XmppFederationHostForDomain implements WaveletFederationListener {
   }
 
   /**
-   * Sends a wavelet update message on behalf of the wave server. This
-   * method just triggers a disco lookup (which may be cached) and
-   * sets up a callback to call the real method that does the work.
+   * Returns the number of updates to the remote domain that are queued or
+   * waiting for a receipt.
+   */
+  public synchronized int getQueueDepth() {
+    return queueDepth;
+  }
+
+  /**
+   * Queues a wavelet update message on behalf of the wave server. The update
+   * is merged into the queued update to the same wavelet if there is room for
+   * its deltas, and is sent when the queue is flushed: right away if there is
+   * no linger time or the update is full, otherwise once the linger time has
+   * passed. Sending triggers a disco lookup (which may be cached) and sets up a
+   * callback to call the real method that does the work.
    * This method may contain applied deltas, a commit notice, or both.
    *
    * @param waveletName the wavelet name
@@ -93,10 +185,97 @@ class XmppFederationHostForDomain implements WaveletFederationListener {
           "version notice, for the target wavelet: " + waveletName);
     }
 
+    final boolean accepted;
+    boolean flushNow = false;
+    synchronized (this) {
+      accepted = queueDepth < maxQueuedUpdates;
+      if (accepted) {
+        PendingUpdate update = enqueue(waveletName, deltaList, committedVersion, callback);
+        if (lingerMs <= 0 || update.deltaBytes >= maxMessageBytes) {
+          flushNow = true;
+        } else if (!flushScheduled) {
+          flushScheduled = true;
+          flushExecutor.schedule(flushTask, lingerMs, TimeUnit.MILLISECONDS);
+        }
+      }
+    }
+
+    if (!accepted) {
+      LOG.warning("Outbound queue to " + remoteDomain + " is full, update to " + waveletName
+          + " not sent");
+      if (callback != null) {
+        callback.onFailure(FederationErrors.newFederationError(
+            FederationError.Code.RESOURCE_CONSTRAINT,
+            "Outbound queue to " + remoteDomain + " is full"));
+      }
+    } else if (flushNow) {
+      flush();
+    }
+  }
+
+  /**
+   * Adds an update to the queue, merging it into the open update to the same
+   * wavelet unless its deltas would take that update over the byte cap.
+   *
+   * @return the queued update the given update was merged into
+   */
+  private PendingUpdate enqueue(WaveletName waveletName, List<ByteString> deltaList,
+      ProtocolHashedVersion committedVersion, WaveletUpdateCallback callback) {
+    int deltaBytes = 0;
+    if (deltaList != null) {
+      for (ByteString delta : deltaList) {
+        deltaBytes += delta.size();
+      }
+    }
+
+    PendingUpdate update = openUpdates.get(waveletName);
+    if (update == null || (deltaBytes > 0 && !update.deltas.isEmpty()
+        && update.deltaBytes + deltaBytes > maxMessageBytes)) {
+      update = new PendingUpdate(waveletName);
+      queue.add(update);
+      openUpdates.put(waveletName, update);
+    }
+    if (deltaList != null) {
+      update.deltas.addAll(deltaList);
+      update.deltaBytes += deltaBytes;
+    }
+    if (committedVersion != null && (update.committedVersion == null
+        || committedVersion.getVersion() > update.committedVersion.getVersion())) {
+      update.committedVersion = committedVersion;
+    }
+    if (callback != null) {
+      update.callbacks.add(callback);
+    }
+    update.updateCount++;
+    queueDepth++;
+    return update;
+  }
+
+  /**
+   * Sends all the queued updates.
+   */
+  void flush() {
+    final List<PendingUpdate> updates;
+    synchronized (this) {
+      flushScheduled = false;
+      if (queue.isEmpty()) {
+        return;
+      }
+      updates = Lists.newArrayList(queue);
+      queue.clear();
+      openUpdates.clear();
+    }
+    if (LOG.isLoggable(Level.FINE)) {
+      LOG.fine("Sending " + updates.size() + " wavelet updates to " + remoteDomain
+          + ", queue depth " + getQueueDepth());
+    }
+
     disco.discoverRemoteJid(remoteDomain, new SuccessFailCallback<String, String>() {
       @Override
       public void onSuccess(String remoteJid) {
-        internalWaveletUpdate(waveletName, deltaList, committedVersion, callback, remoteJid);
+        for (PendingUpdate update : updates) {
+          internalWaveletUpdate(update, remoteJid);
+        }
       }
 
       @Override
@@ -104,25 +283,31 @@ class XmppFederationHostForDomain implements WaveletFederationListener {
         if (LOG.isLoggable(Level.FINE)) {
           LOG.fine("Disco failed for remote domain " + remoteDomain + ", update not sent");
         }
-        callback.onFailure(FederationErrors.newFederationError(
-            FederationError.Code.RESOURCE_CONSTRAINT, errorMessage));
+        FederationError error = FederationErrors.newFederationError(
+            FederationError.Code.RESOURCE_CONSTRAINT, errorMessage);
+        for (PendingUpdate update : updates) {
+          complete(update);
+          update.onFailure(error);
+        }
       }
     });
   }
 
+  /**
+   * Removes a sent or failed update from the queue depth.
+   */
+  private synchronized void complete(PendingUpdate update) {
+    queueDepth -= update.updateCount;
+  }
+
   /**
    * Sends a wavelet update message on behalf of the wave server once disco is
    * complete. This method may contain applied deltas, a commit notice, or both.
    *
-   * @param waveletName      the wavelet name
-   * @param deltaList        the deltas to include in the message, or null
-   * @param committedVersion last committed version to include, or null
-   * @param callback         callback to invoke on delivery success/failure
-   * @param remoteJid        the remote JID to send the update to
+   * @param update    the coalesced update to send
+   * @param remoteJid the remote JID to send the update to
    */
-  private void internalWaveletUpdate(final WaveletName waveletName,
-      final List<ByteString> deltaList, final ProtocolHashedVersion committedVersion,
-      final WaveletUpdateCallback callback, String remoteJid) {
+  private void internalWaveletUpdate(final PendingUpdate update, String remoteJid) {
     Message message = new Message();
     message.setType(Message.Type.normal);
     message.setFrom(jid);
@@ -132,41 +317,38 @@ class XmppFederationHostForDomain implements WaveletFederationListener {
 
     final String encodedWaveletName;
     try {
-      encodedWaveletName = XmppUtil.waveletNameCodec.waveletNameToURI(waveletName);
+      encodedWaveletName = XmppUtil.waveletNameCodec.waveletNameToURI(update.waveletName);
     } catch (EncodingException e) {
-      callback.onFailure(FederationErrors.badRequest("Bad wavelet name " + waveletName));
+      complete(update);
+      update.onFailure(FederationErrors.badRequest("Bad wavelet name " + update.waveletName));
       return;
     }
 
-    Element itemElement = message.addChildElement("event", XmppNamespace.NAMESPACE_PUBSUB_EVENT)
-        .addElement("items").addElement("item");
-    if (deltaList != null) {
-      for (ByteString delta : deltaList) {
-        Element waveletUpdate =
-            itemElement.addElement("wavelet-update", XmppNamespace.NAMESPACE_WAVE_SERVER)
-                .addAttribute("wavelet-name", encodedWaveletName);
-        waveletUpdate.addElement("applied-delta").addCDATA(Base64Util.encode(delta.toByteArray()));
-      }
+    Element waveletUpdate = message.addChildElement("event", XmppNamespace.NAMESPACE_PUBSUB_EVENT)
+        .addElement("items").addElement("item")
+        .addElement("wavelet-update", XmppNamespace.NAMESPACE_WAVE_SERVER)
+        .addAttribute("wavelet-name", encodedWaveletName);
+    for (ByteString delta : update.deltas) {
+      waveletUpdate.addElement("applied-delta").addCDATA(Base64Util.encode(delta.toByteArray()));
     }
-    if (committedVersion != null) {
-      Element waveletUpdate =
-          itemElement.addElement("wavelet-update", XmppNamespace.NAMESPACE_WAVE_SERVER)
-              .addAttribute("wavelet-name", encodedWaveletName);
+    if (update.committedVersion != null) {
       waveletUpdate.addElement("commit-notice").addAttribute("version",
-          Long.toString(committedVersion.getVersion())).addAttribute("history-hash",
-          Base64Util.encode(committedVersion.getHistoryHash()));
+          Long.toString(update.committedVersion.getVersion())).addAttribute("history-hash",
+          Base64Util.encode(update.committedVersion.getHistoryHash()));
     }
 
     // Send the generated message through to the foreign XMPP server.
     manager.send(message, new PacketCallback() {
       @Override
       public void error(FederationError error) {
-        callback.onFailure(error);
+        complete(update);
+        update.onFailure(error);
       }
 
       @Override
       public void run(Packet packet) {
-        callback.onSuccess();
+        complete(update);
+        update.onSuccess();
       }
     }, XMPP_LISTENER_TIMEOUT);
   }
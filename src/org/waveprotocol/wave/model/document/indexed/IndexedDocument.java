@@ -19,9 +19,11 @@ package org.waveprotocol.wave.model.document.indexed;
 import org.waveprotocol.wave.model.document.ReadableDocument;
 import org.waveprotocol.wave.model.document.ReadableWDocument;
 import org.waveprotocol.wave.model.document.operation.DocInitialization;
+import org.waveprotocol.wave.model.document.operation.DocOp;
 import org.waveprotocol.wave.model.document.operation.SuperSink;
 import org.waveprotocol.wave.model.document.operation.automaton.DocumentSchema;
 import org.waveprotocol.wave.model.document.raw.TextNodeOrganiser;
+import org.waveprotocol.wave.model.operation.OperationException;
 
 /**
  * A DOM-style document with indexed nodes.
@@ -54,4 +56,15 @@ public interface IndexedDocument<N, E extends N, T extends N> extends
   }
 
   DocumentSchema getSchema();
+
+  /**
+   * Applies an operation to this document, optionally without validating it
+   * against the document and its schema first. Operations that are not
+   * validated must already be known to be valid for this document, otherwise
+   * the document may be left in an inconsistent state.
+   *
+   * @param op the operation to apply
+   * @param validate whether to validate the operation before applying it
+   */
+  void consume(DocOp op, boolean validate) throws OperationException;
 }
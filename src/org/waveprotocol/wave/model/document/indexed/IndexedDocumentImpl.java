@@ -351,6 +351,7 @@ public class IndexedDocumentImpl<N, E extends N, T extends N, V>
     consume(op, performValidation);
   }
 
+  @Override
   public void consume(DocOp op, boolean validate) throws OperationException {
     checkConsistent();
 
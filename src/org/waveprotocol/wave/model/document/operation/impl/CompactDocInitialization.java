@@ -0,0 +1,306 @@
+/**
+ * Copyright 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.waveprotocol.wave.model.document.operation.impl;
+
+import org.waveprotocol.wave.model.document.operation.AnnotationBoundaryMap;
+import org.waveprotocol.wave.model.document.operation.Attributes;
+import org.waveprotocol.wave.model.document.operation.DocInitialization;
+import org.waveprotocol.wave.model.document.operation.DocInitializationComponentType;
+import org.waveprotocol.wave.model.document.operation.DocInitializationCursor;
+import org.waveprotocol.wave.model.document.operation.DocOpComponentType;
+import org.waveprotocol.wave.model.util.CollectionUtils;
+import org.waveprotocol.wave.model.util.Preconditions;
+import org.waveprotocol.wave.model.util.StringMap;
+
+/**
+ * An immutable {@link DocInitialization} encoded for a small memory footprint,
+ * for documents that are held for a long time but mostly only read.
+ *
+ * Instead of an object per component, the text of all characters components
+ * is kept in one string, and the other components in two arrays: one of
+ * component types, and one of element tags and annotation boundaries. Element
+ * tags are shared within the document. The offset of each component's
+ * characters is only needed for random access to a component, so that index
+ * is built the first time it is needed; applying the whole initialization to a
+ * cursor does not need it.
+ *
+ * The components are taken as they are, so the initialization given to
+ * {@link #of(DocInitialization)} should be normalized, as the ones documents
+ * return from asOperation() are.
+ */
+public final class CompactDocInitialization extends AbstractBufferedDocInitialization {
+
+  private static final byte CHARACTERS = 0;
+  private static final byte ELEMENT_START = 1;
+  private static final byte ELEMENT_END = 2;
+  private static final byte ANNOTATION_BOUNDARY = 3;
+
+  private static final DocInitializationComponentType[] COMPONENT_TYPES = {
+      DocOpComponentType.CHARACTERS,
+      DocOpComponentType.ELEMENT_START,
+      DocOpComponentType.ELEMENT_END,
+      DocOpComponentType.ANNOTATION_BOUNDARY};
+
+  /**
+   * Collects the components of an initialization.
+   */
+  private static final class Builder implements DocInitializationCursor {
+    private final StringMap<String> tags = CollectionUtils.createStringMap();
+    private final StringBuilder text = new StringBuilder();
+    private byte[] types;
+    private Object[] values;
+    private Attributes[] attributes;
+    private int[] characterEnds = new int[8];
+    private int size;
+    private int characterCount;
+
+    Builder(int capacity) {
+      types = new byte[capacity];
+      values = new Object[capacity];
+    }
+
+    private void add(byte type, Object value) {
+      if (size == types.length) {
+        int capacity = Math.max(8, size * 2);
+        types = copyOf(types, capacity);
+        values = copyOf(values, capacity);
+      }
+      types[size] = type;
+      values[size] = value;
+      size++;
+    }
+
+    @Override
+    public void characters(String chars) {
+      add(CHARACTERS, null);
+      text.append(chars);
+      if (characterCount == characterEnds.length) {
+        characterEnds = copyOf(characterEnds, characterCount * 2);
+      }
+      characterEnds[characterCount++] = text.length();
+    }
+
+    @Override
+    public void elementStart(String type, Attributes attrs) {
+      String tag = tags.get(type);
+      if (tag == null) {
+        tags.put(type, type);
+        tag = type;
+      }
+      add(ELEMENT_START, tag);
+      if (!attrs.isEmpty()) {
+        if (attributes == null) {
+          attributes = new Attributes[types.length];
+        } else if (attributes.length < types.length) {
+          attributes = copyOf(attributes, types.length);
+        }
+        attributes[size - 1] = attrs;
+      }
+    }
+
+    @Override
+    public void elementEnd() {
+      add(ELEMENT_END, null);
+    }
+
+    @Override
+    public void annotationBoundary(AnnotationBoundaryMap map) {
+      add(ANNOTATION_BOUNDARY, map);
+    }
+
+    CompactDocInitialization build() {
+      return new CompactDocInitialization(copyOf(types, size), copyOf(values, size),
+          attributes == null ? null : copyOf(attributes, size), text.toString(),
+          copyOf(characterEnds, characterCount));
+    }
+  }
+
+  private final byte[] types;
+
+  /** Element tags and annotation boundaries, by component. */
+  private final Object[] values;
+
+  /** Non-empty element attributes by component, or null if there are none. */
+  private final Attributes[] attributes;
+
+  /** The text of all characters components. */
+  private final String text;
+
+  /** The end offset in {@link #text} of each characters component, in order. */
+  private final int[] characterEnds;
+
+  /**
+   * The start offset in {@link #text} of each component's characters, built
+   * when first needed.
+   */
+  private volatile int[] textOffsets;
+
+  private CompactDocInitialization(byte[] types, Object[] values, Attributes[] attributes,
+      String text, int[] characterEnds) {
+    this.types = types;
+    this.values = values;
+    this.attributes = attributes;
+    this.text = text;
+    this.characterEnds = characterEnds;
+  }
+
+  /**
+   * Returns a compact copy of an initialization, or the initialization itself
+   * if it is compact already.
+   */
+  public static CompactDocInitialization of(DocInitialization initialization) {
+    if (initialization instanceof CompactDocInitialization) {
+      return (CompactDocInitialization) initialization;
+    }
+    Builder builder = new Builder(initialization.size());
+    initialization.apply(builder);
+    return builder.build();
+  }
+
+  @Override
+  public int size() {
+    return types.length;
+  }
+
+  @Override
+  public DocInitializationComponentType getType(int i) {
+    return COMPONENT_TYPES[types[i]];
+  }
+
+  @Override
+  public void apply(DocInitializationCursor c) {
+    int textOffset = 0;
+    int characters = 0;
+    for (int i = 0; i < types.length; i++) {
+      if (types[i] == CHARACTERS) {
+        int end = characterEnds[characters++];
+        c.characters(text.substring(textOffset, end));
+        textOffset = end;
+      } else {
+        applyNonCharacters(i, c);
+      }
+    }
+  }
+
+  @Override
+  public void applyComponent(int i, DocInitializationCursor c) {
+    if (types[i] == CHARACTERS) {
+      c.characters(getCharactersString(i));
+    } else {
+      applyNonCharacters(i, c);
+    }
+  }
+
+  private void applyNonCharacters(int i, DocInitializationCursor c) {
+    switch (types[i]) {
+      case ELEMENT_START:
+        c.elementStart((String) values[i], getAttributes(i));
+        break;
+      case ELEMENT_END:
+        c.elementEnd();
+        break;
+      case ANNOTATION_BOUNDARY:
+        c.annotationBoundary((AnnotationBoundaryMap) values[i]);
+        break;
+      default:
+        throw new AssertionError("Unknown component type " + types[i]);
+    }
+  }
+
+  private Attributes getAttributes(int i) {
+    Attributes attrs = attributes == null ? null : attributes[i];
+    return attrs == null ? Attributes.EMPTY_MAP : attrs;
+  }
+
+  @Override
+  public String getCharactersString(int i) {
+    check(i, CHARACTERS);
+    int[] offsets = getTextOffsets();
+    return text.substring(offsets[i], offsets[i + 1]);
+  }
+
+  @Override
+  public String getElementStartTag(int i) {
+    check(i, ELEMENT_START);
+    return (String) values[i];
+  }
+
+  @Override
+  public Attributes getElementStartAttributes(int i) {
+    check(i, ELEMENT_START);
+    return getAttributes(i);
+  }
+
+  @Override
+  public AnnotationBoundaryMap getAnnotationBoundary(int i) {
+    check(i, ANNOTATION_BOUNDARY);
+    return (AnnotationBoundaryMap) values[i];
+  }
+
+  /**
+   * Returns the start offset in the text of each component, followed by the
+   * length of the text.
+   */
+  private int[] getTextOffsets() {
+    if (textOffsets == null) {
+      int[] offsets = new int[types.length + 1];
+      int textOffset = 0;
+      int characters = 0;
+      for (int i = 0; i < types.length; i++) {
+        offsets[i] = textOffset;
+        if (types[i] == CHARACTERS) {
+          textOffset = characterEnds[characters++];
+        }
+      }
+      offsets[types.length] = textOffset;
+      textOffsets = offsets;
+    }
+    return textOffsets;
+  }
+
+  private void check(int i, byte expectedType) {
+    if (types[i] != expectedType) {
+      Preconditions.illegalArgument("Component " + i + " is not of type ' "
+          + COMPONENT_TYPES[expectedType] + "', it is '" + COMPONENT_TYPES[types[i]] + "'");
+    }
+  }
+
+  private static byte[] copyOf(byte[] array, int length) {
+    byte[] copy = new byte[length];
+    System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+    return copy;
+  }
+
+  private static int[] copyOf(int[] array, int length) {
+    int[] copy = new int[length];
+    System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+    return copy;
+  }
+
+  private static Object[] copyOf(Object[] array, int length) {
+    Object[] copy = new Object[length];
+    System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+    return copy;
+  }
+
+  private static Attributes[] copyOf(Attributes[] array, int length) {
+    Attributes[] copy = new Attributes[length];
+    System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+    return copy;
+  }
+}
@@ -39,6 +39,12 @@ public final class WaveId implements Comparable<WaveId>, Serializable {
   private final String domain;
   private final String id;
 
+  /**
+   * The hash code, computed on first use as ids are hashed far more often than
+   * built. It is transient, so deserialized ids compute it again.
+   */
+  private transient int hash;
+
   private transient String cachedSerialisation = null;
 
   /**
@@ -160,11 +166,12 @@ public final class WaveId implements Comparable<WaveId>, Serializable {
 
   @Override
   public int hashCode() {
-    final int prime = 31;
-    int result = 1;
-    result = prime * result + domain.hashCode();
-    result = prime * result + id.hashCode();
-    return result;
+    int h = hash;
+    if (h == 0) {
+      h = 31 * (31 + domain.hashCode()) + id.hashCode();
+      hash = h;
+    }
+    return h;
   }
 
   @Override
@@ -174,7 +181,7 @@ public final class WaveId implements Comparable<WaveId>, Serializable {
     WaveId other = (WaveId) obj;
     // Equals method even though domains are interned since deserialized
     // instances might not be.
-    return domain.equals(other.domain) && id.equals(other.id);
+    return hashCode() == other.hashCode() && domain.equals(other.domain) && id.equals(other.id);
   }
 
   @Override
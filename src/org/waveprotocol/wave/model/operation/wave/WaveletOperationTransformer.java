@@ -0,0 +1,198 @@
+/**
+ * Copyright 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.waveprotocol.wave.model.operation.wave;
+
+import org.waveprotocol.wave.model.document.operation.DocOp;
+import org.waveprotocol.wave.model.document.operation.algorithm.Transformer;
+import org.waveprotocol.wave.model.operation.OperationPair;
+import org.waveprotocol.wave.model.operation.RemovedAuthorException;
+import org.waveprotocol.wave.model.operation.TransformException;
+import org.waveprotocol.wave.model.util.Preconditions;
+import org.waveprotocol.wave.model.wave.ParticipantId;
+
+/**
+ * Transforms pairs of wavelet operations as in the Jupiter system, like
+ * {@link Transform}, by double dispatch on the types of the server and the
+ * client operations.
+ *
+ * A transformer holds the result of its last transformation rather than
+ * returning a new {@link OperationPair}, so that one transformer can be reused
+ * for all the operation pairs of a delta. Operations which transform
+ * trivially, such as no-ops or operations on different documents, are
+ * returned as they are. Transformers are not thread safe.
+ */
+public final class WaveletOperationTransformer {
+
+  /** The client operation, then the transformed client operation. */
+  private WaveletOperation clientOp;
+
+  /** The server operation, then the transformed server operation. */
+  private WaveletOperation serverOp;
+
+  /** The failure of the current transformation, which visitors can't throw. */
+  private TransformException failure;
+
+  /** Dispatches on the type of the server operation. */
+  private final WaveletOperationVisitor serverDispatch = new WaveletOperationVisitorImpl() {
+    @Override
+    public void visitAddParticipant(AddParticipant op) {
+      clientOp.acceptVisitor(againstAddParticipant);
+    }
+
+    @Override
+    public void visitRemoveParticipant(RemoveParticipant op) {
+      ParticipantId participantId = op.getParticipantId();
+      if (participantId.equals(clientOp.getContext().getCreator())) {
+        failure = new RemovedAuthorException(participantId.getAddress());
+        return;
+      }
+      clientOp.acceptVisitor(againstRemoveParticipant);
+    }
+
+    @Override
+    public void visitWaveletBlipOperation(WaveletBlipOperation op) {
+      clientOp.acceptVisitor(againstBlipOperation);
+    }
+  };
+
+  /** Dispatches on the type of a client operation concurrent with an addition. */
+  private final WaveletOperationVisitor againstAddParticipant = new WaveletOperationVisitorImpl() {
+    @Override
+    public void visitAddParticipant(AddParticipant op) {
+      AddParticipant serverAddOp = (AddParticipant) serverOp;
+      if (op.getParticipantId().equals(serverAddOp.getParticipantId())) {
+        clientOp = new NoOp(op.getContext());
+        serverOp = new NoOp(serverAddOp.getContext());
+      }
+    }
+
+    @Override
+    public void visitRemoveParticipant(RemoveParticipant op) {
+      checkParticipantRemovalAndAddition(op, (AddParticipant) serverOp);
+    }
+  };
+
+  /** Dispatches on the type of a client operation concurrent with a removal. */
+  private final WaveletOperationVisitor againstRemoveParticipant =
+      new WaveletOperationVisitorImpl() {
+        @Override
+        public void visitAddParticipant(AddParticipant op) {
+          checkParticipantRemovalAndAddition((RemoveParticipant) serverOp, op);
+        }
+
+        @Override
+        public void visitRemoveParticipant(RemoveParticipant op) {
+          RemoveParticipant serverRemoveOp = (RemoveParticipant) serverOp;
+          if (op.getParticipantId().equals(serverRemoveOp.getParticipantId())) {
+            clientOp = new NoOp(op.getContext());
+            serverOp = new NoOp(serverRemoveOp.getContext());
+          }
+        }
+      };
+
+  /** Dispatches on the type of a client operation concurrent with a blip operation. */
+  private final WaveletOperationVisitor againstBlipOperation = new WaveletOperationVisitorImpl() {
+    @Override
+    public void visitWaveletBlipOperation(WaveletBlipOperation op) {
+      WaveletBlipOperation serverBlipOp = (WaveletBlipOperation) serverOp;
+      if (op.getBlipId().equals(serverBlipOp.getBlipId())) {
+        transformBlipOperations(op, serverBlipOp);
+      }
+    }
+  };
+
+  /**
+   * Transforms a pair of operations. The transformed operations are then
+   * returned by {@link #getClientOp()} and {@link #getServerOp()}.
+   *
+   * @param clientOp The client's operation.
+   * @param serverOp The server's operation.
+   * @throws TransformException if a problem was encountered during the
+   *         transformation.
+   */
+  public void transform(WaveletOperation clientOp, WaveletOperation serverOp)
+      throws TransformException {
+    Preconditions.checkNotNull(clientOp, "Null client operation");
+    Preconditions.checkNotNull(serverOp, "Null server operation");
+    this.clientOp = clientOp;
+    this.serverOp = serverOp;
+    serverOp.acceptVisitor(serverDispatch);
+    if (failure != null) {
+      TransformException e = failure;
+      failure = null;
+      this.clientOp = null;
+      this.serverOp = null;
+      throw e;
+    }
+  }
+
+  /**
+   * @return The transformed client operation.
+   */
+  public WaveletOperation getClientOp() {
+    return clientOp;
+  }
+
+  /**
+   * @return The transformed server operation.
+   */
+  public WaveletOperation getServerOp() {
+    return serverOp;
+  }
+
+  /**
+   * Transforms operations on the same blip. Only content operations transform
+   * non-trivially.
+   */
+  private void transformBlipOperations(WaveletBlipOperation clientBlipOp,
+      WaveletBlipOperation serverBlipOp) {
+    BlipOperation clientOp = clientBlipOp.getBlipOp();
+    BlipOperation serverOp = serverBlipOp.getBlipOp();
+    if (!(clientOp instanceof BlipContentOperation)
+        || !(serverOp instanceof BlipContentOperation)) {
+      return;
+    }
+    OperationPair<? extends DocOp> transformedDocOps;
+    try {
+      transformedDocOps = Transformer.transform(
+          ((BlipContentOperation) clientOp).getContentOp(),
+          ((BlipContentOperation) serverOp).getContentOp());
+    } catch (TransformException e) {
+      failure = e;
+      return;
+    }
+    this.clientOp = new WaveletBlipOperation(clientBlipOp.getBlipId(),
+        new BlipContentOperation(clientOp.getContext(), transformedDocOps.clientOp()));
+    this.serverOp = new WaveletBlipOperation(serverBlipOp.getBlipId(),
+        new BlipContentOperation(serverOp.getContext(), transformedDocOps.serverOp()));
+  }
+
+  /**
+   * Records a failure if a participant is being removed by one operation and
+   * added by another concurrent operation. In such a situation, at least one
+   * of the operations is invalid.
+   */
+  private void checkParticipantRemovalAndAddition(RemoveParticipant removeParticipant,
+      AddParticipant addParticipant) {
+    ParticipantId participantId = removeParticipant.getParticipantId();
+    if (participantId.equals(addParticipant.getParticipantId())) {
+      failure = new TransformException("Transform error involving participant: "
+          + participantId.getAddress());
+    }
+  }
+}
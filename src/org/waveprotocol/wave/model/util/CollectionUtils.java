@@ -134,8 +134,16 @@ public class CollectionUtils {
 
     @Override
     public void putAll(ReadableStringMap<V> pairsToAdd) {
-      // TODO(ohler): check instanceof here and implement a fallback.
-      backend.putAll(((StringMapAdapter<V>) pairsToAdd).backend);
+      if (pairsToAdd instanceof StringMapAdapter) {
+        backend.putAll(((StringMapAdapter<V>) pairsToAdd).backend);
+      } else {
+        pairsToAdd.each(new ProcV<V>() {
+          @Override
+          public void apply(String key, V value) {
+            backend.put(key, value);
+          }
+        });
+      }
     }
 
     @Override
@@ -362,8 +370,16 @@ public class CollectionUtils {
 
     @Override
     public void putAll(ReadableIntMap<V> pairsToAdd) {
-      // TODO(ohler): check instanceof here and implement a fallback.
-      backend.putAll(((IntMapAdapter<V>) pairsToAdd).backend);
+      if (pairsToAdd instanceof IntMapAdapter) {
+        backend.putAll(((IntMapAdapter<V>) pairsToAdd).backend);
+      } else {
+        pairsToAdd.each(new ReadableIntMap.ProcV<V>() {
+          @Override
+          public void apply(int key, V value) {
+            backend.put(key, value);
+          }
+        });
+      }
     }
 
     @Override
@@ -515,12 +531,30 @@ public class CollectionUtils {
 
     @Override
     public void addAll(ReadableStringSet set) {
-      backend.addAll(((StringSetAdapter) set).backend);
+      if (set instanceof StringSetAdapter) {
+        backend.addAll(((StringSetAdapter) set).backend);
+      } else {
+        set.each(new Proc() {
+          @Override
+          public void apply(String element) {
+            backend.add(element);
+          }
+        });
+      }
     }
 
     @Override
     public void removeAll(ReadableStringSet set) {
-      backend.removeAll(((StringSetAdapter) set).backend);
+      if (set instanceof StringSetAdapter) {
+        backend.removeAll(((StringSetAdapter) set).backend);
+      } else {
+        set.each(new Proc() {
+          @Override
+          public void apply(String element) {
+            backend.remove(element);
+          }
+        });
+      }
     }
 
     @Override
@@ -786,10 +820,35 @@ public class CollectionUtils {
     }
   }
 
+  /**
+   * A CollectionFactory that creates open addressing hash tables for the
+   * string and int keyed collections, which neither box keys nor allocate an
+   * entry per mapping, and java.util based collections for the rest.
+   */
+  private static final class OpenAddressingCollectionFactory extends HashCollectionFactory {
+    @Override
+    public <V> StringMap<V> createStringMap() {
+      return new OpenStringMap<V>();
+    }
+
+    @Override
+    public <V> IntMap<V> createIntMap() {
+      return new OpenIntMap<V>();
+    }
+
+    @Override
+    public StringSet createStringSet() {
+      return new OpenStringSet();
+    }
+  }
+
   private static final HashCollectionFactory HASH_COLLECTION_FACTORY =
       new HashCollectionFactory();
 
-  private static CollectionFactory defaultCollectionFactory = HASH_COLLECTION_FACTORY;
+  private static final OpenAddressingCollectionFactory OPEN_ADDRESSING_COLLECTION_FACTORY =
+      new OpenAddressingCollectionFactory();
+
+  private static CollectionFactory defaultCollectionFactory = OPEN_ADDRESSING_COLLECTION_FACTORY;
 
   /**
    * Implements a persistently empty string map that throws exceptions on
@@ -1077,6 +1136,15 @@ public class CollectionUtils {
     return HASH_COLLECTION_FACTORY;
   }
 
+  /**
+   * Returns a CollectionFactory that creates open addressing hash tables for
+   * StringMap, IntMap and StringSet. This is the default outside the GWT
+   * client.
+   */
+  public static CollectionFactory getOpenAddressingCollectionFactory() {
+    return OPEN_ADDRESSING_COLLECTION_FACTORY;
+  }
+
   /**
    * Returns the default CollectionFactory.
    */
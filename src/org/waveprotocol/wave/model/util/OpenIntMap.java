@@ -0,0 +1,258 @@
+/**
+ * Copyright 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.waveprotocol.wave.model.util;
+
+import java.util.Map;
+
+/**
+ * An {@link IntMap} backed by an open addressing hash table with linear
+ * probing, for use on the JVM. See {@link OpenStringMap}; this one also
+ * avoids boxing the keys.
+ *
+ * @param <V> type of values in the map
+ */
+final class OpenIntMap<V> implements IntMap<V> {
+  private static final int MIN_CAPACITY = 8;
+
+  /** Keys by slot. Length is a power of two. */
+  private int[] keys = new int[MIN_CAPACITY];
+
+  /** Values by slot. */
+  private Object[] values = new Object[MIN_CAPACITY];
+
+  /** Which slots are in use. */
+  private boolean[] used = new boolean[MIN_CAPACITY];
+
+  private int size;
+
+  /**
+   * Finds the slot of a key.
+   *
+   * @return the slot holding the key, or the complement of the free slot where
+   *         it would go.
+   */
+  private int slotOf(int key) {
+    int mask = keys.length - 1;
+    int slot = OpenStringMap.spread(key) & mask;
+    while (used[slot]) {
+      if (keys[slot] == key) {
+        return slot;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return ~slot;
+  }
+
+  @Override
+  public void put(int key, V value) {
+    int slot = slotOf(key);
+    if (slot >= 0) {
+      values[slot] = value;
+      return;
+    }
+    if ((size + 1) * 4 > keys.length * 3) {
+      resize(keys.length * 2);
+      slot = slotOf(key);
+    }
+    slot = ~slot;
+    keys[slot] = key;
+    values[slot] = value;
+    used[slot] = true;
+    size++;
+  }
+
+  private void resize(int capacity) {
+    int[] oldKeys = keys;
+    Object[] oldValues = values;
+    boolean[] oldUsed = used;
+    keys = new int[capacity];
+    values = new Object[capacity];
+    used = new boolean[capacity];
+    int mask = capacity - 1;
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldUsed[i]) {
+        int slot = OpenStringMap.spread(oldKeys[i]) & mask;
+        while (used[slot]) {
+          slot = (slot + 1) & mask;
+        }
+        keys[slot] = oldKeys[i];
+        values[slot] = oldValues[i];
+        used[slot] = true;
+      }
+    }
+  }
+
+  @Override
+  public void remove(int key) {
+    int slot = slotOf(key);
+    if (slot >= 0) {
+      removeSlot(slot);
+    }
+  }
+
+  /**
+   * Empties a slot, moving later entries of its probe run back so that every
+   * entry stays reachable from its home slot.
+   */
+  private void removeSlot(int free) {
+    int mask = keys.length - 1;
+    int slot = free;
+    while (true) {
+      slot = (slot + 1) & mask;
+      if (!used[slot]) {
+        break;
+      }
+      int home = OpenStringMap.spread(keys[slot]) & mask;
+      // Move the entry back unless its home lies cyclically in (free, slot].
+      if (free <= slot ? (home <= free || home > slot) : (home <= free && home > slot)) {
+        keys[free] = keys[slot];
+        values[free] = values[slot];
+        free = slot;
+      }
+    }
+    used[free] = false;
+    values[free] = null;
+    size--;
+  }
+
+  @Override
+  public boolean containsKey(int key) {
+    return slotOf(key) >= 0;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public V getExisting(int key) {
+    int slot = slotOf(key);
+    assert slot >= 0;
+    return slot >= 0 ? (V) values[slot] : null;
+  }
+
+  @Override
+  public V get(int key) {
+    return get(key, null);
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public V get(int key, V defaultValue) {
+    int slot = slotOf(key);
+    return slot >= 0 ? (V) values[slot] : defaultValue;
+  }
+
+  @Override
+  public void putAll(ReadableIntMap<V> pairsToAdd) {
+    if (pairsToAdd instanceof OpenIntMap) {
+      OpenIntMap<V> other = (OpenIntMap<V>) pairsToAdd;
+      for (int i = 0; i < other.keys.length; i++) {
+        if (other.used[i]) {
+          @SuppressWarnings("unchecked")
+          V value = (V) other.values[i];
+          put(other.keys[i], value);
+        }
+      }
+    } else {
+      pairsToAdd.each(new ProcV<V>() {
+        @Override
+        public void apply(int key, V value) {
+          put(key, value);
+        }
+      });
+    }
+  }
+
+  @Override
+  public void putAll(Map<Integer, V> sourceMap) {
+    for (Map.Entry<Integer, V> entry : sourceMap.entrySet()) {
+      put(entry.getKey(), entry.getValue());
+    }
+  }
+
+  @Override
+  public void clear() {
+    if (keys.length > MIN_CAPACITY) {
+      keys = new int[MIN_CAPACITY];
+      values = new Object[MIN_CAPACITY];
+      used = new boolean[MIN_CAPACITY];
+    } else {
+      for (int i = 0; i < keys.length; i++) {
+        values[i] = null;
+        used[i] = false;
+      }
+    }
+    size = 0;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  @Override
+  public int countEntries() {
+    return size;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public void each(ProcV<V> callback) {
+    for (int i = 0; i < keys.length; i++) {
+      if (used[i]) {
+        callback.apply(keys[i], (V) values[i]);
+      }
+    }
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public void filter(EntryFilter<V> filter) {
+    // Start at a free slot, so that entries moved back by a removal are
+    // always ones that have not been visited yet.
+    int mask = keys.length - 1;
+    int slot = 0;
+    while (used[slot]) {
+      slot++;
+    }
+    for (int visited = 0; visited < keys.length;) {
+      if (used[slot] && !filter.apply(keys[slot], (V) values[slot])) {
+        removeSlot(slot);
+        // Look at whatever moved into this slot.
+      } else {
+        slot = (slot + 1) & mask;
+        visited++;
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder b = new StringBuilder("{");
+    for (int i = 0; i < keys.length; i++) {
+      if (used[i]) {
+        if (b.length() > 1) {
+          b.append(", ");
+        }
+        b.append(keys[i]).append('=').append(values[i]);
+      }
+    }
+    return b.append("}").toString();
+  }
+
+  // NOTE: equals() and hashCode() are deliberately not implemented, as they
+  // are unsupported in the javascript collections.
+}
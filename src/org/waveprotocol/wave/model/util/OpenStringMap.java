@@ -0,0 +1,356 @@
+/**
+ * Copyright 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.waveprotocol.wave.model.util;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A {@link StringMap} backed by an open addressing hash table with linear
+ * probing, for use on the JVM.
+ *
+ * Keys and values live in two parallel arrays, so unlike a map adapted from
+ * {@link java.util.HashMap} there is no entry object per mapping. Removal
+ * shifts the rest of the probe run back instead of leaving tombstones, so
+ * lookups never slow down as the map churns, and updates only allocate when
+ * the table grows.
+ *
+ * As with the JavaScript implementations, the map must not be modified from
+ * within {@link #each} (but may be from within {@link #filter} by returning
+ * false).
+ *
+ * @param <V> type of values in the map
+ */
+final class OpenStringMap<V> implements StringMap<V> {
+  private static final int MIN_CAPACITY = 8;
+
+  /** Keys by slot, null for a free slot. Length is a power of two. */
+  private String[] keys = new String[MIN_CAPACITY];
+
+  /** Values by slot. */
+  private Object[] values = new Object[MIN_CAPACITY];
+
+  private int size;
+
+  /**
+   * Spreads the higher bits of a hash code into the lower bits, which are the
+   * ones that select a slot.
+   */
+  static int spread(int hash) {
+    return hash ^ (hash >>> 16);
+  }
+
+  /**
+   * Finds the slot of a key.
+   *
+   * @return the slot holding the key, or the complement of the free slot where
+   *         it would go.
+   */
+  private int slotOf(String key) {
+    Preconditions.checkNotNull(key, "StringMap cannot contain null keys");
+    int mask = keys.length - 1;
+    int slot = spread(key.hashCode()) & mask;
+    String k;
+    while ((k = keys[slot]) != null) {
+      if (k.equals(key)) {
+        return slot;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return ~slot;
+  }
+
+  @Override
+  public void put(String key, V value) {
+    int slot = slotOf(key);
+    if (slot >= 0) {
+      values[slot] = value;
+      return;
+    }
+    if ((size + 1) * 4 > keys.length * 3) {
+      resize(keys.length * 2);
+      slot = slotOf(key);
+    }
+    slot = ~slot;
+    keys[slot] = key;
+    values[slot] = value;
+    size++;
+  }
+
+  private void resize(int capacity) {
+    String[] oldKeys = keys;
+    Object[] oldValues = values;
+    keys = new String[capacity];
+    values = new Object[capacity];
+    int mask = capacity - 1;
+    for (int i = 0; i < oldKeys.length; i++) {
+      String k = oldKeys[i];
+      if (k != null) {
+        int slot = spread(k.hashCode()) & mask;
+        while (keys[slot] != null) {
+          slot = (slot + 1) & mask;
+        }
+        keys[slot] = k;
+        values[slot] = oldValues[i];
+      }
+    }
+  }
+
+  @Override
+  public void remove(String key) {
+    int slot = slotOf(key);
+    if (slot >= 0) {
+      removeSlot(slot);
+    }
+  }
+
+  /**
+   * Empties a slot, moving later entries of its probe run back so that every
+   * entry stays reachable from its home slot.
+   */
+  private void removeSlot(int free) {
+    int mask = keys.length - 1;
+    int slot = free;
+    while (true) {
+      slot = (slot + 1) & mask;
+      String k = keys[slot];
+      if (k == null) {
+        break;
+      }
+      int home = spread(k.hashCode()) & mask;
+      // Move the entry back unless its home lies cyclically in (free, slot].
+      if (free <= slot ? (home <= free || home > slot) : (home <= free && home > slot)) {
+        keys[free] = k;
+        values[free] = values[slot];
+        free = slot;
+      }
+    }
+    keys[free] = null;
+    values[free] = null;
+    size--;
+  }
+
+  @Override
+  public boolean containsKey(String key) {
+    return slotOf(key) >= 0;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public V getExisting(String key) {
+    int slot = slotOf(key);
+    if (slot < 0) {
+      // Not using Preconditions.checkState to avoid unecessary string concatenation
+      throw new IllegalStateException("getExisting: Key '" + key + "' is not in map");
+    }
+    return (V) values[slot];
+  }
+
+  @Override
+  public V get(String key) {
+    return get(key, null);
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public V get(String key, V defaultValue) {
+    int slot = slotOf(key);
+    return slot >= 0 ? (V) values[slot] : defaultValue;
+  }
+
+  @Override
+  public void putAll(ReadableStringMap<V> pairsToAdd) {
+    if (pairsToAdd instanceof OpenStringMap) {
+      OpenStringMap<V> other = (OpenStringMap<V>) pairsToAdd;
+      for (int i = 0; i < other.keys.length; i++) {
+        if (other.keys[i] != null) {
+          @SuppressWarnings("unchecked")
+          V value = (V) other.values[i];
+          put(other.keys[i], value);
+        }
+      }
+    } else {
+      pairsToAdd.each(new ProcV<V>() {
+        @Override
+        public void apply(String key, V value) {
+          put(key, value);
+        }
+      });
+    }
+  }
+
+  @Override
+  public void putAll(Map<String, V> sourceMap) {
+    Preconditions.checkArgument(!sourceMap.containsKey(null),
+        "Source map must not contain a null key");
+    for (Map.Entry<String, V> entry : sourceMap.entrySet()) {
+      put(entry.getKey(), entry.getValue());
+    }
+  }
+
+  @Override
+  public void clear() {
+    if (keys.length > MIN_CAPACITY) {
+      keys = new String[MIN_CAPACITY];
+      values = new Object[MIN_CAPACITY];
+    } else {
+      for (int i = 0; i < keys.length; i++) {
+        keys[i] = null;
+        values[i] = null;
+      }
+    }
+    size = 0;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  @Override
+  public int countEntries() {
+    return size;
+  }
+
+  @Override
+  public String someKey() {
+    for (String k : keys) {
+      if (k != null) {
+        return k;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public void each(ProcV<? super V> callback) {
+    for (int i = 0; i < keys.length; i++) {
+      if (keys[i] != null) {
+        callback.apply(keys[i], (V) values[i]);
+      }
+    }
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public void filter(EntryFilter<? super V> filter) {
+    // Start at a free slot, so that entries moved back by a removal are
+    // always ones that have not been visited yet.
+    int mask = keys.length - 1;
+    int slot = 0;
+    while (keys[slot] != null) {
+      slot++;
+    }
+    for (int visited = 0; visited < keys.length;) {
+      String k = keys[slot];
+      if (k != null && !filter.apply(k, (V) values[slot])) {
+        removeSlot(slot);
+        // Look at whatever moved into this slot.
+      } else {
+        slot = (slot + 1) & mask;
+        visited++;
+      }
+    }
+  }
+
+  @Override
+  public ReadableStringSet keySet() {
+    return new ReadableStringSet() {
+      @Override
+      public boolean contains(String s) {
+        return containsKey(s);
+      }
+
+      @Override
+      public String someElement() {
+        return someKey();
+      }
+
+      @Override
+      public boolean isEmpty() {
+        return OpenStringMap.this.isEmpty();
+      }
+
+      @Override
+      public void each(Proc callback) {
+        for (String k : keys) {
+          if (k != null) {
+            callback.apply(k);
+          }
+        }
+      }
+
+      @Override
+      public boolean isSubsetOf(ReadableStringSet other) {
+        for (String k : keys) {
+          if (k != null && !other.contains(k)) {
+            return false;
+          }
+        }
+        return true;
+      }
+
+      @Override
+      public boolean isSubsetOf(Set<String> other) {
+        for (String k : keys) {
+          if (k != null && !other.contains(k)) {
+            return false;
+          }
+        }
+        return true;
+      }
+
+      @Override
+      public int countEntries() {
+        return size;
+      }
+
+      @Override
+      public String toString() {
+        StringBuilder b = new StringBuilder("[");
+        for (String k : keys) {
+          if (k != null) {
+            if (b.length() > 1) {
+              b.append(", ");
+            }
+            b.append(k);
+          }
+        }
+        return b.append("]").toString();
+      }
+    };
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder b = new StringBuilder("{");
+    for (int i = 0; i < keys.length; i++) {
+      if (keys[i] != null) {
+        if (b.length() > 1) {
+          b.append(", ");
+        }
+        b.append(keys[i]).append('=').append(values[i]);
+      }
+    }
+    return b.append("}").toString();
+  }
+
+  // NOTE: equals() and hashCode() are deliberately not implemented, as they
+  // are unsupported in the javascript collections.
+}
@@ -0,0 +1,254 @@
+/**
+ * Copyright 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.waveprotocol.wave.model.util;
+
+import java.util.Set;
+
+/**
+ * A {@link StringSet} backed by an open addressing hash table with linear
+ * probing, for use on the JVM. See {@link OpenStringMap}, which this mirrors
+ * without the values.
+ */
+final class OpenStringSet implements StringSet {
+  private static final int MIN_CAPACITY = 8;
+
+  /** Elements by slot, null for a free slot. Length is a power of two. */
+  private String[] elements = new String[MIN_CAPACITY];
+
+  private int size;
+
+  /**
+   * Finds the slot of an element.
+   *
+   * @return the slot holding the element, or the complement of the free slot
+   *         where it would go.
+   */
+  private int slotOf(String s) {
+    Preconditions.checkNotNull(s, "StringSet cannot contain null values");
+    int mask = elements.length - 1;
+    int slot = OpenStringMap.spread(s.hashCode()) & mask;
+    String e;
+    while ((e = elements[slot]) != null) {
+      if (e.equals(s)) {
+        return slot;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return ~slot;
+  }
+
+  @Override
+  public void add(String s) {
+    int slot = slotOf(s);
+    if (slot >= 0) {
+      return;
+    }
+    if ((size + 1) * 4 > elements.length * 3) {
+      resize(elements.length * 2);
+      slot = slotOf(s);
+    }
+    elements[~slot] = s;
+    size++;
+  }
+
+  private void resize(int capacity) {
+    String[] old = elements;
+    elements = new String[capacity];
+    int mask = capacity - 1;
+    for (String e : old) {
+      if (e != null) {
+        int slot = OpenStringMap.spread(e.hashCode()) & mask;
+        while (elements[slot] != null) {
+          slot = (slot + 1) & mask;
+        }
+        elements[slot] = e;
+      }
+    }
+  }
+
+  @Override
+  public void remove(String s) {
+    int slot = slotOf(s);
+    if (slot >= 0) {
+      removeSlot(slot);
+    }
+  }
+
+  /**
+   * Empties a slot, moving later elements of its probe run back so that every
+   * element stays reachable from its home slot.
+   */
+  private void removeSlot(int free) {
+    int mask = elements.length - 1;
+    int slot = free;
+    while (true) {
+      slot = (slot + 1) & mask;
+      String e = elements[slot];
+      if (e == null) {
+        break;
+      }
+      int home = OpenStringMap.spread(e.hashCode()) & mask;
+      // Move the element back unless its home lies cyclically in (free, slot].
+      if (free <= slot ? (home <= free || home > slot) : (home <= free && home > slot)) {
+        elements[free] = e;
+        free = slot;
+      }
+    }
+    elements[free] = null;
+    size--;
+  }
+
+  @Override
+  public boolean contains(String s) {
+    return slotOf(s) >= 0;
+  }
+
+  @Override
+  public void clear() {
+    if (elements.length > MIN_CAPACITY) {
+      elements = new String[MIN_CAPACITY];
+    } else {
+      for (int i = 0; i < elements.length; i++) {
+        elements[i] = null;
+      }
+    }
+    size = 0;
+  }
+
+  @Override
+  public void addAll(ReadableStringSet set) {
+    if (set instanceof OpenStringSet) {
+      for (String e : ((OpenStringSet) set).elements) {
+        if (e != null) {
+          add(e);
+        }
+      }
+    } else {
+      set.each(new Proc() {
+        @Override
+        public void apply(String element) {
+          add(element);
+        }
+      });
+    }
+  }
+
+  @Override
+  public void removeAll(ReadableStringSet set) {
+    if (set == this) {
+      clear();
+    } else if (set instanceof OpenStringSet) {
+      for (String e : ((OpenStringSet) set).elements) {
+        if (e != null) {
+          remove(e);
+        }
+      }
+    } else {
+      set.each(new Proc() {
+        @Override
+        public void apply(String element) {
+          remove(element);
+        }
+      });
+    }
+  }
+
+  @Override
+  public void filter(StringPredicate filter) {
+    // Start at a free slot, so that elements moved back by a removal are
+    // always ones that have not been visited yet.
+    int mask = elements.length - 1;
+    int slot = 0;
+    while (elements[slot] != null) {
+      slot++;
+    }
+    for (int visited = 0; visited < elements.length;) {
+      String e = elements[slot];
+      if (e != null && !filter.apply(e)) {
+        removeSlot(slot);
+        // Look at whatever moved into this slot.
+      } else {
+        slot = (slot + 1) & mask;
+        visited++;
+      }
+    }
+  }
+
+  @Override
+  public String someElement() {
+    for (String e : elements) {
+      if (e != null) {
+        return e;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  @Override
+  public int countEntries() {
+    return size;
+  }
+
+  @Override
+  public void each(Proc callback) {
+    for (String e : elements) {
+      if (e != null) {
+        callback.apply(e);
+      }
+    }
+  }
+
+  @Override
+  public boolean isSubsetOf(ReadableStringSet other) {
+    for (String e : elements) {
+      if (e != null && !other.contains(e)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public boolean isSubsetOf(Set<String> other) {
+    for (String e : elements) {
+      if (e != null && !other.contains(e)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder b = new StringBuilder("[");
+    for (String e : elements) {
+      if (e != null) {
+        if (b.length() > 1) {
+          b.append(", ");
+        }
+        b.append(e);
+      }
+    }
+    return b.append("]").toString();
+  }
+}
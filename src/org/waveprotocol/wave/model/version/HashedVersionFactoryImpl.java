@@ -21,6 +21,7 @@ import com.google.common.annotations.VisibleForTesting;
 
 import org.waveprotocol.wave.model.id.IdURIEncoderDecoder;
 
+import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
@@ -36,28 +37,55 @@ public class HashedVersionFactoryImpl extends HashedVersionZeroFactoryImpl {
   // Allow override for unit testing.
   static int hashSizeBits = HASH_SIZE_BITS;
 
+  /**
+   * SHA-256 digests are expensive to look up and are not thread-safe, so each
+   * thread keeps its own. A digest is reset each time it computes a hash.
+   */
+  private static final ThreadLocal<MessageDigest> SHA256 = new ThreadLocal<MessageDigest>() {
+    @Override
+    protected MessageDigest initialValue() {
+      try {
+        return MessageDigest.getInstance("SHA-256");
+      } catch (NoSuchAlgorithmException e) {
+        throw new RuntimeException(e);
+      }
+    }
+  };
+
   public HashedVersionFactoryImpl(IdURIEncoderDecoder uriCodec) {
     super(uriCodec);
   }
 
-  private static byte[] calculateHash(byte[] historyHash, byte[] appliedDeltaBytes) {
-    byte[] joined = new byte[appliedDeltaBytes.length + historyHash.length];
+  private static byte[] calculateHash(byte[] historyHash, ByteBuffer appliedDeltaBytes) {
+    MessageDigest sha256 = SHA256.get();
+    sha256.reset();
+    sha256.update(historyHash);
+    sha256.update(appliedDeltaBytes.duplicate());
     byte[] result = new byte[hashSizeBits / 8];
-    System.arraycopy(historyHash, 0, joined, 0, historyHash.length);
-    System.arraycopy(appliedDeltaBytes, 0, joined, historyHash.length, appliedDeltaBytes.length);
-    try {
-      historyHash = MessageDigest.getInstance("SHA-256").digest(joined);
-    } catch (NoSuchAlgorithmException e) {
-      throw new RuntimeException(e);
-    }
-    System.arraycopy(historyHash, 0, result, 0, result.length);
+    System.arraycopy(sha256.digest(), 0, result, 0, result.length);
     return result;
   }
 
   @Override
   public HashedVersion create(byte[] appliedDeltaBytes,
       HashedVersion hashedVersionAppliedAt, int operationsApplied) {
+    return create(ByteBuffer.wrap(appliedDeltaBytes), hashedVersionAppliedAt, operationsApplied);
+  }
 
+  /**
+   * Creates a hashed version after the application of a delta, as
+   * {@link #create(byte[], HashedVersion, int)} does, hashing the remaining
+   * bytes of a buffer. The delta bytes are not copied, and the position of the
+   * buffer is left unchanged, so a read-only view of a serialized delta can be
+   * passed as is.
+   *
+   * @param appliedDeltaBytes byte representation of applied delta
+   * @param hashedVersionAppliedAt version to which the delta applied
+   * @param operationsApplied number of ops in the delta
+   * @return a hashed version after the delta application
+   */
+  public HashedVersion create(ByteBuffer appliedDeltaBytes,
+      HashedVersion hashedVersionAppliedAt, int operationsApplied) {
     return HashedVersion.of(hashedVersionAppliedAt.getVersion() + operationsApplied,
         calculateHash(hashedVersionAppliedAt.getHistoryHash(), appliedDeltaBytes));
   }
@@ -31,6 +31,9 @@ public final class ParticipantId implements Comparable<ParticipantId> {
   /** The participant's address */
   private final String address;
 
+  /** The hash code of the address, computed once. */
+  private final int hash;
+
   /**
    * Constructs an id.
    *
@@ -44,6 +47,7 @@ public final class ParticipantId implements Comparable<ParticipantId> {
 
     address = normalize(address);
     this.address = address;
+    this.hash = address.hashCode();
   }
 
   /**
@@ -100,14 +104,14 @@ public final class ParticipantId implements Comparable<ParticipantId> {
       return true;
     } else if (o instanceof ParticipantId) {
       ParticipantId p = (ParticipantId) o;
-      return address.equals(p.address);
+      return hash == p.hash && address.equals(p.address);
     }
     return false;
   }
 
   @Override
   public int hashCode() {
-    return address.hashCode();
+    return hash;
   }
 
   @Override
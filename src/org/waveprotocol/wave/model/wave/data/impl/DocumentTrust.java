@@ -0,0 +1,48 @@
+/**
+ * Copyright 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.waveprotocol.wave.model.wave.data.impl;
+
+/**
+ * Whether the operations applied to a group of documents are trusted to be
+ * valid. Trusted operations are applied without being validated against the
+ * documents and their schemas.
+ *
+ * A trust is shared by the documents created by one factory, typically the
+ * documents of one wavelet, and is meant to be turned on only while applying
+ * operations that have been validated before, such as when replaying a
+ * wavelet's history. It is off when created.
+ */
+public final class DocumentTrust {
+
+  private boolean trusted = false;
+
+  /**
+   * Sets whether the operations applied to the documents are trusted.
+   */
+  public void setTrusted(boolean trusted) {
+    this.trusted = trusted;
+  }
+
+  /**
+   * @return true if the operations applied to the documents are trusted, and
+   *         are not to be validated.
+   */
+  public boolean isTrusted() {
+    return trusted;
+  }
+}
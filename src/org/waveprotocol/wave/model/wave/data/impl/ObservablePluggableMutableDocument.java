@@ -24,6 +24,7 @@ import org.waveprotocol.wave.model.document.ObservableMutableDocument;
 import org.waveprotocol.wave.model.document.indexed.DocumentHandler;
 import org.waveprotocol.wave.model.document.operation.DocInitialization;
 import org.waveprotocol.wave.model.document.operation.automaton.DocumentSchema;
+import org.waveprotocol.wave.model.document.operation.impl.CompactDocInitialization;
 import org.waveprotocol.wave.model.document.raw.impl.Element;
 import org.waveprotocol.wave.model.document.raw.impl.Node;
 import org.waveprotocol.wave.model.document.raw.impl.Text;
@@ -58,6 +59,40 @@ public class ObservablePluggableMutableDocument extends PluggableMutableDocument
       };
   }
 
+  /**
+   * Factory for documents that do not validate the operations they consume
+   * while the given trust is on.
+   */
+  public static DocumentFactory<ObservablePluggableMutableDocument> createFactory(
+      final SchemaProvider schemas, final DocumentTrust trust) {
+    return new DocumentFactory<ObservablePluggableMutableDocument>() {
+        @Override
+        public ObservablePluggableMutableDocument create(
+            WaveletId waveletId, String docId, DocInitialization content) {
+          return new ObservablePluggableMutableDocument(
+              schemas.getSchemaForId(waveletId, docId), content, new DocumentHandlerManager(),
+              trust);
+        }
+      };
+  }
+
+  /**
+   * Factory for documents that keep their content as a
+   * {@link CompactDocInitialization}, and only build a mutable document from
+   * it when they are modified or a mutable view of them is needed.
+   */
+  public static DocumentFactory<ObservablePluggableMutableDocument> createCompactFactory(
+      final SchemaProvider schemas) {
+    return new DocumentFactory<ObservablePluggableMutableDocument>() {
+        @Override
+        public ObservablePluggableMutableDocument create(
+            WaveletId waveletId, String docId, DocInitialization content) {
+          return new ObservablePluggableMutableDocument(
+              schemas.getSchemaForId(waveletId, docId), CompactDocInitialization.of(content));
+        }
+      };
+  }
+
   /**
    * Fanning broadcast handler
    */
@@ -117,7 +152,19 @@ public class ObservablePluggableMutableDocument extends PluggableMutableDocument
    */
   private ObservablePluggableMutableDocument(DocumentSchema schema, DocInitialization content,
       DocumentHandlerManager handlerManager) {
-    super(content, schema, handlerManager);
+    this(schema, content, handlerManager, null);
+  }
+
+  /**
+   * Creates an observable document
+   *
+   * @param content  initialization content
+   * @param handlerManager  event broadcaster
+   * @param trust  whether consumed operations are trusted, may be null
+   */
+  private ObservablePluggableMutableDocument(DocumentSchema schema, DocInitialization content,
+      DocumentHandlerManager handlerManager, DocumentTrust trust) {
+    super(content, schema, handlerManager, trust);
     this.handlerManager = handlerManager;
   }
 
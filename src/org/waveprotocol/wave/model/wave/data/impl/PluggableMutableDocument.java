@@ -29,6 +29,7 @@ import org.waveprotocol.wave.model.document.operation.DocOp;
 import org.waveprotocol.wave.model.document.operation.Nindo;
 import org.waveprotocol.wave.model.document.operation.SuperSink;
 import org.waveprotocol.wave.model.document.operation.automaton.DocumentSchema;
+import org.waveprotocol.wave.model.document.operation.impl.CompactDocInitialization;
 import org.waveprotocol.wave.model.document.raw.impl.Element;
 import org.waveprotocol.wave.model.document.raw.impl.Node;
 import org.waveprotocol.wave.model.document.raw.impl.Text;
@@ -144,6 +145,9 @@ public class PluggableMutableDocument extends MutableDocumentProxy.DocumentProxy
 
   private SilentOperationSink<? super DocOp> outputSink;
 
+  /** Whether the operations consumed by this document are trusted, may be null. */
+  private final DocumentTrust trust;
+
   /**
    * Creates a mutable document. This document will not be observable.
    *
@@ -182,8 +186,23 @@ public class PluggableMutableDocument extends MutableDocumentProxy.DocumentProxy
    */
   protected PluggableMutableDocument(DocInitialization content, DocumentSchema schema,
       DocumentHandler<Node, Element, Text> handlerManager) {
+    this(content, schema, handlerManager, null);
+  }
+
+  /**
+   * Creates a mutable document, where events are sent to a handler, and whose
+   * consumed operations are not validated while they are trusted.
+   *
+   * @param content initialization content
+   * @param handlerManager direct event receiver
+   * @param trust whether consumed operations are trusted, or null to always
+   *        validate them as the substrate is configured to
+   */
+  protected PluggableMutableDocument(DocInitialization content, DocumentSchema schema,
+      DocumentHandler<Node, Element, Text> handlerManager, DocumentTrust trust) {
     super(null, "Impossible");
     this.documentCreationContext = new DocumentCreationContext(content, schema, handlerManager);
+    this.trust = trust;
   }
 
   @Override
@@ -224,11 +243,21 @@ public class PluggableMutableDocument extends MutableDocumentProxy.DocumentProxy
 
   @Override
   public DocInitialization asOperation() {
+    if (substrateDocument == null
+        && documentCreationContext.content instanceof CompactDocInitialization) {
+      // Readers of a compact document that has not changed since it was
+      // created share its content, without building the substrate.
+      return documentCreationContext.content;
+    }
     return getDocument().asOperation();
   }
 
   @Override
   public void consume(DocOp op) throws OperationException {
-    getDocument().consume(op);
+    if (trust != null && trust.isTrusted()) {
+      getDocument().consume(op, false);
+    } else {
+      getDocument().consume(op);
+    }
   }
 }
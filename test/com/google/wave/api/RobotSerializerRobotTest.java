@@ -0,0 +1,90 @@
+/**
+ * Copyright 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.google.wave.api;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.gson.Gson;
+import com.google.wave.api.JsonRpcConstant.ParamsProperty;
+import com.google.wave.api.impl.GsonFactory;
+
+import junit.framework.TestCase;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.List;
+import java.util.NavigableMap;
+
+/**
+ * Test cases for the streaming methods of {@link RobotSerializer}.
+ */
+public class RobotSerializerRobotTest extends TestCase {
+
+  private static final String OPERATIONS =
+      "[{'id':'op1','method':'wavelet.setTitle','params':{"
+      + "'waveId':'1','waveletId':'2','waveletTitle':'Title'}},\n"
+      + "{'id':'op2','method':'robot.fetchWave','params':{'waveId':'1','waveletId':'2'}}]";
+
+  private RobotSerializer serializer;
+
+  @Override
+  protected void setUp() throws Exception {
+    NavigableMap<ProtocolVersion, Gson> gsons = Maps.newTreeMap();
+    gsons.put(ProtocolVersion.DEFAULT, new GsonFactory().create());
+    serializer = new RobotSerializer(gsons, ProtocolVersion.DEFAULT);
+  }
+
+  public void testDeserializeOperationsFromReaderReadsWholeBody() throws Exception {
+    List<OperationRequest> operations =
+        serializer.deserializeOperations(new StringReader(OPERATIONS));
+
+    assertEquals(2, operations.size());
+    assertEquals("op1", operations.get(0).getId());
+    assertEquals("Title", operations.get(0).getParameter(ParamsProperty.WAVELET_TITLE));
+    assertEquals("op2", operations.get(1).getId());
+    assertEquals(serializer.deserializeOperations(OPERATIONS).size(), operations.size());
+  }
+
+  public void testDeserializeOperationsFromEmptyReader() throws Exception {
+    assertTrue(serializer.deserializeOperations(new StringReader("")).isEmpty());
+    assertTrue(serializer.deserializeOperations(new StringReader(" \n\t ")).isEmpty());
+  }
+
+  public void testDeserializeOperationsFromReaderWithInvalidJson() throws Exception {
+    try {
+      serializer.deserializeOperations(new StringReader("[{'id':"));
+      fail("Expected InvalidRequestException");
+    } catch (InvalidRequestException e) {
+      // Expected.
+    }
+  }
+
+  public void testSerializeToAppendableMatchesStringSerialization() throws Exception {
+    List<JsonRpcResponse> responses = Lists.newArrayList(
+        JsonRpcResponse.error("op1", "error message"),
+        JsonRpcResponse.error("op2", "another error"));
+
+    StringWriter writer = new StringWriter();
+    serializer.serialize(
+        responses, GsonFactory.JSON_RPC_RESPONSE_LIST_TYPE, ProtocolVersion.DEFAULT, writer);
+
+    assertEquals(serializer.serialize(
+        responses, GsonFactory.JSON_RPC_RESPONSE_LIST_TYPE, ProtocolVersion.DEFAULT),
+        writer.toString());
+  }
+}
@@ -0,0 +1,109 @@
+/**
+ * Copyright 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.waveprotocol.box.consoleclient.load;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Tests for {@link LatencyHistogram}.
+ */
+public class LatencyHistogramTest extends TestCase {
+
+  public void testEmptyHistogramReportsZero() {
+    LatencyHistogram histogram = new LatencyHistogram("empty");
+    assertEquals(0, histogram.getCount());
+    assertEquals(0, histogram.getValueAtPercentile(50));
+    assertEquals(0, histogram.getMax());
+    assertEquals(0.0, histogram.getMean());
+  }
+
+  public void testSmallValuesAreExact() {
+    LatencyHistogram histogram = new LatencyHistogram("small");
+    for (int i = 1; i <= 100; i++) {
+      histogram.record(i);
+    }
+    assertEquals(100, histogram.getCount());
+    assertEquals(50, histogram.getValueAtPercentile(50));
+    assertEquals(90, histogram.getValueAtPercentile(90));
+    assertEquals(100, histogram.getValueAtPercentile(100));
+    assertEquals(1, histogram.getValueAtPercentile(0));
+    assertEquals(50.5, histogram.getMean());
+  }
+
+  public void testLargeValuesAreWithinOnePercent() {
+    LatencyHistogram histogram = new LatencyHistogram("large");
+    Random random = new Random(42);
+    long[] values = new long[10000];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = (long) (Math.exp(random.nextDouble() * 20));
+      histogram.record(values[i]);
+    }
+    Arrays.sort(values);
+    for (double percentile : new double[] {10, 50, 90, 99, 99.9}) {
+      long expected = values[(int) Math.ceil(percentile / 100 * values.length) - 1];
+      long actual = histogram.getValueAtPercentile(percentile);
+      assertTrue(percentile + ": " + actual + " < " + expected, actual >= expected);
+      assertTrue(percentile + ": " + actual + " > " + expected, actual <= expected * 1.01 + 1);
+    }
+    assertEquals(values[values.length - 1], histogram.getMax());
+  }
+
+  public void testBucketsCoverEveryValue() {
+    long previous = -1;
+    for (long value : new long[] {0, 1, 127, 128, 129, 255, 256, 1000000, Long.MAX_VALUE / 2}) {
+      int index = LatencyHistogram.bucketIndex(value);
+      assertTrue(value <= LatencyHistogram.highestEquivalentValue(index));
+      if (index > 0) {
+        assertTrue(value > LatencyHistogram.highestEquivalentValue(index - 1));
+      }
+      assertTrue(index >= previous);
+      previous = index;
+    }
+  }
+
+  public void testNanosAreRecordedAsMicros() {
+    LatencyHistogram histogram = new LatencyHistogram("nanos");
+    histogram.recordNanos(5000);
+    histogram.recordNanos(-1);
+    assertEquals(5, histogram.getMax());
+    assertEquals(2, histogram.getCount());
+  }
+
+  public void testReportsPercentiles() {
+    LatencyHistogram histogram = new LatencyHistogram("latency");
+    for (int i = 1; i <= 1000; i++) {
+      histogram.record(i * 1000);
+    }
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    PrintStream out = new PrintStream(bytes);
+    histogram.report(out);
+    histogram.outputPercentileDistribution(out, 5);
+    out.flush();
+    String report = bytes.toString();
+    assertTrue(report, report.startsWith("latency"));
+    assertTrue(report, report.contains("count=1000"));
+    assertTrue(report, report.contains("p99.9="));
+    assertTrue(report, report.contains("max=1000.00ms"));
+    assertTrue(report, report.contains("#[Total count    =         1000]"));
+  }
+}
@@ -0,0 +1,88 @@
+/**
+ * Copyright 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.waveprotocol.box.consoleclient.load;
+
+import junit.framework.TestCase;
+
+import org.waveprotocol.box.consoleclient.load.LoadScript.Action;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Tests for {@link LoadScript}.
+ */
+public class LoadScriptTest extends TestCase {
+
+  public void testDefaultScriptHasEveryAction() {
+    LoadScript script = LoadScript.parse(LoadScript.DEFAULT_SCRIPT);
+    for (Action action : Action.values()) {
+      assertTrue(action.getKey(), script.getWeight(action) > 0);
+    }
+    assertEquals(LoadScript.DEFAULT_SCRIPT, script.toString());
+  }
+
+  public void testGivenActionsReplaceTheDefaultActions() {
+    LoadScript script = LoadScript.parse("type=3,think=100");
+    assertEquals(3, script.getWeight(Action.TYPE));
+    assertEquals(0, script.getWeight(Action.OPEN));
+    assertEquals(100, script.getThinkTimeMs());
+    assertEquals(LoadScript.parse(LoadScript.DEFAULT_SCRIPT).getBurstLength(),
+        script.getBurstLength());
+
+    Random random = new Random(0);
+    for (int i = 0; i < 100; i++) {
+      assertEquals(Action.TYPE, script.nextAction(random));
+    }
+  }
+
+  public void testActionsArePickedByWeight() {
+    LoadScript script = LoadScript.parse("open=1,type=3");
+    Random random = new Random(0);
+    Map<Action, Integer> counts = new EnumMap<Action, Integer>(Action.class);
+    counts.put(Action.OPEN, 0);
+    counts.put(Action.TYPE, 0);
+    for (int i = 0; i < 4000; i++) {
+      Action action = script.nextAction(random);
+      counts.put(action, counts.get(action) + 1);
+    }
+    assertEquals(1000, counts.get(Action.OPEN), 100);
+    assertEquals(3000, counts.get(Action.TYPE), 100);
+  }
+
+  public void testThinkTimeIsSpreadAroundTheMean() {
+    LoadScript script = LoadScript.parse("type=1,think=1000");
+    Random random = new Random(0);
+    for (int i = 0; i < 100; i++) {
+      long thinkTime = script.nextThinkTimeMs(random);
+      assertTrue(thinkTime >= 500 && thinkTime <= 1500);
+    }
+  }
+
+  public void testInvalidScriptsAreRejected() {
+    for (String script : new String[] {"type", "type=-1", "fly=1", "type=0", "type=1,burst=0"}) {
+      try {
+        LoadScript.parse(script);
+        fail("Parsed " + script);
+      } catch (IllegalArgumentException expected) {
+        // Expected.
+      }
+    }
+  }
+}
@@ -0,0 +1,49 @@
+/**
+ * Copyright 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.waveprotocol.box.consoleclient.load;
+
+import com.google.common.collect.ImmutableList;
+
+import junit.framework.TestCase;
+
+import org.waveprotocol.box.consoleclient.ClientUtils;
+import org.waveprotocol.wave.model.document.operation.impl.DocOpBuilder;
+
+import java.util.Collections;
+
+/**
+ * Tests for {@link SimulatedUser}.
+ */
+public class SimulatedUserTest extends TestCase {
+
+  public void testTypedTimestampsAreFoundInInsertions() {
+    String text = "~" + Long.toString(12345, 36) + " ~" + Long.toString(678, 36) + " ";
+    assertEquals(ImmutableList.of(12345L, 678L),
+        SimulatedUser.typedTimestamps(ClientUtils.createTextInsertion(text, 3, 4)));
+  }
+
+  public void testInitializationsAreIgnored() {
+    assertEquals(Collections.emptyList(), SimulatedUser.typedTimestamps(
+        new DocOpBuilder().characters("~abc ").build()));
+  }
+
+  public void testTextWithoutTimestampsIsIgnored() {
+    assertEquals(Collections.emptyList(),
+        SimulatedUser.typedTimestamps(ClientUtils.createTextInsertion("hello ~ world", 0, 1)));
+  }
+}
@@ -0,0 +1,238 @@
+/**
+ * Copyright 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.waveprotocol.box.server.common;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import org.waveprotocol.box.common.ExceptionalIterator;
+import org.waveprotocol.box.server.persistence.file.FileDeltaStore;
+import org.waveprotocol.box.server.persistence.file.FileUtils;
+import org.waveprotocol.box.server.util.WaveletDataUtil;
+import org.waveprotocol.box.server.waveserver.AppliedDeltaUtil;
+import org.waveprotocol.box.server.waveserver.ByteStringMessage;
+import org.waveprotocol.box.server.waveserver.DeltaStore;
+import org.waveprotocol.box.server.waveserver.DeltaStore.DeltasAccess;
+import org.waveprotocol.box.server.waveserver.WaveletDeltaRecord;
+import org.waveprotocol.wave.federation.Proto.ProtocolAppliedWaveletDelta;
+import org.waveprotocol.wave.federation.Proto.ProtocolSignedDelta;
+import org.waveprotocol.wave.model.document.operation.Attributes;
+import org.waveprotocol.wave.model.document.operation.impl.DocOpBuilder;
+import org.waveprotocol.wave.model.id.IdURIEncoderDecoder;
+import org.waveprotocol.wave.model.id.WaveId;
+import org.waveprotocol.wave.model.id.WaveletId;
+import org.waveprotocol.wave.model.id.WaveletName;
+import org.waveprotocol.wave.model.operation.wave.AddParticipant;
+import org.waveprotocol.wave.model.operation.wave.BlipContentOperation;
+import org.waveprotocol.wave.model.operation.wave.TransformedWaveletDelta;
+import org.waveprotocol.wave.model.operation.wave.WaveletBlipOperation;
+import org.waveprotocol.wave.model.operation.wave.WaveletDelta;
+import org.waveprotocol.wave.model.operation.wave.WaveletOperation;
+import org.waveprotocol.wave.model.operation.wave.WaveletOperationContext;
+import org.waveprotocol.wave.model.version.HashedVersion;
+import org.waveprotocol.wave.model.version.HashedVersionFactoryImpl;
+import org.waveprotocol.wave.model.wave.ParticipantId;
+import org.waveprotocol.wave.model.wave.data.ReadableWaveletData;
+import org.waveprotocol.wave.util.escapers.jvm.JavaUrlCodec;
+
+import java.io.File;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures the heap retained by {@link #WAVE_COUNT} wavelets loaded from a
+ * local file delta store, the way the wave server holds them (the deltas and a
+ * snapshot built from them), with and without {@link IdInterner}. Each wavelet
+ * has {@link #PARTICIPANTS_PER_WAVELET} participants drawn from
+ * {@link #USER_COUNT} users, who also author its deltas. Not really a test
+ * case.
+ */
+public class IdInternerHeapTester {
+
+  private static final int WAVE_COUNT = 5000;
+  private static final int USER_COUNT = 200;
+  private static final int PARTICIPANTS_PER_WAVELET = 5;
+  private static final int EDITS_PER_WAVELET = 10;
+  private static final String DOMAIN = "example.com";
+  private static final String BLIP_ID = "b+root";
+
+  private static final HashedVersionFactoryImpl HASH_FACTORY =
+      new HashedVersionFactoryImpl(new IdURIEncoderDecoder(new JavaUrlCodec()));
+
+  /** Keeps the loaded wavelets reachable while the heap is measured. */
+  private List<Object> loaded;
+
+  private static WaveletOperation blipOp(ParticipantId author, DocOpBuilder op) {
+    return new WaveletBlipOperation(BLIP_ID,
+        new BlipContentOperation(new WaveletOperationContext(author, 0L, 1), op.build()));
+  }
+
+  /**
+   * Writes a wavelet whose first delta adds its creator and a blip, whose next
+   * deltas add the other participants, and whose remaining deltas are edits by
+   * the participants.
+   */
+  private static void writeWavelet(DeltaStore store, WaveletName waveletName,
+      ParticipantId[] users, Random random) throws Exception {
+    List<ParticipantId> participants = Lists.newArrayList();
+    while (participants.size() < PARTICIPANTS_PER_WAVELET) {
+      ParticipantId user = users[random.nextInt(users.length)];
+      if (!participants.contains(user)) {
+        participants.add(user);
+      }
+    }
+    ParticipantId creator = participants.get(0);
+    DeltasAccess wavelet = store.open(waveletName);
+    HashedVersion version = HASH_FACTORY.createVersionZero(waveletName);
+    List<WaveletDeltaRecord> records = Lists.newArrayList();
+    int size = 4;
+    for (int i = 0; i < PARTICIPANTS_PER_WAVELET + EDITS_PER_WAVELET; i++) {
+      ParticipantId author;
+      List<WaveletOperation> ops;
+      if (i == 0) {
+        author = creator;
+        ops = ImmutableList.of(
+            new AddParticipant(new WaveletOperationContext(author, 0L, 1), author),
+            blipOp(author, new DocOpBuilder()
+                .elementStart("body", Attributes.EMPTY_MAP)
+                .elementStart("line", Attributes.EMPTY_MAP).elementEnd()
+                .elementEnd()));
+      } else if (i < PARTICIPANTS_PER_WAVELET) {
+        author = creator;
+        ops = ImmutableList.<WaveletOperation>of(new AddParticipant(
+            new WaveletOperationContext(author, 0L, 1), participants.get(i)));
+      } else {
+        author = participants.get(random.nextInt(participants.size()));
+        ops = ImmutableList.of(blipOp(author,
+            new DocOpBuilder().retain(size - 1).characters("hello ").retain(1)));
+        size += 6;
+      }
+      ProtocolSignedDelta signedDelta = ProtocolSignedDelta.newBuilder()
+          .setDelta(ByteStringMessage.serializeMessage(CoreWaveletOperationSerializer.serialize(
+              new WaveletDelta(author, version, ops))).getByteString())
+          .build();
+      ByteStringMessage<ProtocolAppliedWaveletDelta> appliedDelta =
+          AppliedDeltaUtil.buildAppliedDelta(signedDelta, version, ops.size(), i);
+      HashedVersion resultingVersion =
+          AppliedDeltaUtil.calculateResultingHashedVersion(appliedDelta);
+      records.add(new WaveletDeltaRecord(version, appliedDelta,
+          TransformedWaveletDelta.cloneOperations(author, resultingVersion, i, ops)));
+      version = resultingVersion;
+    }
+    wavelet.append(records);
+    wavelet.close();
+  }
+
+  private static void writeStore(DeltaStore store) throws Exception {
+    ParticipantId[] users = new ParticipantId[USER_COUNT];
+    for (int i = 0; i < users.length; i++) {
+      users[i] = ParticipantId.ofUnsafe("user" + i + "@" + DOMAIN);
+    }
+    Random random = new Random(42);
+    for (int i = 0; i < WAVE_COUNT; i++) {
+      writeWavelet(store, WaveletName.of(WaveId.of(DOMAIN, "w+" + i),
+          WaveletId.of(DOMAIN, "conv+root")), users, random);
+    }
+  }
+
+  /** Reads every wavelet of the store and builds its snapshot. */
+  private static List<Object> loadStore(DeltaStore store) throws Exception {
+    List<Object> wavelets = Lists.newArrayList();
+    ExceptionalIterator<WaveId, ?> waveIds = store.getWaveIdIterator();
+    while (waveIds.hasNext()) {
+      WaveId waveId = waveIds.next();
+      for (WaveletId waveletId : store.lookup(waveId)) {
+        DeltasAccess wavelet = store.open(WaveletName.of(waveId, waveletId));
+        List<WaveletDeltaRecord> records = Lists.newArrayList();
+        List<TransformedWaveletDelta> deltas = Lists.newArrayList();
+        long version = 0;
+        while (version < wavelet.getEndVersion().getVersion()) {
+          WaveletDeltaRecord record = wavelet.getDelta(version);
+          records.add(record);
+          deltas.add(record.getTransformedDelta());
+          version = record.getResultingVersion().getVersion();
+        }
+        wavelets.add(records);
+        wavelets.add(WaveletDataUtil.buildWaveletFromTrustedDeltas(
+            wavelet.getWaveletName(), deltas.iterator()));
+        wavelet.close();
+      }
+    }
+    return wavelets;
+  }
+
+  private static long usedHeap() throws InterruptedException {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 5; i++) {
+      System.gc();
+      Thread.sleep(100);
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  /** Counts the participant objects the snapshots refer to. */
+  private static int countParticipantObjects(List<Object> wavelets) {
+    IdentityHashMap<ParticipantId, Boolean> participants =
+        new IdentityHashMap<ParticipantId, Boolean>();
+    for (Object wavelet : wavelets) {
+      if (wavelet instanceof ReadableWaveletData) {
+        for (ParticipantId participant : ((ReadableWaveletData) wavelet).getParticipants()) {
+          participants.put(participant, true);
+        }
+      }
+    }
+    return participants.size();
+  }
+
+  private long measure(String name, DeltaStore store, boolean intern) throws Exception {
+    boolean enabled = IdInterner.enabled;
+    IdInterner.enabled = intern;
+    try {
+      long before = usedHeap();
+      loaded = loadStore(store);
+      long retained = usedHeap() - before;
+      System.err.println(String.format("%-12s %,13d bytes %,9d bytes/wavelet %,7d participants",
+          name, retained, retained / WAVE_COUNT, countParticipantObjects(loaded)));
+      loaded = null;
+      return retained;
+    } finally {
+      IdInterner.enabled = enabled;
+    }
+  }
+
+  public void testHeap() throws Exception {
+    File path = FileUtils.createTemporaryDirectory();
+    try {
+      DeltaStore store = new FileDeltaStore(path.getAbsolutePath());
+      writeStore(store);
+      // Warm up, so that class loading is not measured.
+      loadStore(store);
+      long plain = measure("not interned", store, false);
+      long interned = measure("interned", store, true);
+      System.err.println(String.format("Interning saves %,d bytes (%d%%) for %,d wavelets",
+          plain - interned, (plain - interned) * 100 / plain, WAVE_COUNT));
+    } finally {
+      org.apache.commons.io.FileUtils.deleteDirectory(path);
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    new IdInternerHeapTester().testHeap();
+  }
+}
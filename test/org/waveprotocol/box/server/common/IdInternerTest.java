@@ -0,0 +1,96 @@
+/**
+ * Copyright 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.waveprotocol.box.server.common;
+
+import junit.framework.TestCase;
+
+import org.waveprotocol.wave.model.id.WaveId;
+import org.waveprotocol.wave.model.id.WaveletId;
+import org.waveprotocol.wave.model.id.WaveletName;
+import org.waveprotocol.wave.model.wave.InvalidParticipantAddress;
+import org.waveprotocol.wave.model.wave.ParticipantId;
+
+/**
+ * Tests for {@link IdInterner}.
+ */
+public class IdInternerTest extends TestCase {
+
+  private static final String ADDRESS = "fred@example.com";
+  private static final String INVALID_ADDRESS = "not an address";
+
+  public void testSameAddressReturnsSameParticipant() throws Exception {
+    ParticipantId participant = IdInterner.participantOf(new String(ADDRESS));
+    assertSame(participant, IdInterner.participantOf(new String(ADDRESS)));
+    assertSame(participant, IdInterner.participantOfUnsafe(new String(ADDRESS)));
+    assertSame(participant, IdInterner.participant(new String(ADDRESS)));
+    assertEquals(ADDRESS, participant.getAddress());
+  }
+
+  public void testInvalidAddressIsNotInterned() {
+    ParticipantId participant = IdInterner.participant(INVALID_ADDRESS);
+    assertEquals(INVALID_ADDRESS, participant.getAddress());
+    assertNotSame(participant, IdInterner.participant(INVALID_ADDRESS));
+    try {
+      IdInterner.participantOf(INVALID_ADDRESS);
+      fail("Expected InvalidParticipantAddress");
+    } catch (InvalidParticipantAddress expected) {
+    }
+    try {
+      IdInterner.participantOfUnsafe(INVALID_ADDRESS);
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  public void testIdsAreCanonical() {
+    WaveId waveId = WaveId.of("example.com", "w+abc");
+    WaveletId waveletId = WaveletId.of("example.com", "conv+root");
+    WaveId internedWaveId = IdInterner.intern(waveId);
+    WaveletId internedWaveletId = IdInterner.intern(waveletId);
+    assertEquals(waveId, internedWaveId);
+    assertEquals(waveletId, internedWaveletId);
+    assertSame(internedWaveId, IdInterner.intern(WaveId.of("example.com", "w+abc")));
+    assertSame(internedWaveletId,
+        IdInterner.intern(WaveletId.of("example.com", "conv+root")));
+
+    WaveletName name = IdInterner.intern(WaveletName.of(
+        WaveId.of("example.com", "w+abc"), WaveletId.of("example.com", "conv+root")));
+    assertSame(internedWaveId, name.waveId);
+    assertSame(internedWaveletId, name.waveletId);
+    assertSame(name, IdInterner.intern(name));
+  }
+
+  public void testDisabledInterningReturnsNewInstances() throws Exception {
+    // Canonical instances that interning would otherwise return.
+    WaveId canonicalWaveId = IdInterner.intern(WaveId.of("example.com", "w+abc"));
+    WaveletId canonicalWaveletId = IdInterner.intern(WaveletId.of("example.com", "conv+root"));
+    boolean enabled = IdInterner.enabled;
+    IdInterner.enabled = false;
+    try {
+      assertNotSame(IdInterner.participantOf(ADDRESS), IdInterner.participantOf(ADDRESS));
+      WaveId waveId = WaveId.of("example.com", "w+abc");
+      assertNotSame(canonicalWaveId, waveId);
+      assertSame(waveId, IdInterner.intern(waveId));
+      WaveletId waveletId = WaveletId.of("example.com", "conv+root");
+      assertNotSame(canonicalWaveletId, waveletId);
+      assertSame(waveletId, IdInterner.intern(waveletId));
+    } finally {
+      IdInterner.enabled = enabled;
+    }
+  }
+}
@@ -24,6 +24,7 @@ import static org.mockito.Matchers.argThat;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
@@ -38,6 +39,8 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.ArgumentMatcher;
 import org.mockito.Matchers;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.waveprotocol.box.common.DeltaSequence;
 import org.waveprotocol.box.common.ExceptionalIterator;
 import org.waveprotocol.box.common.IndexWave;
@@ -49,6 +52,9 @@ import org.waveprotocol.box.server.waveserver.WaveBus;
 import org.waveprotocol.box.server.waveserver.WaveServerException;
 import org.waveprotocol.box.server.waveserver.WaveletProvider;
 import org.waveprotocol.box.server.waveserver.WaveletProvider.SubmitRequestListener;
+import org.waveprotocol.wave.concurrencycontrol.client.SimpleDeltaHistory;
+import org.waveprotocol.wave.concurrencycontrol.server.ConcurrencyControlCore;
+import org.waveprotocol.wave.concurrencycontrol.server.ConcurrencyControlCore.ReOpenInfo;
 import org.waveprotocol.wave.federation.Proto.ProtocolWaveletDelta;
 import org.waveprotocol.wave.model.document.operation.DocOp;
 import org.waveprotocol.wave.model.document.operation.impl.DocOpBuilder;
@@ -56,6 +62,7 @@ import org.waveprotocol.wave.model.id.IdConstants;
 import org.waveprotocol.wave.model.id.IdFilter;
 import org.waveprotocol.wave.model.id.IdFilters;
 import org.waveprotocol.wave.model.id.IdURIEncoderDecoder;
+import org.waveprotocol.wave.model.id.ModernIdSerialiser;
 import org.waveprotocol.wave.model.id.WaveId;
 import org.waveprotocol.wave.model.id.WaveletId;
 import org.waveprotocol.wave.model.id.WaveletName;
@@ -205,6 +212,51 @@ public class ClientFrontendImplTest extends TestCase {
         isNullVersion(), isNullMarker(), anyString());
   }
 
+  /**
+   * Tests that a client reconnecting at a known version is sent the deltas it
+   * has missed, after an empty delta at that version.
+   */
+  public void testReconnectReceivesMissedDeltas() throws Exception {
+    provideReconnectableWavelet();
+    OpenListener listener = openWave(knownWavelet(W1, V1));
+
+    @SuppressWarnings("unchecked")
+    ArgumentCaptor<List<TransformedWaveletDelta>> deltas =
+        (ArgumentCaptor<List<TransformedWaveletDelta>>) (ArgumentCaptor<?>)
+            ArgumentCaptor.forClass(List.class);
+    verify(listener).onUpdate(eq(WN1), isNullSnapshot(), deltas.capture(), eq(V0),
+        isNullMarker(), anyString());
+    List<TransformedWaveletDelta> sent = deltas.getValue();
+    assertEquals(2, sent.size());
+    assertEquals(0, sent.get(0).size());
+    assertEquals(V1, sent.get(0).getResultingVersion());
+    assertEquals(V1.getVersion(), sent.get(1).getAppliedAtVersion());
+    assertEquals(V2, sent.get(1).getResultingVersion());
+    // Only initialising the wave's front-end state took a snapshot.
+    verify(waveletProvider, times(1)).getSnapshot(WN1);
+    verifyMarker(listener, WAVE_ID);
+  }
+
+  public void testReconnectAtUnknownVersionReceivesSnapshot() throws Exception {
+    CommittedWaveletSnapshot snapshot = provideReconnectableWavelet();
+    HashedVersion unknown = HashedVersion.of(1L, new byte[] {1, 2, 3});
+    OpenListener listener = openWave(knownWavelet(W1, unknown));
+
+    verify(waveletProvider).getCatchUpHistory(eq(WN1), eq(ImmutableList.of(unknown)), anyInt());
+    verify(listener).onUpdate(eq(WN1), eq(snapshot), eq(DeltaSequence.empty()),
+        eq(V0), isNullMarker(), anyString());
+  }
+
+  public void testReconnectTooFarBehindReceivesSnapshot() throws Exception {
+    clientFrontend = new ClientFrontendImpl(HASH_FACTORY, waveletProvider, 0);
+    CommittedWaveletSnapshot snapshot = provideReconnectableWavelet();
+    OpenListener listener = openWave(knownWavelet(W1, V1));
+
+    verify(waveletProvider).getCatchUpHistory(WN1, ImmutableList.of(V1), 0);
+    verify(listener).onUpdate(eq(WN1), eq(snapshot), eq(DeltaSequence.empty()),
+        eq(V0), isNullMarker(), anyString());
+  }
+
   /**
    * Tests that submit requests are forwarded to the wavelet provider.
    */
@@ -334,6 +386,20 @@ public class ClientFrontendImplTest extends TestCase {
     return openWave(WAVE_ID, filter);
   }
 
+  private ClientFrontend.OpenListener openWave(WaveletVersion knownWavelet) {
+    OpenListener openListener = mock(OpenListener.class);
+    clientFrontend.openRequest(USER, WAVE_ID, IdFilters.ALL_IDS,
+        ImmutableList.of(knownWavelet), openListener);
+    return openListener;
+  }
+
+  private static WaveletVersion knownWavelet(WaveletId waveletId, HashedVersion version) {
+    return WaveletVersion.newBuilder()
+        .setWaveletId(ModernIdSerialiser.INSTANCE.serialiseWaveletId(waveletId))
+        .setHashedVersion(CoreWaveletOperationSerializer.serialize(version))
+        .build();
+  }
+
   private TransformedWaveletDelta makeDelta(ParticipantId author, HashedVersion endVersion,
       long timestamp, WaveletOperation... operations) {
     return TransformedWaveletDelta.cloneOperations(author, endVersion, timestamp,
@@ -361,11 +427,39 @@ public class ClientFrontendImplTest extends TestCase {
     DELTA.get(0).apply(wavelet);
     CommittedWaveletSnapshot snapshot = new CommittedWaveletSnapshot(wavelet, V0);
     when(waveletProvider.getSnapshot(name)).thenReturn(snapshot);
+    when(waveletProvider.getLastCommittedVersion(name)).thenReturn(V0);
     when(waveletProvider.getHistory(name, V0, V1)).thenReturn(DELTAS);
     when(waveletProvider.getWaveletIds(name.waveId)).thenReturn(ImmutableSet.of(name.waveletId));
     return snapshot;
   }
 
+  /**
+   * Prepares the wavelet provider to provide a wavelet at version 2, whose
+   * history a client can reconnect to.
+   *
+   * @return the wavelet snapshot
+   */
+  private CommittedWaveletSnapshot provideReconnectableWavelet() throws Exception {
+    CommittedWaveletSnapshot snapshot = provideWavelet(WN1);
+    when(waveletProvider.checkAccessPermission(WN1, USER)).thenReturn(true);
+    SimpleDeltaHistory history = new SimpleDeltaHistory(V0);
+    history.addDelta(DELTA);
+    history.addDelta(TransformedWaveletDelta.cloneOperations(USER, V2, 1234567890L,
+        Arrays.asList(UTIL.noOp())));
+    history.setCurrentSignature(V2);
+    final ConcurrencyControlCore core = new ConcurrencyControlCore(history);
+    when(waveletProvider.getCatchUpHistory(eq(WN1), Matchers.<List<HashedVersion>>any(),
+        anyInt())).thenAnswer(new Answer<ReOpenInfo>() {
+          @SuppressWarnings("unchecked")
+          @Override
+          public ReOpenInfo answer(InvocationOnMock invocation) {
+            Object[] args = invocation.getArguments();
+            return core.reopen((List<HashedVersion>) args[1], (Integer) args[2]);
+          }
+        });
+    return snapshot;
+  }
+
   private void waveletUpdate(HashedVersion endVersion, long timestamp,
       WaveletData wavelet, WaveletOperation... operations) {
     TransformedWaveletDelta delta = makeDelta(USER, endVersion, timestamp, operations);
@@ -0,0 +1,71 @@
+/**
+ * Copyright 2011 Google Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package org.waveprotocol.box.server.persistence;
+
+import com.google.wave.api.ParticipantProfile;
+
+import junit.framework.TestCase;
+
+/**
+ * Testcases for the {@link ProfileStore}. Implementors of these testcases are
+ * responsible for cleanup.
+ */
+public abstract class ProfileStoreTestBase extends TestCase {
+
+  private static final String ADDRESS = "john.smith@example.com";
+
+  private static final ParticipantProfile PROFILE = new ParticipantProfile(ADDRESS,
+      "John Smith", "http://example.com/image.png", "http://example.com/profile");
+
+  private static final ParticipantProfile UPDATED_PROFILE = new ParticipantProfile(ADDRESS,
+      "Johnny Smith", "http://example.com/other.png", "");
+
+  /**
+   * Returns a new empty {@link ProfileStore}.
+   */
+  protected abstract ProfileStore newProfileStore() throws Exception;
+
+  public final void testRoundtripProfile() throws Exception {
+    ProfileStore profileStore = newProfileStore();
+
+    profileStore.putProfile(PROFILE);
+    assertProfileEquals(PROFILE, profileStore.getProfile(ADDRESS));
+  }
+
+  public final void testGetMissingProfileReturnsNull() throws Exception {
+    ProfileStore profileStore = newProfileStore();
+
+    assertNull(profileStore.getProfile(ADDRESS));
+  }
+
+  public final void testPutProfileOverrides() throws Exception {
+    ProfileStore profileStore = newProfileStore();
+
+    profileStore.putProfile(PROFILE);
+    profileStore.putProfile(UPDATED_PROFILE);
+    assertProfileEquals(UPDATED_PROFILE, profileStore.getProfile(ADDRESS));
+  }
+
+  private static void assertProfileEquals(ParticipantProfile expected, ParticipantProfile actual) {
+    assertNotNull(actual);
+    assertEquals(expected.getAddress(), actual.getAddress());
+    assertEquals(expected.getName(), actual.getName());
+    assertEquals(expected.getImageUrl(), actual.getImageUrl());
+    assertEquals(expected.getProfileUrl(), actual.getProfileUrl());
+  }
+}
@@ -0,0 +1,89 @@
+/**
+ * Copyright 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.waveprotocol.box.server.persistence.file;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.Random;
+
+/**
+ * Uploads {@link #UPLOADS} distinct attachments and as many copies of one
+ * attachment to a {@link FileAttachmentStore}, and reports the upload latency
+ * of each kind and the bytes stored on disk. Not really a test case.
+ */
+public class AttachmentStorePerformanceTester {
+
+  private static final int UPLOADS = 20;
+  private static final int SIZE = 256 * 1024;
+  private static final int RUNS = 5;
+
+  private static byte[] randomBytes(int size, long seed) {
+    byte[] bytes = new byte[size];
+    new Random(seed).nextBytes(bytes);
+    return bytes;
+  }
+
+  private static long directorySize(File directory) {
+    long size = 0;
+    for (File file : directory.listFiles()) {
+      size += file.length();
+    }
+    return size;
+  }
+
+  /** Uploads the attachments into a new store, printing the results if asked. */
+  private static void upload(boolean print) throws Exception {
+    File path = FileUtils.createTemporaryDirectory();
+    try {
+      FileAttachmentStore store = new FileAttachmentStore(path.getAbsolutePath());
+      byte[] shared = randomBytes(SIZE, 1);
+      long uniqueNanos = 0;
+      long duplicateNanos = 0;
+      for (int i = 0; i < UPLOADS; i++) {
+        byte[] unique = randomBytes(SIZE, i + 2);
+        long start = System.nanoTime();
+        store.storeAttachment("unique" + i, new ByteArrayInputStream(unique));
+        uniqueNanos += System.nanoTime() - start;
+
+        start = System.nanoTime();
+        store.storeAttachment("shared" + i, new ByteArrayInputStream(shared));
+        duplicateNanos += System.nanoTime() - start;
+      }
+      if (print) {
+        System.err.println(String.format(
+            "Stored %,d bytes in %,d bytes; %,d us/unique upload, %,d us/duplicate upload",
+            2L * UPLOADS * SIZE, directorySize(new File(path, "blobs")),
+            uniqueNanos / UPLOADS / 1000, duplicateNanos / UPLOADS / 1000));
+      }
+    } finally {
+      org.apache.commons.io.FileUtils.deleteDirectory(path);
+    }
+  }
+
+  public void testUploads() throws Exception {
+    // Warm up, so that class loading and compilation are not measured.
+    upload(false);
+    for (int i = 0; i < RUNS; i++) {
+      upload(true);
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    new AttachmentStorePerformanceTester().testUploads();
+  }
+}
@@ -19,8 +19,13 @@ package org.waveprotocol.box.server.persistence.file;
 
 import org.waveprotocol.box.server.persistence.AttachmentStore;
 import org.waveprotocol.box.server.persistence.AttachmentStoreTestBase;
+import org.waveprotocol.box.server.persistence.AttachmentUtil;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.Random;
 
 /**
  * A wrapper for the tests in AttachmentStoreBase which uses a file based
@@ -40,6 +45,85 @@ public class AttachmentStoreTest extends AttachmentStoreTestBase {
     return new FileAttachmentStore(path.getAbsolutePath());
   }
 
+  public void testDuplicateUploadsAreStoredOnce() throws Exception {
+    FileAttachmentStore store = new FileAttachmentStore(path.getAbsolutePath());
+    int uploads = 20;
+    int size = 16 * 1024;
+    byte[] shared = randomBytes(size, 1);
+
+    for (int i = 0; i < uploads; i++) {
+      assertTrue(store.storeAttachment("unique" + i,
+          new ByteArrayInputStream(randomBytes(size, i + 2))));
+      assertTrue(store.storeAttachment("shared" + i, new ByteArrayInputStream(shared)));
+    }
+
+    for (int i = 0; i < uploads; i++) {
+      byte[] stored = AttachmentUtil.writeAttachmentDataToString(
+          store.getAttachment("shared" + i), "ISO-8859-1").getBytes("ISO-8859-1");
+      assertTrue(Arrays.equals(shared, stored));
+    }
+    // One blob per unique upload, plus a single blob for all the shared ones.
+    File blobs = new File(path, "blobs");
+    assertEquals(uploads + 1, blobs.listFiles().length);
+    assertEquals((uploads + 1L) * size, directorySize(blobs));
+  }
+
+  public void testSharedDataIsKeptUntilUnreferenced() throws Exception {
+    FileAttachmentStore store = new FileAttachmentStore(path.getAbsolutePath());
+    writeStringDataToAttachmentStore(store, "id1", "some data");
+    writeStringDataToAttachmentStore(store, "id2", "some data");
+
+    store.deleteAttachment("id1");
+    assertEquals(0, store.sweep());
+    assertNull(store.getAttachment("id1"));
+    assertEquals("some data", dataToString(store.getAttachment("id2")));
+
+    store.deleteAttachment("id2");
+    assertEquals(1, store.sweep());
+    assertNull(store.getAttachment("id2"));
+    assertEquals(0, new File(path, "blobs").listFiles().length);
+  }
+
+  public void testReferencesAreCountedAfterRestart() throws Exception {
+    FileAttachmentStore store = new FileAttachmentStore(path.getAbsolutePath());
+    writeStringDataToAttachmentStore(store, "id1", "some data");
+    writeStringDataToAttachmentStore(store, "id2", "some data");
+
+    store = new FileAttachmentStore(path.getAbsolutePath());
+    store.deleteAttachment("id1");
+    assertEquals(0, store.sweep());
+    assertEquals("some data", dataToString(store.getAttachment("id2")));
+  }
+
+  public void testAttachmentStoredByIdIsServed() throws Exception {
+    // Attachments used to be stored in a file named after their id.
+    FileAttachmentStore store = new FileAttachmentStore(path.getAbsolutePath());
+    File legacyFile = new File(path, "aWQx");
+    FileOutputStream stream = new FileOutputStream(legacyFile);
+    stream.write("legacy data".getBytes("UTF-8"));
+    stream.close();
+
+    assertEquals("legacy data", dataToString(store.getAttachment("id1")));
+    assertFalse(writeStringDataToAttachmentStore(store, "id1", "new data"));
+    store.deleteAttachment("id1");
+    assertNull(store.getAttachment("id1"));
+    assertFalse(legacyFile.exists());
+  }
+
+  private static byte[] randomBytes(int size, long seed) {
+    byte[] bytes = new byte[size];
+    new Random(seed).nextBytes(bytes);
+    return bytes;
+  }
+
+  private static long directorySize(File directory) {
+    long size = 0;
+    for (File file : directory.listFiles()) {
+      size += file.length();
+    }
+    return size;
+  }
+
   @Override
   protected void tearDown() throws Exception {
     super.tearDown();
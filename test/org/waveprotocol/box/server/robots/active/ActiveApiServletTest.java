@@ -18,8 +18,8 @@
 package org.waveprotocol.box.server.robots.active;
 
 import static org.mockito.Matchers.any;
-import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
@@ -40,6 +40,8 @@ import net.oauth.OAuthMessage;
 import net.oauth.OAuthServiceProvider;
 import net.oauth.OAuthValidator;
 
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.waveprotocol.box.server.account.RobotAccountDataImpl;
 import org.waveprotocol.box.server.persistence.AccountStore;
 import org.waveprotocol.box.server.robots.OperationContext;
@@ -51,6 +53,7 @@ import org.waveprotocol.wave.model.wave.ParticipantId;
 
 import java.io.BufferedReader;
 import java.io.PrintWriter;
+import java.io.Reader;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.lang.reflect.Type;
@@ -114,10 +117,16 @@ public class ActiveApiServletTest extends TestCase {
     String operationId = "op1";
     OperationRequest operation = new OperationRequest("wavelet.create", operationId);
     List<OperationRequest> operations = Collections.singletonList(operation);
-    when(robotSerializer.deserializeOperations(anyString())).thenReturn(operations);
-    String responseValue = "response value";
-    when(robotSerializer.serialize(any(), any(Type.class), any(ProtocolVersion.class))).thenReturn(
-        responseValue);
+    when(robotSerializer.deserializeOperations(any(Reader.class))).thenReturn(operations);
+    final String responseValue = "response value";
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        ((Appendable) invocation.getArguments()[3]).append(responseValue);
+        return null;
+      }
+    }).when(robotSerializer).serialize(
+        any(), any(Type.class), any(ProtocolVersion.class), any(Appendable.class));
 
     OperationService service = mock(OperationService.class);
     when(operationRegistry.getServiceFor(any(OperationType.class))).thenReturn(service);
@@ -21,6 +21,7 @@ import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
@@ -44,6 +45,8 @@ import net.oauth.OAuthMessage;
 import net.oauth.OAuthServiceProvider;
 import net.oauth.OAuthValidator;
 
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.waveprotocol.box.server.robots.OperationContext;
 import org.waveprotocol.box.server.robots.OperationServiceRegistry;
 import org.waveprotocol.box.server.robots.operations.OperationService;
@@ -54,6 +57,7 @@ import org.waveprotocol.wave.model.wave.ParticipantId;
 
 import java.io.BufferedReader;
 import java.io.PrintWriter;
+import java.io.Reader;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.lang.reflect.Type;
@@ -120,10 +124,16 @@ public class DataApiServletTest extends TestCase {
     String operationId = "op1";
     OperationRequest operation = new OperationRequest("wavelet.create", operationId);
     List<OperationRequest> operations = Collections.singletonList(operation);
-    when(robotSerializer.deserializeOperations(anyString())).thenReturn(operations);
-    String responseValue = "response value";
-    when(robotSerializer.serialize(any(), any(Type.class), any(ProtocolVersion.class))).thenReturn(
-        responseValue);
+    when(robotSerializer.deserializeOperations(any(Reader.class))).thenReturn(operations);
+    final String responseValue = "response value";
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        ((Appendable) invocation.getArguments()[3]).append(responseValue);
+        return null;
+      }
+    }).when(robotSerializer).serialize(
+        any(), any(Type.class), any(ProtocolVersion.class), any(Appendable.class));
     Map<String, String[]> params = getOAuthParams();
     when(req.getParameterMap()).thenReturn(params);
 
@@ -0,0 +1,277 @@
+/**
+ * Copyright 2011 Google Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package org.waveprotocol.box.server.robots.operations;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.wave.api.ParticipantProfile;
+
+import junit.framework.TestCase;
+
+import org.waveprotocol.box.server.persistence.memory.MemoryStore;
+import org.waveprotocol.box.server.robots.operations.FetchProfilesService.ProfilesFetcher;
+import org.waveprotocol.wave.crypto.TimeSource;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for {@link CachingProfilesFetcher}.
+ */
+public class CachingProfilesFetcherTest extends TestCase {
+
+  private static final String ADDRESS = "john.smith@example.com";
+  private static final String OTHER_ADDRESS = "jane@example.com";
+  private static final long TTL_MS = 1000;
+  private static final long NEGATIVE_TTL_MS = 100;
+  private static final long TIMEOUT_MS = 50;
+
+  /** A remote fetcher that counts its calls and fails for unknown addresses. */
+  private static class FakeRemoteFetcher implements ProfilesFetcher {
+    int calls;
+
+    @Override
+    public ParticipantProfile fetchProfile(String address) {
+      calls++;
+      if (address.equals(ADDRESS) || address.equals(OTHER_ADDRESS)) {
+        return new ParticipantProfile(address, "Fetched " + address, "image", "profile");
+      }
+      // Like the GravatarProfileFetcher when everything failed.
+      return new ParticipantProfile();
+    }
+  }
+
+  /** An executor that runs the tasks when asked to. */
+  private static class ManualExecutor implements Executor {
+    final List<Runnable> tasks = Lists.newArrayList();
+
+    @Override
+    public void execute(Runnable task) {
+      tasks.add(task);
+    }
+
+    void runAll() {
+      List<Runnable> toRun = Lists.newArrayList(tasks);
+      tasks.clear();
+      for (Runnable task : toRun) {
+        task.run();
+      }
+    }
+  }
+
+  private static class FakeTimeSource implements TimeSource {
+    long now = 1;
+
+    @Override
+    public Date now() {
+      return new Date(now);
+    }
+
+    @Override
+    public long currentTimeMillis() {
+      return now;
+    }
+  }
+
+  private FakeRemoteFetcher remoteFetcher;
+  private MemoryStore profileStore;
+  private FakeTimeSource timeSource;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    remoteFetcher = new FakeRemoteFetcher();
+    profileStore = new MemoryStore();
+    timeSource = new FakeTimeSource();
+  }
+
+  private CachingProfilesFetcher newFetcher(ProfilesFetcher remote, Executor executor) {
+    return new CachingProfilesFetcher(remote, profileStore, executor, timeSource, TTL_MS,
+        NEGATIVE_TTL_MS, TIMEOUT_MS);
+  }
+
+  public void testFetchedProfileIsCachedAndStored() {
+    CachingProfilesFetcher fetcher =
+        newFetcher(remoteFetcher, MoreExecutors.sameThreadExecutor());
+
+    assertEquals("Fetched " + ADDRESS, fetcher.fetchProfile(ADDRESS).getName());
+    assertEquals("Fetched " + ADDRESS, fetcher.fetchProfile(ADDRESS).getName());
+    assertEquals(1, remoteFetcher.calls);
+    assertEquals("Fetched " + ADDRESS, profileStore.getProfile(ADDRESS).getName());
+  }
+
+  public void testProfileIsFetchedAgainAfterTtl() {
+    CachingProfilesFetcher fetcher =
+        newFetcher(remoteFetcher, MoreExecutors.sameThreadExecutor());
+
+    fetcher.fetchProfile(ADDRESS);
+    timeSource.now += TTL_MS;
+    fetcher.fetchProfile(ADDRESS);
+    assertEquals(2, remoteFetcher.calls);
+  }
+
+  public void testFailedFetchIsNegativelyCached() {
+    CachingProfilesFetcher fetcher =
+        newFetcher(remoteFetcher, MoreExecutors.sameThreadExecutor());
+    String unknown = "unknown.person@example.com";
+
+    ParticipantProfile profile = fetcher.fetchProfile(unknown);
+    assertEquals(unknown, profile.getAddress());
+    assertEquals("Unknown Person", profile.getName());
+    fetcher.fetchProfile(unknown);
+    assertEquals(1, remoteFetcher.calls);
+    assertNull(profileStore.getProfile(unknown));
+
+    timeSource.now += NEGATIVE_TTL_MS;
+    fetcher.fetchProfile(unknown);
+    assertEquals(2, remoteFetcher.calls);
+  }
+
+  public void testFailedFetchKeepsStoredProfile() {
+    ParticipantProfile stored = new ParticipantProfile(ADDRESS, "Stored", "image", "profile");
+    profileStore.putProfile(stored);
+    ProfilesFetcher failingFetcher = new ProfilesFetcher() {
+      @Override
+      public ParticipantProfile fetchProfile(String address) {
+        throw new RuntimeException("Remote is down");
+      }
+    };
+    CachingProfilesFetcher fetcher =
+        newFetcher(failingFetcher, MoreExecutors.sameThreadExecutor());
+
+    assertEquals("Stored", fetcher.fetchProfile(ADDRESS).getName());
+  }
+
+  public void testFetchProfilesReturnsProfilesInOrder() {
+    CachingProfilesFetcher fetcher =
+        newFetcher(remoteFetcher, MoreExecutors.sameThreadExecutor());
+
+    List<ParticipantProfile> profiles =
+        fetcher.fetchProfiles(ImmutableList.of(OTHER_ADDRESS, ADDRESS));
+    assertEquals(2, profiles.size());
+    assertEquals(OTHER_ADDRESS, profiles.get(0).getAddress());
+    assertEquals(ADDRESS, profiles.get(1).getAddress());
+  }
+
+  public void testFetchProfilesFallsBackToSimpleProfileOnTimeout() throws Exception {
+    final CountDownLatch release = new CountDownLatch(1);
+    ProfilesFetcher slowFetcher = new ProfilesFetcher() {
+      @Override
+      public ParticipantProfile fetchProfile(String address) {
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        return new ParticipantProfile(address, "Slow", "image", "profile");
+      }
+    };
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      CachingProfilesFetcher fetcher = newFetcher(slowFetcher, executor);
+
+      ParticipantProfile profile = fetcher.fetchProfile(ADDRESS);
+      assertEquals(
+          ProfilesFetcher.SIMPLE_PROFILE_FETCHER.fetchProfile(ADDRESS).getName(),
+          profile.getName());
+
+      // The fetch carries on in the background.
+      release.countDown();
+      executor.shutdown();
+      assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
+      assertEquals("Slow", fetcher.getCachedProfile(ADDRESS).getName());
+    } finally {
+      release.countDown();
+      executor.shutdownNow();
+    }
+  }
+
+  public void testGetCachedProfileDoesNotWaitForFetch() {
+    ManualExecutor executor = new ManualExecutor();
+    CachingProfilesFetcher fetcher = newFetcher(remoteFetcher, executor);
+
+    assertNull(fetcher.getCachedProfile(ADDRESS));
+    assertNull(fetcher.getCachedProfile(ADDRESS));
+    assertEquals(0, remoteFetcher.calls);
+    // Concurrent lookups share a single fetch.
+    assertEquals(1, executor.tasks.size());
+
+    executor.runAll();
+    assertEquals("Fetched " + ADDRESS, fetcher.getCachedProfile(ADDRESS).getName());
+    assertTrue(executor.tasks.isEmpty());
+  }
+
+  public void testGetCachedProfileServesStaleProfileWhileRefreshing() {
+    ManualExecutor executor = new ManualExecutor();
+    CachingProfilesFetcher fetcher = newFetcher(remoteFetcher, executor);
+    fetcher.getCachedProfile(ADDRESS);
+    executor.runAll();
+
+    timeSource.now += TTL_MS;
+    assertEquals("Fetched " + ADDRESS, fetcher.getCachedProfile(ADDRESS).getName());
+    assertEquals(1, executor.tasks.size());
+    executor.runAll();
+    assertEquals(2, remoteFetcher.calls);
+  }
+
+  public void testGetCachedProfileServesStoredProfileDuringFetch() {
+    profileStore.putProfile(new ParticipantProfile(ADDRESS, "Stored", "image", "profile"));
+    ManualExecutor executor = new ManualExecutor();
+    final ParticipantProfile[] duringFetch = new ParticipantProfile[1];
+    final CachingProfilesFetcher[] fetcher = new CachingProfilesFetcher[1];
+    fetcher[0] = newFetcher(new ProfilesFetcher() {
+      @Override
+      public ParticipantProfile fetchProfile(String address) {
+        duringFetch[0] = fetcher[0].getCachedProfile(address);
+        return remoteFetcher.fetchProfile(address);
+      }
+    }, executor);
+
+    // The store is not read on the calling thread.
+    assertNull(fetcher[0].getCachedProfile(ADDRESS));
+    assertEquals(1, executor.tasks.size());
+    // As after a restart: the stored profile is served while it is refreshed.
+    executor.runAll();
+    assertEquals("Stored", duringFetch[0].getName());
+    assertEquals("Fetched " + ADDRESS, fetcher[0].getCachedProfile(ADDRESS).getName());
+  }
+
+  public void testRejectedFetchFallsBackToStoredProfile() {
+    profileStore.putProfile(new ParticipantProfile(ADDRESS, "Stored", "image", "profile"));
+    Executor rejectingExecutor = new Executor() {
+      @Override
+      public void execute(Runnable task) {
+        throw new RejectedExecutionException("Queue is full");
+      }
+    };
+    CachingProfilesFetcher fetcher = newFetcher(remoteFetcher, rejectingExecutor);
+
+    assertEquals("Stored", fetcher.fetchProfile(ADDRESS).getName());
+    assertEquals(
+        ProfilesFetcher.SIMPLE_PROFILE_FETCHER.fetchProfile(OTHER_ADDRESS).getName(),
+        fetcher.fetchProfile(OTHER_ADDRESS).getName());
+    assertEquals(0, remoteFetcher.calls);
+  }
+}
@@ -0,0 +1,305 @@
+/**
+ * Copyright 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.waveprotocol.box.server.robots.operations;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import junit.framework.TestCase;
+
+import org.waveprotocol.box.common.DeltaSequence;
+import org.waveprotocol.box.server.robots.operations.DigestSummaryIndex.Summary;
+import org.waveprotocol.box.server.robots.util.ConversationUtil;
+import org.waveprotocol.box.server.util.WaveletDataUtil;
+import org.waveprotocol.wave.model.conversation.BlipIterators;
+import org.waveprotocol.wave.model.conversation.Conversation;
+import org.waveprotocol.wave.model.conversation.ConversationBlip;
+import org.waveprotocol.wave.model.conversation.ConversationView;
+import org.waveprotocol.wave.model.conversation.ObservableConversationView;
+import org.waveprotocol.wave.model.conversation.TitleHelper;
+import org.waveprotocol.wave.model.conversation.WaveBasedConversationView;
+import org.waveprotocol.wave.model.conversation.WaveletBasedConversation;
+import org.waveprotocol.wave.model.document.util.LineContainers;
+import org.waveprotocol.wave.model.document.util.XmlStringBuilder;
+import org.waveprotocol.wave.model.id.WaveId;
+import org.waveprotocol.wave.model.id.WaveletId;
+import org.waveprotocol.wave.model.operation.SilentOperationSink;
+import org.waveprotocol.wave.model.operation.wave.TransformedWaveletDelta;
+import org.waveprotocol.wave.model.operation.wave.WaveletOperation;
+import org.waveprotocol.wave.model.operation.wave.WaveletOperationContext;
+import org.waveprotocol.wave.model.supplement.SupplementedWave;
+import org.waveprotocol.wave.model.supplement.SupplementedWaveImpl;
+import org.waveprotocol.wave.model.supplement.SupplementedWaveImpl.DefaultFollow;
+import org.waveprotocol.wave.model.supplement.WaveletBasedSupplement;
+import org.waveprotocol.wave.model.testing.BasicFactories;
+import org.waveprotocol.wave.model.testing.FakeIdGenerator;
+import org.waveprotocol.wave.model.version.HashedVersion;
+import org.waveprotocol.wave.model.wave.ParticipantId;
+import org.waveprotocol.wave.model.wave.ParticipationHelper;
+import org.waveprotocol.wave.model.wave.ReadOnlyWaveView;
+import org.waveprotocol.wave.model.wave.data.ObservableWaveletData;
+import org.waveprotocol.wave.model.wave.data.WaveletData;
+import org.waveprotocol.wave.model.wave.data.impl.WaveletDataImpl;
+import org.waveprotocol.wave.model.wave.opbased.OpBasedWavelet;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests for {@link DigestSummaryIndex}, comparing its summaries with the ones
+ * computed from a conversation and a supplement over random sequences of
+ * edits and read state changes.
+ */
+public class DigestSummaryIndexTest extends TestCase {
+
+  private static final ParticipantId USER = ParticipantId.ofUnsafe("me@example.com");
+  private static final ParticipantId OTHER_USER = ParticipantId.ofUnsafe("you@example.com");
+  private static final WaveId WAVE_ID = WaveId.of("example.com", "w+wave");
+  private static final WaveletId CONVERSATION_WAVELET_ID =
+      WaveletId.of("example.com", "conv+root");
+  private static final WaveletId USER_DATA_WAVELET_ID =
+      WaveletId.of("example.com", "user+me@example.com");
+
+  private static final int STEPS = 400;
+
+  /**
+   * A wavelet whose operations are applied at once, and delivered to the
+   * index as deltas when {@link #deliver} is called.
+   */
+  private static class TestingWavelet {
+    final ObservableWaveletData data;
+    final OpBasedWavelet wavelet;
+    final List<WaveletOperation> pending = Lists.newArrayList();
+    long timestamp = 1234567890;
+
+    TestingWavelet(WaveletId waveletId) {
+      data = new WaveletDataImpl(waveletId, USER, timestamp, 0, HashedVersion.unsigned(0),
+          timestamp, WAVE_ID, BasicFactories.observablePluggableMutableDocumentFactory());
+      WaveletOperationContext.Factory contexts = new WaveletOperationContext.Factory() {
+        @Override
+        public WaveletOperationContext createContext() {
+          return createContext(USER);
+        }
+
+        @Override
+        public WaveletOperationContext createContext(ParticipantId creator) {
+          // Each operation is a delta of its own, as the server would version it.
+          return new WaveletOperationContext(creator, ++timestamp, 1);
+        }
+      };
+      wavelet = new OpBasedWavelet(WAVE_ID, data, contexts, ParticipationHelper.DEFAULT,
+          SilentOperationSink.Executor.<WaveletOperation, WaveletData>build(data),
+          new SilentOperationSink<WaveletOperation>() {
+            @Override
+            public void consume(WaveletOperation op) {
+              pending.add(op);
+            }
+          });
+    }
+
+    /** Delivers the pending operations to the index as one delta. */
+    void deliver(DigestSummaryIndex index) {
+      if (!pending.isEmpty()) {
+        TransformedWaveletDelta delta = TransformedWaveletDelta.cloneOperations(USER,
+            HashedVersion.unsigned(data.getVersion()), timestamp, pending);
+        index.waveletUpdate(data, DeltaSequence.of(delta));
+      }
+      pending.clear();
+    }
+
+    /** Drops the pending operations, as if the update had been missed. */
+    void drop() {
+      pending.clear();
+    }
+  }
+
+  private DigestSummaryIndex index;
+  private TestingWavelet conversationWavelet;
+  private TestingWavelet userDataWavelet;
+  private Conversation conversation;
+  private SupplementedWave supplement;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    createWave();
+  }
+
+  private void createWave() {
+    index = new DigestSummaryIndex();
+    conversationWavelet = new TestingWavelet(CONVERSATION_WAVELET_ID);
+    userDataWavelet = new TestingWavelet(USER_DATA_WAVELET_ID);
+
+    ReadOnlyWaveView waveView = new ReadOnlyWaveView(WAVE_ID);
+    waveView.addWavelet(conversationWavelet.wavelet);
+    ConversationView conversations =
+        WaveBasedConversationView.create(waveView, FakeIdGenerator.create());
+    WaveletBasedConversation.makeWaveletConversational(conversationWavelet.wavelet);
+    conversation = conversations.getRoot();
+    conversation.addParticipant(USER);
+    supplement = SupplementedWaveImpl.create(
+        WaveletBasedSupplement.create(userDataWavelet.wavelet), conversations, USER,
+        DefaultFollow.ALWAYS);
+  }
+
+  public void testNonConversationalWaveletHasNoSummary() {
+    TestingWavelet wavelet = new TestingWavelet(CONVERSATION_WAVELET_ID);
+    assertNull(index.summarize(USER, wavelet.data, null));
+  }
+
+  public void testUnreadCountFollowsEditsAndReadState() {
+    ConversationBlip first = appendBlip(conversation.getRootThread().appendBlip(), "title");
+    appendBlip(first.addReplyThread().appendBlip(), "reply");
+    assertSummary(2, 2);
+
+    supplement.markAsRead(first);
+    deliverAll();
+    assertSummary(2, 1);
+
+    appendText(first, " edited");
+    deliverAll();
+    assertSummary(2, 2);
+
+    supplement.markAsRead();
+    deliverAll();
+    assertSummary(2, 0);
+
+    appendBlip(conversation.getRootThread().appendBlip(), "new");
+    deliverAll();
+    assertSummary(3, 1);
+
+    first.delete();
+    deliverAll();
+    assertSummary(1, 1);
+
+    supplement.markAsUnread();
+    deliverAll();
+    assertSummary(1, 1);
+  }
+
+  public void testSummaryOfAWaveWithoutUserData() {
+    appendBlip(conversation.getRootThread().appendBlip(), "title");
+    Summary summary = index.summarize(OTHER_USER, conversationWavelet.data, null);
+    assertEquals("title", summary.getTitle());
+    assertEquals(1, summary.getBlipCount());
+    assertEquals(1, summary.getUnreadCount());
+  }
+
+  public void testSummariesMatchFullComputationOverRandomSequences() {
+    for (long seed = 0; seed < 10; seed++) {
+      createWave();
+      runRandomSequence(seed);
+    }
+  }
+
+  private void runRandomSequence(long seed) {
+    Random random = new Random(seed);
+    for (int step = 0; step < STEPS; step++) {
+      List<ConversationBlip> blips = ImmutableList.copyOf(
+          BlipIterators.breadthFirst(conversation));
+      ConversationBlip blip = blips.isEmpty() ? null : blips.get(random.nextInt(blips.size()));
+      int action = random.nextInt(10);
+      if (blip == null || action == 0) {
+        appendBlip(conversation.getRootThread().appendBlip(), "blip " + step);
+      } else if (action == 1) {
+        appendBlip(blip.addReplyThread().appendBlip(), "reply " + step);
+      } else if (action <= 3) {
+        appendText(blip, " edit " + step);
+      } else if (action == 4) {
+        blip.delete();
+      } else if (action <= 6) {
+        supplement.markAsRead(blip);
+      } else if (action == 7) {
+        supplement.markAsRead();
+      } else if (action == 8) {
+        supplement.markAsUnread();
+      } else {
+        assertMatchesFullComputation("seed " + seed + ", step " + step);
+        continue;
+      }
+
+      // Most updates reach the index through the wave bus, some are missed.
+      if (random.nextInt(10) != 0) {
+        conversationWavelet.deliver(index);
+        userDataWavelet.deliver(index);
+      } else {
+        conversationWavelet.drop();
+        userDataWavelet.drop();
+      }
+    }
+    assertMatchesFullComputation("seed " + seed + ", end");
+  }
+
+  private void deliverAll() {
+    conversationWavelet.deliver(index);
+    userDataWavelet.deliver(index);
+  }
+
+  private ConversationBlip appendBlip(ConversationBlip blip, String text) {
+    LineContainers.appendToLastLine(blip.getContent(), XmlStringBuilder.createText(text));
+    TitleHelper.maybeFindAndSetImplicitTitle(blip.getContent());
+    return blip;
+  }
+
+  private void appendText(ConversationBlip blip, String text) {
+    LineContainers.appendToLastLine(blip.getContent(), XmlStringBuilder.createText(text));
+  }
+
+  private void assertSummary(int blipCount, int unreadCount) {
+    Summary summary = summarize();
+    assertEquals(blipCount, summary.getBlipCount());
+    assertEquals(unreadCount, summary.getUnreadCount());
+    assertMatchesFullComputation("");
+  }
+
+  /**
+   * Checks the summary of the index against a summary computed from a
+   * conversation and a supplement, as searches used to compute it.
+   */
+  private void assertMatchesFullComputation(String where) {
+    ObservableWaveletData conversationCopy =
+        WaveletDataUtil.copyWavelet(conversationWavelet.data);
+    ObservableConversationView conversations = new ConversationUtil(FakeIdGenerator.create())
+        .buildConversation(OpBasedWavelet.createReadOnly(conversationCopy));
+    SupplementedWave expectedSupplement = SupplementedWaveImpl.create(
+        WaveletBasedSupplement.create(OpBasedWavelet.createReadOnly(
+            WaveletDataUtil.copyWavelet(userDataWavelet.data))),
+        conversations, USER, DefaultFollow.ALWAYS);
+    int blipCount = 0;
+    int unreadCount = 0;
+    for (ConversationBlip blip : BlipIterators.breadthFirst(conversations.getRoot())) {
+      blipCount++;
+      if (expectedSupplement.isUnread(blip)) {
+        unreadCount++;
+      }
+    }
+    ConversationBlip firstBlip = conversations.getRoot().getRootThread().getFirstBlip();
+    String title =
+        firstBlip != null ? TitleHelper.extractTitle(firstBlip.getContent()).trim() : "";
+
+    Summary summary = summarize();
+    assertEquals(where, title, summary.getTitle());
+    assertEquals(where, blipCount, summary.getBlipCount());
+    assertEquals(where, unreadCount, summary.getUnreadCount());
+  }
+
+  private Summary summarize() {
+    return index.summarize(USER, WaveletDataUtil.copyWavelet(conversationWavelet.data),
+        WaveletDataUtil.copyWavelet(userDataWavelet.data));
+  }
+}
@@ -22,7 +22,8 @@ import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
-import com.google.gwt.dev.util.collect.Lists;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.wave.api.FetchProfilesRequest;
 import com.google.wave.api.FetchProfilesResult;
 import com.google.wave.api.InvalidRequestException;
@@ -37,6 +38,7 @@ import org.hamcrest.Description;
 import org.hamcrest.Matcher;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.waveprotocol.box.server.persistence.memory.MemoryStore;
 import org.waveprotocol.box.server.robots.OperationContext;
 import org.waveprotocol.box.server.robots.operations.FetchProfilesService.ProfilesFetcher;
 import org.waveprotocol.wave.model.wave.ParticipantId;
@@ -64,11 +66,12 @@ public class FetchProfilesServiceTest extends TestCase {
   @Override
   protected void setUp() {
     MockitoAnnotations.initMocks(this);
-    FetchProfilesRequest request = new FetchProfilesRequest(Lists.create(ADDRESS));
+    FetchProfilesRequest request = new FetchProfilesRequest(Lists.newArrayList(ADDRESS));
     when(operation.getParameter(ParamsProperty.FETCH_PROFILES_REQUEST)).thenReturn(request);
     when(fakeProfilesFetcher.fetchProfile(ADDRESS)).thenReturn(
         new ParticipantProfile(ADDRESS, NAME, IMAGE_URL, PROFILE_URL));
-    service = new FetchProfilesService(fakeProfilesFetcher);
+    service = new FetchProfilesService(CachingProfilesFetcher.create(
+        fakeProfilesFetcher, new MemoryStore(), MoreExecutors.sameThreadExecutor()));
   }
 
   public void testFetchProfilesServiceWorks() throws InvalidRequestException {
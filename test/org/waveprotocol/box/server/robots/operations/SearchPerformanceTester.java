@@ -0,0 +1,274 @@
+/**
+ * Copyright 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.waveprotocol.box.server.robots.operations;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.wave.api.SearchResult.Digest;
+
+import org.waveprotocol.box.common.Snippets;
+import org.waveprotocol.box.server.robots.util.ConversationUtil;
+import org.waveprotocol.box.server.util.WaveletDataUtil;
+import org.waveprotocol.box.server.waveserver.SearchProvider;
+import org.waveprotocol.wave.model.conversation.BlipIterators;
+import org.waveprotocol.wave.model.conversation.Conversation;
+import org.waveprotocol.wave.model.conversation.ConversationBlip;
+import org.waveprotocol.wave.model.conversation.ConversationView;
+import org.waveprotocol.wave.model.conversation.ObservableConversationView;
+import org.waveprotocol.wave.model.conversation.TitleHelper;
+import org.waveprotocol.wave.model.conversation.WaveBasedConversationView;
+import org.waveprotocol.wave.model.conversation.WaveletBasedConversation;
+import org.waveprotocol.wave.model.document.util.LineContainers;
+import org.waveprotocol.wave.model.document.util.XmlStringBuilder;
+import org.waveprotocol.wave.model.id.WaveId;
+import org.waveprotocol.wave.model.id.WaveletId;
+import org.waveprotocol.wave.model.operation.SilentOperationSink;
+import org.waveprotocol.wave.model.operation.wave.BasicWaveletOperationContextFactory;
+import org.waveprotocol.wave.model.operation.wave.WaveletOperation;
+import org.waveprotocol.wave.model.supplement.SupplementedWave;
+import org.waveprotocol.wave.model.supplement.SupplementedWaveImpl;
+import org.waveprotocol.wave.model.supplement.SupplementedWaveImpl.DefaultFollow;
+import org.waveprotocol.wave.model.supplement.WaveletBasedSupplement;
+import org.waveprotocol.wave.model.testing.BasicFactories;
+import org.waveprotocol.wave.model.testing.FakeIdGenerator;
+import org.waveprotocol.wave.model.version.HashedVersion;
+import org.waveprotocol.wave.model.wave.ParticipantId;
+import org.waveprotocol.wave.model.wave.ParticipationHelper;
+import org.waveprotocol.wave.model.wave.ReadOnlyWaveView;
+import org.waveprotocol.wave.model.wave.data.ObservableWaveletData;
+import org.waveprotocol.wave.model.wave.data.WaveViewData;
+import org.waveprotocol.wave.model.wave.data.WaveletData;
+import org.waveprotocol.wave.model.wave.data.impl.WaveViewDataImpl;
+import org.waveprotocol.wave.model.wave.data.impl.WaveletDataImpl;
+import org.waveprotocol.wave.model.wave.opbased.OpBasedWavelet;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Measures the latency of searching an inbox of 5000 waves with
+ * {@link SearchService}, whose digests come from a {@link DigestSummaryIndex},
+ * compared with building a conversation and a supplement for every digest and
+ * counting its unread blips, as it used to. Not really a test case.
+ */
+public class SearchPerformanceTester {
+
+  private static final ParticipantId USER = ParticipantId.ofUnsafe("me@example.com");
+  private static final WaveletId CONVERSATION_WAVELET_ID =
+      WaveletId.of("example.com", "conv+root");
+  private static final WaveletId USER_DATA_WAVELET_ID =
+      WaveletId.of("example.com", "user+me@example.com");
+
+  private static final int INBOX_SIZE = 5000;
+  private static final int BLIPS_PER_WAVE = 10;
+  private static final int PAGE_SIZE = 20;
+  private static final int RUNS = 10;
+  private static final String QUERY = "in:inbox";
+
+  /** Searches the whole inbox, or a page of it. */
+  private interface Searcher {
+    void search(int startAt, int numResults);
+  }
+
+  private final List<WaveViewData> inbox = Lists.newArrayList();
+
+  /** Returns copies of the waves of the inbox, as the wave map does. */
+  private final SearchProvider copyingProvider = new SearchProvider() {
+    @Override
+    public Collection<WaveViewData> search(ParticipantId user, String query, int startAt,
+        int numResults) {
+      List<WaveViewData> results = Lists.newArrayList();
+      for (WaveViewData wave : inbox.subList(Math.min(startAt, inbox.size()),
+          Math.min(startAt + numResults, inbox.size()))) {
+        WaveViewData copy = WaveViewDataImpl.create(wave.getWaveId());
+        for (ObservableWaveletData wavelet : wave.getWavelets()) {
+          copy.addWavelet(WaveletDataUtil.copyWavelet(wavelet));
+        }
+        results.add(copy);
+      }
+      return results;
+    }
+  };
+
+  /** Returns the waves of the inbox themselves. */
+  private final SearchProvider sharingProvider = new SearchProvider() {
+    @Override
+    public Collection<WaveViewData> search(ParticipantId user, String query, int startAt,
+        int numResults) {
+      return inbox.subList(Math.min(startAt, inbox.size()),
+          Math.min(startAt + numResults, inbox.size()));
+    }
+  };
+
+  /**
+   * Builds a wave of {@link #BLIPS_PER_WAVE} blips, of which the user has
+   * read every other one.
+   */
+  private static WaveViewData buildWave(int index) {
+    WaveId waveId = WaveId.of("example.com", "w+" + index);
+    ObservableWaveletData conversationData = new WaveletDataImpl(CONVERSATION_WAVELET_ID, USER,
+        index, 0, HashedVersion.unsigned(0), index, waveId,
+        BasicFactories.observablePluggableMutableDocumentFactory());
+    ObservableWaveletData udwData = new WaveletDataImpl(USER_DATA_WAVELET_ID, USER, index, 0,
+        HashedVersion.unsigned(0), index, waveId,
+        BasicFactories.observablePluggableMutableDocumentFactory());
+    OpBasedWavelet conversationWavelet = createWavelet(waveId, conversationData);
+    OpBasedWavelet udw = createWavelet(waveId, udwData);
+
+    ReadOnlyWaveView waveView = new ReadOnlyWaveView(waveId);
+    waveView.addWavelet(conversationWavelet);
+    ConversationView conversations =
+        WaveBasedConversationView.create(waveView, FakeIdGenerator.create());
+    WaveletBasedConversation.makeWaveletConversational(conversationWavelet);
+    Conversation conversation = conversations.getRoot();
+    conversation.addParticipant(USER);
+    SupplementedWave supplement = SupplementedWaveImpl.create(WaveletBasedSupplement.create(udw),
+        conversations, USER, DefaultFollow.ALWAYS);
+    for (int i = 0; i < BLIPS_PER_WAVE; i++) {
+      ConversationBlip blip = conversation.getRootThread().appendBlip();
+      LineContainers.appendToLastLine(blip.getContent(),
+          XmlStringBuilder.createText("Blip " + i + " of wave " + index));
+      if (i == 0) {
+        TitleHelper.maybeFindAndSetImplicitTitle(blip.getContent());
+      }
+      if (i % 2 == 0) {
+        supplement.markAsRead(blip);
+      }
+    }
+    return WaveViewDataImpl.create(waveId, ImmutableList.of(
+        WaveletDataUtil.copyWavelet(conversationData), WaveletDataUtil.copyWavelet(udwData)));
+  }
+
+  private static OpBasedWavelet createWavelet(WaveId waveId, ObservableWaveletData data) {
+    return new OpBasedWavelet(waveId, data, new BasicWaveletOperationContextFactory(USER),
+        ParticipationHelper.DEFAULT,
+        SilentOperationSink.Executor.<WaveletOperation, WaveletData>build(data),
+        SilentOperationSink.VOID);
+  }
+
+  /** Digests the search results the way {@link SearchService} did before. */
+  private List<Digest> searchWithConversations(int startAt, int numResults) {
+    ConversationUtil conversationUtil = new ConversationUtil(FakeIdGenerator.create());
+    List<Digest> digests = Lists.newArrayList();
+    for (WaveViewData wave : copyingProvider.search(USER, QUERY, startAt, numResults)) {
+      ObservableWaveletData conversationData = wave.getWavelet(CONVERSATION_WAVELET_ID);
+      ObservableConversationView conversations =
+          conversationUtil.buildConversation(OpBasedWavelet.createReadOnly(conversationData));
+      SupplementedWave supplement = SupplementedWaveImpl.create(
+          WaveletBasedSupplement.create(
+              OpBasedWavelet.createReadOnly(wave.getWavelet(USER_DATA_WAVELET_ID))),
+          conversations, USER, DefaultFollow.ALWAYS);
+      ConversationBlip firstBlip = conversations.getRoot().getRootThread().getFirstBlip();
+      String title = TitleHelper.extractTitle(firstBlip.getContent()).trim();
+      String snippet = Snippets.renderSnippet(conversationData, 140).trim();
+      if (snippet.startsWith(title) && !title.isEmpty()) {
+        snippet = snippet.substring(title.length());
+      }
+      List<String> participants = Lists.newArrayList();
+      for (ParticipantId p : conversationData.getParticipants()) {
+        participants.add(p.getAddress());
+      }
+      int unreadCount = 0;
+      int blipCount = 0;
+      for (ConversationBlip blip : BlipIterators.breadthFirst(conversations.getRoot())) {
+        if (supplement.isUnread(blip)) {
+          unreadCount++;
+        }
+        blipCount++;
+      }
+      digests.add(new Digest(title, snippet, wave.getWaveId().serialise(), participants,
+          conversationData.getLastModifiedTime(), unreadCount, blipCount));
+    }
+    return digests;
+  }
+
+  private static void check(String name, List<Digest> expected, List<Digest> actual) {
+    for (int i = 0; i < expected.size(); i++) {
+      Digest e = expected.get(i);
+      Digest a = actual.get(i);
+      if (!e.getTitle().equals(a.getTitle()) || e.getUnreadCount() != a.getUnreadCount()
+          || e.getBlipCount() != a.getBlipCount() || !e.getSnippet().equals(a.getSnippet())) {
+        throw new AssertionError(name + " digested wave " + i + " differently");
+      }
+    }
+  }
+
+  private static void measure(String name, Searcher searcher, int numResults) {
+    int pages = INBOX_SIZE / numResults;
+    long start = System.nanoTime();
+    for (int run = 0; run < RUNS; run++) {
+      for (int page = 0; page < pages; page++) {
+        searcher.search(page * numResults, numResults);
+      }
+    }
+    long elapsed = System.nanoTime() - start;
+    System.err.println(String.format("%-36s %,12d us/search", name,
+        elapsed / 1000 / (RUNS * pages)));
+  }
+
+  public void testPerformance() throws Exception {
+    for (int i = 0; i < INBOX_SIZE; i++) {
+      inbox.add(buildWave(i));
+    }
+    final SearchService copying = new SearchService(copyingProvider, new DigestSummaryIndex());
+    final SearchService sharing = new SearchService(sharingProvider, new DigestSummaryIndex());
+    check("The index", searchWithConversations(0, INBOX_SIZE),
+        copying.search(USER, QUERY, 0, INBOX_SIZE).getDigests());
+    check("The index", searchWithConversations(0, INBOX_SIZE),
+        sharing.search(USER, QUERY, 0, INBOX_SIZE).getDigests());
+
+    for (final int numResults : new int[] {INBOX_SIZE, PAGE_SIZE}) {
+      String results = numResults + " results";
+      measure("copies only, " + results, new Searcher() {
+        @Override
+        public void search(int startAt, int numResults) {
+          copyingProvider.search(USER, QUERY, startAt, numResults);
+        }
+      }, numResults);
+      measure("conversations, " + results, new Searcher() {
+        @Override
+        public void search(int startAt, int numResults) {
+          searchWithConversations(startAt, numResults);
+        }
+      }, numResults);
+      measure("index, " + results, new Searcher() {
+        @Override
+        public void search(int startAt, int numResults) {
+          copying.search(USER, QUERY, startAt, numResults);
+        }
+      }, numResults);
+      measure("index without copies, " + results, new Searcher() {
+        @Override
+        public void search(int startAt, int numResults) {
+          sharing.search(USER, QUERY, startAt, numResults);
+        }
+      }, numResults);
+      measure("empty index, " + results, new Searcher() {
+        @Override
+        public void search(int startAt, int numResults) {
+          new SearchService(copyingProvider, new DigestSummaryIndex()).search(
+              USER, QUERY, startAt, numResults);
+        }
+      }, numResults);
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    new SearchPerformanceTester().testPerformance();
+  }
+}
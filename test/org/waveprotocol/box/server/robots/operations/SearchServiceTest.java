@@ -19,8 +19,6 @@ package org.waveprotocol.box.server.robots.operations;
 
 import static org.mockito.Matchers.argThat;
 import static org.mockito.Matchers.eq;
-import static org.mockito.Mockito.any;
-import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.waveprotocol.box.server.util.testing.TestingConstants.OTHER_PARTICIPANT;
@@ -45,29 +43,24 @@ import org.hamcrest.Matcher;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.waveprotocol.box.server.robots.OperationContext;
-import org.waveprotocol.box.server.robots.util.ConversationUtil;
 import org.waveprotocol.box.server.util.WaveletDataUtil;
 import org.waveprotocol.box.server.waveserver.SearchProvider;
 import org.waveprotocol.wave.model.conversation.Conversation;
 import org.waveprotocol.wave.model.conversation.ConversationBlip;
 import org.waveprotocol.wave.model.conversation.ConversationView;
-import org.waveprotocol.wave.model.conversation.ObservableConversationView;
 import org.waveprotocol.wave.model.conversation.TitleHelper;
 import org.waveprotocol.wave.model.conversation.WaveBasedConversationView;
 import org.waveprotocol.wave.model.conversation.WaveletBasedConversation;
 import org.waveprotocol.wave.model.document.util.LineContainers;
 import org.waveprotocol.wave.model.document.util.XmlStringBuilder;
-import org.waveprotocol.wave.model.id.IdGenerator;
 import org.waveprotocol.wave.model.id.WaveId;
 import org.waveprotocol.wave.model.id.WaveletId;
 import org.waveprotocol.wave.model.operation.SilentOperationSink;
 import org.waveprotocol.wave.model.operation.wave.BasicWaveletOperationContextFactory;
 import org.waveprotocol.wave.model.operation.wave.WaveletOperation;
-import org.waveprotocol.wave.model.supplement.SupplementedWave;
 import org.waveprotocol.wave.model.testing.BasicFactories;
 import org.waveprotocol.wave.model.testing.FakeIdGenerator;
 import org.waveprotocol.wave.model.version.HashedVersion;
-import org.waveprotocol.wave.model.wave.ObservableWavelet;
 import org.waveprotocol.wave.model.wave.ParticipantId;
 import org.waveprotocol.wave.model.wave.ParticipationHelper;
 import org.waveprotocol.wave.model.wave.ReadOnlyWaveView;
@@ -99,9 +92,6 @@ public class SearchServiceTest extends TestCase {
   @Mock private SearchProvider searchProvider;
   @Mock private OperationRequest operation;
   @Mock private OperationContext context;
-  @Mock private IdGenerator idGenerator;
-  
-  private ConversationUtil conversationUtil;
 
   /**
    * Builds a wavelet and provides direct access to the various layers of
@@ -165,10 +155,9 @@ public class SearchServiceTest extends TestCase {
   protected void setUp() {
     MockitoAnnotations.initMocks(this);
     
-    conversationUtil = new ConversationUtil(idGenerator);
     when(operation.getParameter(ParamsProperty.QUERY)).thenReturn("in:inbox");
    
-    service = new SearchService(searchProvider, new ConversationUtil(idGenerator));
+    service = new SearchService(searchProvider, new DigestSummaryIndex());
   }
 
   public void testSearchWrapsSearchProvidersResult() throws InvalidRequestException {
@@ -188,20 +177,19 @@ public class SearchServiceTest extends TestCase {
             PARTICIPANT, OTHER_PARTICIPANT), 1, 1)));
   }
 
-  public void testWaveletWithNoBlipsResultsInEmptyTitleAndNoBlips() {
+  public void testWaveletWithNoBlipsResultsInEmptyTitleAndNoBlips()
+      throws InvalidRequestException {
     TestingWaveletData data =
         new TestingWaveletData(WAVE_ID, CONVERSATION_WAVELET_ID, PARTICIPANT, true);
-    ObservableWaveletData observableWaveletData = data.copyWaveletData().get(0);
-    ObservableWavelet wavelet = OpBasedWavelet.createReadOnly(observableWaveletData);
-    ObservableConversationView conversation = conversationUtil.buildConversation(wavelet);
 
-    SupplementedWave supplement = mock(SupplementedWave.class);
-    when(supplement.isUnread(any(ConversationBlip.class))).thenReturn(true);
-    
-    Digest digest = service.generateDigest(conversation, supplement, observableWaveletData);
+    when(searchProvider.search(USER, "in:inbox", 0, 10)).thenReturn(
+        Arrays.asList(data.copyViewData()));
+    service.execute(operation, context, USER);
 
-    assertEquals("", digest.getTitle());
-    assertEquals(digest.getBlipCount(), 0);
+    verify(context).constructResponse(
+        eq(operation),
+        argThat(matchesSearchResult("in:inbox", WAVE_ID, "", PARTICIPANT, ImmutableSet.of(
+            PARTICIPANT), 0, 0)));
   }
 
   // Note: this is really just testing that the SearchService does not over-step
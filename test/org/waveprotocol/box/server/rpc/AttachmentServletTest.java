@@ -0,0 +1,219 @@
+/**
+ * Copyright 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.waveprotocol.box.server.rpc;
+
+import com.google.common.io.ByteStreams;
+
+import junit.framework.TestCase;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.waveprotocol.box.server.persistence.AttachmentStore;
+import org.waveprotocol.box.server.persistence.file.FileAttachmentStore;
+import org.waveprotocol.box.server.persistence.file.FileUtils;
+import org.waveprotocol.box.server.rpc.AttachmentServlet.ByteRange;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests for {@link AttachmentServlet}, serving attachments from a file store
+ * through an embedded Jetty server.
+ */
+public class AttachmentServletTest extends TestCase {
+
+  private static final String ATTACHMENT_ID = "example.com/attachment1";
+  private static final int SIZE = 10000;
+
+  private File path;
+  private Server server;
+  private byte[] content;
+  private String etag;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    path = FileUtils.createTemporaryDirectory();
+    AttachmentStore store = new FileAttachmentStore(path.getAbsolutePath());
+    content = new byte[SIZE];
+    for (int i = 0; i < SIZE; i++) {
+      content[i] = (byte) (i * 31);
+    }
+    store.storeAttachment(ATTACHMENT_ID, new ByteArrayInputStream(content));
+    etag = AttachmentServlet.computeETag(ATTACHMENT_ID, SIZE);
+
+    server = new Server(0);
+    ServletContextHandler context = new ServletContextHandler(ServletContextHandler.NO_SESSIONS);
+    context.addServlet(new ServletHolder(new AttachmentServlet(store, new ThumbnailGenerator(store))), "/attachment/*");
+    server.setHandler(context);
+    server.start();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    server.stop();
+    org.apache.commons.io.FileUtils.deleteDirectory(path);
+    super.tearDown();
+  }
+
+  public void testWholeAttachmentIsServedWithValidators() throws Exception {
+    HttpURLConnection connection = open();
+    assertEquals(HttpURLConnection.HTTP_OK, connection.getResponseCode());
+    assertEquals(etag, connection.getHeaderField("ETag"));
+    assertEquals("bytes", connection.getHeaderField("Accept-Ranges"));
+    assertTrue(connection.getLastModified() > 0);
+    assertEquals(SIZE, connection.getContentLength());
+    assertTrue(Arrays.equals(content, read(connection)));
+  }
+
+  public void testMissingAttachmentIsNotFound() throws Exception {
+    HttpURLConnection connection =
+        (HttpURLConnection) url("example.com/missing").openConnection();
+    assertEquals(HttpURLConnection.HTTP_NOT_FOUND, connection.getResponseCode());
+  }
+
+  public void testMatchingETagIsNotModified() throws Exception {
+    HttpURLConnection connection = open();
+    connection.setRequestProperty("If-None-Match", etag);
+    assertEquals(HttpURLConnection.HTTP_NOT_MODIFIED, connection.getResponseCode());
+    assertEquals(etag, connection.getHeaderField("ETag"));
+  }
+
+  public void testOtherETagIsServed() throws Exception {
+    HttpURLConnection connection = open();
+    connection.setRequestProperty("If-None-Match",
+        AttachmentServlet.computeETag(ATTACHMENT_ID, SIZE + 1));
+    assertEquals(HttpURLConnection.HTTP_OK, connection.getResponseCode());
+    assertTrue(Arrays.equals(content, read(connection)));
+  }
+
+  public void testIfModifiedSinceIsNotModified() throws Exception {
+    HttpURLConnection connection = open();
+    connection.setIfModifiedSince(System.currentTimeMillis() + 60000);
+    assertEquals(HttpURLConnection.HTTP_NOT_MODIFIED, connection.getResponseCode());
+  }
+
+  public void testSingleRange() throws Exception {
+    HttpURLConnection connection = open();
+    connection.setRequestProperty("Range", "bytes=100-199");
+    assertEquals(HttpURLConnection.HTTP_PARTIAL, connection.getResponseCode());
+    assertEquals("bytes 100-199/" + SIZE, connection.getHeaderField("Content-Range"));
+    assertEquals(100, connection.getContentLength());
+    assertTrue(Arrays.equals(Arrays.copyOfRange(content, 100, 200), read(connection)));
+  }
+
+  public void testSuffixAndOpenRanges() throws Exception {
+    HttpURLConnection connection = open();
+    connection.setRequestProperty("Range", "bytes=-10");
+    assertEquals(HttpURLConnection.HTTP_PARTIAL, connection.getResponseCode());
+    assertEquals("bytes 9990-9999/" + SIZE, connection.getHeaderField("Content-Range"));
+    assertTrue(Arrays.equals(Arrays.copyOfRange(content, SIZE - 10, SIZE), read(connection)));
+
+    connection = open();
+    connection.setRequestProperty("Range", "bytes=9000-");
+    assertEquals(HttpURLConnection.HTTP_PARTIAL, connection.getResponseCode());
+    assertTrue(Arrays.equals(Arrays.copyOfRange(content, 9000, SIZE), read(connection)));
+  }
+
+  public void testMultipleRanges() throws Exception {
+    HttpURLConnection connection = open();
+    connection.setRequestProperty("Range", "bytes=0-9,5000-5009");
+    assertEquals(HttpURLConnection.HTTP_PARTIAL, connection.getResponseCode());
+    String contentType = connection.getContentType();
+    assertTrue(contentType.startsWith("multipart/byteranges; boundary="));
+    String boundary = contentType.substring(contentType.indexOf('=') + 1);
+
+    byte[] body = read(connection);
+    assertEquals(connection.getContentLength(), body.length);
+    String text = new String(body, "ISO-8859-1");
+    assertTrue(text.contains("Content-Range: bytes 0-9/" + SIZE + "\r\n\r\n"
+        + new String(Arrays.copyOfRange(content, 0, 10), "ISO-8859-1") + "\r\n--" + boundary));
+    assertTrue(text.contains("Content-Range: bytes 5000-5009/" + SIZE + "\r\n\r\n"
+        + new String(Arrays.copyOfRange(content, 5000, 5010), "ISO-8859-1")
+        + "\r\n--" + boundary + "--\r\n"));
+  }
+
+  public void testUnsatisfiableRange() throws Exception {
+    HttpURLConnection connection = open();
+    connection.setRequestProperty("Range", "bytes=" + SIZE + "-");
+    assertEquals(416, connection.getResponseCode());
+    assertEquals("bytes */" + SIZE, connection.getHeaderField("Content-Range"));
+  }
+
+  public void testIfRangeWithCurrentETagServesRange() throws Exception {
+    HttpURLConnection connection = open();
+    connection.setRequestProperty("Range", "bytes=0-99");
+    connection.setRequestProperty("If-Range", etag);
+    assertEquals(HttpURLConnection.HTTP_PARTIAL, connection.getResponseCode());
+    assertEquals(100, read(connection).length);
+  }
+
+  public void testIfRangeWithOtherETagServesWholeAttachment() throws Exception {
+    HttpURLConnection connection = open();
+    connection.setRequestProperty("Range", "bytes=0-99");
+    connection.setRequestProperty("If-Range", "\"something-else\"");
+    assertEquals(HttpURLConnection.HTTP_OK, connection.getResponseCode());
+    assertTrue(Arrays.equals(content, read(connection)));
+  }
+
+  public void testParseRanges() {
+    assertNull(AttachmentServlet.parseRanges(null, SIZE));
+    assertNull(AttachmentServlet.parseRanges("items=0-1", SIZE));
+    assertNull(AttachmentServlet.parseRanges("bytes=5-1", SIZE));
+    assertNull(AttachmentServlet.parseRanges("bytes=a-b", SIZE));
+
+    List<ByteRange> ranges = AttachmentServlet.parseRanges("bytes=0-0, 9990-20000, -1", SIZE);
+    assertEquals(3, ranges.size());
+    assertRange(0, 0, ranges.get(0));
+    assertRange(9990, 9999, ranges.get(1));
+    assertRange(9999, 9999, ranges.get(2));
+
+    assertTrue(AttachmentServlet.parseRanges("bytes=20000-", SIZE).isEmpty());
+    assertTrue(AttachmentServlet.parseRanges("bytes=-0", SIZE).isEmpty());
+  }
+
+  private static void assertRange(long start, long end, ByteRange range) {
+    assertEquals(start, range.start);
+    assertEquals(end, range.end);
+  }
+
+  private URL url(String attachmentId) throws IOException {
+    return new URL("http://localhost:" + server.getConnectors()[0].getLocalPort()
+        + "/attachment/" + attachmentId + "?fileName=data.bin");
+  }
+
+  private HttpURLConnection open() throws IOException {
+    return (HttpURLConnection) url(ATTACHMENT_ID).openConnection();
+  }
+
+  private static byte[] read(HttpURLConnection connection) throws IOException {
+    InputStream in = connection.getInputStream();
+    try {
+      return ByteStreams.toByteArray(in);
+    } finally {
+      in.close();
+    }
+  }
+}
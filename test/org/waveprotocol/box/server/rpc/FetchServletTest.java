@@ -17,19 +17,23 @@
 
 package org.waveprotocol.box.server.rpc;
 
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import com.google.common.collect.ImmutableSortedMap;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonParser;
 import com.google.protobuf.Message;
 
 import junit.framework.TestCase;
 
+import org.waveprotocol.box.common.comms.WaveClientRpc.WaveViewSnapshot;
 import org.waveprotocol.box.common.comms.WaveClientRpc.WaveletSnapshot;
 import org.waveprotocol.box.server.account.HumanAccountDataImpl;
 import org.waveprotocol.box.server.authentication.SessionManager;
@@ -40,14 +44,20 @@ import org.waveprotocol.box.server.persistence.memory.MemoryStore;
 import org.waveprotocol.box.server.util.TestDataUtil;
 import org.waveprotocol.wave.model.id.WaveId;
 import org.waveprotocol.wave.model.id.WaveletId;
+import org.waveprotocol.wave.model.id.WaveletName;
+import org.waveprotocol.wave.model.version.HashedVersion;
 import org.waveprotocol.wave.model.wave.ParticipantId;
 import org.waveprotocol.wave.model.wave.data.BlipData;
 import org.waveprotocol.wave.model.wave.data.WaveletData;
 import org.waveprotocol.wave.model.waveref.WaveRef;
 import org.waveprotocol.wave.util.escapers.jvm.JavaWaverefEncoder;
 
-import java.io.PrintWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.StringWriter;
+import java.util.SortedMap;
+
+import javax.servlet.ServletOutputStream;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -64,6 +74,7 @@ import javax.servlet.http.HttpServletResponse;
 public class FetchServletTest extends TestCase {
   private static final ProtoSerializer protoSerializer = new ProtoSerializer();
   private WaveletProviderStub waveletProvider;
+  private SessionManager sessionManager;
   private FetchServlet servlet;
 
   @Override
@@ -73,7 +84,7 @@ public class FetchServletTest extends TestCase {
     accountStore.putAccount(new HumanAccountDataImpl(ParticipantId.ofUnsafe("fred@example.com")));
     org.eclipse.jetty.server.SessionManager jettySessionManager =
         mock(org.eclipse.jetty.server.SessionManager.class);
-    SessionManager sessionManager = new SessionManagerImpl(accountStore, jettySessionManager);
+    sessionManager = new SessionManagerImpl(accountStore, jettySessionManager);
     servlet = new FetchServlet(waveletProvider, protoSerializer, sessionManager);
   }
 
@@ -151,35 +162,142 @@ public class FetchServletTest extends TestCase {
     }
   }
 
+  public void testGetWaveReturnsVisibleWavelets() throws Exception {
+    WaveletData wavelet = waveletProvider.getHostedWavelet();
+
+    WaveRef waveref = WaveRef.of(wavelet.getWaveId());
+    WaveViewSnapshot snapshot = fetchWaverRefAndParse(waveref, WaveViewSnapshot.class);
+    assertEquals(1, snapshot.getWaveletCount());
+    WaveletData roundtripped =
+        SnapshotSerializer.deserializeWavelet(snapshot.getWavelet(0), waveref.getWaveId());
+    TestDataUtil.checkSerializedWavelet(wavelet, roundtripped);
+  }
+
+  public void testResponseHasETagAndRevalidationHeaders() throws Exception {
+    WaveletData wavelet = waveletProvider.getHostedWavelet();
+    WaveRef waveref = WaveRef.of(wavelet.getWaveId(), wavelet.getWaveletId());
+
+    HttpServletResponse response = mock(HttpServletResponse.class);
+    when(response.getOutputStream()).thenReturn(new ByteArrayServletOutputStream());
+    requestWaveRef(waveref, null, response);
+
+    verify(response).setStatus(HttpServletResponse.SC_OK);
+    verify(response).setHeader("ETag", etagOf(wavelet));
+    verify(response).setHeader("Cache-Control", "private, max-age=0, must-revalidate");
+  }
+
+  public void testMatchingIfNoneMatchReturnsNotModified() throws Exception {
+    WaveletData wavelet = waveletProvider.getHostedWavelet();
+    WaveRef waveref = WaveRef.of(wavelet.getWaveId(), wavelet.getWaveletId());
+
+    HttpServletResponse response = mock(HttpServletResponse.class);
+    requestWaveRef(waveref, "\"other\", " + etagOf(wavelet), response);
+
+    verify(response).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+    verify(response).setHeader("ETag", etagOf(wavelet));
+    verify(response, never()).getOutputStream();
+    verify(response, never()).getWriter();
+  }
+
+  public void testStaleIfNoneMatchReturnsSnapshot() throws Exception {
+    WaveletData wavelet = waveletProvider.getHostedWavelet();
+    WaveRef waveref = WaveRef.of(wavelet.getWaveId(), wavelet.getWaveletId());
+
+    HttpServletResponse response = mock(HttpServletResponse.class);
+    ByteArrayServletOutputStream output = new ByteArrayServletOutputStream();
+    when(response.getOutputStream()).thenReturn(output);
+    requestWaveRef(waveref, "\"0-00\"", response);
+
+    verify(response).setStatus(HttpServletResponse.SC_OK);
+    assertEquals(fetchWaveRef(waveref), output.toString("UTF-8"));
+  }
+
+  public void testNotModifiedAndCachedResponsesDoNotCopyWavelets() throws Exception {
+    WaveletProviderStub provider = spy(new WaveletProviderStub());
+    servlet = new FetchServlet(provider, protoSerializer, sessionManager);
+    WaveletData wavelet = provider.getHostedWavelet();
+    WaveRef waveref = WaveRef.of(wavelet.getWaveId(), wavelet.getWaveletId());
+
+    HttpServletResponse response = mock(HttpServletResponse.class);
+    requestWaveRef(waveref, etagOf(wavelet), response);
+    verify(response).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+    verify(provider, never()).getSnapshot(any(WaveletName.class));
+
+    String first = fetchWaveRef(waveref);
+    verify(provider, times(1)).getSnapshot(any(WaveletName.class));
+    assertEquals(first, fetchWaveRef(waveref));
+    verify(provider, times(1)).getSnapshot(any(WaveletName.class));
+  }
+
+  public void testETagChangesWithVersion() {
+    WaveletId waveletId = WaveletId.of("example.com", "conv+root");
+    SortedMap<WaveletId, HashedVersion> versions =
+        ImmutableSortedMap.of(waveletId, HashedVersion.of(1, new byte[] {1, 2}));
+    String etag = FetchServlet.computeETag(versions);
+    assertEquals(etag, FetchServlet.computeETag(versions));
+
+    versions = ImmutableSortedMap.of(waveletId, HashedVersion.of(2, new byte[] {3, 4}));
+    assertFalse(etag.equals(FetchServlet.computeETag(versions)));
+  }
+
+  public void testMatchesETag() {
+    assertFalse(FetchServlet.matchesETag(null, "\"a\""));
+    assertFalse(FetchServlet.matchesETag("\"b\"", "\"a\""));
+    assertTrue(FetchServlet.matchesETag("\"a\"", "\"a\""));
+    assertTrue(FetchServlet.matchesETag("\"b\", W/\"a\"", "\"a\""));
+    assertTrue(FetchServlet.matchesETag("*", "\"a\""));
+  }
+
   // ** Helper methods
 
+  /** A servlet output stream that collects the written bytes. */
+  private static class ByteArrayServletOutputStream extends ServletOutputStream {
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+    @Override
+    public void write(int b) {
+      bytes.write(b);
+    }
+
+    public String toString(String charset) throws IOException {
+      return bytes.toString(charset);
+    }
+  }
+
+  private static String etagOf(WaveletData wavelet) {
+    return FetchServlet.computeETag(
+        ImmutableSortedMap.of(wavelet.getWaveletId(), wavelet.getHashedVersion()));
+  }
+
   /**
    * Fetch the given waveref from the servlet.
    */
-  private void requestWaveRef(WaveRef waveref, HttpServletResponse response) throws Exception {
+  private void requestWaveRef(WaveRef waveref, String ifNoneMatch,
+      HttpServletResponse response) throws Exception {
     HttpServletRequest request = mock(HttpServletRequest.class);
     when(request.getPathInfo()).thenReturn("/" + JavaWaverefEncoder.encodeToUriPathSegment(waveref));
+    when(request.getHeader("If-None-Match")).thenReturn(ifNoneMatch);
     servlet.doGet(request, response);
   }
 
   private void verifyServletReturnsForbiddenForWaveref(WaveRef waveref) throws Exception {
     HttpServletResponse response = mock(HttpServletResponse.class);
-    requestWaveRef(waveref, response);
+    requestWaveRef(waveref, null, response);
     verify(response).sendError(HttpServletResponse.SC_FORBIDDEN);
   }
 
   private String fetchWaveRef(WaveRef waveref) throws Exception {
     HttpServletResponse response = mock(HttpServletResponse.class);
 
-    StringWriter writer = new StringWriter();
-    when(response.getWriter()).thenReturn(new PrintWriter(writer));
+    ByteArrayServletOutputStream output = new ByteArrayServletOutputStream();
+    when(response.getOutputStream()).thenReturn(output);
 
-    requestWaveRef(waveref, response);
+    requestWaveRef(waveref, null, response);
 
-    verify(response).getWriter();
+    verify(response).getOutputStream();
     verify(response, never()).sendError(anyInt());
 
-    return writer.toString();
+    return output.toString("UTF-8");
   }
 
   private <T extends Message> T fetchWaverRefAndParse(WaveRef waveref, Class<T> klass) throws Exception {
@@ -0,0 +1,315 @@
+/**
+ * Copyright 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.waveprotocol.box.server.rpc;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+
+import junit.framework.TestCase;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.waveprotocol.box.server.authentication.SessionManager;
+import org.waveprotocol.box.server.persistence.AttachmentStore;
+import org.waveprotocol.box.server.persistence.file.FileAttachmentStore;
+import org.waveprotocol.box.server.persistence.file.FileUtils;
+import org.waveprotocol.box.server.waveserver.WaveletProvider;
+import org.waveprotocol.wave.model.id.WaveletName;
+import org.waveprotocol.wave.model.wave.ParticipantId;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.Collections;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+import javax.servlet.http.HttpSession;
+
+/**
+ * Tests for {@link ThumbnailServlet} and {@link ThumbnailGenerator}, uploading
+ * images through the {@link AttachmentServlet} of an embedded Jetty server.
+ */
+public class ThumbnailServletTest extends TestCase {
+
+  private static final int WIDTH = 1600;
+  private static final int HEIGHT = 1200;
+  private static final long TIMEOUT_MS = 10000;
+  private static final ParticipantId USER = ParticipantId.ofUnsafe("user@example.com");
+  private static final String WAVE_REF = "example.com/w+abc/~/conv+root";
+  private static final WaveletName WAVELET_NAME =
+      WaveletName.of("example.com", "w+abc", "example.com", "conv+root");
+
+  private File path;
+  private AttachmentStore store;
+  private SessionManager sessionManager;
+  private WaveletProvider waveletProvider;
+  private Server server;
+
+  /** The names of the threads which decoded images. */
+  private final List<String> decodingThreads =
+      Collections.synchronizedList(Lists.<String>newArrayList());
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    path = FileUtils.createTemporaryDirectory();
+    store = new FileAttachmentStore(path.getAbsolutePath());
+    ThumbnailGenerator thumbnails = new ThumbnailGenerator(store) {
+      @Override
+      BufferedImage decode(InputStream in) throws IOException {
+        decodingThreads.add(Thread.currentThread().getName());
+        return super.decode(in);
+      }
+    };
+
+    sessionManager = mock(SessionManager.class);
+    when(sessionManager.getLoggedInUser(any(HttpSession.class))).thenReturn(USER);
+    waveletProvider = mock(WaveletProvider.class);
+    when(waveletProvider.checkAccessPermission(WAVELET_NAME, USER)).thenReturn(true);
+
+    server = new Server(0);
+    ServletContextHandler context = new ServletContextHandler(ServletContextHandler.NO_SESSIONS);
+    context.addServlet(new ServletHolder(new AttachmentServlet(store, thumbnails)),
+        "/attachment/*");
+    context.addServlet(new ServletHolder(
+        new ThumbnailServlet(thumbnails, waveletProvider, sessionManager)), "/thumbnail/*");
+    server.setHandler(context);
+    server.start();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    server.stop();
+    org.apache.commons.io.FileUtils.deleteDirectory(path);
+    super.tearDown();
+  }
+
+  public void testUploadedPngGetsThumbnail() throws Exception {
+    checkThumbnailOfUpload("example.com/png", "png", WIDTH, HEIGHT, 120, 90);
+  }
+
+  public void testUploadedJpegGetsThumbnail() throws Exception {
+    checkThumbnailOfUpload("example.com/jpeg", "jpeg", HEIGHT, WIDTH, 90, 120);
+  }
+
+  public void testSmallImageKeepsItsSize() throws Exception {
+    checkThumbnailOfUpload("example.com/small", "png", 40, 30, 40, 30);
+  }
+
+  public void testStoredImageGetsThumbnailWhenRequested() throws Exception {
+    store.storeAttachment("example.com/stored", new ByteArrayInputStream(encode("png", 300, 300)));
+
+    HttpURLConnection connection = openThumbnail("example.com/stored");
+    assertEquals(HttpURLConnection.HTTP_UNAVAILABLE, connection.getResponseCode());
+    assertEquals("1", connection.getHeaderField("Retry-After"));
+    BufferedImage thumbnail = ImageIO.read(new ByteArrayInputStream(
+        read(awaitThumbnail("example.com/stored"))));
+    assertEquals(120, thumbnail.getWidth());
+    assertNoDecodingOnRequestThreads();
+  }
+
+  public void testAttachmentWhichIsNotAnImageHasNoThumbnail() throws Exception {
+    upload("example.com/text", "not an image".getBytes("UTF-8"));
+    long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+    int status;
+    while ((status = openThumbnail("example.com/text").getResponseCode())
+        == HttpURLConnection.HTTP_UNAVAILABLE) {
+      assertTrue(System.currentTimeMillis() < deadline);
+      Thread.sleep(10);
+    }
+    assertEquals(HttpURLConnection.HTTP_NOT_FOUND, status);
+  }
+
+  public void testMissingAttachmentHasNoThumbnail() throws Exception {
+    HttpURLConnection connection = openThumbnail("example.com/missing");
+    int status = connection.getResponseCode();
+    if (status == HttpURLConnection.HTTP_UNAVAILABLE) {
+      // The worker has not found out yet that the attachment is missing.
+      Thread.sleep(100);
+      status = openThumbnail("example.com/missing").getResponseCode();
+    }
+    assertEquals(HttpURLConnection.HTTP_NOT_FOUND, status);
+  }
+
+  public void testThumbnailRequestedBeforeUploadIsGenerated() throws Exception {
+    assertEquals(HttpURLConnection.HTTP_NOT_FOUND,
+        openThumbnail("example.com/early").getResponseCode());
+    upload("example.com/early", encode("png", 200, 200));
+    BufferedImage thumbnail = ImageIO.read(new ByteArrayInputStream(
+        read(awaitThumbnail("example.com/early"))));
+    assertEquals(120, thumbnail.getWidth());
+  }
+
+  public void testThumbnailIdCannotBeUploaded() throws Exception {
+    // The '#' of the thumbnail id is escaped, so that it is part of the path.
+    assertEquals(HttpURLConnection.HTTP_BAD_REQUEST, put(
+        ThumbnailGenerator.getThumbnailId("example.com/victim").replace("#", "%23"),
+        "not a thumbnail".getBytes("UTF-8")));
+
+    upload("example.com/victim", encode("png", 200, 200));
+    BufferedImage thumbnail = ImageIO.read(new ByteArrayInputStream(
+        read(awaitThumbnail("example.com/victim"))));
+    assertEquals(120, thumbnail.getWidth());
+  }
+
+  public void testDeletingAttachmentDeletesThumbnail() throws Exception {
+    upload("example.com/deleted", encode("png", 200, 200));
+    awaitThumbnail("example.com/deleted");
+    store.deleteAttachment("example.com/deleted");
+    assertNull(store.getAttachment(ThumbnailGenerator.getThumbnailId("example.com/deleted")));
+  }
+
+  public void testThumbnailIsRevalidatedWithETag() throws Exception {
+    upload("example.com/etag", encode("png", 200, 200));
+    String etag = awaitThumbnail("example.com/etag").getHeaderField("ETag");
+    assertNotNull(etag);
+
+    HttpURLConnection connection = openThumbnail("example.com/etag");
+    connection.setRequestProperty("If-None-Match", etag);
+    assertEquals(HttpURLConnection.HTTP_NOT_MODIFIED, connection.getResponseCode());
+  }
+
+  public void testThumbnailIsForbiddenWithoutWaveletAccess() throws Exception {
+    upload("example.com/private", encode("png", 200, 200));
+    awaitThumbnail("example.com/private");
+
+    assertEquals(HttpURLConnection.HTTP_FORBIDDEN, ((HttpURLConnection) url(
+        "/thumbnail/example.com/private").openConnection()).getResponseCode());
+    assertEquals(HttpURLConnection.HTTP_FORBIDDEN, ((HttpURLConnection) url(
+        "/thumbnail/example.com/private?" + ThumbnailServlet.WAVE_REF_PARAMETER + "=invalid")
+        .openConnection()).getResponseCode());
+    when(waveletProvider.checkAccessPermission(WAVELET_NAME, USER)).thenReturn(false);
+    assertEquals(HttpURLConnection.HTTP_FORBIDDEN,
+        openThumbnail("example.com/private").getResponseCode());
+    when(waveletProvider.checkAccessPermission(WAVELET_NAME, USER)).thenReturn(true);
+    when(sessionManager.getLoggedInUser(any(HttpSession.class))).thenReturn(null);
+    assertEquals(HttpURLConnection.HTTP_FORBIDDEN,
+        openThumbnail("example.com/private").getResponseCode());
+  }
+
+  /**
+   * Uploads an image and checks the size and caching headers of its thumbnail,
+   * and that the image was not decoded by the server threads.
+   */
+  private void checkThumbnailOfUpload(String attachmentId, String format, int width, int height,
+      int thumbnailWidth, int thumbnailHeight) throws Exception {
+    upload(attachmentId, encode(format, width, height));
+    HttpURLConnection connection = awaitThumbnail(attachmentId);
+
+    assertEquals("image/png", connection.getContentType());
+    assertTrue(connection.getHeaderField("Cache-Control").contains("max-age="));
+    BufferedImage thumbnail = ImageIO.read(new ByteArrayInputStream(read(connection)));
+    assertEquals(thumbnailWidth, thumbnail.getWidth());
+    assertEquals(thumbnailHeight, thumbnail.getHeight());
+    assertEquals(1, decodingThreads.size());
+    assertNoDecodingOnRequestThreads();
+  }
+
+  private void assertNoDecodingOnRequestThreads() {
+    synchronized (decodingThreads) {
+      for (String thread : decodingThreads) {
+        assertTrue(thread, thread.startsWith("ThumbnailGenerator-"));
+      }
+    }
+  }
+
+  /** Requests a thumbnail until it has been generated. */
+  private HttpURLConnection awaitThumbnail(String attachmentId) throws Exception {
+    long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+    while (true) {
+      HttpURLConnection connection = openThumbnail(attachmentId);
+      int status = connection.getResponseCode();
+      if (status == HttpURLConnection.HTTP_OK) {
+        return connection;
+      }
+      assertEquals(HttpURLConnection.HTTP_UNAVAILABLE, status);
+      assertTrue("Timed out waiting for the thumbnail", System.currentTimeMillis() < deadline);
+      Thread.sleep(10);
+    }
+  }
+
+  private static byte[] encode(String format, int width, int height) throws IOException {
+    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    Graphics2D graphics = image.createGraphics();
+    for (int x = 0; x < width; x += 10) {
+      graphics.setColor(new Color(x * 255 / width, 128, 255 - x * 255 / width));
+      graphics.fillRect(x, 0, 10, height);
+    }
+    graphics.dispose();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    assertTrue(ImageIO.write(image, format, out));
+    return out.toByteArray();
+  }
+
+  private void upload(String attachmentId, byte[] data) throws IOException {
+    assertEquals(HttpURLConnection.HTTP_OK, put(attachmentId, data));
+  }
+
+  /** Uploads an attachment, returning the response code. */
+  private int put(String attachmentId, byte[] data) throws IOException {
+    HttpURLConnection connection =
+        (HttpURLConnection) url("/attachment/" + attachmentId).openConnection();
+    connection.setRequestMethod("PUT");
+    connection.setDoOutput(true);
+    OutputStream out = connection.getOutputStream();
+    try {
+      out.write(data);
+    } finally {
+      out.close();
+    }
+    int status = connection.getResponseCode();
+    if (status == HttpURLConnection.HTTP_OK) {
+      read(connection);
+    }
+    return status;
+  }
+
+  private HttpURLConnection openThumbnail(String attachmentId) throws IOException {
+    return (HttpURLConnection) url("/thumbnail/" + attachmentId + "?"
+        + ThumbnailServlet.WAVE_REF_PARAMETER + "=" + URLEncoder.encode(WAVE_REF, "UTF-8"))
+        .openConnection();
+  }
+
+  private URL url(String pathAndQuery) throws IOException {
+    return new URL("http://localhost:" + server.getConnectors()[0].getLocalPort() + pathAndQuery);
+  }
+
+  private static byte[] read(HttpURLConnection connection) throws IOException {
+    InputStream in = connection.getInputStream();
+    try {
+      return ByteStreams.toByteArray(in);
+    } finally {
+      in.close();
+    }
+  }
+}
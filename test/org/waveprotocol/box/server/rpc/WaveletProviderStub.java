@@ -24,6 +24,7 @@ import org.waveprotocol.box.server.frontend.CommittedWaveletSnapshot;
 import org.waveprotocol.box.server.util.TestDataUtil;
 import org.waveprotocol.box.server.waveserver.WaveServerException;
 import org.waveprotocol.box.server.waveserver.WaveletProvider;
+import org.waveprotocol.wave.concurrencycontrol.server.ConcurrencyControlCore.ReOpenInfo;
 import org.waveprotocol.wave.federation.Proto.ProtocolWaveletDelta;
 import org.waveprotocol.wave.model.id.WaveId;
 import org.waveprotocol.wave.model.id.WaveletId;
@@ -35,6 +36,7 @@ import org.waveprotocol.wave.model.wave.data.WaveletData;
 
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 
 /**
  * Stub of {@link WaveletProvider} for testing.
@@ -85,12 +87,38 @@ public class WaveletProviderStub implements WaveletProvider {
     }
   }
 
+  @Override
+  public HashedVersion getLatestVersion(WaveletName waveletName) {
+    if (waveletName.waveId.equals(getHostedWavelet().getWaveId())
+        && waveletName.waveletId.equals(getHostedWavelet().getWaveletId())) {
+      return getHostedWavelet().getHashedVersion();
+    } else {
+      return null;
+    }
+  }
+
+  @Override
+  public HashedVersion getLastCommittedVersion(WaveletName waveletName) {
+    if (waveletName.waveId.equals(getHostedWavelet().getWaveId())
+        && waveletName.waveletId.equals(getHostedWavelet().getWaveletId())) {
+      return getCommittedVersion();
+    } else {
+      return null;
+    }
+  }
+
   @Override
   public Collection<TransformedWaveletDelta> getHistory(WaveletName waveletName,
       HashedVersion versionStart, HashedVersion versionEnd) {
     throw new UnsupportedOperationException();
   }
 
+  @Override
+  public ReOpenInfo getCatchUpHistory(WaveletName waveletName,
+      List<HashedVersion> knownVersions, int maxOperations) {
+    throw new UnsupportedOperationException();
+  }
+
   @Override
   public void submitRequest(
       WaveletName waveletName, ProtocolWaveletDelta delta, SubmitRequestListener listener) {
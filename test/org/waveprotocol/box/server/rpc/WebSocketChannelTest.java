@@ -1,11 +1,20 @@
 package org.waveprotocol.box.server.rpc;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonParser;
+import com.google.protobuf.ByteString;
 import com.google.protobuf.Message;
 import com.google.protobuf.UnknownFieldSet;
 
 import junit.framework.TestCase;
 
 import org.waveprotocol.box.common.comms.WaveClientRpc;
+import org.waveprotocol.wave.federation.Proto.ProtocolHashedVersion;
+import org.waveprotocol.wave.federation.Proto.ProtocolWaveletDelta;
+
+import java.util.List;
 
 /**
  * @author arb@google.com
@@ -32,11 +41,13 @@ public class WebSocketChannelTest extends TestCase {
   class TestCallback implements ProtoCallback {
       Message savedMessage = null;
       long sequenceNumber;
+      final List<Integer> sequenceNumbers = Lists.newArrayList();
 
       @Override
       public void message(int sequenceNo, final Message message) {
         this.sequenceNumber = sequenceNo;
         this.savedMessage = message;
+        sequenceNumbers.add(sequenceNo);
       }
 
       @Override
@@ -70,6 +81,42 @@ public class WebSocketChannelTest extends TestCase {
     checkRoundtripping(sourceBuilder);
   }
 
+  public void testResponsesToBatchedSubmitsAreSentTogether() throws Exception {
+    channel.sendMessage(1, buildProtocolSubmitRequest("example.com/w+1/example.com/conv+root"));
+    String submit1 = channel.message;
+    channel.sendMessage(2, buildProtocolSubmitRequest("example.com/w+1/example.com/user+a"));
+    String submit2 = channel.message;
+    channel.message = null;
+
+    channel.handleMessageString("[" + submit1 + "," + submit2 + "]");
+    assertEquals(ImmutableList.of(1, 2), callback.sequenceNumbers);
+
+    WaveClientRpc.ProtocolSubmitResponse response =
+        WaveClientRpc.ProtocolSubmitResponse.newBuilder().setOperationsApplied(1).build();
+    channel.sendMessage(2, response);
+    assertNull(channel.message);
+    channel.sendMessage(1, response);
+    JsonArray responses = new JsonParser().parse(channel.message).getAsJsonArray();
+    assertEquals(2, responses.size());
+    assertEquals(2, responses.get(0).getAsJsonObject().get("sequenceNumber").getAsInt());
+    assertEquals(1, responses.get(1).getAsJsonObject().get("sequenceNumber").getAsInt());
+
+    // Other messages are sent on their own.
+    channel.sendMessage(SEQUENCE_NUMBER, buildProtocolOpenRequest().build());
+    assertTrue(new JsonParser().parse(channel.message).isJsonObject());
+  }
+
+  private WaveClientRpc.ProtocolSubmitRequest buildProtocolSubmitRequest(String waveletName) {
+    return WaveClientRpc.ProtocolSubmitRequest.newBuilder()
+        .setWaveletName(waveletName)
+        .setDelta(ProtocolWaveletDelta.newBuilder()
+            .setAuthor("test@example.com")
+            .setHashedVersion(ProtocolHashedVersion.newBuilder()
+                .setVersion(0)
+                .setHistoryHash(ByteString.copyFromUtf8(waveletName))))
+        .build();
+  }
+
   private void checkRoundtripping(final WaveClientRpc.ProtocolOpenRequest.Builder sourceBuilder) {
     WaveClientRpc.ProtocolOpenRequest sourceRequest = sourceBuilder.build();
     channel.sendMessage(SEQUENCE_NUMBER, sourceRequest);
@@ -0,0 +1,111 @@
+/**
+ * Copyright 2011 Google Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package org.waveprotocol.box.server.rpc.render;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+import com.google.wave.api.InvalidRequestException;
+
+import junit.framework.TestCase;
+
+import org.waveprotocol.box.server.robots.OperationContext;
+import org.waveprotocol.box.server.robots.operations.CachingProfilesFetcher;
+import org.waveprotocol.box.server.waveserver.WaveletProvider;
+import org.waveprotocol.wave.model.id.WaveId;
+import org.waveprotocol.wave.model.id.WaveletId;
+import org.waveprotocol.wave.model.id.WaveletName;
+import org.waveprotocol.wave.model.version.HashedVersion;
+import org.waveprotocol.wave.model.wave.ParticipantId;
+
+/**
+ * Tests for {@link RenderWaveService}.
+ */
+public class RenderWaveServiceTest extends TestCase {
+
+  private static final WaveId WAVE_ID = WaveId.of("example.com", "w+abc");
+  private static final WaveletId WAVELET_ID = WaveletId.of("example.com", "conv+root");
+  private static final WaveletName WAVELET_NAME = WaveletName.of(WAVE_ID, WAVELET_ID);
+  private static final ParticipantId ALEX = ParticipantId.ofUnsafe("alex@example.com");
+  private static final WaveletName UDW_NAME =
+      WaveletName.of(WAVE_ID, ServiceUtil.buildUserDataWaveletId(ALEX));
+  private static final HashedVersion V1 = HashedVersion.unsigned(1);
+  private static final HashedVersion V2 = HashedVersion.unsigned(2);
+  private static final HashedVersion UDW_V1 = HashedVersion.unsigned(10);
+
+  private RenderedWaveCache cache;
+  private WaveletProvider waveletProvider;
+  private OperationContext context;
+  private RenderWaveService service;
+
+  @Override
+  protected void setUp() throws Exception {
+    cache = new RenderedWaveCache();
+    waveletProvider = mock(WaveletProvider.class);
+    context = mock(OperationContext.class);
+    service = RenderWaveService.create(cache, mock(CachingProfilesFetcher.class), waveletProvider);
+
+    when(waveletProvider.checkAccessPermission(WAVELET_NAME, ALEX)).thenReturn(true);
+    when(waveletProvider.getLatestVersion(WAVELET_NAME)).thenReturn(V1);
+    when(waveletProvider.getLatestVersion(UDW_NAME)).thenReturn(UDW_V1);
+    when(context.openWavelet(any(WaveId.class), any(WaveletId.class), any(ParticipantId.class)))
+        .thenThrow(new InvalidRequestException("Rendering"));
+  }
+
+  public void testCachedPageIsServedWithoutOpeningWavelets() throws Exception {
+    cache.putPage(WAVELET_NAME, ALEX, null, V1, UDW_V1, "html");
+
+    assertEquals("html", service.exec(WAVE_ID, WAVELET_ID, null, ALEX, context));
+    verifyZeroInteractions(context);
+  }
+
+  public void testCachedPageIsServedToViewerWithoutSupplement() throws Exception {
+    when(waveletProvider.getLatestVersion(UDW_NAME)).thenReturn(null);
+    cache.putPage(WAVELET_NAME, ALEX, null, V1, null, "html");
+
+    assertEquals("html", service.exec(WAVE_ID, WAVELET_ID, null, ALEX, context));
+    verifyZeroInteractions(context);
+  }
+
+  public void testChangedWaveletIsRendered() throws Exception {
+    cache.putPage(WAVELET_NAME, ALEX, null, V1, UDW_V1, "html");
+    when(waveletProvider.getLatestVersion(WAVELET_NAME)).thenReturn(V2);
+
+    assertRendered();
+  }
+
+  public void testCachedPageIsNotServedWithoutAccess() throws Exception {
+    cache.putPage(WAVELET_NAME, ALEX, null, V1, UDW_V1, "html");
+    when(waveletProvider.checkAccessPermission(WAVELET_NAME, ALEX)).thenReturn(false);
+
+    assertRendered();
+  }
+
+  /** Checks that the page is rendered from the opened wavelet. */
+  private void assertRendered() throws Exception {
+    try {
+      service.exec(WAVE_ID, WAVELET_ID, null, ALEX, context);
+      fail("Expected the wavelet to be opened for rendering");
+    } catch (InvalidRequestException expected) {
+    }
+    verify(context).openWavelet(WAVE_ID, WAVELET_ID, ALEX);
+  }
+}
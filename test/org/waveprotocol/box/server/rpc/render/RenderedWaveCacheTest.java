@@ -0,0 +1,110 @@
+/**
+ * Copyright 2011 Google Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package org.waveprotocol.box.server.rpc.render;
+
+import junit.framework.TestCase;
+
+import org.waveprotocol.wave.model.id.WaveletName;
+import org.waveprotocol.wave.model.version.HashedVersion;
+import org.waveprotocol.wave.model.wave.ParticipantId;
+
+/**
+ * Tests for {@link RenderedWaveCache}.
+ */
+public class RenderedWaveCacheTest extends TestCase {
+
+  private static final WaveletName WAVELET_NAME =
+      WaveletName.of("example.com", "w+abc", "example.com", "conv+root");
+  private static final ParticipantId PUBLIC = ParticipantId.ofUnsafe("@example.com");
+  private static final ParticipantId ALEX = ParticipantId.ofUnsafe("alex@example.com");
+  private static final HashedVersion V1 = HashedVersion.unsigned(1);
+  private static final HashedVersion V2 = HashedVersion.unsigned(2);
+  private static final HashedVersion UDW_V1 = HashedVersion.unsigned(10);
+  private static final HashedVersion UDW_V2 = HashedVersion.unsigned(11);
+
+  private RenderedWaveCache cache;
+
+  @Override
+  protected void setUp() throws Exception {
+    cache = new RenderedWaveCache();
+  }
+
+  public void testPageIsServedAtSameVersions() {
+    cache.putPage(WAVELET_NAME, PUBLIC, null, V1, UDW_V1, "html");
+    assertEquals("html", cache.getPage(WAVELET_NAME, PUBLIC, null, V1, UDW_V1));
+  }
+
+  public void testPageMissesAfterWaveletChange() {
+    cache.putPage(WAVELET_NAME, PUBLIC, null, V1, UDW_V1, "html");
+    assertNull(cache.getPage(WAVELET_NAME, PUBLIC, null, V2, UDW_V1));
+  }
+
+  public void testPageMissesAfterSupplementChange() {
+    cache.putPage(WAVELET_NAME, ALEX, null, V1, UDW_V1, "html");
+    assertNull(cache.getPage(WAVELET_NAME, ALEX, null, V1, UDW_V2));
+  }
+
+  public void testPagesAreSeparatedByViewerAndBlip() {
+    cache.putPage(WAVELET_NAME, PUBLIC, null, V1, UDW_V1, "public");
+    cache.putPage(WAVELET_NAME, ALEX, null, V1, UDW_V1, "alex");
+    cache.putPage(WAVELET_NAME, ALEX, "b+1", V1, UDW_V1, "alex blip");
+
+    assertEquals("public", cache.getPage(WAVELET_NAME, PUBLIC, null, V1, UDW_V1));
+    assertEquals("alex", cache.getPage(WAVELET_NAME, ALEX, null, V1, UDW_V1));
+    assertEquals("alex blip", cache.getPage(WAVELET_NAME, ALEX, "b+1", V1, UDW_V1));
+  }
+
+  public void testNewPageReplacesStalePage() {
+    cache.putPage(WAVELET_NAME, PUBLIC, null, V1, UDW_V1, "old");
+    cache.putPage(WAVELET_NAME, PUBLIC, null, V2, UDW_V1, "new");
+
+    assertNull(cache.getPage(WAVELET_NAME, PUBLIC, null, V1, UDW_V1));
+    assertEquals("new", cache.getPage(WAVELET_NAME, PUBLIC, null, V2, UDW_V1));
+  }
+
+  public void testBlipIsServedUntilModified() {
+    cache.putBlip(WAVELET_NAME, "b+1", 5, "blip");
+    cache.putBlip(WAVELET_NAME, "b+2", 3, "other blip");
+
+    assertEquals("blip", cache.getBlip(WAVELET_NAME, "b+1", 5));
+    assertNull(cache.getBlip(WAVELET_NAME, "b+1", 6));
+    assertEquals("other blip", cache.getBlip(WAVELET_NAME, "b+2", 3));
+  }
+
+  public void testLeastRecentlyUsedPagesAreEvictedByBytes() {
+    // Room for two 4 char pages, at 2 bytes a char.
+    cache = new RenderedWaveCache(16, 16);
+    cache.putPage(WAVELET_NAME, PUBLIC, null, V1, UDW_V1, "aaaa");
+    cache.putPage(WAVELET_NAME, ALEX, null, V1, UDW_V1, "bbbb");
+    assertEquals("aaaa", cache.getPage(WAVELET_NAME, PUBLIC, null, V1, UDW_V1));
+    cache.putPage(WAVELET_NAME, ALEX, "b+1", V1, UDW_V1, "cccc");
+
+    assertEquals("aaaa", cache.getPage(WAVELET_NAME, PUBLIC, null, V1, UDW_V1));
+    assertNull(cache.getPage(WAVELET_NAME, ALEX, null, V1, UDW_V1));
+    assertEquals("cccc", cache.getPage(WAVELET_NAME, ALEX, "b+1", V1, UDW_V1));
+  }
+
+  public void testPageLargerThanBoundIsNotCached() {
+    cache = new RenderedWaveCache(16, 16);
+    cache.putPage(WAVELET_NAME, PUBLIC, null, V1, UDW_V1, "aaaa");
+    cache.putPage(WAVELET_NAME, ALEX, null, V1, UDW_V1, "a page too large");
+
+    assertEquals("aaaa", cache.getPage(WAVELET_NAME, PUBLIC, null, V1, UDW_V1));
+    assertNull(cache.getPage(WAVELET_NAME, ALEX, null, V1, UDW_V1));
+  }
+}
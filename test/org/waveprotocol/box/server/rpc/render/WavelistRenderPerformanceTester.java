@@ -0,0 +1,166 @@
+/**
+ * Copyright 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+package org.waveprotocol.box.server.rpc.render;
+
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableList;
+import com.google.inject.util.Providers;
+import com.google.wave.api.SearchResult;
+import com.google.wave.api.SearchResult.Digest;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.waveprotocol.box.server.rpc.render.web.template.Templates;
+import org.waveprotocol.box.server.rpc.render.web.template.Templates.ReloadPolicy;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.text.MessageFormat;
+import java.util.Date;
+import java.util.List;
+
+import javax.servlet.ServletContext;
+
+/**
+ * Measures the time {@link WavelistRenderServlet} takes to render the wave
+ * list for 25, 100 and 1000 digests, compared with formatting every template
+ * with {@link MessageFormat} into nested strings. Not really a test case; run
+ * it from the project root so that the templates are found in war/templates.
+ */
+public class WavelistRenderPerformanceTester {
+
+  private static final int[] DIGEST_COUNTS = {25, 100, 1000};
+  private static final int WARMUP_RUNS = 200;
+  private static final int RUNS = 500;
+  private static final String HTTP_ADDRESS = "localhost:9898";
+
+  private static final Writer NULL_WRITER = new Writer() {
+    @Override
+    public void write(char[] cbuf, int off, int len) {
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+  };
+
+  private final Templates templates;
+  private final WavelistRenderServlet servlet;
+
+  WavelistRenderPerformanceTester(final File templatesDir) throws Exception {
+    ServletContext context = mock(ServletContext.class);
+    when(context.getResourceAsStream(anyString())).thenAnswer(new Answer<InputStream>() {
+      @Override
+      public InputStream answer(InvocationOnMock invocation) throws IOException {
+        String path = (String) invocation.getArguments()[0];
+        return new FileInputStream(new File(templatesDir, path.replace("/templates/", "")));
+      }
+    });
+    templates = new Templates(Providers.of(context), ReloadPolicy.NEVER);
+    servlet = new WavelistRenderServlet(null, null, null, null, templates, null, HTTP_ADDRESS);
+  }
+
+  private static SearchResult createSearchResult(int digestCount) {
+    SearchResult result = new SearchResult("with:@");
+    List<String> participants =
+        ImmutableList.of("alice@example.com", "bob@example.com", "carol@example.com",
+            "dave@example.com");
+    long now = System.currentTimeMillis();
+    for (int i = 0; i < digestCount; i++) {
+      result.addDigest(new Digest("Title of wave " + i,
+          "A snippet of the content of the wave number " + i, "example.com!w+wave" + i,
+          participants, now - i * 60000L, i % 5, 10 + i % 7));
+    }
+    return result;
+  }
+
+  /**
+   * Renders the wave list the way the servlet did before templates were
+   * compiled, except that the templates are only read once per page.
+   */
+  private String renderWithMessageFormat(SearchResult searchResult) throws IOException {
+    String wavelistPattern = loadPattern(Templates.WAVELIST_TEMPLATE);
+    String avatarPattern = loadPattern(Templates.AVATAR_TEMPLATE);
+    String digestPattern = loadPattern(Templates.DIGEST_TEMPLATE);
+    StringBuilder html = new StringBuilder();
+    for (Digest digest : searchResult.getDigests()) {
+      StringBuilder avatarsSb = new StringBuilder();
+      for (int i = 0; i < 3 && i < digest.getParticipants().size(); i++) {
+        avatarsSb.append(MessageFormat.format(avatarPattern,
+            new Object[] {digest.getParticipants().get(i)}));
+      }
+      String wavePath = digest.getWaveId().replace("!", "/");
+      String lmt = HtmlShallowBlipRenderer.formatPastDate(
+          new Date(digest.getLastModified()), new Date());
+      html.append(MessageFormat.format(digestPattern, new Object[] {"'" + wavePath + "'",
+          avatarsSb.toString(), lmt, String.valueOf(digest.getUnreadCount()),
+          String.valueOf(digest.getBlipCount()), digest.getTitle(),
+          "'http://" + HTTP_ADDRESS + "/render/wave/" + wavePath + "'", digest.getSnippet()}));
+    }
+    return MessageFormat.format(wavelistPattern, new Object[] {html.toString()});
+  }
+
+  private String loadPattern(String template) throws IOException {
+    return Templates.convertStreamToString(templates.openResource(template));
+  }
+
+  private long timeMessageFormat(SearchResult searchResult, int runs) throws IOException {
+    long start = System.nanoTime();
+    for (int i = 0; i < runs; i++) {
+      new PrintWriter(NULL_WRITER).print(renderWithMessageFormat(searchResult));
+    }
+    return System.nanoTime() - start;
+  }
+
+  private long timeCompiled(SearchResult searchResult, int runs) throws IOException {
+    long start = System.nanoTime();
+    for (int i = 0; i < runs; i++) {
+      servlet.renderWavelist(searchResult, new PrintWriter(NULL_WRITER));
+    }
+    return System.nanoTime() - start;
+  }
+
+  public void testPerformance() throws IOException {
+    for (int digestCount : DIGEST_COUNTS) {
+      SearchResult searchResult = createSearchResult(digestCount);
+      int runs = Math.max(1, RUNS * 25 / digestCount);
+      timeMessageFormat(searchResult, WARMUP_RUNS);
+      timeCompiled(searchResult, WARMUP_RUNS);
+      double messageFormatMs = timeMessageFormat(searchResult, runs) / 1e6 / runs;
+      double compiledMs = timeCompiled(searchResult, runs) / 1e6 / runs;
+      System.err.println(String.format(
+          "%5d digests: MessageFormat %.3f ms, compiled %.3f ms per page (%.1fx)",
+          digestCount, messageFormatMs, compiledMs, messageFormatMs / compiledMs));
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    File templatesDir = new File(args.length > 0 ? args[0] : "war/templates");
+    new WavelistRenderPerformanceTester(templatesDir).testPerformance();
+  }
+}
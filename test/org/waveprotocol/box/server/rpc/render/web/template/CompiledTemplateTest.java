@@ -0,0 +1,111 @@
+/**
+ * Copyright 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.waveprotocol.box.server.rpc.render.web.template;
+
+import junit.framework.TestCase;
+
+import org.waveprotocol.box.server.rpc.render.web.template.CompiledTemplate.Fragment;
+
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.Date;
+
+/**
+ * Tests for {@link CompiledTemplate}.
+ */
+public class CompiledTemplateTest extends TestCase {
+
+  private static final String[] PATTERNS = {
+      "",
+      "no arguments",
+      "{0}",
+      "<div id='frame'>{0}</div>",
+      "<img class='avatar' src='/static/images/unknown.jpg' alt='avatar' title=\"{0}\">",
+      "<div id={0} class='digest'><a href={1} target='content'>{2}</a></div>",
+      "it''s {1} and '{0}' is quoted",
+      "'unterminated {0}",
+      "{1}{0}{1}",
+      "'{'{0}'}'",
+  };
+
+  private static final Object[] ARGS = {"'first'", "<b>second</b>", "third"};
+
+  public void testRendersLikeMessageFormat() {
+    for (String pattern : PATTERNS) {
+      assertEquals(pattern, MessageFormat.format(pattern, ARGS),
+          CompiledTemplate.compile(pattern).format(ARGS));
+    }
+  }
+
+  public void testMissingArgumentsAreLeftAsPlaceholders() {
+    String pattern = "{0} and {2}";
+    Object[] args = {"one"};
+    assertEquals(MessageFormat.format(pattern, args),
+        CompiledTemplate.compile(pattern).format(args));
+  }
+
+  public void testNullArgument() {
+    String pattern = "[{0}]";
+    Object[] args = {null};
+    assertEquals(MessageFormat.format(pattern, args),
+        CompiledTemplate.compile(pattern).format(args));
+  }
+
+  public void testNumbersAndDatesRenderLikeMessageFormat() {
+    String pattern = "{0} on {1}";
+    Object[] args = {1234567.5, new Date(1234567890000L)};
+    assertEquals(MessageFormat.format(pattern, args),
+        CompiledTemplate.compile(pattern).format(args));
+  }
+
+  public void testFormatTypesAreDelegatedToMessageFormat() {
+    String pattern = "{0,number,integer} of {1}";
+    Object[] args = {1234567, 42};
+    assertEquals(MessageFormat.format(pattern, args),
+        CompiledTemplate.compile(pattern).format(args));
+  }
+
+  public void testFragmentRendersInPlace() throws IOException {
+    Fragment fragment = new Fragment() {
+      @Override
+      public void render(Appendable out) throws IOException {
+        out.append("<i>").append("inner").append("</i>");
+      }
+    };
+    StringBuilder out = new StringBuilder();
+    CompiledTemplate.compile("<p>{0}</p>{1}").render(out, fragment, "after");
+    assertEquals("<p><i>inner</i></p>after", out.toString());
+  }
+
+  public void testUnmatchedBraceIsRejected() {
+    try {
+      CompiledTemplate.compile("{0");
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException expected) {
+      // Expected.
+    }
+  }
+
+  public void testInvalidArgumentIsRejected() {
+    try {
+      CompiledTemplate.compile("{zero}");
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException expected) {
+      // Expected.
+    }
+  }
+}
@@ -0,0 +1,137 @@
+/**
+ * Copyright 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.waveprotocol.box.server.rpc.render.web.template;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.inject.Provider;
+import com.google.inject.util.Providers;
+
+import junit.framework.TestCase;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.waveprotocol.box.server.persistence.file.FileUtils;
+import org.waveprotocol.box.server.rpc.render.web.template.Templates.ReloadPolicy;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+
+import javax.servlet.ServletContext;
+
+/**
+ * Tests for {@link Templates}.
+ */
+public class TemplatesTest extends TestCase {
+
+  private static final String TEMPLATE = "test.html.fragment";
+
+  private File dir;
+  private File file;
+  private Provider<ServletContext> servletContext;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    dir = FileUtils.createTemporaryDirectory();
+    file = new File(dir, TEMPLATE);
+    writeTemplate("<p class='first'>{0}</p>", 10000);
+
+    ServletContext context = mock(ServletContext.class);
+    when(context.getResource("/templates/" + TEMPLATE)).thenReturn(file.toURI().toURL());
+    when(context.getResourceAsStream("/templates/" + TEMPLATE)).thenAnswer(
+        new Answer<InputStream>() {
+          @Override
+          public InputStream answer(InvocationOnMock invocation) throws IOException {
+            return new FileInputStream(file);
+          }
+        });
+    servletContext = Providers.of(context);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    file.delete();
+    dir.delete();
+    super.tearDown();
+  }
+
+  private void writeTemplate(String pattern, long lastModified) throws IOException {
+    FileWriter writer = new FileWriter(file);
+    try {
+      writer.write(pattern);
+    } finally {
+      writer.close();
+    }
+    assertTrue(file.setLastModified(lastModified));
+  }
+
+  public void testProcess() {
+    Templates templates = new Templates(servletContext, ReloadPolicy.NEVER);
+    assertEquals("<p class=first>x</p>", templates.process(TEMPLATE, new String[] {"x"}));
+  }
+
+  public void testRender() throws IOException {
+    Templates templates = new Templates(servletContext, ReloadPolicy.NEVER);
+    StringWriter out = new StringWriter();
+    templates.render(TEMPLATE, out, "x");
+    assertEquals("<p class=first>x</p>", out.toString());
+  }
+
+  public void testTemplateIsCompiledOnce() {
+    Templates templates = new Templates(servletContext, ReloadPolicy.MODIFIED);
+    assertSame(templates.get(TEMPLATE), templates.get(TEMPLATE));
+  }
+
+  public void testNeverPolicyDoesNotReload() throws Exception {
+    Templates templates = new Templates(servletContext, ReloadPolicy.NEVER);
+    templates.get(TEMPLATE);
+    writeTemplate("<p>second {0}</p>", 20000);
+    Thread.sleep(1100);
+    assertEquals("<p class=first>x</p>", templates.process(TEMPLATE, new String[] {"x"}));
+  }
+
+  public void testModifiedPolicyReloadsModifiedTemplate() throws Exception {
+    Templates templates = new Templates(servletContext, ReloadPolicy.MODIFIED);
+    templates.get(TEMPLATE);
+    writeTemplate("<p>second {0}</p>", 20000);
+    // Modifications are checked at most once a second.
+    Thread.sleep(1100);
+    assertEquals("<p>second x</p>", templates.process(TEMPLATE, new String[] {"x"}));
+  }
+
+  public void testReloadPolicyIgnoresCase() {
+    assertEquals(ReloadPolicy.NEVER, Templates.parseReloadPolicy("never"));
+    assertEquals(ReloadPolicy.MODIFIED, Templates.parseReloadPolicy("Modified"));
+  }
+
+  public void testInvalidReloadPolicyNamesTheSetting() {
+    try {
+      Templates.parseReloadPolicy("sometimes");
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException expected) {
+      assertTrue(expected.getMessage().contains("templates_reload_policy"));
+      assertTrue(expected.getMessage().contains("never"));
+      assertTrue(expected.getMessage().contains("modified"));
+    }
+  }
+}
@@ -0,0 +1,268 @@
+/**
+ * Copyright 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.waveprotocol.box.server.util;
+
+import com.google.common.collect.Lists;
+
+import org.waveprotocol.box.common.Snippets;
+import org.waveprotocol.box.server.common.SnapshotSerializer;
+import org.waveprotocol.wave.model.document.operation.Attributes;
+import org.waveprotocol.wave.model.document.operation.impl.AnnotationBoundaryMapImpl;
+import org.waveprotocol.wave.model.document.operation.impl.AttributesImpl;
+import org.waveprotocol.wave.model.document.operation.impl.DocOpBuilder;
+import org.waveprotocol.wave.model.document.operation.impl.DocOpUtil;
+import org.waveprotocol.wave.model.id.WaveId;
+import org.waveprotocol.wave.model.id.WaveletId;
+import org.waveprotocol.wave.model.id.WaveletName;
+import org.waveprotocol.wave.model.operation.OperationException;
+import org.waveprotocol.wave.model.operation.wave.AddParticipant;
+import org.waveprotocol.wave.model.operation.wave.BlipContentOperation;
+import org.waveprotocol.wave.model.operation.wave.TransformedWaveletDelta;
+import org.waveprotocol.wave.model.operation.wave.WaveletBlipOperation;
+import org.waveprotocol.wave.model.operation.wave.WaveletOperation;
+import org.waveprotocol.wave.model.operation.wave.WaveletOperationContext;
+import org.waveprotocol.wave.model.version.HashedVersion;
+import org.waveprotocol.wave.model.wave.ParticipantId;
+import org.waveprotocol.wave.model.wave.data.ObservableWaveletData;
+import org.waveprotocol.wave.model.wave.data.ReadableBlipData;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares wavelets built from their deltas, whose documents are mutable
+ * documents, with copies made by {@link WaveletDataUtil#compactWavelet},
+ * across a corpus of {@link #WAVE_COUNT} generated conversations. Reports the
+ * heap retained per wavelet, and the time to render a snippet of each
+ * wavelet, to serialize each wavelet's snapshot for a fetch, and to apply the
+ * first edit to a blip of each wavelet. Not really a test case.
+ */
+public class CompactWaveletPerformanceTester {
+
+  private static final int WAVE_COUNT = 2000;
+  private static final int BLIPS_PER_WAVE = 8;
+  private static final int LINES_PER_BLIP = 4;
+  private static final int WORDS_PER_LINE = 12;
+  private static final int SNIPPET_LENGTH = 160;
+  private static final int WARMUP_RUNS = 3;
+  private static final int RUNS = 5;
+  private static final String DOMAIN = "example.com";
+  private static final String[] WORDS = {"wave", "server", "the", "a", "snapshot", "delta",
+      "document", "of", "blip", "and", "conversation", "reply", "to", "federation", "robot"};
+
+  /** An operation on every wavelet of a corpus. */
+  private interface Workload {
+    /** Runs the workload on a wavelet, returning something to compare between the forms. */
+    Object run(ObservableWaveletData wavelet) throws OperationException;
+  }
+
+  /** Keeps the wavelets reachable while the heap is measured. */
+  private List<ObservableWaveletData> loaded;
+
+  private static WaveletOperationContext context(ParticipantId author, long time) {
+    return new WaveletOperationContext(author, time, 1);
+  }
+
+  private static WaveletOperation blipOp(String blipId, ParticipantId author, long time,
+      DocOpBuilder op) {
+    return new WaveletBlipOperation(blipId,
+        new BlipContentOperation(context(author, time), op.build()));
+  }
+
+  private static DocOpBuilder manifest() {
+    DocOpBuilder op = new DocOpBuilder().elementStart("conversation", Attributes.EMPTY_MAP);
+    for (int i = 0; i < BLIPS_PER_WAVE; i++) {
+      op.elementStart("blip", new AttributesImpl("id", "b+" + i)).elementEnd();
+    }
+    return op.elementEnd();
+  }
+
+  /** Returns a blip of a few lines of words, some of them bold or links. */
+  private static DocOpBuilder blip(Random random) {
+    DocOpBuilder op = new DocOpBuilder().elementStart("body", Attributes.EMPTY_MAP);
+    for (int i = 0; i < LINES_PER_BLIP; i++) {
+      op.elementStart("line", Attributes.EMPTY_MAP).elementEnd();
+      StringBuilder text = new StringBuilder();
+      for (int j = 0; j < WORDS_PER_LINE; j++) {
+        String word = WORDS[random.nextInt(WORDS.length)];
+        String key = null;
+        String value = null;
+        switch (random.nextInt(10)) {
+          case 0:
+            key = "style/fontWeight";
+            value = "bold";
+            break;
+          case 1:
+            key = "link/manual";
+            value = "http://" + DOMAIN + "/" + word;
+            break;
+          default:
+            text.append(word).append(' ');
+            continue;
+        }
+        if (text.length() > 0) {
+          op.characters(text.toString());
+          text.setLength(0);
+        }
+        op.annotationBoundary(
+            AnnotationBoundaryMapImpl.builder().initializationValues(key, value).build());
+        op.characters(word);
+        op.annotationBoundary(AnnotationBoundaryMapImpl.builder().initializationEnd(key).build());
+        text.append(' ');
+      }
+      op.characters(text.toString());
+    }
+    return op.elementEnd();
+  }
+
+  /**
+   * Builds a conversation from its deltas, the way the wave server loads it:
+   * a delta adding the creator and the manifest, and a delta adding each
+   * blip, authored by one of the participants.
+   */
+  private static ObservableWaveletData buildWavelet(int wave, Random random)
+      throws OperationException {
+    ParticipantId[] participants = new ParticipantId[3];
+    for (int i = 0; i < participants.length; i++) {
+      participants[i] = ParticipantId.ofUnsafe("user" + random.nextInt(100) + "@" + DOMAIN);
+    }
+    List<TransformedWaveletDelta> deltas = Lists.newArrayList();
+    List<WaveletOperation> ops = Lists.newArrayList();
+    ops.add(new AddParticipant(context(participants[0], 0), participants[0]));
+    ops.add(blipOp("conversation", participants[0], 0, manifest()));
+    deltas.add(TransformedWaveletDelta.cloneOperations(participants[0],
+        HashedVersion.unsigned(ops.size()), 0, ops));
+    for (int i = 0; i < BLIPS_PER_WAVE; i++) {
+      ParticipantId author = participants[random.nextInt(participants.length)];
+      long version = deltas.get(deltas.size() - 1).getResultingVersion().getVersion();
+      deltas.add(TransformedWaveletDelta.cloneOperations(author,
+          HashedVersion.unsigned(version + 1), i + 1,
+          Collections.singletonList(blipOp("b+" + i, author, i + 1, blip(random)))));
+    }
+    return WaveletDataUtil.buildWaveletFromTrustedDeltas(
+        WaveletName.of(WaveId.of(DOMAIN, "w+" + wave), WaveletId.of(DOMAIN, "conv+root")),
+        deltas.iterator());
+  }
+
+  private static List<ObservableWaveletData> loadCorpus(boolean compact)
+      throws OperationException {
+    Random random = new Random(42);
+    List<ObservableWaveletData> wavelets = Lists.newArrayList();
+    for (int i = 0; i < WAVE_COUNT; i++) {
+      ObservableWaveletData wavelet = buildWavelet(i, random);
+      wavelets.add(compact ? WaveletDataUtil.compactWavelet(wavelet) : wavelet);
+    }
+    return wavelets;
+  }
+
+  private static long usedHeap() throws InterruptedException {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 5; i++) {
+      System.gc();
+      Thread.sleep(100);
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  private long measureHeap(String name, boolean compact) throws Exception {
+    long before = usedHeap();
+    loaded = loadCorpus(compact);
+    long retained = usedHeap() - before;
+    loaded = null;
+    System.err.println(String.format("%-28s %,13d bytes %,9d bytes/wavelet",
+        name, retained, retained / WAVE_COUNT));
+    return retained;
+  }
+
+  /** Runs a workload on every wavelet, returning the results. */
+  private static List<Object> run(Workload workload, List<ObservableWaveletData> wavelets)
+      throws OperationException {
+    List<Object> results = Lists.newArrayList();
+    for (ObservableWaveletData wavelet : wavelets) {
+      results.add(workload.run(wavelet));
+    }
+    return results;
+  }
+
+  /**
+   * Times a workload on freshly loaded corpora, so that the compact documents
+   * have not been inflated by an earlier run.
+   */
+  private static List<Object> measureTime(String name, boolean compact, Workload workload)
+      throws OperationException {
+    List<Object> results = null;
+    for (int i = 0; i < WARMUP_RUNS; i++) {
+      results = run(workload, loadCorpus(compact));
+    }
+    long elapsed = 0;
+    for (int i = 0; i < RUNS; i++) {
+      List<ObservableWaveletData> wavelets = loadCorpus(compact);
+      long start = System.nanoTime();
+      run(workload, wavelets);
+      elapsed += System.nanoTime() - start;
+    }
+    System.err.println(String.format("%-28s %,9d ns/wavelet", name,
+        elapsed / RUNS / WAVE_COUNT));
+    return results;
+  }
+
+  private static void compare(String name, Workload workload) throws OperationException {
+    List<Object> inflated = measureTime(name + " (inflated)", false, workload);
+    List<Object> compact = measureTime(name + " (compact)", true, workload);
+    if (!inflated.equals(compact)) {
+      throw new AssertionError(name + " gave different results for the two forms");
+    }
+  }
+
+  public void testPerformance() throws Exception {
+    // Warm up, so that class loading is not measured.
+    loadCorpus(true);
+    long inflated = measureHeap("heap (inflated)", false);
+    long compact = measureHeap("heap (compact)", true);
+    System.err.println(String.format("Compact documents save %,d bytes (%d%%) for %,d wavelets",
+        inflated - compact, (inflated - compact) * 100 / inflated, WAVE_COUNT));
+
+    compare("snippet", new Workload() {
+      @Override
+      public Object run(ObservableWaveletData wavelet) {
+        return Snippets.renderSnippet(wavelet, SNIPPET_LENGTH);
+      }
+    });
+    compare("fetch", new Workload() {
+      @Override
+      public Object run(ObservableWaveletData wavelet) {
+        return SnapshotSerializer.serializeWavelet(wavelet, wavelet.getHashedVersion());
+      }
+    });
+    compare("first edit", new Workload() {
+      @Override
+      public Object run(ObservableWaveletData wavelet) throws OperationException {
+        ReadableBlipData blip = wavelet.getDocument("b+0");
+        int length = DocOpUtil.resultingDocumentLength(blip.getContent().asOperation());
+        blipOp("b+0", wavelet.getCreator(), BLIPS_PER_WAVE + 1, new DocOpBuilder()
+            .retain(length - 1).characters("edited").retain(1)).apply(wavelet);
+        return DocOpUtil.toXmlString(wavelet.getDocument("b+0").getContent().asOperation());
+      }
+    });
+  }
+
+  public static void main(String[] args) throws Exception {
+    new CompactWaveletPerformanceTester().testPerformance();
+  }
+}
@@ -60,6 +60,13 @@ public class WaveletDataUtilTest extends TestCase {
         new BlipContentOperation(opContext(time, version), new DocOpBuilder().build()));
   }
 
+  private WaveletOperation deleteText(String id, String text, long time,
+      HashedVersion version) {
+    return new WaveletBlipOperation(id,
+        new BlipContentOperation(opContext(time, version),
+            new DocOpBuilder().deleteCharacters(text).build()));
+  }
+
   private TransformedWaveletDelta delta(WaveletOperation... ops) {
     WaveletOperation last = ops[ops.length - 1];
     WaveletOperationContext ctx = last.getContext();
@@ -98,4 +105,34 @@ public class WaveletDataUtilTest extends TestCase {
     assertEquals(ImmutableSet.of("blipid"), wavelet.getDocumentIds());
     assertEquals(ImmutableSet.of(CREATOR, JOE), wavelet.getParticipants());
   }
+
+  public void testBuildWaveletFromTrustedDeltas() throws Exception {
+    TransformedWaveletDelta[] deltas = {
+        delta(addParticipant(CREATOR, 1093L, HashedVersion.unsigned(1))),
+        delta(addParticipant(JOE, 1492L, HashedVersion.unsigned(2))),
+        delta(addBlip("blipid", 2010L, HashedVersion.unsigned(3)))
+    };
+    WaveletData trusted = WaveletDataUtil.buildWaveletFromTrustedDeltas(WAVELET_NAME,
+        Arrays.asList(deltas).iterator());
+    WaveletData validated = build(deltas);
+    assertEquals(validated.getHashedVersion(), trusted.getHashedVersion());
+    assertEquals(validated.getLastModifiedTime(), trusted.getLastModifiedTime());
+    assertEquals(validated.getDocumentIds(), trusted.getDocumentIds());
+    assertEquals(validated.getParticipants(), trusted.getParticipants());
+  }
+
+  public void testWaveletFromTrustedDeltasValidatesLaterDeltas() throws Exception {
+    WaveletData wavelet = WaveletDataUtil.buildWaveletFromTrustedDeltas(WAVELET_NAME,
+        Arrays.asList(
+            delta(addParticipant(CREATOR, 1093L, HashedVersion.unsigned(1))),
+            delta(addBlip("blipid", 2010L, HashedVersion.unsigned(2)))).iterator());
+    try {
+      WaveletDataUtil.applyWaveletDelta(
+          delta(deleteText("blipid", "missing", 3000L, HashedVersion.unsigned(3))), wavelet);
+      fail("Expected the invalid delta to be rejected");
+    } catch (OperationException e) {
+      assertTrue(((OperationException) e.getCause()).hasViolationsInformation());
+    }
+    assertEquals(HashedVersion.unsigned(2), wavelet.getHashedVersion());
+  }
 }
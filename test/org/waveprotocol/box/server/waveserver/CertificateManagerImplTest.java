@@ -17,6 +17,8 @@
 
 package org.waveprotocol.box.server.waveserver;
 
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -25,6 +27,8 @@ import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.waveprotocol.box.server.waveserver.Ticker.EASY_TICKS;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.protobuf.ByteString;
 
 import junit.framework.TestCase;
@@ -70,6 +74,8 @@ import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class CertificateManagerImplTest extends TestCase {
 
@@ -91,7 +97,8 @@ public class CertificateManagerImplTest extends TestCase {
   protected void setUp() throws Exception {
     super.setUp();
     store = new MemoryStore();
-    manager = new CertificateManagerImpl(false, getSigner(), getVerifier(store, true), store);
+    manager = new CertificateManagerImpl(false, getSigner(), getVerifier(store, true), store,
+        MoreExecutors.sameThreadExecutor());
     ticker = new Ticker();
   }
 
@@ -119,7 +126,8 @@ public class CertificateManagerImplTest extends TestCase {
         .setAuthor("bob@example.com")
         .build();
     ByteStringMessage<ProtocolWaveletDelta> canonicalDelta = ByteStringMessage.serializeMessage(delta);
-    manager = new CertificateManagerImpl(false, getSigner(), getVerifier(store, false), store);
+    manager = new CertificateManagerImpl(false, getSigner(), getVerifier(store, false), store,
+        MoreExecutors.sameThreadExecutor());
     ProtocolSignedDelta signedDelta = manager.signDelta(canonicalDelta);
 
     try {
@@ -152,12 +160,67 @@ public class CertificateManagerImplTest extends TestCase {
   }
 
   public void testRealSignature() throws Exception {
-    manager = new CertificateManagerImpl(false, getSigner(), getRealVerifier(store), store);
+    manager = new CertificateManagerImpl(false, getSigner(), getRealVerifier(store), store,
+        MoreExecutors.sameThreadExecutor());
     manager.storeSignerInfo(Certificates.getRealSignerInfo().toProtoBuf());
     ByteStringMessage<ProtocolWaveletDelta> compare = manager.verifyDelta(getFakeSignedDelta());
     assertEquals(compare, getFakeDelta());
   }
 
+  public void testVerifiedSignatureIsNotVerifiedAgain() throws Exception {
+    WaveSignatureVerifier verifier = mock(WaveSignatureVerifier.class);
+    manager = new CertificateManagerImpl(false, getSigner(), verifier, store,
+        MoreExecutors.sameThreadExecutor());
+    ProtocolSignedDelta signedDelta = manager.signDelta(getDelta(0, "bob@example.com"));
+
+    manager.verifyDelta(signedDelta);
+    manager.verifyDelta(signedDelta);
+    manager.verifyDeltas(ImmutableList.of(signedDelta, signedDelta));
+    verify(verifier, times(1)).verify(any(byte[].class), eq(signedDelta.getSignature(0)),
+        eq(CertificateManagerImplTest.DOMAIN));
+  }
+
+  public void testVerifyDeltasInParallel() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      manager = new CertificateManagerImpl(false, getSigner(), getVerifier(store, true), store,
+          executor);
+      manager.storeSignerInfo(getSignerInfo().toProtoBuf());
+      List<ByteStringMessage<ProtocolWaveletDelta>> deltas = Lists.newArrayList();
+      List<ProtocolSignedDelta> signedDeltas = Lists.newArrayList();
+      for (int i = 0; i < 20; i++) {
+        ByteStringMessage<ProtocolWaveletDelta> delta = getDelta(i, "bob@example.com");
+        deltas.add(delta);
+        signedDeltas.add(manager.signDelta(delta));
+      }
+
+      assertEquals(deltas, manager.verifyDeltas(signedDeltas));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  public void testVerifyDeltasFailsIfAnyDeltaFails() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      manager = new CertificateManagerImpl(false, getSigner(), getVerifier(store, true), store,
+          executor);
+      manager.storeSignerInfo(getSignerInfo().toProtoBuf());
+      List<ProtocolSignedDelta> signedDeltas = Lists.newArrayList();
+      for (int i = 0; i < 10; i++) {
+        String author = (i == 5) ? "bob@someotherdomain.com" : "bob@example.com";
+        signedDeltas.add(manager.signDelta(getDelta(i, author)));
+      }
+
+      manager.verifyDeltas(signedDeltas);
+      fail("expected exception, but didn't get it");
+    } catch (SignatureException e) {
+      // expected
+    } finally {
+      executor.shutdown();
+    }
+  }
+
   /**
    * Test prefetchDeltaSignerInfo for a single request on a single domain, and that subsequent
    * requests on the same domain return instantly.
@@ -397,6 +460,14 @@ public class CertificateManagerImplTest extends TestCase {
     };
   }
 
+  private ByteStringMessage<ProtocolWaveletDelta> getDelta(long version, String author) {
+    ProtocolWaveletDelta delta = ProtocolWaveletDelta.newBuilder()
+        .setHashedVersion(CoreWaveletOperationSerializer.serialize(HashedVersion.unsigned(version)))
+        .setAuthor(author)
+        .build();
+    return ByteStringMessage.serializeMessage(delta);
+  }
+
   private ProtocolSignedDelta getFakeSignedDelta() throws Exception {
     return ProtocolSignedDelta.newBuilder()
         .setDelta(getFakeDelta().getByteString())
@@ -0,0 +1,208 @@
+/**
+ * Copyright 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.waveprotocol.box.server.waveserver;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import org.waveprotocol.box.server.common.CoreWaveletOperationSerializer;
+import org.waveprotocol.box.server.persistence.file.FileDeltaStore;
+import org.waveprotocol.box.server.persistence.file.FileUtils;
+import org.waveprotocol.box.server.waveserver.DeltaStore.DeltasAccess;
+import org.waveprotocol.wave.federation.Proto.ProtocolAppliedWaveletDelta;
+import org.waveprotocol.wave.federation.Proto.ProtocolSignedDelta;
+import org.waveprotocol.wave.model.id.IdURIEncoderDecoder;
+import org.waveprotocol.wave.model.id.WaveId;
+import org.waveprotocol.wave.model.id.WaveletId;
+import org.waveprotocol.wave.model.id.WaveletName;
+import org.waveprotocol.wave.model.operation.wave.TransformedWaveletDelta;
+import org.waveprotocol.wave.model.operation.wave.WaveletDelta;
+import org.waveprotocol.wave.model.operation.wave.WaveletOperation;
+import org.waveprotocol.wave.model.testing.DeltaTestUtil;
+import org.waveprotocol.wave.model.version.HashedVersion;
+import org.waveprotocol.wave.model.version.HashedVersionFactoryImpl;
+import org.waveprotocol.wave.util.escapers.jvm.JavaUrlCodec;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.security.MessageDigest;
+import java.util.List;
+
+/**
+ * Measures the hashes per second and the bytes allocated per hash of the
+ * history hashes of a wavelet replayed from a local delta file, computed by
+ * {@link HashedVersionFactoryImpl} from the serialized deltas, compared with
+ * joining the history hash and a copy of each delta into a new array hashed by
+ * a newly looked up digest, as it used to. Not really a test case.
+ */
+public class HistoryHashPerformanceTester {
+
+  private static final WaveletName WAVELET_NAME =
+      WaveletName.of(WaveId.of("example.com", "w+hash"), WaveletId.of("example.com", "conv+root"));
+  private static final int DELTA_COUNT = 20000;
+  private static final int DELTA_TEXT_LENGTH = 2000;
+  private static final int RUNS = 5;
+
+  private static final HashedVersionFactoryImpl HASH_FACTORY =
+      new HashedVersionFactoryImpl(new IdURIEncoderDecoder(new JavaUrlCodec()));
+
+  /** Computes the history hashes of the deltas. */
+  private interface Hasher {
+    HashedVersion hashAll(HashedVersion versionZero,
+        List<ByteStringMessage<ProtocolAppliedWaveletDelta>> deltas) throws Exception;
+  }
+
+  private final DeltaTestUtil util = new DeltaTestUtil("author@example.com");
+
+  /**
+   * Writes a wavelet of {@link #DELTA_COUNT} deltas to a delta file.
+   *
+   * @return the version after the last delta.
+   */
+  private HashedVersion writeDeltaFile(DeltaStore store) throws Exception {
+    DeltasAccess wavelet = store.open(WAVELET_NAME);
+    HashedVersion version = HASH_FACTORY.createVersionZero(WAVELET_NAME);
+    String text = Strings.repeat("x", DELTA_TEXT_LENGTH);
+    List<WaveletDeltaRecord> records = Lists.newArrayList();
+    for (int i = 0; i < DELTA_COUNT; i++) {
+      List<WaveletOperation> ops = ImmutableList.of(util.insert(1, text, i, null));
+      ProtocolSignedDelta signedDelta = ProtocolSignedDelta.newBuilder()
+          .setDelta(ByteStringMessage.serializeMessage(CoreWaveletOperationSerializer.serialize(
+              new WaveletDelta(util.getAuthor(), version, ops))).getByteString())
+          .build();
+      ByteStringMessage<ProtocolAppliedWaveletDelta> appliedDelta =
+          AppliedDeltaUtil.buildAppliedDelta(signedDelta, version, ops.size(), i);
+      HashedVersion resultingVersion =
+          AppliedDeltaUtil.calculateResultingHashedVersion(appliedDelta);
+      records.add(new WaveletDeltaRecord(version, appliedDelta,
+          TransformedWaveletDelta.cloneOperations(util.getAuthor(), resultingVersion, i, ops)));
+      version = resultingVersion;
+      if (records.size() == 1000) {
+        wavelet.append(records);
+        records.clear();
+      }
+    }
+    if (!records.isEmpty()) {
+      wavelet.append(records);
+    }
+    wavelet.close();
+    return version;
+  }
+
+  /** Reads all the applied deltas of the wavelet back from the delta file. */
+  private List<ByteStringMessage<ProtocolAppliedWaveletDelta>> readDeltaFile(DeltaStore store)
+      throws Exception {
+    DeltasAccess wavelet = store.open(WAVELET_NAME);
+    List<ByteStringMessage<ProtocolAppliedWaveletDelta>> deltas = Lists.newArrayList();
+    long version = 0;
+    while (version < wavelet.getEndVersion().getVersion()) {
+      deltas.add(wavelet.getAppliedDelta(version));
+      version = wavelet.getResultingVersion(version).getVersion();
+    }
+    wavelet.close();
+    return deltas;
+  }
+
+  /** Hashes the way {@link HashedVersionFactoryImpl} did before. */
+  private static byte[] joinAndHash(byte[] historyHash, byte[] appliedDeltaBytes)
+      throws Exception {
+    byte[] joined = new byte[appliedDeltaBytes.length + historyHash.length];
+    byte[] result = new byte[20];
+    System.arraycopy(historyHash, 0, joined, 0, historyHash.length);
+    System.arraycopy(appliedDeltaBytes, 0, joined, historyHash.length, appliedDeltaBytes.length);
+    System.arraycopy(MessageDigest.getInstance("SHA-256").digest(joined), 0, result, 0,
+        result.length);
+    return result;
+  }
+
+  private void measure(String name, Hasher hasher, HashedVersion versionZero,
+      List<ByteStringMessage<ProtocolAppliedWaveletDelta>> deltas, HashedVersion endVersion)
+      throws Exception {
+    // Warm up, and check that the hashes match the ones in the file.
+    if (!endVersion.equals(hasher.hashAll(versionZero, deltas))) {
+      throw new AssertionError(name + " computed the wrong history hash");
+    }
+    long allocatedBefore = allocatedBytes();
+    long start = System.nanoTime();
+    for (int i = 0; i < RUNS; i++) {
+      hasher.hashAll(versionZero, deltas);
+    }
+    long elapsed = System.nanoTime() - start;
+    long allocated = allocatedBytes() - allocatedBefore;
+    long hashes = (long) RUNS * deltas.size();
+    System.err.println(String.format("%-20s %,9d hashes/s %,8d bytes/hash", name,
+        hashes * 1000000000L / elapsed, allocated < 0 ? -1 : allocated / hashes));
+  }
+
+  /**
+   * Returns the bytes allocated by this thread so far, or -1 if the JVM does
+   * not tell.
+   */
+  private static long allocatedBytes() {
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    if (threads instanceof com.sun.management.ThreadMXBean) {
+      return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(
+          Thread.currentThread().getId());
+    }
+    return -1;
+  }
+
+  public void testPerformance() throws Exception {
+    File path = FileUtils.createTemporaryDirectory();
+    try {
+      DeltaStore store = new FileDeltaStore(path.getAbsolutePath());
+      HashedVersion endVersion = writeDeltaFile(store);
+      List<ByteStringMessage<ProtocolAppliedWaveletDelta>> deltas = readDeltaFile(store);
+      HashedVersion versionZero = HASH_FACTORY.createVersionZero(WAVELET_NAME);
+      System.err.println(String.format("Replaying %,d deltas of %,d bytes", deltas.size(),
+          deltas.get(0).getByteString().size()));
+
+      measure("joined array", new Hasher() {
+        @Override
+        public HashedVersion hashAll(HashedVersion version,
+            List<ByteStringMessage<ProtocolAppliedWaveletDelta>> deltas) throws Exception {
+          for (ByteStringMessage<ProtocolAppliedWaveletDelta> delta : deltas) {
+            version = HashedVersion.of(
+                version.getVersion() + delta.getMessage().getOperationsApplied(),
+                joinAndHash(version.getHistoryHash(), delta.getByteArray()));
+          }
+          return version;
+        }
+      }, versionZero, deltas, endVersion);
+      measure("ByteString buffer", new Hasher() {
+        @Override
+        public HashedVersion hashAll(HashedVersion version,
+            List<ByteStringMessage<ProtocolAppliedWaveletDelta>> deltas) {
+          for (ByteStringMessage<ProtocolAppliedWaveletDelta> delta : deltas) {
+            version = HASH_FACTORY.create(delta.getByteString().asReadOnlyByteBuffer(), version,
+                delta.getMessage().getOperationsApplied());
+          }
+          return version;
+        }
+      }, versionZero, deltas, endVersion);
+    } finally {
+      org.apache.commons.io.FileUtils.deleteDirectory(path);
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    new HistoryHashPerformanceTester().testPerformance();
+  }
+}
@@ -0,0 +1,168 @@
+/**
+ * Copyright 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.waveprotocol.box.server.waveserver;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.protobuf.ByteString;
+
+import org.mockito.Matchers;
+import org.waveprotocol.box.server.common.CoreWaveletOperationSerializer;
+import org.waveprotocol.box.server.persistence.memory.MemoryDeltaStore;
+import org.waveprotocol.wave.federation.FederationErrorProto.FederationError;
+import org.waveprotocol.wave.federation.Proto.ProtocolAppliedWaveletDelta;
+import org.waveprotocol.wave.federation.Proto.ProtocolHashedVersion;
+import org.waveprotocol.wave.federation.Proto.ProtocolSignature;
+import org.waveprotocol.wave.federation.Proto.ProtocolWaveletDelta;
+import org.waveprotocol.wave.federation.WaveletFederationProvider;
+import org.waveprotocol.wave.model.id.IdURIEncoderDecoder;
+import org.waveprotocol.wave.model.id.WaveId;
+import org.waveprotocol.wave.model.id.WaveletId;
+import org.waveprotocol.wave.model.id.WaveletName;
+import org.waveprotocol.wave.model.operation.wave.AddParticipant;
+import org.waveprotocol.wave.model.operation.wave.RemoveParticipant;
+import org.waveprotocol.wave.model.operation.wave.WaveletDelta;
+import org.waveprotocol.wave.model.operation.wave.WaveletOperation;
+import org.waveprotocol.wave.model.operation.wave.WaveletOperationContext;
+import org.waveprotocol.wave.model.version.HashedVersion;
+import org.waveprotocol.wave.model.version.HashedVersionFactory;
+import org.waveprotocol.wave.model.version.HashedVersionZeroFactoryImpl;
+import org.waveprotocol.wave.model.wave.ParticipantId;
+import org.waveprotocol.wave.util.escapers.jvm.JavaUrlCodec;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Pages through the history of a wavelet of {@link #DELTA_COUNT} deltas the
+ * way a remote server does, resuming each request where the previous,
+ * truncated response ended, and reports the number of pages, the time taken
+ * and the peak heap retained by a page. Not really a test case.
+ */
+public class HistoryPagingPerformanceTester {
+
+  private static final HashedVersionFactory V0_HASH_FACTORY =
+      new HashedVersionZeroFactoryImpl(new IdURIEncoderDecoder(new JavaUrlCodec()));
+
+  private static final String DOMAIN = "example.com";
+  private static final WaveletName WAVELET_NAME =
+      WaveletName.of(WaveId.of(DOMAIN, "w+history"), WaveletId.of(DOMAIN, "conv+root"));
+  private static final ParticipantId USER1 = ParticipantId.ofUnsafe("user1@" + DOMAIN);
+  private static final ParticipantId USER2 = ParticipantId.ofUnsafe("user2@" + DOMAIN);
+  private static final WaveletOperationContext CONTEXT =
+      new WaveletOperationContext(USER1, 1234567890, 1);
+
+  private static final int DELTA_COUNT = 100000;
+
+  /** Holds the response to a history request. */
+  private static class HistoryResponse implements WaveletFederationProvider.HistoryResponseListener {
+    List<ByteString> deltaList;
+    long versionTruncatedAt;
+
+    @Override
+    public void onSuccess(List<ByteString> deltaList, ProtocolHashedVersion lastCommittedVersion,
+        long versionTruncatedAt) {
+      this.deltaList = deltaList;
+      this.versionTruncatedAt = versionTruncatedAt;
+    }
+
+    @Override
+    public void onFailure(FederationError error) {
+      throw new AssertionError("History request failed: " + error);
+    }
+  }
+
+  private static long usedHeap() {
+    Runtime runtime = Runtime.getRuntime();
+    System.gc();
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  public void testPaging() throws Exception {
+    SignatureHandler localSigner = mock(SignatureHandler.class);
+    when(localSigner.getDomain()).thenReturn(DOMAIN);
+    when(localSigner.sign(Matchers.<ByteStringMessage<ProtocolWaveletDelta>>any()))
+        .thenReturn(ImmutableList.<ProtocolSignature>of());
+    WaveletNotificationDispatcher notifiee = mock(WaveletNotificationDispatcher.class);
+
+    final DeltaStore deltaStore = new MemoryDeltaStore();
+    final Executor executor = Executors.newSingleThreadExecutor();
+    WaveMap waveMap = new WaveMap(new DeltaStoreBasedSnapshotStore(deltaStore), notifiee,
+        notifiee, new LocalWaveletContainer.Factory() {
+          @Override
+          public LocalWaveletContainer create(WaveletNotificationSubscriber notifiee,
+              WaveletName waveletName, String waveDomain) {
+            return new LocalWaveletContainerImpl(waveletName, notifiee,
+                WaveServerModule.loadWaveletState(executor, deltaStore, waveletName),
+                waveDomain);
+          }
+        }, mock(RemoteWaveletContainer.Factory.class), DOMAIN);
+    WaveServerImpl waveServer = new WaveServerImpl(MoreExecutors.sameThreadExecutor(),
+        new CertificateManagerImpl(true, localSigner, null, null,
+            MoreExecutors.sameThreadExecutor()),
+        mock(WaveletFederationProvider.class), waveMap);
+    waveServer.initialize();
+
+    WaveletContainerImpl wavelet =
+        (WaveletContainerImpl) waveMap.getOrCreateLocalWavelet(WAVELET_NAME);
+    wavelet.awaitLoad();
+    for (int i = 0; i < DELTA_COUNT; i++) {
+      WaveletOperation op = (i % 2 == 0)
+          ? new AddParticipant(CONTEXT, USER2) : new RemoveParticipant(CONTEXT, USER2);
+      WaveServerTestUtil.applyDeltaToWavelet(wavelet,
+          new WaveletDelta(USER1, wavelet.getCurrentVersion(), ImmutableList.of(op)), 0);
+    }
+    HashedVersion endVersion = wavelet.getCurrentVersion();
+
+    long baseHeap = usedHeap();
+    long peakHeap = 0;
+    HashedVersion startVersion = V0_HASH_FACTORY.createVersionZero(WAVELET_NAME);
+    int deltaCount = 0;
+    int pages = 0;
+    long elapsed = 0;
+    while (startVersion.getVersion() < endVersion.getVersion()) {
+      HistoryResponse response = new HistoryResponse();
+      long start = System.nanoTime();
+      waveServer.requestHistory(WAVELET_NAME, DOMAIN,
+          CoreWaveletOperationSerializer.serialize(startVersion),
+          CoreWaveletOperationSerializer.serialize(endVersion), 0, response);
+      elapsed += System.nanoTime() - start;
+      pages++;
+      peakHeap = Math.max(peakHeap, usedHeap() - baseHeap);
+
+      // Resume from the end of the last returned delta, as a remote would.
+      ByteStringMessage<ProtocolAppliedWaveletDelta> last =
+          ByteStringMessage.parseProtocolAppliedWaveletDelta(
+              response.deltaList.get(response.deltaList.size() - 1));
+      startVersion = AppliedDeltaUtil.calculateResultingHashedVersion(last);
+      deltaCount += response.deltaList.size();
+    }
+
+    System.err.println(String.format("%,d deltas in %,d pages, %,d ms, peak heap %,d bytes/page",
+        deltaCount, pages, elapsed / 1000000, peakHeap));
+  }
+
+  public static void main(String[] args) throws Exception {
+    new HistoryPagingPerformanceTester().testPaging();
+    System.exit(0);
+  }
+}
@@ -0,0 +1,210 @@
+/**
+ * Copyright 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.waveprotocol.box.server.waveserver;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import org.waveprotocol.box.server.common.CoreWaveletOperationSerializer;
+import org.waveprotocol.box.server.persistence.file.FileDeltaStore;
+import org.waveprotocol.box.server.persistence.file.FileUtils;
+import org.waveprotocol.box.server.util.WaveletDataUtil;
+import org.waveprotocol.box.server.waveserver.DeltaStore.DeltasAccess;
+import org.waveprotocol.wave.federation.Proto.ProtocolAppliedWaveletDelta;
+import org.waveprotocol.wave.federation.Proto.ProtocolSignedDelta;
+import org.waveprotocol.wave.model.document.operation.Attributes;
+import org.waveprotocol.wave.model.document.operation.DocOp;
+import org.waveprotocol.wave.model.document.operation.impl.DocOpBuilder;
+import org.waveprotocol.wave.model.document.operation.impl.DocOpUtil;
+import org.waveprotocol.wave.model.id.IdURIEncoderDecoder;
+import org.waveprotocol.wave.model.id.WaveId;
+import org.waveprotocol.wave.model.id.WaveletId;
+import org.waveprotocol.wave.model.id.WaveletName;
+import org.waveprotocol.wave.model.operation.wave.AddParticipant;
+import org.waveprotocol.wave.model.operation.wave.BlipContentOperation;
+import org.waveprotocol.wave.model.operation.wave.TransformedWaveletDelta;
+import org.waveprotocol.wave.model.operation.wave.WaveletBlipOperation;
+import org.waveprotocol.wave.model.operation.wave.WaveletDelta;
+import org.waveprotocol.wave.model.operation.wave.WaveletOperation;
+import org.waveprotocol.wave.model.operation.wave.WaveletOperationContext;
+import org.waveprotocol.wave.model.version.HashedVersion;
+import org.waveprotocol.wave.model.version.HashedVersionFactoryImpl;
+import org.waveprotocol.wave.model.wave.ParticipantId;
+import org.waveprotocol.wave.model.wave.data.ReadableWaveletData;
+import org.waveprotocol.wave.util.escapers.jvm.JavaUrlCodec;
+
+import java.io.File;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures how fast a wavelet is rebuilt from its history, as the server does
+ * when it loads a wavelet, by replaying a wavelet of {@link #DELTA_COUNT}
+ * typing deltas read back from a local delta file. Compares the trusted replay
+ * of {@link WaveletDataUtil#buildWaveletFromTrustedDeltas}, which neither
+ * validates the document operations nor inverts them, with applying each delta
+ * as a fresh one. Not really a test case.
+ */
+public class ReplayPerformanceTester {
+
+  private static final WaveletName WAVELET_NAME = WaveletName.of(
+      WaveId.of("example.com", "w+replay"), WaveletId.of("example.com", "conv+root"));
+  private static final ParticipantId AUTHOR = new ParticipantId("author@example.com");
+  private static final String BLIP_ID = "b+root";
+  private static final int DELTA_COUNT = 50000;
+  private static final int DELTAS_PER_LINE = 20;
+  private static final String[] WORDS = {"wave ", "in ", "a ", "box ", "replay "};
+  private static final int RUNS = 3;
+
+  private static final HashedVersionFactoryImpl HASH_FACTORY =
+      new HashedVersionFactoryImpl(new IdURIEncoderDecoder(new JavaUrlCodec()));
+
+  /** Builds a wavelet from its deltas. */
+  private interface Builder {
+    ReadableWaveletData build(List<TransformedWaveletDelta> deltas) throws Exception;
+  }
+
+  private static WaveletOperation blipOp(DocOp op) {
+    return new WaveletBlipOperation(BLIP_ID,
+        new BlipContentOperation(new WaveletOperationContext(AUTHOR, 0L, 1), op));
+  }
+
+  /**
+   * Writes a wavelet to a delta file, whose first delta adds the author and a
+   * blip, and whose other deltas type words at random places in the blip and
+   * start a new line every {@link #DELTAS_PER_LINE} deltas.
+   */
+  private void writeDeltaFile(DeltaStore store) throws Exception {
+    DeltasAccess wavelet = store.open(WAVELET_NAME);
+    HashedVersion version = HASH_FACTORY.createVersionZero(WAVELET_NAME);
+    Random random = new Random(42);
+    // The blip is <body><line></line>...</body>, text can go after the first line.
+    int size = 4;
+    List<WaveletDeltaRecord> records = Lists.newArrayList();
+    for (int i = 0; i < DELTA_COUNT; i++) {
+      List<WaveletOperation> ops;
+      if (i == 0) {
+        ops = ImmutableList.of(new AddParticipant(
+            new WaveletOperationContext(AUTHOR, 0L, 1), AUTHOR), blipOp(new DocOpBuilder()
+            .elementStart("body", Attributes.EMPTY_MAP)
+            .elementStart("line", Attributes.EMPTY_MAP).elementEnd()
+            .elementEnd()
+            .build()));
+      } else if (i % DELTAS_PER_LINE == 0) {
+        ops = ImmutableList.of(blipOp(new DocOpBuilder()
+            .retain(size - 1)
+            .elementStart("line", Attributes.EMPTY_MAP).elementEnd()
+            .retain(1)
+            .build()));
+        size += 2;
+      } else {
+        String word = WORDS[random.nextInt(WORDS.length)];
+        int position = 3 + random.nextInt(size - 3);
+        ops = ImmutableList.of(blipOp(new DocOpBuilder()
+            .retain(position)
+            .characters(word)
+            .retain(size - position)
+            .build()));
+        size += word.length();
+      }
+      ProtocolSignedDelta signedDelta = ProtocolSignedDelta.newBuilder()
+          .setDelta(ByteStringMessage.serializeMessage(CoreWaveletOperationSerializer.serialize(
+              new WaveletDelta(AUTHOR, version, ops))).getByteString())
+          .build();
+      ByteStringMessage<ProtocolAppliedWaveletDelta> appliedDelta =
+          AppliedDeltaUtil.buildAppliedDelta(signedDelta, version, ops.size(), i);
+      HashedVersion resultingVersion =
+          AppliedDeltaUtil.calculateResultingHashedVersion(appliedDelta);
+      records.add(new WaveletDeltaRecord(version, appliedDelta,
+          TransformedWaveletDelta.cloneOperations(AUTHOR, resultingVersion, i, ops)));
+      version = resultingVersion;
+      if (records.size() == 1000) {
+        wavelet.append(records);
+        records.clear();
+      }
+    }
+    if (!records.isEmpty()) {
+      wavelet.append(records);
+    }
+    wavelet.close();
+  }
+
+  /** Reads all the deltas of the wavelet back from the delta file. */
+  private List<TransformedWaveletDelta> readDeltaFile(DeltaStore store) throws Exception {
+    DeltasAccess wavelet = store.open(WAVELET_NAME);
+    List<TransformedWaveletDelta> deltas = Lists.newArrayList();
+    long version = 0;
+    while (version < wavelet.getEndVersion().getVersion()) {
+      TransformedWaveletDelta delta = wavelet.getTransformedDelta(version);
+      deltas.add(delta);
+      version = delta.getResultingVersion().getVersion();
+    }
+    wavelet.close();
+    return deltas;
+  }
+
+  private static String blipContent(ReadableWaveletData wavelet) {
+    return DocOpUtil.toXmlString(wavelet.getDocument(BLIP_ID).getContent().asOperation());
+  }
+
+  private String measure(String name, Builder builder, List<TransformedWaveletDelta> deltas)
+      throws Exception {
+    // Warm up.
+    ReadableWaveletData wavelet = builder.build(deltas);
+    long start = System.nanoTime();
+    for (int i = 0; i < RUNS; i++) {
+      builder.build(deltas);
+    }
+    long elapsed = System.nanoTime() - start;
+    System.err.println(String.format("%-10s %,7d ms/replay %,9d deltas/s", name,
+        elapsed / RUNS / 1000000, (long) RUNS * deltas.size() * 1000000000L / elapsed));
+    return blipContent(wavelet);
+  }
+
+  public void testPerformance() throws Exception {
+    File path = FileUtils.createTemporaryDirectory();
+    try {
+      DeltaStore store = new FileDeltaStore(path.getAbsolutePath());
+      writeDeltaFile(store);
+      List<TransformedWaveletDelta> deltas = readDeltaFile(store);
+      System.err.println(String.format("Replaying %,d deltas", deltas.size()));
+
+      String validated = measure("validated", new Builder() {
+        @Override
+        public ReadableWaveletData build(List<TransformedWaveletDelta> deltas) throws Exception {
+          return WaveletDataUtil.buildWaveletFromDeltas(WAVELET_NAME, deltas.iterator());
+        }
+      }, deltas);
+      String trusted = measure("trusted", new Builder() {
+        @Override
+        public ReadableWaveletData build(List<TransformedWaveletDelta> deltas) throws Exception {
+          return WaveletDataUtil.buildWaveletFromTrustedDeltas(WAVELET_NAME, deltas.iterator());
+        }
+      }, deltas);
+      if (!validated.equals(trusted)) {
+        throw new AssertionError("The trusted replay built a different blip");
+      }
+    } finally {
+      org.apache.commons.io.FileUtils.deleteDirectory(path);
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    new ReplayPerformanceTester().testPerformance();
+  }
+}
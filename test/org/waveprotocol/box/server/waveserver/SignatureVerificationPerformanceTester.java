@@ -0,0 +1,125 @@
+/**
+ * Copyright 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.waveprotocol.box.server.waveserver;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import org.waveprotocol.box.server.common.CoreWaveletOperationSerializer;
+import org.waveprotocol.box.server.persistence.memory.MemoryStore;
+import org.waveprotocol.box.server.waveserver.testing.Certificates;
+import org.waveprotocol.wave.crypto.DisabledCertPathValidator;
+import org.waveprotocol.wave.crypto.WaveSignatureVerifier;
+import org.waveprotocol.wave.crypto.WaveSigner;
+import org.waveprotocol.wave.crypto.WaveSignerFactory;
+import org.waveprotocol.wave.federation.Proto.ProtocolSignedDelta;
+import org.waveprotocol.wave.federation.Proto.ProtocolWaveletDelta;
+import org.waveprotocol.wave.model.version.HashedVersion;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Measures how many signed deltas per second {@link CertificateManagerImpl}
+ * verifies as the number of verification threads grows, and how fast deltas
+ * that were already verified are accepted again. The deltas are signed with
+ * the example test key; certificate chains are not validated, so that only the
+ * signatures are measured. Not really a test case.
+ */
+public class SignatureVerificationPerformanceTester {
+
+  private static final String DOMAIN = "example.com";
+  private static final int[] THREAD_COUNTS = {1, 2, 4, 8};
+  private static final int DELTA_COUNT = 2000;
+  private static final int WARMUP_DELTA_COUNT = 500;
+
+  private final SigningSignatureHandler signer;
+  private final List<ProtocolSignedDelta> signedDeltas;
+  private final List<ProtocolSignedDelta> warmupDeltas;
+
+  SignatureVerificationPerformanceTester() throws Exception {
+    InputStream keyStream = new ByteArrayInputStream(Certificates.EXAMPLE_PRIVATE_KEY.getBytes());
+    InputStream certStream = new ByteArrayInputStream(Certificates.EXAMPLE_CERTIFICATE.getBytes());
+    WaveSigner waveSigner = new WaveSignerFactory().getSigner(
+        keyStream, ImmutableList.<InputStream>of(certStream), DOMAIN);
+    signer = new SigningSignatureHandler(waveSigner);
+    warmupDeltas = signDeltas(0, WARMUP_DELTA_COUNT);
+    signedDeltas = signDeltas(WARMUP_DELTA_COUNT, DELTA_COUNT);
+  }
+
+  private List<ProtocolSignedDelta> signDeltas(int firstVersion, int count) {
+    CertificateManager signingManager = createManager(null);
+    List<ProtocolSignedDelta> deltas = Lists.newArrayListWithCapacity(count);
+    for (int i = 0; i < count; i++) {
+      ProtocolWaveletDelta delta = ProtocolWaveletDelta.newBuilder()
+          .setHashedVersion(CoreWaveletOperationSerializer.serialize(
+              HashedVersion.unsigned(firstVersion + i)))
+          .setAuthor("bob@" + DOMAIN)
+          .build();
+      deltas.add(signingManager.signDelta(ByteStringMessage.serializeMessage(delta)));
+    }
+    return deltas;
+  }
+
+  /**
+   * Creates a manager, with nothing verified yet, which verifies batches on
+   * the given executor.
+   */
+  private CertificateManager createManager(ExecutorService executor) {
+    MemoryStore store = new MemoryStore();
+    CertificateManager manager = new CertificateManagerImpl(false, signer,
+        new WaveSignatureVerifier(new DisabledCertPathValidator(), store), store, executor);
+    try {
+      manager.storeSignerInfo(signer.getSignerInfo().toProtoBuf());
+    } catch (Exception e) {
+      throw new IllegalStateException(e);
+    }
+    return manager;
+  }
+
+  public void testPerformance() throws Exception {
+    for (int threads : THREAD_COUNTS) {
+      ExecutorService executor = Executors.newFixedThreadPool(threads);
+      try {
+        CertificateManager manager = createManager(executor);
+        manager.verifyDeltas(warmupDeltas);
+
+        long start = System.nanoTime();
+        manager.verifyDeltas(signedDeltas);
+        long verifyNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        manager.verifyDeltas(signedDeltas);
+        long memoizedNanos = System.nanoTime() - start;
+
+        System.err.println(String.format(
+            "%d threads: %,d deltas/s verified, %,d deltas/s already verified", threads,
+            DELTA_COUNT * 1000000000L / verifyNanos, DELTA_COUNT * 1000000000L / memoizedNanos));
+      } finally {
+        executor.shutdown();
+      }
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    new SignatureVerificationPerformanceTester().testPerformance();
+  }
+}
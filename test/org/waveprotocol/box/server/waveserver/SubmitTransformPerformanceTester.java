@@ -0,0 +1,177 @@
+/**
+ * Copyright 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.waveprotocol.box.server.waveserver;
+
+import static org.mockito.Mockito.mock;
+
+import com.google.common.base.Strings;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.protobuf.ByteString;
+
+import org.waveprotocol.box.server.common.CoreWaveletOperationSerializer;
+import org.waveprotocol.box.server.persistence.memory.MemoryDeltaStore;
+import org.waveprotocol.wave.federation.Proto.ProtocolSignature;
+import org.waveprotocol.wave.federation.Proto.ProtocolSignedDelta;
+import org.waveprotocol.wave.model.document.operation.impl.DocOpBuilder;
+import org.waveprotocol.wave.model.id.IdURIEncoderDecoder;
+import org.waveprotocol.wave.model.id.WaveId;
+import org.waveprotocol.wave.model.id.WaveletId;
+import org.waveprotocol.wave.model.id.WaveletName;
+import org.waveprotocol.wave.model.operation.wave.BlipContentOperation;
+import org.waveprotocol.wave.model.operation.wave.WaveletBlipOperation;
+import org.waveprotocol.wave.model.operation.wave.WaveletDelta;
+import org.waveprotocol.wave.model.operation.wave.WaveletOperation;
+import org.waveprotocol.wave.model.operation.wave.WaveletOperationContext;
+import org.waveprotocol.wave.model.version.HashedVersion;
+import org.waveprotocol.wave.model.version.HashedVersionFactoryImpl;
+import org.waveprotocol.wave.model.wave.ParticipantId;
+import org.waveprotocol.wave.util.escapers.jvm.JavaUrlCodec;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Measures the latency of submitting client deltas to a local wavelet which
+ * synthetic concurrent editors have changed since the version the deltas
+ * target, as that version gap grows. The first late delta at a version pays
+ * for composing the history; the following ones share the composition. Not
+ * really a test case.
+ */
+public class SubmitTransformPerformanceTester {
+
+  private static final WaveletName WAVELET_NAME =
+      WaveletName.of(WaveId.of("example.com", "w+late"), WaveletId.of("example.com", "conv+root"));
+  private static final String DOC_ID = "b+doc";
+  private static final int DOC_LENGTH = 2000;
+  private static final int EDITORS = 10;
+  private static final int[] VERSION_GAPS = {1, 10, 100, 1000};
+  private static final int LATE_CLIENTS = 50;
+  private static final int RUNS = 5;
+
+  private static final HashedVersionFactoryImpl HASH_FACTORY =
+      new HashedVersionFactoryImpl(new IdURIEncoderDecoder(new JavaUrlCodec()));
+  private static final ProtocolSignature SIGNATURE = ProtocolSignature.newBuilder()
+      .setSignatureBytes(ByteString.EMPTY)
+      .setSignerId(ByteString.EMPTY)
+      .setSignatureAlgorithm(ProtocolSignature.SignatureAlgorithm.SHA1_RSA)
+      .build();
+
+  private final Random random = new Random(42);
+
+  private LocalWaveletContainerImpl wavelet;
+  private int docLength;
+
+  private void createWavelet() throws Exception {
+    wavelet = new LocalWaveletContainerImpl(WAVELET_NAME,
+        mock(WaveletNotificationSubscriber.class),
+        Futures.immediateFuture(DeltaStoreBasedWaveletState.create(
+            new MemoryDeltaStore().open(WAVELET_NAME), MoreExecutors.sameThreadExecutor())),
+        "example.com");
+    wavelet.awaitLoad();
+    docLength = 0;
+  }
+
+  /**
+   * Submits a delta inserting a character at a random position of a document
+   * of the given length.
+   */
+  private void submitInsert(ParticipantId author, HashedVersion version, int length)
+      throws Exception {
+    int position = random.nextInt(length + 1);
+    DocOpBuilder builder = new DocOpBuilder();
+    if (position > 0) {
+      builder.retain(position);
+    }
+    builder.characters("x");
+    if (position < length) {
+      builder.retain(length - position);
+    }
+    submit(author, version, builder);
+  }
+
+  private void submit(ParticipantId author, HashedVersion version, DocOpBuilder builder)
+      throws Exception {
+    WaveletOperation op = new WaveletBlipOperation(DOC_ID, new BlipContentOperation(
+        new WaveletOperationContext(author, 0L, 1), builder.build()));
+    WaveletDelta delta = new WaveletDelta(author, version, Arrays.asList(op));
+    wavelet.submitRequest(WAVELET_NAME, ProtocolSignedDelta.newBuilder()
+        .addSignature(SIGNATURE)
+        .setDelta(CoreWaveletOperationSerializer.serialize(delta).toByteString())
+        .build());
+    docLength++;
+  }
+
+  private static ParticipantId participant(String name, int i) {
+    return new ParticipantId(name + i + "@example.com");
+  }
+
+  /**
+   * Applies the given number of deltas from the concurrent editors after the
+   * document is created, then submits late deltas at the version the
+   * document was created at.
+   *
+   * @return the nanoseconds taken by the first late delta and by all the
+   *         following ones.
+   */
+  private long[] measureGap(int gap) throws Exception {
+    createWavelet();
+    ParticipantId creator = participant("creator", 0);
+    submit(creator, HASH_FACTORY.createVersionZero(WAVELET_NAME),
+        new DocOpBuilder().characters(Strings.repeat("a", DOC_LENGTH)));
+    docLength = DOC_LENGTH;
+    HashedVersion lateVersion = wavelet.getCurrentVersion();
+    for (int i = 0; i < gap; i++) {
+      submitInsert(participant("editor", i % EDITORS), wavelet.getCurrentVersion(), docLength);
+    }
+
+    long start = System.nanoTime();
+    submitInsert(participant("late", 0), lateVersion, DOC_LENGTH);
+    long first = System.nanoTime() - start;
+    start = System.nanoTime();
+    for (int i = 1; i < LATE_CLIENTS; i++) {
+      submitInsert(participant("late", i), lateVersion, DOC_LENGTH);
+    }
+    return new long[] {first, System.nanoTime() - start};
+  }
+
+  public void testPerformance() throws Exception {
+    // Warm up.
+    for (int gap : VERSION_GAPS) {
+      measureGap(gap);
+    }
+    System.err.println(String.format("%8s %14s %14s", "gap", "first (us)", "shared (us)"));
+    for (int gap : VERSION_GAPS) {
+      long first = 0;
+      long shared = 0;
+      for (int i = 0; i < RUNS; i++) {
+        long[] times = measureGap(gap);
+        first += times[0];
+        shared += times[1];
+      }
+      System.err.println(String.format("%8d %,14d %,14d", gap, first / RUNS / 1000,
+          shared / RUNS / (LATE_CLIENTS - 1) / 1000));
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    new SubmitTransformPerformanceTester().testPerformance();
+    // The wavelet containers leave their storage threads running.
+    System.exit(0);
+  }
+}
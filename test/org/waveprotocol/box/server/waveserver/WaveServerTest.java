@@ -24,6 +24,7 @@ import static org.mockito.Mockito.when;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.util.concurrent.MoreExecutors;
+import com.google.protobuf.ByteString;
 
 import junit.framework.TestCase;
 
@@ -35,6 +36,9 @@ import org.waveprotocol.box.server.common.CoreWaveletOperationSerializer;
 import org.waveprotocol.box.server.persistence.memory.MemoryDeltaStore;
 import org.waveprotocol.box.server.waveserver.LocalWaveletContainer.Factory;
 import org.waveprotocol.box.server.waveserver.WaveletProvider.SubmitRequestListener;
+import org.waveprotocol.wave.federation.FederationErrorProto.FederationError;
+import org.waveprotocol.wave.federation.Proto.ProtocolAppliedWaveletDelta;
+import org.waveprotocol.wave.federation.Proto.ProtocolHashedVersion;
 import org.waveprotocol.wave.federation.Proto.ProtocolSignature;
 import org.waveprotocol.wave.federation.Proto.ProtocolSignedDelta;
 import org.waveprotocol.wave.federation.Proto.ProtocolWaveletDelta;
@@ -44,6 +48,7 @@ import org.waveprotocol.wave.model.id.WaveId;
 import org.waveprotocol.wave.model.id.WaveletId;
 import org.waveprotocol.wave.model.id.WaveletName;
 import org.waveprotocol.wave.model.operation.wave.AddParticipant;
+import org.waveprotocol.wave.model.operation.wave.RemoveParticipant;
 import org.waveprotocol.wave.model.operation.wave.WaveletDelta;
 import org.waveprotocol.wave.model.operation.wave.WaveletOperation;
 import org.waveprotocol.wave.model.operation.wave.WaveletOperationContext;
@@ -54,6 +59,7 @@ import org.waveprotocol.wave.model.wave.ParticipantId;
 import org.waveprotocol.wave.model.wave.data.ReadableWaveletData;
 import org.waveprotocol.wave.util.escapers.jvm.JavaUrlCodec;
 
+import java.util.List;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 
@@ -75,10 +81,33 @@ public class WaveServerTest extends TestCase {
   private static final WaveletOperationContext CONTEXT =
       new WaveletOperationContext(USER1, 1234567890, 1);
 
+  private static final int HISTORY_DELTAS = 20;
+
+  /** The number of deltas in a page of history, when they all fit. */
+  private static final int HISTORY_PAGE_DELTAS = 3;
+
   private static WaveletOperation addParticipantToWavelet(ParticipantId user) {
     return new AddParticipant(CONTEXT, user);
   }
 
+  /** Holds the response to a history request. */
+  private static class HistoryResponse implements WaveletFederationProvider.HistoryResponseListener {
+    List<ByteString> deltaList;
+    long versionTruncatedAt;
+
+    @Override
+    public void onSuccess(List<ByteString> deltaList, ProtocolHashedVersion lastCommittedVersion,
+        long versionTruncatedAt) {
+      this.deltaList = deltaList;
+      this.versionTruncatedAt = versionTruncatedAt;
+    }
+
+    @Override
+    public void onFailure(FederationError error) {
+      fail("History request failed: " + error);
+    }
+  }
+
   @Mock private SignatureHandler localSigner;
   @Mock private WaveletFederationProvider federationRemote;
   @Mock private WaveletNotificationDispatcher notifiee;
@@ -98,7 +127,8 @@ public class WaveServerTest extends TestCase {
     when(localSigner.sign(Matchers.<ByteStringMessage<ProtocolWaveletDelta>>any()))
         .thenReturn(ImmutableList.<ProtocolSignature>of());
 
-    certificateManager = new CertificateManagerImpl(true, localSigner, null, null);
+    certificateManager = new CertificateManagerImpl(true, localSigner, null, null,
+        MoreExecutors.sameThreadExecutor());
     final DeltaStore deltaStore = new MemoryDeltaStore();
     final Executor executor = Executors.newSingleThreadExecutor();
     Factory localWaveletContainerFactory = new LocalWaveletContainer.Factory() {
@@ -138,6 +168,60 @@ public class WaveServerTest extends TestCase {
 //        eq(ImmutableSet.of(DOMAIN)));
   }
 
+  public void testRequestHistoryPagesThroughWavelet() throws Exception {
+    WaveletContainerImpl wavelet =
+        (WaveletContainerImpl) waveMap.getOrCreateLocalWavelet(WAVELET_NAME);
+    wavelet.awaitLoad();
+    for (int i = 0; i < HISTORY_DELTAS; i++) {
+      WaveletOperation op = (i % 2 == 0)
+          ? new AddParticipant(CONTEXT, USER2) : new RemoveParticipant(CONTEXT, USER2);
+      WaveServerTestUtil.applyDeltaToWavelet(wavelet,
+          new WaveletDelta(USER1, wavelet.getCurrentVersion(), ImmutableList.of(op)), 0);
+    }
+    HashedVersion endVersion = wavelet.getCurrentVersion();
+    HashedVersion startVersion = V0_HASH_FACTORY.createVersionZero(WAVELET_NAME);
+
+    // The deltas all have the same length, so a limit of a few deltas splits
+    // the history into pages of that many deltas.
+    List<ByteString> history = requestHistory(startVersion, endVersion, 0).deltaList;
+    assertEquals(HISTORY_DELTAS, history.size());
+    long lengthLimit = history.get(0).size() * HISTORY_PAGE_DELTAS;
+
+    int deltaCount = 0;
+    int pages = 0;
+    while (startVersion.getVersion() < endVersion.getVersion()) {
+      HistoryResponse response = requestHistory(startVersion, endVersion, lengthLimit);
+      pages++;
+      assertEquals(history.subList(deltaCount, deltaCount + response.deltaList.size()),
+          response.deltaList);
+
+      // Resume from the end of the last returned delta, as a remote would.
+      ByteStringMessage<ProtocolAppliedWaveletDelta> last =
+          ByteStringMessage.parseProtocolAppliedWaveletDelta(
+              response.deltaList.get(response.deltaList.size() - 1));
+      startVersion = AppliedDeltaUtil.calculateResultingHashedVersion(last);
+      deltaCount += response.deltaList.size();
+      if (response.versionTruncatedAt > 0) {
+        assertEquals(HISTORY_PAGE_DELTAS, response.deltaList.size());
+        assertEquals(startVersion.getVersion(), response.versionTruncatedAt);
+      } else {
+        assertEquals(endVersion, startVersion);
+      }
+    }
+
+    assertEquals(HISTORY_DELTAS, deltaCount);
+    assertEquals((HISTORY_DELTAS + HISTORY_PAGE_DELTAS - 1) / HISTORY_PAGE_DELTAS, pages);
+  }
+
+  private HistoryResponse requestHistory(HashedVersion startVersion, HashedVersion endVersion,
+      long lengthLimit) {
+    HistoryResponse response = new HistoryResponse();
+    waveServer.requestHistory(WAVELET_NAME, DOMAIN,
+        CoreWaveletOperationSerializer.serialize(startVersion),
+        CoreWaveletOperationSerializer.serialize(endVersion), lengthLimit, response);
+    return response;
+  }
+
   private void submitDeltaToNewWavelet(WaveletName name, ParticipantId user,
       WaveletOperation... ops) {
     HashedVersion version = V0_HASH_FACTORY.createVersionZero(name);
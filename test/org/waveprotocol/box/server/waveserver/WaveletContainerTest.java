@@ -17,8 +17,14 @@
 
 package org.waveprotocol.box.server.waveserver;
 
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.Futures;
@@ -27,14 +33,19 @@ import com.google.protobuf.ByteString;
 
 import junit.framework.TestCase;
 
+import org.mockito.ArgumentCaptor;
 import org.waveprotocol.box.server.common.CoreWaveletOperationSerializer;
 import org.waveprotocol.box.server.persistence.memory.MemoryDeltaStore;
+import org.waveprotocol.wave.federation.Proto.ProtocolAppliedWaveletDelta;
 import org.waveprotocol.wave.federation.Proto.ProtocolHashedVersion;
 import org.waveprotocol.wave.federation.Proto.ProtocolSignature;
 import org.waveprotocol.wave.federation.Proto.ProtocolSignedDelta;
 import org.waveprotocol.wave.federation.Proto.ProtocolWaveletDelta;
+import org.waveprotocol.wave.federation.WaveletFederationProvider;
+import org.waveprotocol.wave.federation.WaveletFederationProvider.HistoryResponseListener;
 import org.waveprotocol.wave.model.document.operation.DocOp;
 import org.waveprotocol.wave.model.document.operation.impl.DocOpBuilder;
+import org.waveprotocol.wave.model.document.operation.impl.DocOpUtil;
 import org.waveprotocol.wave.model.id.IdURIEncoderDecoder;
 import org.waveprotocol.wave.model.id.WaveId;
 import org.waveprotocol.wave.model.id.WaveletId;
@@ -50,6 +61,7 @@ import org.waveprotocol.wave.model.operation.wave.WaveletOperationContext;
 import org.waveprotocol.wave.model.version.HashedVersion;
 import org.waveprotocol.wave.model.version.HashedVersionFactory;
 import org.waveprotocol.wave.model.version.HashedVersionFactoryImpl;
+import org.waveprotocol.wave.model.wave.data.ReadableWaveletData;
 import org.waveprotocol.wave.model.wave.ParticipantId;
 import org.waveprotocol.wave.util.escapers.jvm.JavaUrlCodec;
 
@@ -58,6 +70,7 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
 
 /**
  * Tests for local and remote wavelet containers.
@@ -112,13 +125,14 @@ public class WaveletContainerTest extends TestCase {
     doubleRemoveParticipantOps.addAll(removeParticipantOps);
   }
 
+  private WaveletNotificationSubscriber notifiee;
   private LocalWaveletContainerImpl localWavelet;
   private RemoteWaveletContainerImpl remoteWavelet;
 
   @Override
   public void setUp() throws Exception {
     super.setUp();
-    WaveletNotificationSubscriber notifiee = mock(WaveletNotificationSubscriber.class);
+    notifiee = mock(WaveletNotificationSubscriber.class);
     DeltaStore deltaStore = new MemoryDeltaStore();
     WaveletState localWaveletState =
         DeltaStoreBasedWaveletState.create(deltaStore.open(localWaveletName), PERSIST_EXECUTOR);
@@ -264,8 +278,162 @@ public class WaveletContainerTest extends TestCase {
     }
   }
 
+  public void testLateDeltaIsTransformedAgainstComposedHistory() throws Exception {
+    HashedVersion base = submit(author, localVersion0, insert("b+doc", 0, "abcdef", 0));
+    submit(editor(1), localWavelet.getCurrentVersion(), insert("b+doc", 2, "X", 4));
+    submit(editor(2), localWavelet.getCurrentVersion(), delete("b+doc", 4, "d", 2));
+    submit(editor(3), localWavelet.getCurrentVersion(), insert("b+doc", 6, "Y", 0));
+    assertEquals("abXcefY", documentText("b+doc"));
+
+    // Each operation of the late delta applies to the result of the previous one.
+    HashedVersion lateVersion = submit(editor(4), base,
+        insert("b+doc", 0, "1", 6), delete("b+doc", 5, "e", 1));
+    assertEquals("1abXcfY", documentText("b+doc"));
+    assertEquals(localWavelet.getCurrentVersion(), lateVersion);
+
+    // A second late delta reuses the composed history, extended by the first.
+    submit(editor(5), base, insert("b+doc", 3, "Z", 3));
+    assertEquals("1abXcZfY", documentText("b+doc"));
+  }
+
+  public void testLateDeltaOnOtherDocumentIsUnchanged() throws Exception {
+    HashedVersion base = submit(author, localVersion0,
+        insert("b+one", 0, "one", 0), insert("b+two", 0, "two", 0));
+    submit(editor(1), localWavelet.getCurrentVersion(), insert("b+one", 0, "1", 3));
+    submit(editor(2), base, insert("b+two", 3, "2", 0));
+    assertEquals("1one", documentText("b+one"));
+    assertEquals("two2", documentText("b+two"));
+  }
+
+  public void testLateDuplicateOfTransformedDeltaIsNotApplied() throws Exception {
+    HashedVersion base = submit(author, localVersion0, insert("b+doc", 0, "abc", 0));
+    submit(editor(2), base, insert("b+doc", 0, "Y", 3));
+    WaveletDelta delta = new WaveletDelta(editor(1), base,
+        Arrays.asList(insert("b+doc", 3, "X", 0)));
+    WaveletDeltaRecord applied = submit(delta);
+    submit(editor(2), localWavelet.getCurrentVersion(), insert("b+doc", 0, "Z", 5));
+    HashedVersion currentVersion = localWavelet.getCurrentVersion();
+
+    WaveletDeltaRecord duplicate = submit(delta);
+    assertEquals(applied.getResultingVersion(), duplicate.getResultingVersion());
+    assertEquals(currentVersion, localWavelet.getCurrentVersion());
+    assertEquals("ZYabcX", documentText("b+doc"));
+  }
+
+  public void testTruncatedRemoteHistoryIsNotifiedPageByPage() throws Exception {
+    List<ByteStringMessage<ProtocolAppliedWaveletDelta>> history = Lists.newArrayList();
+    List<HashedVersion> versions = Lists.newArrayList(remoteWavelet.getCurrentVersion());
+    for (ParticipantId p : Arrays.asList(editor(1), editor(2), editor(3))) {
+      HashedVersion version = versions.get(versions.size() - 1);
+      ByteStringMessage<ProtocolAppliedWaveletDelta> applied = AppliedDeltaUtil.buildAppliedDelta(
+          ProtocolSignedDelta.newBuilder().setDelta(serialize(new WaveletDelta(author, version,
+              Arrays.<WaveletOperation>asList(new AddParticipant(CONTEXT, p)))).toByteString())
+              .build(), version, 1, 0L);
+      history.add(applied);
+      versions.add(AppliedDeltaUtil.calculateResultingHashedVersion(applied));
+    }
+    WaveletFederationProvider federationProvider = mock(WaveletFederationProvider.class);
+    CertificateManager certificateManager = mock(CertificateManager.class);
+    ArgumentCaptor<HistoryResponseListener> listener =
+        ArgumentCaptor.forClass(HistoryResponseListener.class);
+
+    // Only the last delta arrives, so the first two are requested as history.
+    Future<Void> result = remoteWavelet.update(
+        Arrays.asList(history.get(2).getByteString()), remoteDomain, federationProvider,
+        certificateManager);
+    verify(federationProvider).requestHistory(eq(remoteWaveletName), eq(remoteDomain),
+        eq(serialize(versions.get(0))), eq(serialize(versions.get(2))), anyLong(),
+        listener.capture());
+
+    // The host truncates the history after the first delta.
+    listener.getValue().onSuccess(Arrays.asList(history.get(0).getByteString()),
+        serialize(versions.get(1)), versions.get(1).getVersion());
+    assertFalse(result.isDone());
+    assertEquals(versions.get(1), remoteWavelet.getCurrentVersion());
+    verify(federationProvider).requestHistory(eq(remoteWaveletName), eq(remoteDomain),
+        eq(serialize(versions.get(1))), eq(serialize(versions.get(2))), anyLong(),
+        listener.capture());
+
+    listener.getValue().onSuccess(Arrays.asList(history.get(1).getByteString()),
+        serialize(versions.get(2)), 0L);
+    assertTrue(result.isDone());
+    result.get();
+    assertEquals(versions.get(3), remoteWavelet.getCurrentVersion());
+
+    @SuppressWarnings("unchecked")
+    ArgumentCaptor<ImmutableList<WaveletDeltaRecord>> notified =
+        ArgumentCaptor.forClass((Class) ImmutableList.class);
+    verify(notifiee, times(2)).waveletUpdate(any(ReadableWaveletData.class), notified.capture(),
+        eq(ImmutableSet.<String>of()));
+    List<HashedVersion> notifiedVersions = Lists.newArrayList();
+    for (List<WaveletDeltaRecord> deltas : notified.getAllValues()) {
+      for (WaveletDeltaRecord delta : deltas) {
+        notifiedVersions.add(delta.getResultingVersion());
+      }
+    }
+    assertEquals(versions.subList(1, 4), notifiedVersions);
+  }
+
   // Utilities
 
+  private static ParticipantId editor(int i) {
+    return new ParticipantId("editor" + i + "@" + localDomain);
+  }
+
+  /**
+   * Returns an operation inserting text in a document of the given size.
+   */
+  private static WaveletOperation insert(String docId, int position, String text,
+      int remaining) {
+    DocOpBuilder builder = new DocOpBuilder();
+    if (position > 0) {
+      builder.retain(position);
+    }
+    builder.characters(text);
+    if (remaining > 0) {
+      builder.retain(remaining);
+    }
+    return new WaveletBlipOperation(docId, new BlipContentOperation(CONTEXT, builder.build()));
+  }
+
+  /**
+   * Returns an operation deleting text from a document of the given size.
+   */
+  private static WaveletOperation delete(String docId, int position, String text,
+      int remaining) {
+    DocOpBuilder builder = new DocOpBuilder();
+    if (position > 0) {
+      builder.retain(position);
+    }
+    builder.deleteCharacters(text);
+    if (remaining > 0) {
+      builder.retain(remaining);
+    }
+    return new WaveletBlipOperation(docId, new BlipContentOperation(CONTEXT, builder.build()));
+  }
+
+  /**
+   * Submits a delta to the local wavelet.
+   *
+   * @return the version the delta resulted in.
+   */
+  private HashedVersion submit(ParticipantId author, HashedVersion version,
+      WaveletOperation... ops) throws Exception {
+    return submit(new WaveletDelta(author, version, Arrays.asList(ops))).getResultingVersion();
+  }
+
+  private WaveletDeltaRecord submit(WaveletDelta delta) throws Exception {
+    return localWavelet.submitRequest(localWaveletName, ProtocolSignedDelta.newBuilder()
+        .addSignature(fakeSignature1)
+        .setDelta(serialize(delta).toByteString())
+        .build());
+  }
+
+  private String documentText(String docId) {
+    return DocOpUtil.toXmlString(
+        localWavelet.accessSnapshot().getDocument(docId).getContent().asOperation());
+  }
+
   /**
    * Returns a {@link WaveletDelta} for the list of operations performed by
    * the author set in the constants.
@@ -0,0 +1,227 @@
+/**
+ * Copyright 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.waveprotocol.box.server.waveserver;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import junit.framework.TestCase;
+
+import org.waveprotocol.box.server.common.CoreWaveletOperationSerializer;
+import org.waveprotocol.box.server.common.SnapshotSerializer;
+import org.waveprotocol.box.server.persistence.memory.MemoryDeltaStore;
+import org.waveprotocol.wave.concurrencycontrol.server.ConcurrencyControlCore;
+import org.waveprotocol.wave.concurrencycontrol.server.ConcurrencyControlCore.ReOpenInfo;
+import org.waveprotocol.wave.concurrencycontrol.server.DeltaHistory;
+import org.waveprotocol.wave.federation.Proto.ProtocolAppliedWaveletDelta;
+import org.waveprotocol.wave.model.document.operation.Attributes;
+import org.waveprotocol.wave.model.document.operation.DocOp;
+import org.waveprotocol.wave.model.document.operation.impl.DocOpBuilder;
+import org.waveprotocol.wave.model.id.IdURIEncoderDecoder;
+import org.waveprotocol.wave.model.id.WaveId;
+import org.waveprotocol.wave.model.id.WaveletId;
+import org.waveprotocol.wave.model.id.WaveletName;
+import org.waveprotocol.wave.model.operation.wave.AddParticipant;
+import org.waveprotocol.wave.model.operation.wave.BlipContentOperation;
+import org.waveprotocol.wave.model.operation.wave.TransformedWaveletDelta;
+import org.waveprotocol.wave.model.operation.wave.WaveletBlipOperation;
+import org.waveprotocol.wave.model.operation.wave.WaveletDelta;
+import org.waveprotocol.wave.model.operation.wave.WaveletOperation;
+import org.waveprotocol.wave.model.operation.wave.WaveletOperationContext;
+import org.waveprotocol.wave.model.version.HashedVersion;
+import org.waveprotocol.wave.model.version.HashedVersionFactory;
+import org.waveprotocol.wave.model.version.HashedVersionFactoryImpl;
+import org.waveprotocol.wave.model.wave.ParticipantId;
+import org.waveprotocol.wave.util.escapers.jvm.JavaUrlCodec;
+
+import java.util.List;
+
+/**
+ * Tests for {@link WaveletStateDeltaHistory}, over a wavelet whose deltas type
+ * into a blip.
+ */
+public class WaveletStateDeltaHistoryTest extends TestCase {
+
+  private static final WaveletName NAME = WaveletName.of(WaveId.of("example.com", "waveid"),
+      WaveletId.of("example.com", "waveletid"));
+  private static final ParticipantId AUTHOR = ParticipantId.ofUnsafe("author@example.com");
+  private static final String BLIP_ID = "b+1";
+  private static final String WORD = "typing ";
+  private static final long TS = 1234567890L;
+
+  private static final IdURIEncoderDecoder URI_CODEC =
+      new IdURIEncoderDecoder(new JavaUrlCodec());
+  private static final HashedVersionFactory HASH_FACTORY = new HashedVersionFactoryImpl(URI_CODEC);
+  private static final HashedVersion V0 = HASH_FACTORY.createVersionZero(NAME);
+
+  private WaveletState state;
+  private WaveletStateDeltaHistory history;
+
+  /** The resulting versions of the deltas, in order. */
+  private List<HashedVersion> versions;
+
+  /** The number of characters typed into the blip. */
+  private int textLength;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    state = DeltaStoreBasedWaveletState.create(new MemoryDeltaStore().open(NAME),
+        MoreExecutors.sameThreadExecutor());
+    history = new WaveletStateDeltaHistory(state);
+    versions = Lists.newArrayList();
+  }
+
+  public void testHasSignaturesOnlyAtDeltaBoundaries() throws Exception {
+    appendDeltas(3);
+    assertTrue(history.hasSignature(V0));
+    for (HashedVersion version : versions) {
+      assertTrue(history.hasSignature(version));
+    }
+    // The first delta has two operations.
+    assertFalse(history.hasSignature(HashedVersion.unsigned(1)));
+    assertFalse(history.hasSignature(HashedVersion.unsigned(versions.get(1).getVersion())));
+    assertFalse(history.hasSignature(HashedVersion.unsigned(100)));
+  }
+
+  public void testWalksDeltasToCurrentVersion() throws Exception {
+    appendDeltas(5);
+    assertEquals(state.getCurrentVersion().getVersion(), history.getCurrentVersion());
+    long version = 0;
+    for (HashedVersion resultingVersion : versions) {
+      TransformedWaveletDelta delta = history.getDeltaStartingAt(version);
+      assertEquals(version, delta.getAppliedAtVersion());
+      assertEquals(resultingVersion, delta.getResultingVersion());
+      version = resultingVersion.getVersion();
+    }
+    assertNull(history.getDeltaStartingAt(version));
+    assertNull(history.getDeltaStartingAt(1));
+  }
+
+  public void testReopenReturnsOnlyMissingDeltas() throws Exception {
+    appendDeltas(20);
+    HashedVersion known = versions.get(14);
+    ReOpenInfo catchUp = new ConcurrencyControlCore(history).reopen(
+        ImmutableList.of(versions.get(2), known, HashedVersion.unsigned(known.getVersion() + 1)));
+    assertEquals(known, catchUp.getStartSignature());
+    assertEquals(5, catchUp.getDeltas().size());
+    assertEquals(known.getVersion(), catchUp.getDeltas().get(0).getAppliedAtVersion());
+    assertEquals(state.getCurrentVersion(),
+        catchUp.getDeltas().get(4).getResultingVersion());
+  }
+
+  public void testReopenAtUnknownVersionsReturnsNull() throws Exception {
+    appendDeltas(3);
+    assertNull(new ConcurrencyControlCore(history).reopen(
+        ImmutableList.of(HashedVersion.unsigned(versions.get(1).getVersion()))));
+  }
+
+  /**
+   * Compares the bytes sent to a client reconnecting a few deltas behind a
+   * wavelet with a large history: the deltas it missed, against a snapshot.
+   */
+  public void testCatchUpIsSmallerThanSnapshotForLargeHistories() throws Exception {
+    appendDeltas(5000);
+    for (int missed : new int[] {1, 10, 100}) {
+      HashedVersion known = versions.get(versions.size() - 1 - missed);
+      ReOpenInfo catchUp =
+          new ConcurrencyControlCore(history).reopen(ImmutableList.of(V0, known));
+      assertEquals(missed, catchUp.getDeltas().size());
+
+      int deltaBytes = 0;
+      for (TransformedWaveletDelta delta : catchUp.getDeltas()) {
+        deltaBytes += CoreWaveletOperationSerializer.serialize(delta).getSerializedSize();
+      }
+      int snapshotBytes = SnapshotSerializer.serializeWavelet(state.getSnapshot(),
+          state.getCurrentVersion()).getSerializedSize();
+      assertTrue(deltaBytes < snapshotBytes);
+    }
+  }
+
+  public void testReopenStopsWalkingPastMaxOperations() throws Exception {
+    appendDeltas(20);
+    // Each delta after the first types one operation.
+    HashedVersion known = versions.get(4);
+    final int[] deltasRead = {0};
+    DeltaHistory countingHistory = new DeltaHistory() {
+      @Override
+      public long getCurrentVersion() {
+        return history.getCurrentVersion();
+      }
+
+      @Override
+      public TransformedWaveletDelta getDeltaStartingAt(long version) {
+        deltasRead[0]++;
+        return history.getDeltaStartingAt(version);
+      }
+
+      @Override
+      public boolean hasSignature(HashedVersion signature) {
+        return history.hasSignature(signature);
+      }
+    };
+    ConcurrencyControlCore core = new ConcurrencyControlCore(countingHistory);
+
+    assertEquals(15, core.reopen(ImmutableList.of(known), 15).getDeltas().size());
+    deltasRead[0] = 0;
+    assertNull(core.reopen(ImmutableList.of(known), 5));
+    assertEquals(6, deltasRead[0]);
+  }
+
+  /**
+   * Appends deltas to the state, the first of which adds the author and a
+   * blip, and the others type a word into the blip.
+   */
+  private void appendDeltas(int count) throws Exception {
+    HashedVersion version = state.getCurrentVersion();
+    for (int i = 0; i < count; i++) {
+      List<WaveletOperation> ops;
+      if (version.getVersion() == 0) {
+        ops = ImmutableList.of(new AddParticipant(context(), AUTHOR), blipOp(new DocOpBuilder()
+            .elementStart("body", Attributes.EMPTY_MAP)
+            .elementStart("line", Attributes.EMPTY_MAP).elementEnd()
+            .elementEnd()
+            .build()));
+      } else {
+        // Type after the line, before the text typed so far and the body end.
+        ops = ImmutableList.of(blipOp(new DocOpBuilder()
+            .retain(3)
+            .characters(WORD)
+            .retain(textLength + 1)
+            .build()));
+        textLength += WORD.length();
+      }
+      WaveletDelta delta = new WaveletDelta(AUTHOR, version, ops);
+      ByteStringMessage<ProtocolAppliedWaveletDelta> appliedDelta =
+          WaveServerTestUtil.buildAppliedDelta(delta, TS);
+      TransformedWaveletDelta transformedDelta =
+          AppliedDeltaUtil.buildTransformedDelta(appliedDelta, delta);
+      state.appendDelta(version, transformedDelta, appliedDelta);
+      version = transformedDelta.getResultingVersion();
+      versions.add(version);
+    }
+  }
+
+  private static WaveletOperationContext context() {
+    return new WaveletOperationContext(AUTHOR, TS, 1);
+  }
+
+  private static WaveletOperation blipOp(DocOp op) {
+    return new WaveletBlipOperation(BLIP_ID, new BlipContentOperation(context(), op));
+  }
+}
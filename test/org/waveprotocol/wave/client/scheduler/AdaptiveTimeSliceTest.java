@@ -0,0 +1,135 @@
+/**
+ * Copyright 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.waveprotocol.wave.client.scheduler;
+
+import junit.framework.TestCase;
+
+/**
+ * Test case for AdaptiveTimeSlice.
+ *
+ */
+
+public class AdaptiveTimeSliceTest extends TestCase {
+
+  private AdaptiveTimeSlice slice;
+
+  @Override
+  protected void setUp() {
+    slice = new AdaptiveTimeSlice(30, 4, 100, 0.5);
+  }
+
+  public void testStartsAtMaximumBudget() {
+    assertEquals(100, slice.onSliceStart(0));
+    assertEquals(-1.0, slice.getLastFrameMillis());
+  }
+
+  public void testLongFramesShrinkTheBudget() {
+    slice.onSliceStart(0);
+    slice.onSliceEnd(true);
+    // 100 + 0.5 * (30 - 150)
+    assertEquals(40, slice.onSliceStart(150));
+    assertEquals(150.0, slice.getLastFrameMillis());
+    slice.onSliceEnd(true);
+    // 40 + 0.5 * (30 - 60)
+    assertEquals(25, slice.onSliceStart(210));
+  }
+
+  public void testShortFramesGrowTheBudget() {
+    slice.onSliceStart(0);
+    slice.onSliceEnd(true);
+    assertEquals(40, slice.onSliceStart(150));
+    slice.onSliceEnd(true);
+    // 40 + 0.5 * (30 - 10)
+    assertEquals(50, slice.onSliceStart(160));
+  }
+
+  public void testIdleTimeIsNotMeasured() {
+    slice.onSliceStart(0);
+    slice.onSliceEnd(false);
+    assertEquals(100, slice.onSliceStart(5000));
+    assertEquals(-1.0, slice.getLastFrameMillis());
+  }
+
+  public void testThrottledFramesAreNotMeasured() {
+    slice.onSliceStart(0);
+    slice.onSliceEnd(true);
+    // A background tab runs the next slice a second later.
+    assertEquals(100, slice.onSliceStart(1100));
+    assertEquals(-1.0, slice.getLastFrameMillis());
+    slice.onSliceEnd(true);
+    // 100 + 0.5 * (30 - 150)
+    assertEquals(40, slice.onSliceStart(1250));
+  }
+
+  public void testSlowRenderingIsMeasured() {
+    // Every slice uses its whole budget, and a slow device then takes 80ms to
+    // render before the next slice starts.
+    double now = 0;
+    for (int i = 0; i < 10; i++) {
+      now += slice.onSliceStart(now) + 80;
+      slice.onSliceEnd(true);
+    }
+    assertEquals(4, slice.onSliceStart(now));
+    assertEquals(84.0, slice.getLastFrameMillis());
+  }
+
+  public void testBudgetIsClamped() {
+    slice.onSliceStart(0);
+    slice.onSliceEnd(true);
+    // 100 + 0.5 * (30 - 160)
+    assertEquals(35, slice.onSliceStart(160));
+    slice.onSliceEnd(true);
+    // 35 + 0.5 * (30 - 95)
+    assertEquals(4, slice.onSliceStart(255));
+    for (int i = 0; i < 10; i++) {
+      slice.onSliceEnd(true);
+      slice.onSliceStart(255);
+    }
+    assertEquals(100, slice.getBudget());
+  }
+
+  public void testSettlesOnTargetFrame() {
+    // Every slice uses its whole budget, and the browser then takes 12ms to
+    // render before the next slice starts.
+    double now = 0;
+    for (int i = 0; i < 30; i++) {
+      now += slice.onSliceStart(now) + 12;
+      slice.onSliceEnd(true);
+    }
+    assertEquals(18, slice.onSliceStart(now), 1);
+    assertEquals(30.0, slice.getLastFrameMillis(), 1);
+  }
+
+  public void testRejectsInvalidParameters() {
+    try {
+      new AdaptiveTimeSlice(30, 0, 100, 0.5);
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException expected) {
+    }
+    try {
+      new AdaptiveTimeSlice(30, 50, 10, 0.5);
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException expected) {
+    }
+    try {
+      new AdaptiveTimeSlice(30, 4, 100, 2);
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+}
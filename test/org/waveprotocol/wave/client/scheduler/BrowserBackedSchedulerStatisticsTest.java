@@ -0,0 +1,187 @@
+/**
+ * Copyright 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.waveprotocol.wave.client.scheduler;
+
+import junit.framework.TestCase;
+
+import org.waveprotocol.wave.client.scheduler.Scheduler.IncrementalTask;
+import org.waveprotocol.wave.client.scheduler.Scheduler.Priority;
+import org.waveprotocol.wave.client.scheduler.Scheduler.Task;
+import org.waveprotocol.wave.client.scheduler.testing.FakeSimpleTimer;
+
+/**
+ * Tests the statistics, starvation protection and adaptive time slicing of
+ * BrowserBackedScheduler, driven by a fake timer.
+ *
+ */
+
+public class BrowserBackedSchedulerStatisticsTest extends TestCase {
+
+  /** Incremental task that never finishes, with work units of fixed length. */
+  private class EndlessProcess implements IncrementalTask {
+    private final int unitMillis;
+    int units;
+
+    EndlessProcess(int unitMillis) {
+      this.unitMillis = unitMillis;
+    }
+
+    @Override
+    public boolean execute() {
+      timer.tick(unitMillis);
+      units++;
+      return true;
+    }
+  }
+
+  /** Task with a fixed run time. */
+  private class TimedTask implements Task {
+    private final int millis;
+    boolean executed;
+
+    TimedTask(int millis) {
+      this.millis = millis;
+    }
+
+    @Override
+    public void execute() {
+      timer.tick(millis);
+      executed = true;
+    }
+  }
+
+  private FakeSimpleTimer timer;
+  private BrowserBackedScheduler scheduler;
+
+  @Override
+  protected void setUp() {
+    scheduler = new BrowserBackedScheduler(new SimpleTimer.Factory() {
+      @Override
+      public SimpleTimer create(Runnable runnable) {
+        return timer = new FakeSimpleTimer(runnable);
+      }
+    }, Controller.NOOP);
+    scheduler.setTimeSlice(10);
+  }
+
+  public void testRecordsQueueDelayAndRunTime() {
+    scheduler.schedule(Priority.LOW, new TimedTask(5));
+    timer.trigger(7);
+
+    SchedulerStatistics stats = scheduler.getStatistics();
+    assertEquals(1, stats.getQueueDelays(Priority.LOW).getCount());
+    assertEquals(7.0, stats.getQueueDelays(Priority.LOW).getMaxMillis());
+    assertEquals(1, stats.getRunTimes(Priority.LOW).getCount());
+    assertEquals(5.0, stats.getRunTimes(Priority.LOW).getMaxMillis());
+    assertEquals(0, stats.getRunTimes(Priority.HIGH).getCount());
+    assertTrue(stats.toString().contains("LOW"));
+    assertFalse(stats.toString().contains("HIGH"));
+
+    stats.reset();
+    assertEquals(0, stats.getRunTimes(Priority.LOW).getCount());
+  }
+
+  public void testQueueDelayOfDelayedJobCountsFromWhenItWasDue() {
+    scheduler.scheduleDelayed(Priority.MEDIUM, new TimedTask(1), 20);
+    timer.tick(25);
+    timer.trigger();
+
+    assertEquals(5.0, scheduler.getStatistics().getQueueDelays(Priority.MEDIUM).getMaxMillis(),
+        0.1);
+  }
+
+  public void testLowPriorityJobsStarveByDefault() {
+    EndlessProcess high = new EndlessProcess(10);
+    TimedTask low = new TimedTask(1);
+    scheduler.schedule(Priority.HIGH, high);
+    scheduler.schedule(Priority.LOW, low);
+
+    for (int i = 0; i < 50; i++) {
+      timer.trigger();
+    }
+    assertEquals(50, high.units);
+    assertFalse(low.executed);
+  }
+
+  public void testStarvedJobRunsOutOfTurn() {
+    scheduler.setStarvationThreshold(100);
+    EndlessProcess high = new EndlessProcess(10);
+    TimedTask low = new TimedTask(1);
+    scheduler.schedule(Priority.HIGH, high);
+    scheduler.schedule(Priority.LOW, low);
+
+    for (int i = 0; i < 9; i++) {
+      timer.trigger();
+    }
+    assertFalse(low.executed);
+    timer.trigger();
+    assertTrue(low.executed);
+    assertEquals(10, high.units);
+    assertEquals(1, scheduler.getStatistics().getStarvationRescues(Priority.LOW));
+    assertEquals(0, scheduler.getStatistics().getStarvationRescues(Priority.MEDIUM));
+    assertTrue(scheduler.getStatistics().getQueueDelays(Priority.LOW).getMaxMillis() >= 100);
+  }
+
+  public void testStarvedIncrementalTaskGetsOneUnitPerSlice() {
+    scheduler.setStarvationThreshold(30);
+    EndlessProcess high = new EndlessProcess(10);
+    EndlessProcess low = new EndlessProcess(1);
+    scheduler.schedule(Priority.HIGH, high);
+    scheduler.schedule(Priority.LOW, low);
+
+    for (int i = 0; i < 3; i++) {
+      timer.trigger();
+    }
+    assertEquals(1, low.units);
+    // Requeued after running, so it has to wait out the threshold again.
+    for (int i = 0; i < 3; i++) {
+      timer.trigger();
+    }
+    assertEquals(2, low.units);
+  }
+
+  public void testAdaptiveSliceShrinksWhenRenderingIsSlow() {
+    AdaptiveTimeSlice slice = new AdaptiveTimeSlice(30, 4, 100, 0.5);
+    scheduler.setAdaptiveTimeSlice(slice);
+    EndlessProcess process = new EndlessProcess(2);
+    scheduler.schedule(Priority.MEDIUM, process);
+
+    timer.trigger();
+    assertEquals(50, process.units);
+
+    // The browser takes 20ms to render between slices.
+    for (int i = 0; i < 30; i++) {
+      timer.trigger(20);
+    }
+    assertEquals(10, slice.getBudget(), 1);
+
+    int before = process.units;
+    timer.trigger(20);
+    assertEquals(5, process.units - before, 1);
+  }
+
+  public void testSettingFixedTimeSliceReplacesAdaptiveSlice() {
+    scheduler.setAdaptiveTimeSlice(new AdaptiveTimeSlice(30, 4, 100, 0.5));
+    scheduler.setTimeSlice(10);
+    EndlessProcess process = new EndlessProcess(2);
+    scheduler.schedule(Priority.MEDIUM, process);
+
+    timer.trigger();
+    assertEquals(5, process.units);
+  }
+}
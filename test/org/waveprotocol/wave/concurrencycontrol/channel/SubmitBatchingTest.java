@@ -0,0 +1,231 @@
+/**
+ * Copyright 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.waveprotocol.wave.concurrencycontrol.channel;
+
+import junit.framework.TestCase;
+
+import org.waveprotocol.wave.common.logging.AbstractLogger;
+import org.waveprotocol.wave.common.logging.PrintLogger;
+import org.waveprotocol.wave.concurrencycontrol.channel.OperationChannelMultiplexerImpl.LoggerContext;
+import org.waveprotocol.wave.concurrencycontrol.channel.WaveViewService.SubmitCallback;
+import org.waveprotocol.wave.concurrencycontrol.common.ChannelException;
+import org.waveprotocol.wave.concurrencycontrol.common.ResponseCode;
+import org.waveprotocol.wave.concurrencycontrol.common.UnsavedDataListenerFactory;
+import org.waveprotocol.wave.concurrencycontrol.testing.FakeWaveViewServiceUpdate;
+import org.waveprotocol.wave.concurrencycontrol.testing.MockWaveViewService;
+import org.waveprotocol.wave.concurrencycontrol.testing.MockWaveViewService.SubmitArguments;
+import org.waveprotocol.wave.model.id.IdFilters;
+import org.waveprotocol.wave.model.id.WaveId;
+import org.waveprotocol.wave.model.id.WaveletId;
+import org.waveprotocol.wave.model.operation.wave.AddParticipant;
+import org.waveprotocol.wave.model.operation.wave.WaveletOperationContext;
+import org.waveprotocol.wave.model.testing.BasicFactories;
+import org.waveprotocol.wave.model.testing.FakeHashedVersionFactory;
+import org.waveprotocol.wave.model.util.CollectionUtils;
+import org.waveprotocol.wave.model.util.FuzzingBackOffScheduler.Cancellable;
+import org.waveprotocol.wave.model.util.FuzzingBackOffScheduler.CollectiveScheduler;
+import org.waveprotocol.wave.model.util.ImmediateExcecutionScheduler;
+import org.waveprotocol.wave.model.util.Scheduler.Command;
+import org.waveprotocol.wave.model.version.HashedVersion;
+import org.waveprotocol.wave.model.wave.ParticipantId;
+import org.waveprotocol.wave.model.wave.data.ObservableWaveletData;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests that the deltas a single user action submits to several wavelets of a
+ * wave are sent to the server in a single request.
+ */
+public class SubmitBatchingTest extends TestCase {
+
+  /**
+   * A scheduler which runs the scheduled tasks when told to.
+   */
+  private static final class ManualScheduler implements CollectiveScheduler {
+    private final List<Command> tasks = CollectionUtils.newArrayList();
+
+    @Override
+    public Cancellable schedule(final Command task, int minAllowedMs, int targetTimeMs) {
+      tasks.add(task);
+      return new Cancellable() {
+        @Override
+        public void cancel() {
+          tasks.remove(task);
+        }
+      };
+    }
+
+    void runScheduledTasks() {
+      List<Command> toRun = CollectionUtils.newArrayList(tasks);
+      tasks.clear();
+      for (Command task : toRun) {
+        task.execute();
+      }
+    }
+  }
+
+  private static final WaveId WAVE_ID = WaveId.of("example.com", "w+1");
+  private static final WaveletId CONVERSATION_ID = WaveletId.of("example.com", "conv+root");
+  private static final WaveletId USER_DATA_ID =
+      WaveletId.of("example.com", "user+example@example.com");
+  private static final String CHANNEL_ID = "channelId_1";
+  private static final ParticipantId USER_NAME = new ParticipantId("example@example.com");
+  private static final byte[] SIGNATURE = new byte[] { 1, 1, 1, 1 };
+
+  private static final int BATCH_DELAY_MS = 20;
+  private static final int USER_ACTIONS = 10;
+
+  private static final AbstractLogger logger = new PrintLogger();
+  private static final LoggerContext LOGGERS = new LoggerContext(logger, logger, logger, logger);
+  private static final ObservableWaveletData.Factory<?> DATA_FACTORY =
+      BasicFactories.waveletDataImplFactory();
+
+  private MockWaveViewService waveViewService;
+  private ManualScheduler batchScheduler;
+  private MockMuxListener muxListener;
+  private Map<WaveletId, OperationChannel> channels;
+  private Map<WaveletId, Long> versions;
+
+  @Override
+  protected void setUp() {
+    ViewChannelImpl.setMaxViewChannelsPerWave(Integer.MAX_VALUE);
+    waveViewService = new MockWaveViewService();
+    batchScheduler = new ManualScheduler();
+    muxListener = new MockMuxListener();
+    channels = CollectionUtils.newHashMap();
+    versions = CollectionUtils.newHashMap();
+  }
+
+  public void testDeltasToSeveralWaveletsAreSentInOneRequest() throws ChannelException {
+    open(ViewChannelImpl.factory(waveViewService, logger, batchScheduler, BATCH_DELAY_MS));
+
+    postAndMarkRead();
+    assertEquals(0, waveViewService.submits.size());
+    assertEquals(0, waveViewService.batchSubmits.size());
+
+    batchScheduler.runScheduledTasks();
+    assertEquals(0, waveViewService.submits.size());
+    assertEquals(1, waveViewService.batchSubmits.size());
+    List<SubmitArguments> batch = waveViewService.lastBatchSubmit();
+    assertEquals(2, batch.size());
+    assertEquals(CONVERSATION_ID, batch.get(0).wavelet.waveletId);
+    assertEquals(USER_DATA_ID, batch.get(1).wavelet.waveletId);
+    assertEquals(CHANNEL_ID, batch.get(0).channelId);
+  }
+
+  public void testSingleDeltaIsSentAlone() throws ChannelException {
+    open(ViewChannelImpl.factory(waveViewService, logger, batchScheduler, BATCH_DELAY_MS));
+
+    channels.get(CONVERSATION_ID).send(createAddParticipantOp());
+    batchScheduler.runScheduledTasks();
+    assertEquals(1, waveViewService.submits.size());
+    assertEquals(0, waveViewService.batchSubmits.size());
+  }
+
+  public void testHeldDeltasAreDroppedOnClose() throws ChannelException {
+    OperationChannelMultiplexer mux =
+        open(ViewChannelImpl.factory(waveViewService, logger, batchScheduler, BATCH_DELAY_MS));
+
+    postAndMarkRead();
+    mux.close();
+    batchScheduler.runScheduledTasks();
+    assertEquals(0, waveViewService.submits.size());
+    assertEquals(0, waveViewService.batchSubmits.size());
+  }
+
+  public void testBatchingHalvesRoundTripsPerUserAction() throws ChannelException {
+    open(ViewChannelImpl.factory(waveViewService, logger));
+    for (int i = 0; i < USER_ACTIONS; i++) {
+      postAndMarkRead();
+      acknowledgeSubmits();
+    }
+    int unbatchedRequests = waveViewService.submits.size() + waveViewService.batchSubmits.size();
+
+    setUp();
+    open(ViewChannelImpl.factory(waveViewService, logger, batchScheduler, BATCH_DELAY_MS));
+    for (int i = 0; i < USER_ACTIONS; i++) {
+      postAndMarkRead();
+      batchScheduler.runScheduledTasks();
+      acknowledgeSubmits();
+    }
+    int batchedRequests = waveViewService.submits.size() + waveViewService.batchSubmits.size();
+
+    assertEquals(2 * USER_ACTIONS, unbatchedRequests);
+    assertEquals(USER_ACTIONS, batchedRequests);
+  }
+
+  /**
+   * Opens a multiplexer on the conversation and user-data wavelets.
+   */
+  private OperationChannelMultiplexer open(ViewChannelFactory viewFactory)
+      throws ChannelException {
+    OperationChannelMultiplexerImpl mux = new OperationChannelMultiplexerImpl(WAVE_ID,
+        viewFactory, DATA_FACTORY, LOGGERS, UnsavedDataListenerFactory.NONE,
+        new ImmediateExcecutionScheduler(), FakeHashedVersionFactory.INSTANCE);
+    mux.open(muxListener, IdFilters.ALL_IDS);
+    WaveViewService.OpenCallback openCallback = waveViewService.lastOpen().callback;
+    openCallback.onUpdate(new FakeWaveViewServiceUpdate().setChannelId(CHANNEL_ID));
+    for (WaveletId waveletId : new WaveletId[] {CONVERSATION_ID, USER_DATA_ID}) {
+      FakeWaveViewServiceUpdate update = new FakeWaveViewServiceUpdate()
+          .setWaveletId(waveletId)
+          .setWaveletSnapshot(WAVE_ID, USER_NAME, 0L, HashedVersion.of(1L, SIGNATURE))
+          .setLastCommittedVersion(HashedVersion.unsigned(0));
+      openCallback.onUpdate(update);
+      channels.put(waveletId, muxListener.verifyOperationChannelCreated(
+          update.getWaveletSnapshot(), Accessibility.READ_WRITE));
+      versions.put(waveletId, 1L);
+    }
+    openCallback.onUpdate(new FakeWaveViewServiceUpdate().setMarker(false));
+    muxListener.verifyOpenFinished();
+    return mux;
+  }
+
+  /**
+   * Performs a user action which changes both the conversation and the
+   * user-data wavelet.
+   */
+  private void postAndMarkRead() throws ChannelException {
+    channels.get(CONVERSATION_ID).send(createAddParticipantOp());
+    channels.get(USER_DATA_ID).send(createAddParticipantOp());
+  }
+
+  /**
+   * Acknowledges the submits which have not been acknowledged yet.
+   */
+  private void acknowledgeSubmits() {
+    List<SubmitArguments> submits = CollectionUtils.newArrayList(waveViewService.submits);
+    for (List<SubmitArguments> batch : waveViewService.batchSubmits) {
+      submits.addAll(batch);
+    }
+    for (SubmitArguments submit : submits) {
+      WaveletId waveletId = submit.wavelet.waveletId;
+      if (submit.delta.getTargetVersion().getVersion() == versions.get(waveletId)) {
+        long version = versions.get(waveletId) + 1;
+        versions.put(waveletId, version);
+        SubmitCallback callback = submit.callback;
+        callback.onSuccess(HashedVersion.of(version, SIGNATURE), 1, null, ResponseCode.OK);
+      }
+    }
+  }
+
+  private AddParticipant createAddParticipantOp() {
+    return new AddParticipant(new WaveletOperationContext(USER_NAME, -1L, 0L),
+        new ParticipantId("thedude@google.com"));
+  }
+}
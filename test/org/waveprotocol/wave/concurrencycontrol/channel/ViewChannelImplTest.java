@@ -34,6 +34,7 @@ import org.waveprotocol.wave.model.id.WaveletId;
 import org.waveprotocol.wave.model.operation.wave.TransformedWaveletDelta;
 import org.waveprotocol.wave.model.operation.wave.WaveletDelta;
 import org.waveprotocol.wave.model.operation.wave.WaveletOperation;
+import org.waveprotocol.wave.model.util.Scheduler;
 import org.waveprotocol.wave.model.version.HashedVersion;
 import org.waveprotocol.wave.model.wave.data.ObservableWaveletData;
 
@@ -680,4 +681,46 @@ public class ViewChannelImplTest extends TestCase {
     channel.close(); // Close the last channel, making room for another.
     channel = new ViewChannelImpl(waveId, waveViewService, logger);
   }
+
+  public void testBatchedSubmitsAreAcknowledgedSeparately() {
+    final List<Scheduler.Command> scheduled = new ArrayList<Scheduler.Command>();
+    Scheduler scheduler = new Scheduler() {
+      @Override
+      public void reset() {
+        scheduled.clear();
+      }
+
+      @Override
+      public boolean schedule(Command task) {
+        scheduled.add(task);
+        return true;
+      }
+    };
+    channel = new ViewChannelImpl(WaveId.of("example.com", "batchwaveid"), waveViewService,
+        logger, scheduler);
+    open();
+
+    WaveletId otherWaveletId = WaveletId.of("example.com", "waveletId_2");
+    MockSubmitListener submitListener1 = new MockSubmitListener();
+    MockSubmitListener submitListener2 = new MockSubmitListener();
+    channel.submitDelta(WAVELET_ID, emptyDelta(), submitListener1);
+    channel.submitDelta(otherWaveletId, emptyDelta(), submitListener2);
+    assertEquals(1, scheduled.size());
+    assertEquals(0, waveViewService.batchSubmits.size());
+
+    scheduled.remove(0).execute();
+    assertEquals(0, waveViewService.submits.size());
+    List<MockWaveViewService.SubmitArguments> batch = waveViewService.lastBatchSubmit();
+    assertEquals(2, batch.size());
+    assertEquals(WAVELET_ID, batch.get(0).wavelet.waveletId);
+    assertEquals(otherWaveletId, batch.get(1).wavelet.waveletId);
+
+    byte[] hash = new byte[] {1, 2, 3, 4};
+    batch.get(1).callback.onSuccess(HashedVersion.of(5, hash), 1, null, ResponseCode.OK);
+    batch.get(0).callback.onSuccess(HashedVersion.of(2, hash), 1, null, ResponseCode.OK);
+    submitListener1.expectedCall(MockSubmitListener.MethodCall.ON_SUCCESS, 1,
+        HashedVersion.of(2, hash));
+    submitListener2.expectedCall(MockSubmitListener.MethodCall.ON_SUCCESS, 1,
+        HashedVersion.of(5, hash));
+  }
 }
@@ -37,6 +37,7 @@ import org.waveprotocol.wave.model.wave.ParticipantId;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 
 /**
  * This tests the CC works with a client and server component. The actual
@@ -72,12 +73,22 @@ public class ClientAndServerTest extends TestCase {
      */
     public TestConfig(String intialBlipXml, int numClients, boolean injectV0Delta)
         throws TransformException, OperationException {
+      this(intialBlipXml, numClients, injectV0Delta, 1);
+    }
+
+    /**
+     * Constructor for test config with clients which send up to the given
+     * number of deltas without waiting for them to be acknowledged.
+     */
+    public TestConfig(String intialBlipXml, int numClients, boolean injectV0Delta,
+        int maxUnacknowledgedDeltas) throws TransformException, OperationException {
       for (int i = 0; i < numClients; i++) {
         ServerConnectionMock serverConnectionMock = new ServerConnectionMock();
         serverConnectionMock.setServerMock(serverMock);
         serverMock.addClientConnection(serverConnectionMock);
 
-        ConcurrencyControl clientCC = new ConcurrencyControl(logger, genSignature(0));
+        ConcurrencyControl clientCC =
+            new ConcurrencyControl(logger, genSignature(0), maxUnacknowledgedDeltas);
         serverConnectionMock.setListener(clientCC);
 
         ClientMock clientMock =
@@ -219,6 +230,27 @@ public class ClientAndServerTest extends TestCase {
       connection.sendGhosts();
     }
 
+    /**
+     * Check all clients have the same document.
+     */
+    public TestConfig checkClientsConverged() {
+      clientsReceiveServerOperations();
+      DocInitialization expected = clientMocks.get(0).getDoc().asOperation();
+      for (ClientMock client : clientMocks) {
+        DocInitialization actual = client.getDoc().asOperation();
+        assertTrue("[Expected: " + expected + "] [Actual: " + actual + "]",
+            OpComparators.SYNTACTIC_IDENTITY.equal(expected, actual));
+      }
+      return this;
+    }
+
+    /**
+     * @return the deltas sent by a client.
+     */
+    public List<WaveletDelta> getSentDeltas(int clientNumber) {
+      return clientMocks.get(clientNumber).getConnection().getSentDeltas();
+    }
+
     /**
      * Reboots the server.
      *
@@ -624,4 +656,119 @@ public class ClientAndServerTest extends TestCase {
     t.checkClientDoc(2, "<blip><p>0XEF2X1ABXaGHbc</p></blip>");
   }
 
+  /**
+   * 3 Clients, concurrently editing, each sending its edits without waiting
+   * for the earlier ones to be acknowledged.
+   */
+  public void testPipelinedConcurrent3Client() throws Exception {
+    TestConfig t = new TestConfig("<blip><p>abc</p></blip>", 3, true, 4);
+    t.clientDoInsert(0, 2, "0X").clientDoInsert(1, 2, "1X").clientDoInsert(2, 2, "2X");
+    t.serverProcessDeltas();
+    t.checkClientDoc(0, "<blip><p>2X1X0Xabc</p></blip>");
+    t.checkClientDoc(1, "<blip><p>2X1X0Xabc</p></blip>");
+    t.checkClientDoc(2, "<blip><p>2X1X0Xabc</p></blip>");
+
+    t.clientDoInsert(0, 5, "A").clientDoInsert(0, 6, "B");
+    t.clientDoInsert(1, 3, "E").clientDoInsert(1, 4, "F");
+    t.clientDoInsert(2, 6, "G").clientDoInsert(2, 7, "H");
+    // The second delta of each client is sent before the first is acknowledged,
+    // targeting the version inferred after the first.
+    List<WaveletDelta> sent = t.getSentDeltas(0);
+    WaveletDelta first = sent.get(sent.size() - 2);
+    WaveletDelta second = sent.get(sent.size() - 1);
+    assertEquals(HashedVersion.unsigned(first.getResultingVersion()), second.getTargetVersion());
+
+    t.serverProcessDeltas();
+    t.checkClientDoc(0, "<blip><p>2EFX1ABXGH0Xabc</p></blip>");
+    t.checkClientDoc(1, "<blip><p>2EFX1ABXGH0Xabc</p></blip>");
+    t.checkClientDoc(2, "<blip><p>2EFX1ABXGH0Xabc</p></blip>");
+  }
+
+  /**
+   * A client sends more deltas than its window while another client edits,
+   * so that some of its deltas wait for acknowledgements.
+   */
+  public void testPipelinedWindowIsBounded() throws Exception {
+    TestConfig t = new TestConfig("<blip><p>abc</p></blip>", 2, true, 2);
+    t.clientDoInsert(0, 2, "A").clientDoInsert(0, 3, "B").clientDoInsert(0, 4, "C");
+    t.clientDoInsert(1, 5, "X");
+    assertEquals(2, t.getSentDeltas(0).size());
+    t.serverProcessDeltas();
+    assertEquals(3, t.getSentDeltas(0).size());
+    t.checkClientDoc(0, "<blip><p>ABCabcX</p></blip>");
+    t.checkClientDoc(1, "<blip><p>ABCabcX</p></blip>");
+  }
+
+  /**
+   * A client with several deltas in flight dies and recovers. The server got
+   * its deltas.
+   */
+  public void testPipelinedRecoveryUnacknowledgedRecieved() throws Exception {
+    TestConfig t = new TestConfig("<blip><p>abc</p></blip>", 2, true, 4);
+    t.clientDoInsert(0, 2, "A").clientDoInsert(0, 3, "B");
+    t.killClient(0);
+    t.clientDoInsert(1, 5, "X").serverProcessDeltas();
+    t.checkClientDoc(1, "<blip><p>ABabcX</p></blip>");
+
+    t.reconnectClient(0);
+    t.serverProcessDeltas();
+    t.checkClientDoc(0, "<blip><p>ABabcX</p></blip>");
+    t.checkClientDoc(1, "<blip><p>ABabcX</p></blip>");
+  }
+
+  /**
+   * A client with several deltas in flight dies and recovers. The server never
+   * got its deltas.
+   */
+  public void testPipelinedRecoveryUnacknowledgedMissing() throws Exception {
+    TestConfig t = new TestConfig("<blip><p>abc</p></blip>", 2, true, 4);
+    t.preventSending(0);
+    t.clientDoInsert(0, 2, "A").clientDoInsert(0, 3, "B");
+    t.killClient(0);
+    t.clientDoInsert(1, 5, "X").serverProcessDeltas();
+    t.checkClientDoc(1, "<blip><p>abcX</p></blip>");
+
+    t.reconnectClient(0);
+    t.serverProcessDeltas();
+    t.checkClientDoc(0, "<blip><p>ABabcX</p></blip>");
+    t.checkClientDoc(1, "<blip><p>ABabcX</p></blip>");
+  }
+
+  /**
+   * Clients with several deltas in flight insert at random places while the
+   * server processes their deltas at random times.
+   */
+  public void testPipelinedRandomEditsConverge() throws Exception {
+    Random random = new Random(42);
+    TestConfig t = new TestConfig("<blip><p>abc</p></blip>", 3, true, 3);
+    for (int i = 0; i < 300; i++) {
+      int client = random.nextInt(3);
+      // Inserts only, so that the original text is always there.
+      t.clientDoInsert(client, 2 + random.nextInt(4), String.valueOf((char) ('A' + client)));
+      if (random.nextInt(4) == 0) {
+        t.serverProcessDeltas();
+        t.clientsReceiveServerOperations();
+      }
+    }
+    t.serverProcessDeltas();
+    t.checkClientsConverged();
+  }
+
+  /**
+   * A delta targeting an unsigned version the server cannot relate to earlier
+   * deltas of its author, e.g. after a restart, is rejected so that the client
+   * resyncs.
+   */
+  public void testUnsignedTargetWithoutPipelineIsRejected() throws Exception {
+    SimpleDeltaHistory history =
+        new SimpleDeltaHistory(HashedVersion.of(0, new byte[] { (byte) 0 }));
+    ConcurrencyControlCore core = new ConcurrencyControlCore(history);
+    DeltaTestUtil util = new DeltaTestUtil("0@example.com");
+    try {
+      core.onClientDelta(new WaveletDelta(util.getAuthor(), HashedVersion.unsigned(0),
+          Arrays.asList(util.noOp())));
+      fail("Expected TransformException");
+    } catch (TransformException expected) {
+    }
+  }
 }
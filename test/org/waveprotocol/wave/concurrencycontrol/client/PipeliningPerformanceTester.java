@@ -0,0 +1,300 @@
+/**
+ * Copyright 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.waveprotocol.wave.concurrencycontrol.client;
+
+import org.waveprotocol.wave.common.logging.LoggerBundle;
+import org.waveprotocol.wave.concurrencycontrol.server.ConcurrencyControlCore;
+import org.waveprotocol.wave.concurrencycontrol.testing.FakeClock;
+import org.waveprotocol.wave.model.document.indexed.IndexedDocument;
+import org.waveprotocol.wave.model.document.operation.DocOp;
+import org.waveprotocol.wave.model.document.operation.Nindo;
+import org.waveprotocol.wave.model.document.operation.impl.DocOpUtil;
+import org.waveprotocol.wave.model.document.raw.impl.Element;
+import org.waveprotocol.wave.model.document.raw.impl.Node;
+import org.waveprotocol.wave.model.document.raw.impl.Text;
+import org.waveprotocol.wave.model.document.util.DocProviders;
+import org.waveprotocol.wave.model.operation.wave.BlipContentOperation;
+import org.waveprotocol.wave.model.operation.wave.TransformedWaveletDelta;
+import org.waveprotocol.wave.model.operation.wave.WaveletBlipOperation;
+import org.waveprotocol.wave.model.operation.wave.WaveletDelta;
+import org.waveprotocol.wave.model.operation.wave.WaveletOperation;
+import org.waveprotocol.wave.model.operation.wave.WaveletOperationContext;
+import org.waveprotocol.wave.model.testing.DeltaTestUtil;
+import org.waveprotocol.wave.model.util.CollectionUtils;
+import org.waveprotocol.wave.model.version.HashedVersion;
+import org.waveprotocol.wave.model.wave.ParticipantId;
+
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * Simulates clients typing into the same blip over links of a given latency,
+ * against a server running {@link ConcurrencyControlCore}, and measures how
+ * long keystrokes take to be acknowledged when clients wait for each delta to
+ * be acknowledged, and when they keep several deltas in flight.
+ *
+ * Time is simulated with a {@link FakeClock}, so the latencies are those of
+ * the protocol, not of the machine. Not really a test case.
+ */
+public class PipeliningPerformanceTester {
+
+  private static final int CLIENTS = 3;
+  private static final long KEYSTROKE_MS = 30;
+  private static final long TYPING_MS = 20000;
+  private static final long[] ROUND_TRIPS_MS = {50, 200, 500};
+  private static final int[] WINDOWS = {1, 4, 16};
+  private static final String BLIP_ID = "b+1";
+  private static final String INITIAL_BLIP = "<blip><p>abc</p></blip>";
+
+  /** Something that happens at a simulated time. */
+  private abstract static class Event implements Comparable<Event> {
+    final long time;
+    final long sequence;
+
+    Event(long time, long sequence) {
+      this.time = time;
+      this.sequence = sequence;
+    }
+
+    abstract void run() throws Exception;
+
+    @Override
+    public int compareTo(Event other) {
+      if (time != other.time) {
+        return time < other.time ? -1 : 1;
+      }
+      return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+    }
+  }
+
+  /** The simulated world: a clock, the events to come, a server and clients. */
+  private static final class Simulation {
+    final FakeClock clock = new FakeClock(0);
+    final PriorityQueue<Event> events = new PriorityQueue<Event>();
+    final long latencyMs;
+    final SimpleDeltaHistory history;
+    final ConcurrencyControlCore core;
+    final List<SimulatedClient> clients = CollectionUtils.newArrayList();
+    final List<Long> ackLatencies = CollectionUtils.newArrayList();
+    long sequence = 0;
+    int deltasSent = 0;
+
+    Simulation(long latencyMs) {
+      this.latencyMs = latencyMs;
+      // Clients can't submit against version 0, so start with a delta applied.
+      history = new SimpleDeltaHistory(signature(0));
+      history.addDelta(new DeltaTestUtil("nobody@example.com").noOpDelta(0));
+      history.setCurrentSignature(signature(1));
+      core = new ConcurrencyControlCore(history);
+    }
+
+    long nextSequence() {
+      return sequence++;
+    }
+
+    long now() {
+      return clock.getCurrentTime();
+    }
+
+    void runUntilIdle() throws Exception {
+      while (!events.isEmpty()) {
+        Event event = events.poll();
+        clock.setCurrentTime(event.time);
+        event.run();
+      }
+    }
+
+    /** Receives a delta on the server, one link latency after it was sent. */
+    void send(final SimulatedClient sender, final WaveletDelta delta) {
+      deltasSent++;
+      events.add(new Event(now() + latencyMs, nextSequence()) {
+        @Override
+        void run() throws Exception {
+          WaveletDelta transformed = core.onClientDelta(delta);
+          HashedVersion resulting = signature(transformed.getResultingVersion());
+          final TransformedWaveletDelta applied =
+              TransformedWaveletDelta.cloneOperations(resulting, now(), transformed);
+          history.addDelta(applied);
+          history.setCurrentSignature(resulting);
+          for (final SimulatedClient client : clients) {
+            events.add(new Event(now() + latencyMs, nextSequence()) {
+              @Override
+              void run() throws Exception {
+                if (client == sender) {
+                  client.onAck(delta, applied.getResultingVersion());
+                } else {
+                  client.cc.onServerDelta(applied);
+                }
+              }
+            });
+          }
+        }
+      });
+    }
+  }
+
+  /** A client typing a character every {@link #KEYSTROKE_MS}. */
+  private static final class SimulatedClient
+      implements ServerConnection, ConcurrencyControl.ConnectionListener {
+    final Simulation simulation;
+    final ConcurrencyControl cc;
+    final ParticipantId participant;
+    final IndexedDocument<Node, Element, Text> doc = DocProviders.POJO.parse(INITIAL_BLIP);
+    final Random random;
+
+    /** The times of the keystrokes not acknowledged yet, oldest first. */
+    final LinkedList<Long> typed = new LinkedList<Long>();
+
+    SimulatedClient(Simulation simulation, int index, int window) throws Exception {
+      this.simulation = simulation;
+      this.participant = new ParticipantId(index + "@example.com");
+      this.random = new Random(index);
+      cc = new ConcurrencyControl(LoggerBundle.NOP_IMPL, signature(1), window);
+      cc.initialise(this, this);
+      cc.onOpen(signature(1), signature(1));
+    }
+
+    void type() throws Exception {
+      receiveServerOperations();
+      // Type anywhere in the paragraph.
+      int position = 2 + random.nextInt(doc.size() - 3);
+      DocOp op = doc.consumeAndReturnInvertible(Nindo.insertCharacters(position, "x"));
+      long now = simulation.now();
+      typed.add(now);
+      cc.onClientOperations(new WaveletOperation[] {new WaveletBlipOperation(BLIP_ID,
+          new BlipContentOperation(new WaveletOperationContext(participant, now, 1), op))});
+    }
+
+    void onAck(WaveletDelta delta, HashedVersion version) throws Exception {
+      // Keystrokes are merged into deltas in order, so the delta acknowledges
+      // all the keystrokes up to its latest one.
+      long latest = 0;
+      for (WaveletOperation op : delta) {
+        latest = Math.max(latest, op.getContext().getTimestamp());
+      }
+      while (!typed.isEmpty() && typed.getFirst() <= latest) {
+        simulation.ackLatencies.add(simulation.now() - typed.removeFirst());
+      }
+      cc.onSuccess(delta.size(), version);
+    }
+
+    void receiveServerOperations() throws Exception {
+      WaveletOperation op;
+      while ((op = cc.receive()) != null) {
+        // Acks come back as version updates, which leave the blip alone.
+        if (op instanceof WaveletBlipOperation) {
+          doc.consume(((BlipContentOperation) ((WaveletBlipOperation) op).getBlipOp())
+              .getContentOp());
+        }
+      }
+    }
+
+    String getContent() {
+      return DocOpUtil.toXmlString(doc.asOperation());
+    }
+
+    @Override
+    public void send(WaveletDelta delta) {
+      simulation.send(this, delta);
+    }
+
+    @Override
+    public boolean isOpen() {
+      return true;
+    }
+
+    @Override
+    public String debugGetProfilingInfo() {
+      return null;
+    }
+
+    @Override
+    public void onOperationReceived() {
+      // Received operations are applied before typing and at the end.
+    }
+  }
+
+  private static HashedVersion signature(long version) {
+    return HashedVersion.of(version, new byte[] {(byte) version, (byte) (version >> 8)});
+  }
+
+  private void simulate(long roundTripMs, int window) throws Exception {
+    Simulation simulation = new Simulation(roundTripMs / 2);
+    for (int i = 0; i < CLIENTS; i++) {
+      simulation.clients.add(new SimulatedClient(simulation, i, window));
+    }
+    for (int i = 0; i < CLIENTS; i++) {
+      final SimulatedClient client = simulation.clients.get(i);
+      // Spread the clients' keystrokes over the keystroke interval.
+      for (long time = i * KEYSTROKE_MS / CLIENTS; time < TYPING_MS; time += KEYSTROKE_MS) {
+        simulation.events.add(new Event(time, simulation.nextSequence()) {
+          @Override
+          void run() throws Exception {
+            client.type();
+          }
+        });
+      }
+    }
+
+    long start = System.nanoTime();
+    simulation.runUntilIdle();
+    long elapsedMs = (System.nanoTime() - start) / 1000000;
+    long finishedAt = simulation.now();
+
+    String content = null;
+    for (SimulatedClient client : simulation.clients) {
+      client.receiveServerOperations();
+      if (!client.typed.isEmpty()) {
+        throw new AssertionError("Keystrokes were never acknowledged");
+      }
+      if (content != null && !content.equals(client.getContent())) {
+        throw new AssertionError("Clients did not converge");
+      }
+      content = client.getContent();
+    }
+
+    List<Long> latencies = simulation.ackLatencies;
+    Collections.sort(latencies);
+    long total = 0;
+    for (long latency : latencies) {
+      total += latency;
+    }
+    System.err.println(String.format(
+        "rtt %4d ms window %2d: %,6d deltas %,5d ops/s acked, ack latency mean %4d ms "
+        + "p50 %4d ms p99 %4d ms (%,d ms to simulate)",
+        roundTripMs, window, simulation.deltasSent, latencies.size() * 1000L / finishedAt,
+        total / latencies.size(), latencies.get(latencies.size() / 2),
+        latencies.get(latencies.size() * 99 / 100), elapsedMs));
+  }
+
+  public void testPerformance() throws Exception {
+    System.err.println(String.format("%d clients typing every %d ms for %d s", CLIENTS,
+        KEYSTROKE_MS, TYPING_MS / 1000));
+    for (long roundTripMs : ROUND_TRIPS_MS) {
+      for (int window : WINDOWS) {
+        simulate(roundTripMs, window);
+      }
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    new PipeliningPerformanceTester().testPerformance();
+  }
+}
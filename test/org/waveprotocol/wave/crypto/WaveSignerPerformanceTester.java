@@ -0,0 +1,140 @@
+/**
+ * Copyright 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.waveprotocol.wave.crypto;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.protobuf.ByteString;
+
+import org.waveprotocol.wave.federation.Proto.ProtocolSignature;
+import org.waveprotocol.wave.federation.Proto.ProtocolSignature.SignatureAlgorithm;
+import org.waveprotocol.wave.federation.Proto.ProtocolSignerInfo.HashAlgorithm;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.util.List;
+
+/**
+ * Compares the signatures per second and the bytes allocated per signature of
+ * {@link WaveSigner}, signing one payload or a batch of payloads at a time,
+ * with looking up and initializing a {@link Signature} for every payload as
+ * it used to. Signs with a freshly generated RSA key. Not really a test case.
+ */
+public class WaveSignerPerformanceTester {
+
+  private static final int KEY_SIZE = 2048;
+  private static final int PAYLOAD_SIZE = 500;
+  private static final int BATCH_SIZE = 10;
+  private static final int WARMUP_SIGNATURES = 500;
+  private static final int SIGNATURES = 2000;
+
+  /** Signs a number of payloads. */
+  private interface SigningLoop {
+    void sign(int count) throws Exception;
+  }
+
+  private final PrivateKey key;
+  private final WaveSigner signer;
+  private final byte[] payload;
+  private final List<byte[]> batch;
+
+  WaveSignerPerformanceTester() throws Exception {
+    KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+    generator.initialize(KEY_SIZE);
+    key = generator.generateKeyPair().getPrivate();
+    SignerInfo signerInfo = new SignerInfo(HashAlgorithm.SHA256,
+        ImmutableList.of(CertConstantUtil.SERVER_PUB_CERT), "example.com");
+    signer = new WaveSigner(SignatureAlgorithm.SHA1_RSA, key, signerInfo);
+    payload = new byte[PAYLOAD_SIZE];
+    batch = Lists.newArrayList();
+    for (int i = 0; i < BATCH_SIZE; i++) {
+      batch.add(payload);
+    }
+  }
+
+  /** Signs the way {@link WaveSigner} did before it kept a signer per thread. */
+  private ProtocolSignature signWithNewSignature() throws Exception {
+    Signature signature = Signature.getInstance(
+        AlgorithmUtil.getJceName(SignatureAlgorithm.SHA1_RSA));
+    signature.initSign(key);
+    signature.update(payload);
+    return ProtocolSignature.newBuilder()
+        .setSignatureBytes(ByteString.copyFrom(signature.sign()))
+        .setSignerId(ByteString.copyFrom(signer.getSignerInfo().getSignerId()))
+        .setSignatureAlgorithm(SignatureAlgorithm.SHA1_RSA)
+        .build();
+  }
+
+  private void measure(String name, SigningLoop loop) throws Exception {
+    loop.sign(WARMUP_SIGNATURES);
+    long allocatedBefore = allocatedBytes();
+    long start = System.nanoTime();
+    loop.sign(SIGNATURES);
+    long elapsed = System.nanoTime() - start;
+    long allocated = allocatedBytes() - allocatedBefore;
+    System.err.println(String.format("%-22s %,8d signs/s %,8d bytes/sign", name,
+        SIGNATURES * 1000000000L / elapsed, allocated < 0 ? -1 : allocated / SIGNATURES));
+  }
+
+  /**
+   * Returns the bytes allocated by this thread so far, or -1 if the JVM does
+   * not tell.
+   */
+  private static long allocatedBytes() {
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    if (threads instanceof com.sun.management.ThreadMXBean) {
+      return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(
+          Thread.currentThread().getId());
+    }
+    return -1;
+  }
+
+  public void testPerformance() throws Exception {
+    measure("new Signature per sign", new SigningLoop() {
+      @Override
+      public void sign(int count) throws Exception {
+        for (int i = 0; i < count; i++) {
+          signWithNewSignature();
+        }
+      }
+    });
+    measure("WaveSigner", new SigningLoop() {
+      @Override
+      public void sign(int count) {
+        for (int i = 0; i < count; i++) {
+          signer.sign(payload);
+        }
+      }
+    });
+    measure("WaveSigner batch of " + BATCH_SIZE, new SigningLoop() {
+      @Override
+      public void sign(int count) {
+        for (int i = 0; i < count; i += BATCH_SIZE) {
+          signer.sign(batch);
+        }
+      }
+    });
+  }
+
+  public static void main(String[] args) throws Exception {
+    new WaveSignerPerformanceTester().testPerformance();
+  }
+}
@@ -26,6 +26,9 @@ import org.waveprotocol.wave.federation.Proto.ProtocolSignature;
 import org.waveprotocol.wave.federation.Proto.ProtocolSignature.SignatureAlgorithm;
 import org.waveprotocol.wave.federation.Proto.ProtocolSignerInfo.HashAlgorithm;
 
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
 
 public class WaveSignerTest extends TestCase {
 
@@ -60,6 +63,42 @@ public class WaveSignerTest extends TestCase {
         base64(signature.getSignatureBytes().toByteArray()));
   }
 
+  public void testSignBatch() throws Exception {
+    List<byte[]> payloads = ImmutableList.of("hello".getBytes(), "world".getBytes(),
+        "hello".getBytes());
+    List<ProtocolSignature> signatures = signer.sign(payloads);
+
+    assertEquals(payloads.size(), signatures.size());
+    for (int i = 0; i < payloads.size(); i++) {
+      assertEquals(signer.sign(payloads.get(i)), signatures.get(i));
+    }
+    assertFalse(signatures.get(0).equals(signatures.get(1)));
+  }
+
+  public void testSignOnSeveralThreads() throws Exception {
+    final byte[] payload = "hello".getBytes();
+    final ProtocolSignature expected = signer.sign(payload);
+    final AtomicInteger mismatches = new AtomicInteger();
+    Thread[] threads = new Thread[4];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          for (int j = 0; j < 20; j++) {
+            if (!expected.equals(signer.sign(payload))) {
+              mismatches.incrementAndGet();
+            }
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(0, mismatches.get());
+  }
+
   public void testSpeed() throws Exception {
     byte[] payload = "hello".getBytes();
     long start = System.currentTimeMillis();
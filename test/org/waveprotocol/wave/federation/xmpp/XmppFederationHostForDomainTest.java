@@ -18,7 +18,10 @@
 package org.waveprotocol.wave.federation.xmpp;
 
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
 import com.google.protobuf.ByteString;
@@ -29,16 +32,21 @@ import org.waveprotocol.wave.federation.ProtocolHashedVersionFactory;
 import org.waveprotocol.wave.federation.WaveletFederationListener;
 import org.waveprotocol.wave.federation.FederationErrorProto.FederationError;
 import org.waveprotocol.wave.federation.Proto.ProtocolHashedVersion;
+import org.dom4j.Element;
+import org.mockito.ArgumentCaptor;
 import org.waveprotocol.wave.federation.xmpp.MockDisco.PendingMockDisco;
 import org.waveprotocol.wave.model.id.WaveId;
 import org.waveprotocol.wave.model.id.WaveletId;
 import org.waveprotocol.wave.model.id.WaveletName;
 import org.waveprotocol.wave.model.id.URIEncoderDecoder.EncodingException;
+import org.xmpp.packet.Message;
 import org.xmpp.packet.Packet;
 
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Tests for {@link XmppFederationHostForDomain}.
@@ -63,10 +71,15 @@ public class XmppFederationHostForDomainTest extends TestCase {
 
   private final static String TEST_ID_SUFFIX = "-1-sometestID";
 
+  private final static int MAX_MESSAGE_BYTES = 1000;
+  private final static long LINGER_MS = 50;
+  private final static int MAX_QUEUED_UPDATES = 10;
 
   private MockDisco disco;
   private XmppFederationHostForDomain fedHost;
   private MockOutgoingPacketTransport transport;
+  private XmppManager manager;
+  private ScheduledExecutorService flushExecutor;
 
   private static final String EXPECTED_UPDATE_MESSAGE;
 
@@ -109,10 +122,11 @@ public class XmppFederationHostForDomainTest extends TestCase {
 
     disco = new MockDisco(null);
     transport = new MockOutgoingPacketTransport();
-    XmppManager manager =
-        new XmppManager(mock(XmppFederationHost.class), mock(XmppFederationRemote.class),
-                        disco, transport, LOCAL_JID);
-    fedHost = new XmppFederationHostForDomain(REMOTE_DOMAIN, manager, disco, LOCAL_JID);
+    manager = new XmppManager(mock(XmppFederationHost.class), mock(XmppFederationRemote.class),
+                              disco, transport, LOCAL_JID);
+    flushExecutor = mock(ScheduledExecutorService.class);
+    fedHost = new XmppFederationHostForDomain(REMOTE_DOMAIN, manager, disco, LOCAL_JID,
+        flushExecutor, MAX_MESSAGE_BYTES, 0, MAX_QUEUED_UPDATES);
   }
 
   @Override
@@ -212,6 +226,108 @@ public class XmppFederationHostForDomainTest extends TestCase {
     assertEquals(0, transport.packetsSent);
   }
 
+  /**
+   * Tests that queued updates to a wavelet are sent as a single message once
+   * they have lingered.
+   */
+  public void testLingeringUpdatesAreCoalesced() throws Exception {
+    lingeringHost();
+    WaveletFederationListener.WaveletUpdateCallback callback =
+        mock(WaveletFederationListener.WaveletUpdateCallback.class);
+    for (int i = 0; i < 3; i++) {
+      update(callback);
+    }
+    commit(callback);
+
+    // A single flush is scheduled, and nothing is sent until it runs.
+    ArgumentCaptor<Runnable> flush = ArgumentCaptor.forClass(Runnable.class);
+    verify(flushExecutor).schedule(flush.capture(), eq(LINGER_MS), eq(TimeUnit.MILLISECONDS));
+    assertEquals(4, fedHost.getQueueDepth());
+    flush.getValue().run();
+    successDiscoRequest();
+
+    assertEquals(1, transport.packetsSent);
+    Element waveletUpdate = getWaveletUpdate(transport.lastPacketSent);
+    assertEquals(3, waveletUpdate.elements("applied-delta").size());
+    assertNotNull(waveletUpdate.element("commit-notice"));
+
+    // All the coalesced updates succeed on the receipt.
+    receipt(transport.lastPacketSent);
+    verify(callback, times(4)).onSuccess();
+    assertEquals(0, fedHost.getQueueDepth());
+  }
+
+  /**
+   * Tests that an update is sent right away once its deltas reach the byte
+   * cap, and that deltas beyond the cap go to a new update.
+   */
+  public void testFullUpdateIsSentRightAway() throws Exception {
+    lingeringHost();
+    ByteString delta = ByteString.copyFrom(new byte[MAX_MESSAGE_BYTES / 2]);
+    fedHost.waveletUpdate(WAVELET_NAME, Collections.singletonList(delta), null, null);
+    assertTrue(disco.pending.isEmpty());
+    fedHost.waveletUpdate(WAVELET_NAME, Collections.singletonList(delta), null, null);
+    successDiscoRequest();
+
+    assertEquals(1, transport.packetsSent);
+    assertEquals(2, getWaveletUpdate(transport.lastPacketSent).elements("applied-delta").size());
+
+    fedHost.waveletUpdate(WAVELET_NAME, Collections.singletonList(delta), null, null);
+    assertEquals(1, transport.packetsSent);
+    assertEquals(3, fedHost.getQueueDepth());
+  }
+
+  /**
+   * Tests that updates beyond the queue bound are failed, and that the bound
+   * is released by the receipts.
+   */
+  public void testFullQueueRejectsUpdates() throws Exception {
+    for (int i = 0; i < MAX_QUEUED_UPDATES; i++) {
+      update(null);
+    }
+    assertEquals(MAX_QUEUED_UPDATES, fedHost.getQueueDepth());
+
+    WaveletFederationListener.WaveletUpdateCallback callback =
+        mock(WaveletFederationListener.WaveletUpdateCallback.class);
+    update(callback);
+    ArgumentCaptor<FederationError> error = ArgumentCaptor.forClass(FederationError.class);
+    verify(callback).onFailure(error.capture());
+    assertEquals(FederationError.Code.RESOURCE_CONSTRAINT, error.getValue().getErrorCode());
+    assertEquals(MAX_QUEUED_UPDATES, fedHost.getQueueDepth());
+
+    successDiscoRequest();
+    assertEquals(MAX_QUEUED_UPDATES, transport.packetsSent);
+    receipt(transport.packets.poll());
+    assertEquals(MAX_QUEUED_UPDATES - 1, fedHost.getQueueDepth());
+
+    callback = mock(WaveletFederationListener.WaveletUpdateCallback.class);
+    update(callback);
+    verify(callback, never()).onFailure(any(FederationError.class));
+  }
+
+  /**
+   * Replaces {@link #fedHost} with a host that lets updates linger.
+   */
+  private void lingeringHost() {
+    fedHost = new XmppFederationHostForDomain(REMOTE_DOMAIN, manager, disco, LOCAL_JID,
+        flushExecutor, MAX_MESSAGE_BYTES, LINGER_MS, MAX_QUEUED_UPDATES);
+  }
+
+  /**
+   * Delivers the receipt of the given message.
+   */
+  private void receipt(Packet packet) {
+    Message receipt = XmppUtil.createResponseMessage((Message) packet);
+    receipt.addChildElement("received", XmppNamespace.NAMESPACE_XMPP_RECEIPTS);
+    manager.receivePacket(receipt);
+  }
+
+  private static Element getWaveletUpdate(Packet packet) {
+    Element event = ((Message) packet).getChildElement("event",
+        XmppNamespace.NAMESPACE_PUBSUB_EVENT);
+    return event.element("items").element("item").element("wavelet-update");
+  }
+
   /**
    * Send a single commit notice containing a dummy version via {@link #fedHost}.
    *
@@ -0,0 +1,120 @@
+/**
+ * Copyright 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.waveprotocol.wave.federation.xmpp;
+
+import static org.mockito.Mockito.mock;
+
+import com.google.common.collect.ImmutableList;
+import com.google.protobuf.ByteString;
+
+import org.waveprotocol.wave.federation.WaveletFederationProvider;
+import org.waveprotocol.wave.federation.xmpp.XmppFederationHostTest.FakeComponent;
+import org.waveprotocol.wave.model.id.WaveId;
+import org.waveprotocol.wave.model.id.WaveletId;
+import org.waveprotocol.wave.model.id.WaveletName;
+
+import java.util.List;
+
+/**
+ * Sends the updates of a busy wavelet to several remote domains through a fake
+ * XMPP component, once with each delta in its own message and once with the
+ * deltas coalesced into larger messages, and reports the throughput of each.
+ * Not really a test case.
+ */
+public class XmppFederationHostPerformanceTester {
+
+  private static final String LOCAL_DOMAIN = "acmewave.com";
+  private static final String LOCAL_JID = "wave." + LOCAL_DOMAIN;
+  private static final List<String> REMOTE_DOMAINS =
+      ImmutableList.of("initech-corp.com", "example.com", "example.org");
+
+  private static final WaveletName WAVELET_NAME =
+      WaveletName.of(WaveId.of(LOCAL_DOMAIN, "wave"), WaveletId.of(LOCAL_DOMAIN, "wavelet"));
+
+  private static final int DELTA_COUNT = 20000;
+  private static final int DELTA_BYTES = 100;
+  private static final int DELTAS_PER_MESSAGE = 10;
+  private static final int MAX_QUEUED_UPDATES = 1000;
+  private static final int RUNS = 5;
+
+  /** Never expires, so that updates are only sent when they are full. */
+  private static final int LINGER_MS = 60 * 60 * 1000;
+
+  /**
+   * Sends each delta to all the remote domains as a separate update.
+   *
+   * @return the time it took, in nanoseconds.
+   */
+  private static long federate(List<ByteString> deltas, int lingerMs) {
+    MockDisco disco = new MockDisco(null);
+    for (String domain : REMOTE_DOMAINS) {
+      disco.testInjectInDomainToJidMap(domain, "wave." + domain);
+    }
+    XmppFederationHost host = new XmppFederationHost(mock(WaveletFederationProvider.class),
+        disco, LOCAL_JID, DELTA_BYTES * DELTAS_PER_MESSAGE, lingerMs, MAX_QUEUED_UPDATES);
+    FakeComponent component = new FakeComponent();
+    component.manager = new XmppManager(host, mock(XmppFederationRemote.class), disco,
+        new MockOutgoingPacketTransport(component), LOCAL_JID);
+
+    long start = System.nanoTime();
+    for (ByteString delta : deltas) {
+      for (String domain : REMOTE_DOMAINS) {
+        host.listenerForDomain(domain).waveletDeltaUpdate(
+            WAVELET_NAME, ImmutableList.of(delta), null);
+      }
+    }
+    return System.nanoTime() - start;
+  }
+
+  private static long deltasPerSecond(long nanos) {
+    return DELTA_COUNT * REMOTE_DOMAINS.size() * 1000000000L / Math.max(nanos, 1);
+  }
+
+  /** Federates the deltas either way, printing the results if asked. */
+  private static void run(List<ByteString> deltas, boolean print) {
+    long uncoalescedNanos = federate(deltas, 0);
+    long coalescedNanos = federate(deltas, LINGER_MS);
+    if (print) {
+      System.err.println(String.format("Uncoalesced: %,d deltas/s, coalesced: %,d deltas/s",
+          deltasPerSecond(uncoalescedNanos), deltasPerSecond(coalescedNanos)));
+    }
+  }
+
+  public void testThroughput() {
+    ImmutableList.Builder<ByteString> builder = ImmutableList.builder();
+    for (int i = 0; i < DELTA_COUNT; i++) {
+      byte[] delta = new byte[DELTA_BYTES];
+      delta[0] = (byte) i;
+      delta[1] = (byte) (i >> 8);
+      builder.add(ByteString.copyFrom(delta));
+    }
+    List<ByteString> deltas = builder.build();
+
+    // Warm up, so that class loading and compilation are not measured.
+    run(deltas, false);
+    for (int i = 0; i < RUNS; i++) {
+      run(deltas, true);
+    }
+  }
+
+  public static void main(String[] args) {
+    new XmppFederationHostPerformanceTester().testThroughput();
+    // The timeout threads of the XMPP managers would keep the JVM alive.
+    System.exit(0);
+  }
+}
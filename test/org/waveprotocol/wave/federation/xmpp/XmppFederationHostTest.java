@@ -0,0 +1,185 @@
+/**
+ * Copyright 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.waveprotocol.wave.federation.xmpp;
+
+import static org.mockito.Mockito.mock;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.protobuf.ByteString;
+
+import junit.framework.TestCase;
+
+import org.dom4j.Element;
+import org.waveprotocol.wave.federation.WaveletFederationListener;
+import org.waveprotocol.wave.federation.WaveletFederationProvider;
+import org.waveprotocol.wave.federation.FederationErrorProto.FederationError;
+import org.waveprotocol.wave.federation.xmpp.MockOutgoingPacketTransport.Router;
+import org.waveprotocol.wave.model.id.WaveId;
+import org.waveprotocol.wave.model.id.WaveletId;
+import org.waveprotocol.wave.model.id.WaveletName;
+import org.xmpp.packet.Message;
+import org.xmpp.packet.Packet;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests for the outgoing update queues of {@link XmppFederationHost}, sending
+ * the updates of a busy wavelet to several remote domains through a fake XMPP
+ * component that acknowledges every message.
+ */
+public class XmppFederationHostTest extends TestCase {
+
+  private static final String LOCAL_DOMAIN = "acmewave.com";
+  private static final String LOCAL_JID = "wave." + LOCAL_DOMAIN;
+  private static final List<String> REMOTE_DOMAINS =
+      ImmutableList.of("initech-corp.com", "example.com", "example.org");
+
+  private static final WaveletName WAVELET_NAME =
+      WaveletName.of(WaveId.of(LOCAL_DOMAIN, "wave"), WaveletId.of(LOCAL_DOMAIN, "wavelet"));
+
+  private static final int DELTA_COUNT = 200;
+  private static final int DELTA_BYTES = 100;
+  private static final int DELTAS_PER_MESSAGE = 10;
+  private static final int MAX_QUEUED_UPDATES = 1000;
+
+  /** Never expires, so that updates are only sent when they are full. */
+  private static final int LINGER_MS = 60 * 60 * 1000;
+
+  /**
+   * A fake XMPP component which acknowledges every wavelet update, and records
+   * the deltas received by each remote domain.
+   */
+  static class FakeComponent implements Router {
+    XmppManager manager;
+    int stanzas = 0;
+    final Map<String, List<ByteString>> deltas = Maps.newHashMap();
+
+    @Override
+    public void route(Packet packet) {
+      stanzas++;
+      String domain = packet.getTo().getDomain().substring("wave.".length());
+      if (!deltas.containsKey(domain)) {
+        deltas.put(domain, Lists.<ByteString>newArrayList());
+      }
+      Element waveletUpdate = ((Message) packet)
+          .getChildElement("event", XmppNamespace.NAMESPACE_PUBSUB_EVENT)
+          .element("items").element("item").element("wavelet-update");
+      for (Element delta : XmppUtil.toSafeElementList(waveletUpdate.elements("applied-delta"))) {
+        deltas.get(domain).add(Base64Util.decode(delta.getText()));
+      }
+
+      Message receipt = XmppUtil.createResponseMessage((Message) packet);
+      receipt.addChildElement("received", XmppNamespace.NAMESPACE_XMPP_RECEIPTS);
+      manager.receivePacket(receipt);
+    }
+  }
+
+  /** Counts the delivered and failed updates. */
+  private static class CountingCallback implements WaveletFederationListener.WaveletUpdateCallback {
+    int successes = 0;
+    int failures = 0;
+
+    @Override
+    public synchronized void onSuccess() {
+      successes++;
+    }
+
+    @Override
+    public synchronized void onFailure(FederationError error) {
+      failures++;
+    }
+  }
+
+  private List<ByteString> deltas;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    deltas = Lists.newArrayList();
+    for (int i = 0; i < DELTA_COUNT; i++) {
+      byte[] delta = new byte[DELTA_BYTES];
+      delta[0] = (byte) i;
+      deltas.add(ByteString.copyFrom(delta));
+    }
+  }
+
+  public void testBusyWaveletIsSentInFewerMessages() throws Exception {
+    FakeComponent uncoalesced = new FakeComponent();
+    federate(uncoalesced, 0);
+    FakeComponent coalesced = new FakeComponent();
+    federate(coalesced, LINGER_MS);
+
+    for (String domain : REMOTE_DOMAINS) {
+      assertEquals(deltas, uncoalesced.deltas.get(domain));
+      assertEquals(deltas, coalesced.deltas.get(domain));
+    }
+    assertEquals(DELTA_COUNT * REMOTE_DOMAINS.size(), uncoalesced.stanzas);
+    assertEquals(DELTA_COUNT / DELTAS_PER_MESSAGE * REMOTE_DOMAINS.size(), coalesced.stanzas);
+  }
+
+  public void testQueueDepthsAreReported() throws Exception {
+    XmppDisco disco = new MockDisco(null);
+    XmppFederationHost host = new XmppFederationHost(mock(WaveletFederationProvider.class),
+        disco, LOCAL_JID, DELTA_BYTES * DELTAS_PER_MESSAGE, LINGER_MS, MAX_QUEUED_UPDATES);
+    new XmppManager(host, mock(XmppFederationRemote.class), disco,
+        new MockOutgoingPacketTransport(), LOCAL_JID);
+
+    for (int i = 0; i < REMOTE_DOMAINS.size(); i++) {
+      WaveletFederationListener listener = host.listenerForDomain(REMOTE_DOMAINS.get(i));
+      for (int j = 0; j <= i; j++) {
+        listener.waveletDeltaUpdate(WAVELET_NAME, deltas.subList(j, j + 1), null);
+      }
+    }
+
+    Map<String, Integer> depths = host.getOutboundQueueDepths();
+    for (int i = 0; i < REMOTE_DOMAINS.size(); i++) {
+      assertEquals(i + 1, depths.get(REMOTE_DOMAINS.get(i)).intValue());
+    }
+  }
+
+  /**
+   * Sends each delta of a busy wavelet to all the remote domains as a separate
+   * update, and checks that they are all acknowledged.
+   */
+  private void federate(FakeComponent component, int lingerMs) {
+    MockDisco disco = new MockDisco(null);
+    for (String domain : REMOTE_DOMAINS) {
+      disco.testInjectInDomainToJidMap(domain, "wave." + domain);
+    }
+    XmppFederationHost host = new XmppFederationHost(mock(WaveletFederationProvider.class),
+        disco, LOCAL_JID, DELTA_BYTES * DELTAS_PER_MESSAGE, lingerMs, MAX_QUEUED_UPDATES);
+    component.manager = new XmppManager(host, mock(XmppFederationRemote.class), disco,
+        new MockOutgoingPacketTransport(component), LOCAL_JID);
+
+    CountingCallback callback = new CountingCallback();
+    for (ByteString delta : deltas) {
+      for (String domain : REMOTE_DOMAINS) {
+        host.listenerForDomain(domain).waveletDeltaUpdate(
+            WAVELET_NAME, ImmutableList.of(delta), callback);
+      }
+    }
+    assertEquals(DELTA_COUNT * REMOTE_DOMAINS.size(), callback.successes);
+    assertEquals(0, callback.failures);
+    for (int depth : host.getOutboundQueueDepths().values()) {
+      assertEquals(0, depth);
+    }
+  }
+}
@@ -169,7 +169,7 @@ public class XmppFederationRemoteTest extends TestCase {
 
     transport = new MockOutgoingPacketTransport();
     remote = new XmppFederationRemote(mockUpdateListenerFactory, disco, LOCAL_JID);
-    host = new XmppFederationHost(mockProvider, disco, REMOTE_JID);
+    host = new XmppFederationHost(mockProvider, disco, REMOTE_JID, 65536, 0, 1000);
     manager = new XmppManager(host, remote, disco, transport, LOCAL_JID);
 
     remote.setManager(manager);
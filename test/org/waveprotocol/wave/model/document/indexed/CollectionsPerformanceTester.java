@@ -0,0 +1,194 @@
+/**
+ * Copyright 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.waveprotocol.wave.model.document.indexed;
+
+import org.waveprotocol.wave.model.document.operation.Automatons;
+import org.waveprotocol.wave.model.document.operation.DocOp;
+import org.waveprotocol.wave.model.document.operation.algorithm.DocOpInverter;
+import org.waveprotocol.wave.model.document.operation.automaton.DocumentSchema;
+import org.waveprotocol.wave.model.document.operation.impl.DocOpUtil;
+import org.waveprotocol.wave.model.document.raw.impl.Element;
+import org.waveprotocol.wave.model.document.raw.impl.Node;
+import org.waveprotocol.wave.model.document.raw.impl.RawDocumentImpl;
+import org.waveprotocol.wave.model.document.raw.impl.Text;
+import org.waveprotocol.wave.model.operation.OperationException;
+import org.waveprotocol.wave.model.testing.RandomDocOpGenerator;
+import org.waveprotocol.wave.model.testing.RandomProviderImpl;
+import org.waveprotocol.wave.model.util.CollectionFactory;
+import org.waveprotocol.wave.model.util.CollectionUtils;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the open addressing collections of
+ * {@link CollectionUtils#getOpenAddressingCollectionFactory} with the
+ * java.util based ones of {@link CollectionUtils#getHashCollectionFactory}, on
+ * two workloads: applying random operations and their inverses to an
+ * {@link IndexedDocumentImpl}, and random updates and queries on an
+ * {@link AnnotationTree}. Reports the time and the bytes allocated per run of
+ * each workload. Not really a test case.
+ */
+public class CollectionsPerformanceTester {
+
+  private static final int DOC_OPS = 2000;
+  private static final int ANNOTATION_UPDATES = 2000;
+  private static final int WARMUP_RUNS = 3;
+  private static final int RUNS = 5;
+
+  /** A workload whose data structures are built from the default factory. */
+  private interface Workload {
+    /** Runs the workload, returning something to check against the other factory. */
+    String run() throws OperationException;
+  }
+
+  /**
+   * Returns the bytes allocated by the current thread so far, or -1 if the JVM
+   * cannot tell.
+   */
+  private static long allocatedBytes() {
+    java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    if (threads instanceof com.sun.management.ThreadMXBean) {
+      return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(
+          Thread.currentThread().getId());
+    }
+    return -1;
+  }
+
+  private static IndexedDocument<Node, Element, Text> createDocument() {
+    return new IndexedDocumentImpl<Node, Element, Text, Void>(
+        RawDocumentImpl.PROVIDER.parse("<a></a>"), new AnnotationTree<Object>("a", "b", null),
+        DocumentSchema.NO_SCHEMA_CONSTRAINTS);
+  }
+
+  /**
+   * Generates a sequence of random operations, each valid against the document
+   * the previous ones leave behind, so that generating them is not measured.
+   */
+  private static List<DocOp> generateDocOps() throws OperationException {
+    IndexedDocument<Node, Element, Text> doc = createDocument();
+    RandomProviderImpl random = RandomProviderImpl.ofSeed(1);
+    RandomDocOpGenerator.Parameters params = new RandomDocOpGenerator.Parameters();
+    List<DocOp> ops = new ArrayList<DocOp>();
+    for (int i = 0; i < DOC_OPS; i++) {
+      DocOp op = RandomDocOpGenerator.generate(random, params, Automatons.fromReadable(doc));
+      doc.consume(op);
+      ops.add(op);
+    }
+    return ops;
+  }
+
+  private static Workload documentWorkload(final List<DocOp> ops) {
+    final List<DocOp> inverses = new ArrayList<DocOp>();
+    for (DocOp op : ops) {
+      inverses.add(DocOpInverter.invert(op));
+    }
+    return new Workload() {
+      @Override
+      public String run() throws OperationException {
+        IndexedDocument<Node, Element, Text> doc = createDocument();
+        for (DocOp op : ops) {
+          doc.consume(op);
+        }
+        String xml = DocOpUtil.toXmlString(doc.asOperation());
+        for (int i = inverses.size() - 1; i >= 0; i--) {
+          doc.consume(inverses.get(i));
+        }
+        return xml + DocOpUtil.toXmlString(doc.asOperation());
+      }
+    };
+  }
+
+  private static Workload annotationWorkload() {
+    final AnnotationTreePerformanceTester tester = new AnnotationTreePerformanceTester();
+    final String[] keys = new String[AnnotationTreePerformanceTester.NUM_KEYS];
+    final String[] values = new String[AnnotationTreePerformanceTester.NUM_VALUES];
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = "k" + i;
+    }
+    for (int i = 0; i < values.length; i++) {
+      values[i] = "v" + i;
+    }
+    return new Workload() {
+      @Override
+      public String run() {
+        Random random = new Random(2);
+        RawAnnotationSet<Object> tree = new AnnotationTree<Object>(new Object(), new Object(),
+            null);
+        for (int i = 0; i < ANNOTATION_UPDATES; i++) {
+          tester.applyRandomOperation(null, tree, keys, values, random);
+          for (int j = 0; j < AnnotationTreePerformanceTester.QUERIES_PER_UPDATE; j++) {
+            tester.performRandomQuery(tree, keys, random);
+          }
+        }
+        return "" + tree.size();
+      }
+    };
+  }
+
+  private static String measure(String name, CollectionFactory factory, Workload workload)
+      throws OperationException {
+    CollectionFactory previous = CollectionUtils.getCollectionFactory();
+    CollectionUtils.setDefaultCollectionFactory(factory);
+    try {
+      String result = null;
+      for (int i = 0; i < WARMUP_RUNS; i++) {
+        result = workload.run();
+      }
+      long startBytes = allocatedBytes();
+      long start = System.nanoTime();
+      for (int i = 0; i < RUNS; i++) {
+        workload.run();
+      }
+      long elapsed = System.nanoTime() - start;
+      long allocated = allocatedBytes() - startBytes;
+      System.err.println(String.format("%-28s %,7d ms/run %,13d bytes/run", name,
+          elapsed / RUNS / 1000000, startBytes < 0 ? -1 : allocated / RUNS));
+      return result;
+    } finally {
+      CollectionUtils.setDefaultCollectionFactory(previous);
+    }
+  }
+
+  private static void compare(String name, Workload workload) throws OperationException {
+    String hash = measure(name + " (java.util)",
+        CollectionUtils.getHashCollectionFactory(), workload);
+    String open = measure(name + " (open addressing)",
+        CollectionUtils.getOpenAddressingCollectionFactory(), workload);
+    if (!hash.equals(open)) {
+      throw new AssertionError(name + " gave different results with the two factories");
+    }
+  }
+
+  public void testPerformance() throws OperationException {
+    boolean performValidation = IndexedDocumentImpl.performValidation;
+    IndexedDocumentImpl.performValidation = false;
+    try {
+      compare("document", documentWorkload(generateDocOps()));
+      compare("annotations", annotationWorkload());
+    } finally {
+      IndexedDocumentImpl.performValidation = performValidation;
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    new CollectionsPerformanceTester().testPerformance();
+  }
+}
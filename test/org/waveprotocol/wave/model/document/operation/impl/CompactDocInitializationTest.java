@@ -0,0 +1,114 @@
+/**
+ * Copyright 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.waveprotocol.wave.model.document.operation.impl;
+
+import junit.framework.TestCase;
+
+import org.waveprotocol.wave.model.document.operation.AnnotationBoundaryMap;
+import org.waveprotocol.wave.model.document.operation.Attributes;
+import org.waveprotocol.wave.model.document.operation.DocInitialization;
+import org.waveprotocol.wave.model.document.operation.DocOpComponentType;
+import org.waveprotocol.wave.model.document.operation.automaton.DocumentSchema;
+import org.waveprotocol.wave.model.operation.OperationException;
+import org.waveprotocol.wave.model.wave.data.impl.ObservablePluggableMutableDocument;
+
+public class CompactDocInitializationTest extends TestCase {
+
+  private static final AnnotationBoundaryMap STYLE = AnnotationBoundaryMapImpl.builder()
+      .initializationValues("style/fontWeight", "bold").build();
+
+  private static final AnnotationBoundaryMap STYLE_END = AnnotationBoundaryMapImpl.builder()
+      .initializationEnd("style/fontWeight").build();
+
+  private static final DocInitialization DOC = new DocInitializationBuilder()
+      .elementStart("body", Attributes.EMPTY_MAP)
+      .elementStart("line", new AttributesImpl("t", "h1"))
+      .elementEnd()
+      .characters("Title")
+      .elementStart("line", Attributes.EMPTY_MAP)
+      .elementEnd()
+      .annotationBoundary(STYLE)
+      .characters("bold")
+      .annotationBoundary(STYLE_END)
+      .characters(" <plain> & text")
+      .elementEnd()
+      .build();
+
+  public void testAppliesTheSameComponents() {
+    DocInitialization compact = CompactDocInitialization.of(DOC);
+    assertEquals(DocOpUtil.toXmlString(DOC), DocOpUtil.toXmlString(compact));
+    assertEquals(DocOpUtil.toConciseString(DOC), DocOpUtil.toConciseString(compact));
+  }
+
+  public void testRandomAccessMatchesTheOriginal() {
+    DocInitialization compact = CompactDocInitialization.of(DOC);
+    assertEquals(DOC.size(), compact.size());
+    // Visit the components backwards, so that no offsets are known in advance.
+    for (int i = compact.size() - 1; i >= 0; i--) {
+      assertEquals(DOC.getType(i), compact.getType(i));
+      if (DOC.getType(i) == DocOpComponentType.CHARACTERS) {
+        assertEquals(DOC.getCharactersString(i), compact.getCharactersString(i));
+      } else if (DOC.getType(i) == DocOpComponentType.ELEMENT_START) {
+        assertEquals(DOC.getElementStartTag(i), compact.getElementStartTag(i));
+        assertEquals(DOC.getElementStartAttributes(i), compact.getElementStartAttributes(i));
+      } else if (DOC.getType(i) == DocOpComponentType.ANNOTATION_BOUNDARY) {
+        assertSame(DOC.getAnnotationBoundary(i), compact.getAnnotationBoundary(i));
+      }
+    }
+  }
+
+  public void testSharesElementTags() {
+    CompactDocInitialization compact = CompactDocInitialization.of(DOC);
+    assertSame(compact.getElementStartTag(1), compact.getElementStartTag(4));
+  }
+
+  public void testWrongComponentTypeIsRejected() {
+    CompactDocInitialization compact = CompactDocInitialization.of(DOC);
+    try {
+      compact.getCharactersString(0);
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  public void testEmptyInitialization() {
+    CompactDocInitialization compact =
+        CompactDocInitialization.of(new DocInitializationBuilder().build());
+    assertEquals(0, compact.size());
+    assertEquals("", DocOpUtil.toXmlString(compact));
+  }
+
+  public void testCompactInitializationIsNotCopied() {
+    CompactDocInitialization compact = CompactDocInitialization.of(DOC);
+    assertSame(compact, CompactDocInitialization.of(compact));
+  }
+
+  public void testDocumentSharesContentUntilModified() throws OperationException {
+    CompactDocInitialization compact = CompactDocInitialization.of(DOC);
+    ObservablePluggableMutableDocument doc =
+        new ObservablePluggableMutableDocument(DocumentSchema.NO_SCHEMA_CONSTRAINTS, compact);
+    assertSame(compact, doc.asOperation());
+
+    doc.consume(new DocOpBuilder().retain(1).elementStart("line", Attributes.EMPTY_MAP)
+        .elementEnd().retain(DocOpUtil.resultingDocumentLength(compact) - 1).build());
+    assertNotSame(compact, doc.asOperation());
+    assertEquals("<body><line/><line t=\"h1\"/>Title<line/>"
+        + "<?a \"style/fontWeight\"=\"bold\"?>bold<?a \"style/fontWeight\"?>"
+        + " &lt;plain&gt; &amp; text</body>", DocOpUtil.toXmlString(doc.asOperation()));
+  }
+}
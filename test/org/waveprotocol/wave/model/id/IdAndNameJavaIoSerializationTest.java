@@ -40,6 +40,7 @@ public class IdAndNameJavaIoSerializationTest extends TestCase {
     assertTrue(deserialized instanceof WaveId);
     WaveId actual = (WaveId) deserialized;
     assertEquals(expected, actual);
+    assertEquals(expected.hashCode(), actual.hashCode());
   }
 
   public void testWaveletIdSerializationAndDeserialization() throws Exception {
@@ -49,6 +50,7 @@ public class IdAndNameJavaIoSerializationTest extends TestCase {
     assertTrue(deserialized instanceof WaveletId);
     WaveletId actual = (WaveletId) deserialized;
     assertEquals(expected, actual);
+    assertEquals(expected.hashCode(), actual.hashCode());
   }
 
   public void testWaveletNameSerializationAndDeserialization() throws Exception {
@@ -0,0 +1,172 @@
+/**
+ * Copyright 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.waveprotocol.wave.model.operation.wave;
+
+import org.waveprotocol.wave.model.document.operation.DocOp;
+import org.waveprotocol.wave.model.document.operation.algorithm.Composer;
+import org.waveprotocol.wave.model.document.operation.algorithm.DocOpCollector;
+import org.waveprotocol.wave.model.document.operation.algorithm.Transformer;
+import org.waveprotocol.wave.model.document.operation.impl.DocOpBuilder;
+import org.waveprotocol.wave.model.operation.OperationException;
+import org.waveprotocol.wave.model.operation.TransformException;
+import org.waveprotocol.wave.model.wave.ParticipantId;
+
+/**
+ * Performance tests for the transformation and composition of operations:
+ * wavelet operations by {@link Transform} and
+ * {@link WaveletOperationTransformer}, and document operations by
+ * {@link Transformer} and {@link Composer}. Not really a test case.
+ */
+public class TransformPerformanceTester {
+
+  private static final int DOCUMENT_SIZE = 1000;
+  private static final int OPERATIONS = 200;
+  private static final int REPS = 100;
+
+  private static final WaveletOperationContext CONTEXT =
+      new WaveletOperationContext(new ParticipantId("a@example.com"), 1L, 1L);
+
+  /**
+   * Returns a document operation inserting a character at the given position
+   * of a document of the given size.
+   */
+  private static DocOp insert(int position, int size) {
+    DocOpBuilder builder = new DocOpBuilder();
+    if (position > 0) {
+      builder.retain(position);
+    }
+    builder.characters("x");
+    if (position < size) {
+      builder.retain(size - position);
+    }
+    return builder.build();
+  }
+
+  /**
+   * Returns wavelet operations typical of a busy wavelet: content operations
+   * on a few documents, with some participant changes and no-ops.
+   */
+  private static WaveletOperation[] waveletOperations() {
+    WaveletOperation[] ops = new WaveletOperation[OPERATIONS];
+    for (int i = 0; i < OPERATIONS; i++) {
+      switch (i % 10) {
+        case 8:
+          ops[i] = new AddParticipant(CONTEXT, new ParticipantId("p" + i + "@example.com"));
+          break;
+        case 9:
+          ops[i] = new NoOp(CONTEXT);
+          break;
+        default:
+          ops[i] = new WaveletBlipOperation("b+" + (i % 4), new BlipContentOperation(CONTEXT,
+              insert((i * 37) % DOCUMENT_SIZE, DOCUMENT_SIZE)));
+      }
+    }
+    return ops;
+  }
+
+  public void testWaveletOperationTransformPerformance() throws TransformException {
+    WaveletOperation[] clientOps = waveletOperations();
+    WaveletOperation[] serverOps = waveletOperations();
+    // Transform the first client op against all the server ops, and so on,
+    // without carrying the transformed ops forward, so that every rep does
+    // the same work.
+    long startTime = System.currentTimeMillis();
+    for (int rep = 0; rep < REPS / 10; rep++) {
+      for (WaveletOperation clientOp : clientOps) {
+        for (WaveletOperation serverOp : serverOps) {
+          Transform.transform(clientOp, serverOp);
+        }
+      }
+    }
+    long staticElapsed = System.currentTimeMillis() - startTime;
+
+    WaveletOperationTransformer transformer = new WaveletOperationTransformer();
+    startTime = System.currentTimeMillis();
+    for (int rep = 0; rep < REPS / 10; rep++) {
+      for (WaveletOperation clientOp : clientOps) {
+        for (WaveletOperation serverOp : serverOps) {
+          transformer.transform(clientOp, serverOp);
+        }
+      }
+    }
+    long reusedElapsed = System.currentTimeMillis() - startTime;
+
+    float pairs = (float) REPS / 10 * OPERATIONS * OPERATIONS;
+    System.err.println("Transform micros per pair: " + (staticElapsed * 1000 / pairs));
+    System.err.println("WaveletOperationTransformer micros per pair: "
+        + (reusedElapsed * 1000 / pairs));
+  }
+
+  public void testDocOpTransformPerformance() throws TransformException {
+    DocOp[] clientOps = new DocOp[OPERATIONS];
+    DocOp[] serverOps = new DocOp[OPERATIONS];
+    for (int i = 0; i < OPERATIONS; i++) {
+      clientOps[i] = insert((i * 37) % DOCUMENT_SIZE, DOCUMENT_SIZE);
+      serverOps[i] = insert((i * 91) % DOCUMENT_SIZE, DOCUMENT_SIZE);
+    }
+
+    long startTime = System.currentTimeMillis();
+    for (int rep = 0; rep < REPS; rep++) {
+      for (int i = 0; i < OPERATIONS; i++) {
+        Transformer.transform(clientOps[i], serverOps[i]);
+      }
+    }
+    long elapsed = System.currentTimeMillis() - startTime;
+    System.err.println("Transformer micros per pair: "
+        + ((float) elapsed * 1000 / REPS / OPERATIONS));
+  }
+
+  public void testComposePerformance() throws OperationException {
+    DocOp[] ops = new DocOp[OPERATIONS];
+    for (int i = 0; i < OPERATIONS; i++) {
+      ops[i] = insert((i * 37) % (DOCUMENT_SIZE + i), DOCUMENT_SIZE + i);
+    }
+
+    long startTime = System.currentTimeMillis();
+    for (int rep = 0; rep < REPS / 10; rep++) {
+      DocOp composed = ops[0];
+      for (int i = 1; i < OPERATIONS; i++) {
+        composed = Composer.compose(composed, ops[i]);
+      }
+    }
+    long sequentialElapsed = System.currentTimeMillis() - startTime;
+
+    startTime = System.currentTimeMillis();
+    for (int rep = 0; rep < REPS / 10; rep++) {
+      DocOpCollector collector = new DocOpCollector();
+      for (DocOp op : ops) {
+        collector.add(op);
+      }
+      collector.composeAll();
+    }
+    long collectedElapsed = System.currentTimeMillis() - startTime;
+
+    float reps = (float) REPS / 10;
+    System.err.println("Composer millis per " + OPERATIONS + " ops: "
+        + (sequentialElapsed / reps));
+    System.err.println("DocOpCollector millis per " + OPERATIONS + " ops: "
+        + (collectedElapsed / reps));
+  }
+
+  public static void main(String[] args) throws Exception {
+    TransformPerformanceTester tester = new TransformPerformanceTester();
+    tester.testWaveletOperationTransformPerformance();
+    tester.testDocOpTransformPerformance();
+    tester.testComposePerformance();
+  }
+}
@@ -0,0 +1,95 @@
+/**
+ * Copyright 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.waveprotocol.wave.model.operation.wave;
+
+import junit.framework.TestCase;
+
+import org.waveprotocol.wave.model.document.operation.impl.DocOpBuilder;
+import org.waveprotocol.wave.model.operation.TransformException;
+import org.waveprotocol.wave.model.wave.ParticipantId;
+
+/**
+ * Tests for {@link WaveletOperationTransformer}.
+ */
+public class WaveletOperationTransformerTest extends TestCase {
+
+  private static final WaveletOperationContext CONTEXT =
+      new WaveletOperationContext(new ParticipantId("a@example.com"), 1L, 1L);
+
+  private final WaveletOperationTransformer transformer = new WaveletOperationTransformer();
+
+  public void testOperationsOnDifferentDocumentsAreUnchanged() throws TransformException {
+    WaveletOperation client = insert("b+one", "x", 2);
+    WaveletOperation server = insert("b+two", "y", 2);
+    transformer.transform(client, server);
+    assertSame(client, transformer.getClientOp());
+    assertSame(server, transformer.getServerOp());
+  }
+
+  public void testNoOpsAreUnchanged() throws TransformException {
+    WaveletOperation noOp = new NoOp(CONTEXT);
+    WaveletOperation mutation = insert("b+one", "x", 2);
+    transformer.transform(noOp, mutation);
+    assertSame(noOp, transformer.getClientOp());
+    assertSame(mutation, transformer.getServerOp());
+
+    transformer.transform(mutation, noOp);
+    assertSame(mutation, transformer.getClientOp());
+    assertSame(noOp, transformer.getServerOp());
+  }
+
+  public void testOperationsOnSameDocumentAreTransformed() throws TransformException {
+    transformer.transform(insert("b+one", "x", 2), insert("b+one", "y", 2));
+    assertEquals(new WaveletBlipOperation("b+one", new BlipContentOperation(CONTEXT,
+        new DocOpBuilder().characters("x").retain(3).build())), transformer.getClientOp());
+    assertEquals(new WaveletBlipOperation("b+one", new BlipContentOperation(CONTEXT,
+        new DocOpBuilder().retain(1).characters("y").retain(2).build())),
+        transformer.getServerOp());
+  }
+
+  public void testTransformerIsReusableAfterFailure() throws TransformException {
+    ParticipantId participant = new ParticipantId("b@example.com");
+    try {
+      transformer.transform(new AddParticipant(CONTEXT, participant),
+          new RemoveParticipant(CONTEXT, participant));
+      fail("Concurrent addition and removal of a participant should not transform");
+    } catch (TransformException expected) {
+      // Correct
+    }
+
+    WaveletOperation client = insert("b+one", "x", 2);
+    WaveletOperation server = new AddParticipant(CONTEXT, participant);
+    transformer.transform(client, server);
+    assertSame(client, transformer.getClientOp());
+    assertSame(server, transformer.getServerOp());
+  }
+
+  public void testSubmitIsUnchangedByContentOperation() throws TransformException {
+    WaveletOperation submit = new WaveletBlipOperation("b+one", new SubmitBlip(CONTEXT));
+    WaveletOperation mutation = insert("b+one", "x", 2);
+    transformer.transform(submit, mutation);
+    assertSame(submit, transformer.getClientOp());
+    assertSame(mutation, transformer.getServerOp());
+  }
+
+  /** Returns an operation inserting text at the start of a document. */
+  private static WaveletOperation insert(String blipId, String text, int documentSize) {
+    return new WaveletBlipOperation(blipId, new BlipContentOperation(CONTEXT,
+        new DocOpBuilder().characters(text).retain(documentSize).build()));
+  }
+}
@@ -0,0 +1,294 @@
+/**
+ * Copyright 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.waveprotocol.wave.model.util;
+
+import junit.framework.TestCase;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Tests for {@link OpenStringMap}, {@link OpenIntMap} and
+ * {@link OpenStringSet}, checking them against java.util collections.
+ */
+public class OpenAddressingCollectionsTest extends TestCase {
+
+  private static final int STEPS = 20000;
+
+  /** "Aa" and "BB" have the same hash code, and so do all their concatenations. */
+  private static String collidingKey(int i) {
+    StringBuilder b = new StringBuilder();
+    for (int bit = 0; bit < 6; bit++) {
+      b.append((i & (1 << bit)) != 0 ? "Aa" : "BB");
+    }
+    return b.append(i >> 6).toString();
+  }
+
+  private static <V> Map<String, V> contents(ReadableStringMap<V> map) {
+    final Map<String, V> result = new HashMap<String, V>();
+    map.each(new ReadableStringMap.ProcV<V>() {
+      @Override
+      public void apply(String key, V value) {
+        assertFalse("Key visited twice: " + key, result.containsKey(key));
+        result.put(key, value);
+      }
+    });
+    return result;
+  }
+
+  private static <V> Map<Integer, V> contents(ReadableIntMap<V> map) {
+    final Map<Integer, V> result = new HashMap<Integer, V>();
+    map.each(new ReadableIntMap.ProcV<V>() {
+      @Override
+      public void apply(int key, V value) {
+        assertFalse("Key visited twice: " + key, result.containsKey(key));
+        result.put(key, value);
+      }
+    });
+    return result;
+  }
+
+  private static Set<String> contents(ReadableStringSet set) {
+    final Set<String> result = new HashSet<String>();
+    set.each(new ReadableStringSet.Proc() {
+      @Override
+      public void apply(String element) {
+        assertTrue("Element visited twice: " + element, result.add(element));
+      }
+    });
+    return result;
+  }
+
+  public void testStringMapMatchesHashMap() {
+    Random random = new Random(1);
+    OpenStringMap<Integer> map = new OpenStringMap<Integer>();
+    Map<String, Integer> expected = new HashMap<String, Integer>();
+    for (int step = 0; step < STEPS; step++) {
+      String key = collidingKey(random.nextInt(300));
+      switch (random.nextInt(10)) {
+        case 0: case 1: case 2: case 3:
+          Integer value = random.nextInt(5) == 0 ? null : step;
+          map.put(key, value);
+          expected.put(key, value);
+          break;
+        case 4: case 5: case 6:
+          map.remove(key);
+          expected.remove(key);
+          break;
+        case 7:
+          final int threshold = random.nextInt(STEPS);
+          map.filter(new StringMap.EntryFilter<Integer>() {
+            @Override
+            public boolean apply(String k, Integer v) {
+              return v == null || v < threshold;
+            }
+          });
+          for (String k : new HashSet<String>(expected.keySet())) {
+            Integer v = expected.get(k);
+            if (v != null && v >= threshold) {
+              expected.remove(k);
+            }
+          }
+          break;
+        default:
+          assertEquals(expected.containsKey(key), map.containsKey(key));
+          assertEquals(expected.get(key), map.get(key));
+          assertEquals(expected.containsKey(key) ? expected.get(key) : Integer.valueOf(-1),
+              map.get(key, -1));
+      }
+      assertEquals(expected.size(), map.countEntries());
+      assertEquals(expected.isEmpty(), map.isEmpty());
+      if (step % 100 == 0) {
+        assertEquals(expected, contents(map));
+        assertEquals(expected.keySet(), contents(map.keySet()));
+      }
+    }
+    assertEquals(expected, contents(map));
+  }
+
+  public void testIntMapMatchesHashMap() {
+    Random random = new Random(2);
+    OpenIntMap<Integer> map = new OpenIntMap<Integer>();
+    Map<Integer, Integer> expected = new HashMap<Integer, Integer>();
+    for (int step = 0; step < STEPS; step++) {
+      // Multiples of 64 share the low bits of small tables; include negatives.
+      int key = (random.nextInt(300) - 100) * 64;
+      switch (random.nextInt(10)) {
+        case 0: case 1: case 2: case 3:
+          Integer value = random.nextInt(5) == 0 ? null : step;
+          map.put(key, value);
+          expected.put(key, value);
+          break;
+        case 4: case 5: case 6:
+          map.remove(key);
+          expected.remove(key);
+          break;
+        case 7:
+          final int threshold = random.nextInt(STEPS);
+          map.filter(new IntMap.EntryFilter<Integer>() {
+            @Override
+            public boolean apply(int k, Integer v) {
+              return v == null || v < threshold;
+            }
+          });
+          for (Integer k : new HashSet<Integer>(expected.keySet())) {
+            Integer v = expected.get(k);
+            if (v != null && v >= threshold) {
+              expected.remove(k);
+            }
+          }
+          break;
+        default:
+          assertEquals(expected.containsKey(key), map.containsKey(key));
+          assertEquals(expected.get(key), map.get(key));
+      }
+      assertEquals(expected.size(), map.countEntries());
+      if (step % 100 == 0) {
+        assertEquals(expected, contents(map));
+      }
+    }
+    assertEquals(expected, contents(map));
+  }
+
+  public void testStringSetMatchesHashSet() {
+    Random random = new Random(3);
+    OpenStringSet set = new OpenStringSet();
+    Set<String> expected = new HashSet<String>();
+    for (int step = 0; step < STEPS; step++) {
+      String element = collidingKey(random.nextInt(300));
+      switch (random.nextInt(10)) {
+        case 0: case 1: case 2: case 3:
+          set.add(element);
+          expected.add(element);
+          break;
+        case 4: case 5: case 6:
+          set.remove(element);
+          expected.remove(element);
+          break;
+        case 7:
+          final int modulus = 2 + random.nextInt(5);
+          set.filter(new StringSet.StringPredicate() {
+            @Override
+            public boolean apply(String e) {
+              return e.hashCode() % modulus != 0;
+            }
+          });
+          for (String e : new HashSet<String>(expected)) {
+            if (e.hashCode() % modulus == 0) {
+              expected.remove(e);
+            }
+          }
+          break;
+        default:
+          assertEquals(expected.contains(element), set.contains(element));
+      }
+      assertEquals(expected.size(), set.countEntries());
+      if (step % 100 == 0) {
+        assertEquals(expected, contents(set));
+        assertTrue(set.isSubsetOf(expected));
+      }
+    }
+    assertEquals(expected, contents(set));
+  }
+
+  public void testGetExistingOfMissingKeyFails() {
+    OpenStringMap<String> map = new OpenStringMap<String>();
+    map.put("a", null);
+    assertNull(map.getExisting("a"));
+    try {
+      map.getExisting("b");
+      fail("Expected IllegalStateException");
+    } catch (IllegalStateException expected) {
+    }
+  }
+
+  public void testNullKeysAreRejected() {
+    try {
+      new OpenStringMap<String>().put(null, "a");
+      fail("Expected NullPointerException");
+    } catch (NullPointerException expected) {
+    }
+    try {
+      new OpenStringSet().add(null);
+      fail("Expected NullPointerException");
+    } catch (NullPointerException expected) {
+    }
+  }
+
+  public void testClearAfterGrowing() {
+    OpenStringMap<Integer> map = new OpenStringMap<Integer>();
+    OpenIntMap<Integer> intMap = new OpenIntMap<Integer>();
+    OpenStringSet set = new OpenStringSet();
+    for (int i = 0; i < 100; i++) {
+      map.put("k" + i, i);
+      intMap.put(i, i);
+      set.add("k" + i);
+    }
+    map.clear();
+    intMap.clear();
+    set.clear();
+    assertTrue(map.isEmpty() && intMap.isEmpty() && set.isEmpty());
+    assertNull(map.someKey());
+    assertNull(set.someElement());
+    map.put("a", 1);
+    intMap.put(1, 1);
+    set.add("a");
+    assertEquals("{a=1}", map.toString());
+    assertEquals("{1=1}", intMap.toString());
+    assertEquals("[a]", set.toString());
+  }
+
+  public void testMixesWithAdaptedCollections() {
+    StringMap<Integer> open = new OpenStringMap<Integer>();
+    StringMap<Integer> adapted = CollectionUtils.adaptStringMap(new HashMap<String, Integer>());
+    open.put("a", 1);
+    adapted.put("b", 2);
+    open.putAll(adapted);
+    adapted.putAll(open);
+    assertEquals(contents(open), contents(adapted));
+
+    IntMap<Integer> openInts = new OpenIntMap<Integer>();
+    IntMap<Integer> adaptedInts = CollectionUtils.adaptIntMap(new HashMap<Integer, Integer>());
+    openInts.put(1, 1);
+    adaptedInts.put(2, 2);
+    openInts.putAll(adaptedInts);
+    adaptedInts.putAll(openInts);
+    assertEquals(contents(openInts), contents(adaptedInts));
+
+    StringSet openSet = new OpenStringSet();
+    StringSet adaptedSet = CollectionUtils.adaptStringSet(new HashSet<String>());
+    openSet.add("a");
+    adaptedSet.add("b");
+    openSet.addAll(adaptedSet);
+    adaptedSet.addAll(openSet);
+    assertEquals(contents(openSet), contents(adaptedSet));
+    adaptedSet.removeAll(openSet);
+    assertTrue(adaptedSet.isEmpty());
+    openSet.removeAll(openSet);
+    assertTrue(openSet.isEmpty());
+  }
+
+  public void testDefaultFactoryUsesOpenAddressing() {
+    assertTrue(CollectionUtils.createStringMap() instanceof OpenStringMap);
+    assertTrue(CollectionUtils.createIntMap() instanceof OpenIntMap);
+    assertTrue(CollectionUtils.createStringSet() instanceof OpenStringSet);
+  }
+}
@@ -0,0 +1,91 @@
+/**
+ * Copyright 2009 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.waveprotocol.wave.model.version;
+
+import junit.framework.TestCase;
+
+import org.waveprotocol.wave.model.id.IdURIEncoderDecoder;
+import org.waveprotocol.wave.model.id.WaveId;
+import org.waveprotocol.wave.model.id.WaveletId;
+import org.waveprotocol.wave.model.id.WaveletName;
+import org.waveprotocol.wave.util.escapers.jvm.JavaUrlCodec;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * Tests for {@link HashedVersionFactoryImpl}.
+ */
+public class HashedVersionFactoryImplTest extends TestCase {
+
+  private static final byte[] DELTA_BYTES = "some applied delta bytes".getBytes();
+
+  private HashedVersionFactoryImpl factory;
+  private HashedVersion versionZero;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    factory = new HashedVersionFactoryImpl(new IdURIEncoderDecoder(new JavaUrlCodec()));
+    versionZero = factory.createVersionZero(
+        WaveletName.of(WaveId.of("example.com", "w+1"), WaveletId.of("example.com", "conv+root")));
+  }
+
+  public void testHashIsTruncatedSha256OfHistoryHashAndDelta() throws Exception {
+    byte[] joined = new byte[versionZero.getHistoryHash().length + DELTA_BYTES.length];
+    System.arraycopy(versionZero.getHistoryHash(), 0, joined, 0,
+        versionZero.getHistoryHash().length);
+    System.arraycopy(DELTA_BYTES, 0, joined, versionZero.getHistoryHash().length,
+        DELTA_BYTES.length);
+    byte[] expected = Arrays.copyOf(MessageDigest.getInstance("SHA-256").digest(joined), 20);
+
+    HashedVersion version = factory.create(DELTA_BYTES, versionZero, 3);
+    assertEquals(3, version.getVersion());
+    assertTrue(Arrays.equals(expected, version.getHistoryHash()));
+  }
+
+  public void testBufferHashesLikeArray() {
+    HashedVersion fromArray = factory.create(DELTA_BYTES, versionZero, 3);
+    assertEquals(fromArray, factory.create(ByteBuffer.wrap(DELTA_BYTES), versionZero, 3));
+    assertEquals(fromArray,
+        factory.create(ByteBuffer.wrap(DELTA_BYTES).asReadOnlyBuffer(), versionZero, 3));
+    ByteBuffer direct = ByteBuffer.allocateDirect(DELTA_BYTES.length);
+    direct.put(DELTA_BYTES).flip();
+    assertEquals(fromArray, factory.create(direct, versionZero, 3));
+  }
+
+  public void testBufferPositionIsUnchanged() {
+    byte[] padded = new byte[DELTA_BYTES.length + 2];
+    System.arraycopy(DELTA_BYTES, 0, padded, 1, DELTA_BYTES.length);
+    ByteBuffer buffer = ByteBuffer.wrap(padded, 1, DELTA_BYTES.length).slice();
+
+    assertEquals(factory.create(DELTA_BYTES, versionZero, 3),
+        factory.create(buffer, versionZero, 3));
+    assertEquals(0, buffer.position());
+    assertEquals(DELTA_BYTES.length, buffer.remaining());
+  }
+
+  public void testHashesChain() {
+    HashedVersion first = factory.create(DELTA_BYTES, versionZero, 1);
+    HashedVersion second = factory.create(DELTA_BYTES, first, 1);
+    assertEquals(2, second.getVersion());
+    assertFalse(Arrays.equals(first.getHistoryHash(), second.getHistoryHash()));
+    assertEquals(second, factory.create(ByteBuffer.wrap(DELTA_BYTES), first, 1));
+  }
+}